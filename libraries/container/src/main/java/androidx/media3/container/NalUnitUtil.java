@@ -543,6 +543,9 @@ public final class NalUnitUtil {
           position += 3;
         }
       }
+      if (scratchEscapeCount == 0) {
+        return limit;
+      }
 
       int unescapedLength = limit - scratchEscapeCount;
       int escapedPosition = 0; // The position being read from.
@@ -1839,17 +1842,21 @@ public final class NalUnitUtil {
     int limit = endOffset - 1;
     // We're looking for the NAL unit start code prefix 0x000001. The value of i tracks the index of
     // the third byte.
-    for (int i = startOffset + 2; i < limit; i += 3) {
-      if ((data[i] & 0xFE) != 0) {
-        // There isn't a NAL prefix here, or at the next two positions. Do nothing and let the
-        // loop advance the index by three.
-      } else if (data[i - 2] == 0 && data[i - 1] == 0 && data[i] == 1) {
+    int i = startOffset + 2;
+    while (i < limit) {
+      byte value = data[i];
+      if ((value & 0xFE) != 0) {
+        // There isn't a NAL prefix here, or at the next two positions.
+        i += 3;
+      } else if (value == 0) {
+        // There isn't a NAL prefix here, but there might be at the next position.
+        i++;
+      } else if (data[i - 2] == 0 && data[i - 1] == 0) {
         clearPrefixFlags(prefixFlags);
         return i - 2;
       } else {
-        // There isn't a NAL prefix here, but there might be at the next position. We should
-        // only skip forward by one. The loop will skip forward by three, so subtract two here.
-        i -= 2;
+        // The value is 1, which can't be part of a NAL prefix at the next two positions either.
+        i += 3;
       }
     }
 
@@ -1953,9 +1960,20 @@ public final class NalUnitUtil {
   }
 
   private static int findNextUnescapeIndex(byte[] bytes, int offset, int limit) {
-    for (int i = offset; i < limit - 2; i++) {
-      if (bytes[i] == 0x00 && bytes[i + 1] == 0x00 && bytes[i + 2] == 0x03) {
-        return i;
+    // We're looking for the emulation prevention sequence 0x000003. The value of i tracks the index
+    // of the third byte. As in findNalUnit, only a zero byte can be part of a sequence ending at
+    // one of the next two positions, so any other byte lets the index advance by three.
+    int i = offset + 2;
+    while (i < limit) {
+      byte value = bytes[i];
+      if ((value & 0xFC) != 0) {
+        i += 3;
+      } else if (value == 0) {
+        i++;
+      } else if (value == 0x03 && bytes[i - 2] == 0 && bytes[i - 1] == 0) {
+        return i - 2;
+      } else {
+        i += 3;
       }
     }
     return limit;
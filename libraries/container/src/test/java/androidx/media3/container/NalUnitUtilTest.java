@@ -17,12 +17,15 @@ package androidx.media3.container;
 
 import static androidx.media3.test.utils.TestUtil.createByteArray;
 import static com.google.common.truth.Truth.assertThat;
+import static java.lang.Math.min;
 
 import androidx.media3.common.util.Util;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -179,6 +182,51 @@ public final class NalUnitUtilTest {
     assertPrefixFlagsCleared(prefixFlags);
   }
 
+  @Test
+  public void findNalUnit_randomData_findsSameNalUnitsAsByteByByteSearch() {
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < 100; i++) {
+      byte[] data = buildRandomDataWithZeroRuns(random, /* length= */ random.nextInt(1_000));
+      int startOffset = data.length == 0 ? 0 : random.nextInt(data.length);
+
+      int result = NalUnitUtil.findNalUnit(data, startOffset, data.length, new boolean[3]);
+
+      assertThat(result).isEqualTo(findNalUnitByteByByte(data, startOffset, data.length));
+    }
+  }
+
+  @Test
+  public void findNalUnit_randomDataInChunks_findsSameNalUnitsAsInWholeData() {
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < 100; i++) {
+      byte[] data = buildRandomDataWithZeroRuns(random, /* length= */ 1_000);
+      ImmutableList.Builder<Integer> expectedPositions = ImmutableList.builder();
+      int position = findNalUnitByteByByte(data, /* startOffset= */ 0, data.length);
+      while (position < data.length) {
+        expectedPositions.add(position);
+        position = findNalUnitByteByByte(data, position + 3, data.length);
+      }
+
+      ImmutableList.Builder<Integer> positions = ImmutableList.builder();
+      boolean[] prefixFlags = new boolean[3];
+      int chunkStart = 0;
+      while (chunkStart < data.length) {
+        int chunkEnd = min(data.length, chunkStart + 1 + random.nextInt(16));
+        int offset = chunkStart;
+        while (offset < chunkEnd) {
+          int nalUnitOffset = NalUnitUtil.findNalUnit(data, offset, chunkEnd, prefixFlags);
+          if (nalUnitOffset < chunkEnd) {
+            positions.add(nalUnitOffset);
+          }
+          offset = nalUnitOffset + 3;
+        }
+        chunkStart = chunkEnd;
+      }
+
+      assertThat(positions.build()).isEqualTo(expectedPositions.build());
+    }
+  }
+
   @Test
   public void parseSpsNalUnit() {
     NalUnitUtil.SpsData data =
@@ -402,6 +450,19 @@ public final class NalUnitUtilTest {
     assertUnescapeMatchesExpected("0000030200000300", "000002000000");
   }
 
+  @Test
+  public void unescape_randomData_matchesByteByByteUnescape() {
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < 100; i++) {
+      byte[] data = buildRandomDataWithZeroRuns(random, /* length= */ random.nextInt(1_000));
+      byte[] expectedOutput = unescapeByteByByte(data);
+
+      int count = NalUnitUtil.unescapeStream(data, data.length);
+
+      assertThat(Arrays.copyOf(data, count)).isEqualTo(expectedOutput);
+    }
+  }
+
   @Test
   public void discardToSps() {
     assertDiscardToSpsMatchesExpected("", "");
@@ -501,6 +562,52 @@ public final class NalUnitUtilTest {
     return data;
   }
 
+  /**
+   * Returns random data in which runs of zeros are frequently followed by a 1 or a 3, so that it
+   * contains NAL unit start codes, emulation prevention bytes and partial sequences of both.
+   */
+  private static byte[] buildRandomDataWithZeroRuns(Random random, int length) {
+    byte[] data = new byte[length];
+    random.nextBytes(data);
+    for (int i = 0; i < length; i++) {
+      if (random.nextInt(8) == 0) {
+        int zeroRunEnd = min(length, i + 1 + random.nextInt(4));
+        for (; i < zeroRunEnd; i++) {
+          data[i] = 0;
+        }
+        if (i < length) {
+          data[i] = (byte) (random.nextBoolean() ? 1 : 3);
+        }
+      }
+    }
+    return data;
+  }
+
+  /** Finds the first NAL unit start code that is followed by at least one byte. */
+  private static int findNalUnitByteByByte(byte[] data, int startOffset, int endOffset) {
+    for (int i = startOffset; i < endOffset - 3; i++) {
+      if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+        return i;
+      }
+    }
+    return endOffset;
+  }
+
+  private static byte[] unescapeByteByByte(byte[] data) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int i = 0;
+    while (i < data.length) {
+      if (i < data.length - 2 && data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 3) {
+        output.write(0);
+        output.write(0);
+        i += 3;
+      } else {
+        output.write(data[i++]);
+      }
+    }
+    return output.toByteArray();
+  }
+
   private static void assertPrefixFlagsCleared(boolean[] flags) {
     assertThat(flags[0] || flags[1] || flags[2]).isEqualTo(false);
   }
@@ -53,6 +53,9 @@ public final class VersionTable {
   /** Version of tables used for cache file metadata. */
   public static final int FEATURE_CACHE_FILE_METADATA = 2;
 
+  /** Version of tables used for cache file content digests. */
+  public static final int FEATURE_CACHE_FILE_DIGEST = 3;
+
   /** Version of tables used from external features. */
   public static final int FEATURE_EXTERNAL = 1000;
 
@@ -87,6 +90,7 @@ public final class VersionTable {
     FEATURE_OFFLINE,
     FEATURE_CACHE_CONTENT_METADATA,
     FEATURE_CACHE_FILE_METADATA,
+    FEATURE_CACHE_FILE_DIGEST,
     FEATURE_EXTERNAL
   })
   private @interface Feature {}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.C.LENGTH_UNSET;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import androidx.media3.common.util.Log;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the throughput of concurrent {@link SimpleCache} lookups with and without lock
+ * striping.
+ *
+ * <p>Results are written to logcat with the tag {@code SimpleCachePerfTest}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimpleCachePerformanceTest {
+
+  private static final String TAG = "SimpleCachePerfTest";
+  private static final int KEY_COUNT = 64;
+  private static final int SPANS_PER_KEY = 16;
+  private static final int SPAN_LENGTH = 1024;
+  private static final int OPERATIONS_PER_THREAD = 20_000;
+  private static final int[] THREAD_COUNTS = new int[] {1, 2, 4, 8};
+
+  @Rule public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void concurrentLookups_singleLockVersusStriped() throws Exception {
+    int availableProcessors = Runtime.getRuntime().availableProcessors();
+    for (int threadCount : THREAD_COUNTS) {
+      double singleLockOpsPerSecond =
+          measureOperationsPerSecond(
+              /* concurrencyLevel= */ SimpleCache.DEFAULT_CONCURRENCY_LEVEL, threadCount);
+      double stripedOpsPerSecond =
+          measureOperationsPerSecond(/* concurrencyLevel= */ 16, threadCount);
+      Log.i(
+          TAG,
+          "threads="
+              + threadCount
+              + " (cores="
+              + availableProcessors
+              + "), singleLock="
+              + (long) singleLockOpsPerSecond
+              + " ops/s, striped="
+              + (long) stripedOpsPerSecond
+              + " ops/s, speedup="
+              + (stripedOpsPerSecond / singleLockOpsPerSecond));
+      assertThat(stripedOpsPerSecond).isGreaterThan(0);
+    }
+  }
+
+  private double measureOperationsPerSecond(int concurrencyLevel, int threadCount)
+      throws Exception {
+    File cacheDir = tempFolder.newFolder();
+    StandaloneDatabaseProvider databaseProvider =
+        new StandaloneDatabaseProvider(ApplicationProvider.getApplicationContext());
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(
+                cacheDir, new LeastRecentlyUsedCacheEvictor(Long.MAX_VALUE), databaseProvider)
+            .setConcurrencyLevel(concurrencyLevel)
+            .build();
+    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    try {
+      for (int key = 0; key < KEY_COUNT; key++) {
+        populateKey(simpleCache, "key" + key);
+      }
+
+      CountDownLatch startLatch = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < threadCount; thread++) {
+        int firstKey = thread;
+        futures.add(
+            executorService.submit(
+                () -> {
+                  startLatch.await();
+                  for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    String key = "key" + ((firstKey + i) % KEY_COUNT);
+                    long position = (long) (i % SPANS_PER_KEY) * SPAN_LENGTH;
+                    simpleCache.getCachedLength(key, position, LENGTH_UNSET);
+                    simpleCache.startReadWrite(key, position, SPAN_LENGTH);
+                  }
+                  return null;
+                }));
+      }
+      long startTimeNs = System.nanoTime();
+      startLatch.countDown();
+      for (Future<?> future : futures) {
+        future.get(1, MINUTES);
+      }
+      long elapsedTimeNs = System.nanoTime() - startTimeNs;
+      return (2.0 * OPERATIONS_PER_THREAD * threadCount) / (elapsedTimeNs / 1_000_000_000.0);
+    } finally {
+      executorService.shutdown();
+      simpleCache.release();
+      SimpleCache.delete(cacheDir, databaseProvider);
+      databaseProvider.close();
+    }
+  }
+
+  private static void populateKey(SimpleCache simpleCache, String key) throws Exception {
+    CacheSpan holeSpan = simpleCache.startReadWrite(key, 0, LENGTH_UNSET);
+    for (int i = 0; i < SPANS_PER_KEY; i++) {
+      addCache(simpleCache, key, (long) i * SPAN_LENGTH);
+    }
+    simpleCache.releaseHoleSpan(holeSpan);
+  }
+
+  private static void addCache(SimpleCache simpleCache, String key, long position)
+      throws IOException {
+    File file = simpleCache.startFile(key, position, SPAN_LENGTH);
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[SPAN_LENGTH]);
+    }
+    simpleCache.commitFile(file, SPAN_LENGTH);
+  }
+}
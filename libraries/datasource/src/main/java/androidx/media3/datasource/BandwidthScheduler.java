@@ -0,0 +1,243 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.GuardedBy;
+import androidx.media3.common.C;
+import androidx.media3.common.PriorityTaskManager;
+import androidx.media3.common.util.UnstableApi;
+import java.io.InterruptedIOException;
+
+/**
+ * Schedules the bandwidth used by {@link PriorityDataSource} instances, as an alternative to
+ * blocking tasks while a task with a higher priority is registered to a {@link
+ * PriorityTaskManager}.
+ *
+ * <p>Data sources with a priority that isn't the highest registered to the {@link
+ * PriorityTaskManager} share a throttled rate, so that background tasks such as downloads continue
+ * to use the bandwidth left over by playback instead of stopping.
+ *
+ * <p>Background data sources, whose priority is lower than {@link C#PRIORITY_PLAYBACK}, such as the
+ * ones used by a {@code DownloadManager}, also share a maximum rate that applies whether or not a
+ * task with a higher priority is registered. Data sources with a priority of at least {@link
+ * C#PRIORITY_PLAYBACK} are never limited by this rate, so that it can't slow down playback.
+ *
+ * <p>Rates are enforced with token buckets that can accumulate the bytes of {@link
+ * #BURST_DURATION_MS} at the rate, so reads are also limited to this size.
+ *
+ * <p>This class is thread-safe.
+ */
+@UnstableApi
+public final class BandwidthScheduler {
+
+  /** A rate without a limit. */
+  public static final long RATE_UNLIMITED = Long.MAX_VALUE;
+
+  /** The default rate shared by data sources whose priority isn't the highest, in bytes/second. */
+  public static final long DEFAULT_THROTTLED_BYTES_PER_SECOND = 128 * 1024;
+
+  /** The duration for which a token bucket can accumulate bytes at its rate, in milliseconds. */
+  public static final long BURST_DURATION_MS = 100;
+
+  private static final int MIN_BURST_BYTES = 4096;
+
+  private final PriorityTaskManager priorityTaskManager;
+  private final long maxBackgroundBytesPerSecond;
+  private final long throttledBytesPerSecond;
+
+  @GuardedBy("this")
+  private final TokenBucket maxBackgroundRateBucket;
+
+  @GuardedBy("this")
+  private final TokenBucket throttledRateBucket;
+
+  /**
+   * Creates an instance without a maximum background rate, and with {@link
+   * #DEFAULT_THROTTLED_BYTES_PER_SECOND} for data sources whose priority isn't the highest.
+   *
+   * @param priorityTaskManager The {@link PriorityTaskManager} to which the tasks using the data
+   *     sources are registered.
+   */
+  public BandwidthScheduler(PriorityTaskManager priorityTaskManager) {
+    this(priorityTaskManager, RATE_UNLIMITED, DEFAULT_THROTTLED_BYTES_PER_SECOND);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param priorityTaskManager The {@link PriorityTaskManager} to which the tasks using the data
+   *     sources are registered.
+   * @param maxBackgroundBytesPerSecond The maximum rate shared by data sources whose priority is
+   *     lower than {@link C#PRIORITY_PLAYBACK}, in bytes per second, or {@link #RATE_UNLIMITED}.
+   * @param throttledBytesPerSecond The rate shared by data sources whose priority isn't the highest
+   *     registered to the {@link PriorityTaskManager}, in bytes per second, or {@link
+   *     #RATE_UNLIMITED}.
+   */
+  public BandwidthScheduler(
+      PriorityTaskManager priorityTaskManager,
+      long maxBackgroundBytesPerSecond,
+      long throttledBytesPerSecond) {
+    checkArgument(maxBackgroundBytesPerSecond > 0 && throttledBytesPerSecond > 0);
+    this.priorityTaskManager = priorityTaskManager;
+    this.maxBackgroundBytesPerSecond = maxBackgroundBytesPerSecond;
+    this.throttledBytesPerSecond = throttledBytesPerSecond;
+    long nowNs = System.nanoTime();
+    maxBackgroundRateBucket = new TokenBucket(maxBackgroundBytesPerSecond, nowNs);
+    throttledRateBucket = new TokenBucket(throttledBytesPerSecond, nowNs);
+  }
+
+  /** Returns the {@link PriorityTaskManager} that determines which data sources are throttled. */
+  public PriorityTaskManager getPriorityTaskManager() {
+    return priorityTaskManager;
+  }
+
+  /**
+   * Returns the maximum rate shared by data sources whose priority is lower than {@link
+   * C#PRIORITY_PLAYBACK}, in bytes per second.
+   */
+  public long getMaxBackgroundBytesPerSecond() {
+    return maxBackgroundBytesPerSecond;
+  }
+
+  /** Returns the rate shared by data sources whose priority isn't the highest, in bytes/second. */
+  public long getThrottledBytesPerSecond() {
+    return throttledBytesPerSecond;
+  }
+
+  /**
+   * Blocks until a data source with the given priority may read, and returns the maximum number of
+   * bytes that it may read. {@link #onBytesTransferred} must be called with the number of bytes
+   * read.
+   *
+   * @param priority The {@link C.Priority} of the data source.
+   * @param length The number of bytes that the data source wants to read.
+   * @return The number of bytes that the data source may read, which is at most {@code length}.
+   * @throws InterruptedIOException If the thread is interrupted while waiting.
+   */
+  /* package */ int awaitBandwidth(@C.Priority int priority, int length)
+      throws InterruptedIOException {
+    synchronized (this) {
+      while (true) {
+        boolean isThrottled = isThrottled(priority);
+        long nowNs = System.nanoTime();
+        maxBackgroundRateBucket.refill(nowNs);
+        throttledRateBucket.refill(nowNs);
+        long waitTimeNs = 0;
+        int maxLength = Integer.MAX_VALUE;
+        if (isBackground(priority)) {
+          waitTimeNs = maxBackgroundRateBucket.getWaitTimeNs();
+          maxLength = maxBackgroundRateBucket.capacity;
+        }
+        if (isThrottled) {
+          waitTimeNs = max(waitTimeNs, throttledRateBucket.getWaitTimeNs());
+          maxLength = min(maxLength, throttledRateBucket.capacity);
+        }
+        if (waitTimeNs == 0) {
+          return min(length, maxLength);
+        }
+        try {
+          // Changes to the tasks registered to the priority task manager aren't notified, so wake
+          // up periodically to take them into account.
+          wait(/* timeoutMillis= */ max(1, min(waitTimeNs / 1_000_000, BURST_DURATION_MS)));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+    }
+  }
+
+  /**
+   * Called when a data source has read bytes after {@link #awaitBandwidth}.
+   *
+   * @param priority The {@link C.Priority} of the data source.
+   * @param bytesTransferred The number of bytes read.
+   */
+  /* package */ void onBytesTransferred(@C.Priority int priority, int bytesTransferred) {
+    boolean isThrottled = isThrottled(priority);
+    synchronized (this) {
+      if (isBackground(priority)) {
+        maxBackgroundRateBucket.consume(bytesTransferred);
+      }
+      if (isThrottled) {
+        throttledRateBucket.consume(bytesTransferred);
+      }
+    }
+  }
+
+  private boolean isThrottled(@C.Priority int priority) {
+    return !priorityTaskManager.proceedNonBlocking(priority);
+  }
+
+  private static boolean isBackground(@C.Priority int priority) {
+    return priority < C.PRIORITY_PLAYBACK;
+  }
+
+  /**
+   * A token bucket whose tokens are bytes. Reads may overdraw the bucket, after which further reads
+   * wait until the debt is repaid.
+   */
+  private static final class TokenBucket {
+
+    public final int capacity;
+
+    private final long bytesPerSecond;
+    private long tokens;
+    private long lastRefillTimeNs;
+
+    public TokenBucket(long bytesPerSecond, long nowNs) {
+      this.bytesPerSecond = bytesPerSecond;
+      if (bytesPerSecond == RATE_UNLIMITED) {
+        capacity = Integer.MAX_VALUE;
+      } else {
+        long burstBytes = bytesPerSecond / 1000 * BURST_DURATION_MS;
+        capacity = (int) max(MIN_BURST_BYTES, min(Integer.MAX_VALUE, burstBytes));
+      }
+      tokens = capacity;
+      lastRefillTimeNs = nowNs;
+    }
+
+    public void refill(long nowNs) {
+      if (bytesPerSecond == RATE_UNLIMITED) {
+        return;
+      }
+      long elapsedNs = nowNs - lastRefillTimeNs;
+      long newTokens = (long) ((double) elapsedNs * bytesPerSecond / C.NANOS_PER_SECOND);
+      if (newTokens > 0) {
+        tokens = min(capacity, tokens + newTokens);
+        lastRefillTimeNs = nowNs;
+      }
+    }
+
+    public void consume(int bytes) {
+      if (bytesPerSecond != RATE_UNLIMITED) {
+        tokens -= bytes;
+      }
+    }
+
+    /** Returns the time until the bucket has a token, in nanoseconds. */
+    public long getWaitTimeNs() {
+      if (tokens > 0) {
+        return 0;
+      }
+      return max(1, (long) ((double) (1 - tokens) * C.NANOS_PER_SECOND / bytesPerSecond));
+    }
+  }
+}
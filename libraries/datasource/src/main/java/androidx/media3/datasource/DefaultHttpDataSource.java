@@ -76,6 +76,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     private boolean allowCrossProtocolRedirects;
     private boolean crossProtocolRedirectsForceOriginal;
     private boolean keepPostFor302Redirects;
+    @Nullable private HttpConnectionLimiter connectionLimiter;
 
     /** Creates an instance. */
     public Factory() {
@@ -217,6 +218,27 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
       return this;
     }
 
+    /**
+     * Sets the {@link HttpConnectionLimiter} that will be used.
+     *
+     * <p>Data sources that share a limiter limit the number of connections to each host, and don't
+     * disconnect a connection whose response body was read to the end, so that the platform can
+     * reuse its socket for a later request to the same host. If no limiter is set, connections are
+     * disconnected when a data source is closed.
+     *
+     * <p>The default is {@code null}.
+     *
+     * @param connectionLimiter The {@link HttpConnectionLimiter}, or {@code null} to not use a
+     *     limiter.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    @UnstableApi
+    public Factory setConnectionLimiter(@Nullable HttpConnectionLimiter connectionLimiter) {
+      this.connectionLimiter = connectionLimiter;
+      return this;
+    }
+
     @UnstableApi
     @Override
     public DefaultHttpDataSource createDataSource() {
@@ -229,7 +251,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
               crossProtocolRedirectsForceOriginal,
               defaultRequestProperties,
               contentTypePredicate,
-              keepPostFor302Redirects);
+              keepPostFor302Redirects,
+              connectionLimiter);
       if (transferListener != null) {
         dataSource.addTransferListener(transferListener);
       }
@@ -257,14 +280,18 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   private final RequestProperties requestProperties;
   @Nullable private final Predicate<String> contentTypePredicate;
   private final boolean keepPostFor302Redirects;
+  @Nullable private final HttpConnectionLimiter connectionLimiter;
 
   @Nullable private DataSpec dataSpec;
   @Nullable private HttpURLConnection connection;
+  @Nullable private HttpConnectionLimiter.Permit connectionPermit;
   @Nullable private InputStream inputStream;
   private boolean transferStarted;
   private int responseCode;
   private long bytesToRead;
   private long bytesRead;
+  private long responseBytesToRead;
+  private boolean responseEndReached;
 
   private DefaultHttpDataSource(
       @Nullable String userAgent,
@@ -274,7 +301,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
       boolean crossProtocolRedirectsForceOriginal,
       @Nullable RequestProperties defaultRequestProperties,
       @Nullable Predicate<String> contentTypePredicate,
-      boolean keepPostFor302Redirects) {
+      boolean keepPostFor302Redirects,
+      @Nullable HttpConnectionLimiter connectionLimiter) {
     super(/* isNetwork= */ true);
     this.userAgent = userAgent;
     this.connectTimeoutMillis = connectTimeoutMillis;
@@ -290,6 +318,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     this.contentTypePredicate = contentTypePredicate;
     this.requestProperties = new RequestProperties();
     this.keepPostFor302Redirects = keepPostFor302Redirects;
+    this.connectionLimiter = connectionLimiter;
   }
 
   @UnstableApi
@@ -356,6 +385,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     this.dataSpec = dataSpec;
     bytesRead = 0;
     bytesToRead = 0;
+    responseBytesToRead = C.LENGTH_UNSET;
+    responseEndReached = false;
     transferInitializing(dataSpec);
 
     String responseMessage;
@@ -417,16 +448,13 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     // Determine the length of the data to be read, after skipping.
     boolean isCompressed = isCompressed(connection);
     if (!isCompressed) {
-      if (dataSpec.length != C.LENGTH_UNSET) {
-        bytesToRead = dataSpec.length;
-      } else {
-        long contentLength =
-            HttpUtil.getContentLength(
-                connection.getHeaderField(HttpHeaders.CONTENT_LENGTH),
-                connection.getHeaderField(HttpHeaders.CONTENT_RANGE));
-        bytesToRead =
-            contentLength != C.LENGTH_UNSET ? (contentLength - bytesToSkip) : C.LENGTH_UNSET;
-      }
+      long contentLength =
+          HttpUtil.getContentLength(
+              connection.getHeaderField(HttpHeaders.CONTENT_LENGTH),
+              connection.getHeaderField(HttpHeaders.CONTENT_RANGE));
+      responseBytesToRead =
+          contentLength != C.LENGTH_UNSET ? (contentLength - bytesToSkip) : C.LENGTH_UNSET;
+      bytesToRead = dataSpec.length != C.LENGTH_UNSET ? dataSpec.length : responseBytesToRead;
     } else {
       // Gzip is enabled. If the server opts to use gzip then the content length in the response
       // will be that of the compressed data, which isn't what we want. Always use the dataSpec
@@ -483,11 +511,13 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   @UnstableApi
   @Override
   public void close() throws HttpDataSourceException {
+    boolean isConnectionReusable = false;
     try {
       @Nullable InputStream inputStream = this.inputStream;
       if (inputStream != null) {
         try {
           inputStream.close();
+          isConnectionReusable = isResponseBodyConsumed();
         } catch (IOException e) {
           throw new HttpDataSourceException(
               e,
@@ -498,7 +528,11 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
       }
     } finally {
       inputStream = null;
-      closeConnectionQuietly();
+      if (isConnectionReusable) {
+        releaseConnectionWithoutDisconnecting();
+      } else {
+        closeConnectionQuietly();
+      }
       if (transferStarted) {
         transferStarted = false;
         transferEnded();
@@ -557,6 +591,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
               || responseCode == HTTP_STATUS_TEMPORARY_REDIRECT
               || responseCode == HTTP_STATUS_PERMANENT_REDIRECT)) {
         connection.disconnect();
+        releaseConnectionPermit();
         url = handleRedirect(url, location, dataSpec);
       } else if (httpMethod == DataSpec.HTTP_METHOD_POST
           && (responseCode == HttpURLConnection.HTTP_MULT_CHOICE
@@ -564,6 +599,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
               || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
               || responseCode == HttpURLConnection.HTTP_SEE_OTHER)) {
         connection.disconnect();
+        releaseConnectionPermit();
         boolean shouldKeepPost =
             keepPostFor302Redirects && responseCode == HttpURLConnection.HTTP_MOVED_TEMP;
         if (!shouldKeepPost) {
@@ -607,6 +643,9 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
       boolean followRedirects,
       Map<String, String> requestParameters)
       throws IOException {
+    if (connectionLimiter != null) {
+      connectionPermit = connectionLimiter.acquire(url);
+    }
     HttpURLConnection connection = openConnection(url);
     connection.setConnectTimeout(connectTimeoutMillis);
     connection.setReadTimeout(readTimeoutMillis);
@@ -779,6 +818,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
 
     int read = castNonNull(inputStream).read(buffer, offset, readLength);
     if (read == -1) {
+      responseEndReached = true;
       return C.RESULT_END_OF_INPUT;
     }
 
@@ -787,6 +827,30 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     return read;
   }
 
+  /**
+   * Returns whether the whole response body has been read, so that the connection can be reused for
+   * another request.
+   */
+  private boolean isResponseBodyConsumed() {
+    if (connection == null || "close".equalsIgnoreCase(connection.getHeaderField("Connection"))) {
+      return false;
+    }
+    return responseEndReached
+        || (responseBytesToRead != C.LENGTH_UNSET && bytesRead == responseBytesToRead);
+  }
+
+  /**
+   * Releases the current connection without disconnecting it, so that its socket can be reused, if
+   * a {@link HttpConnectionLimiter} is used. Else closes it quietly.
+   */
+  private void releaseConnectionWithoutDisconnecting() {
+    if (connectionPermit != null) {
+      releaseConnectionPermit();
+    } else {
+      closeConnectionQuietly();
+    }
+  }
+
   /** Closes the current connection quietly, if there is one. */
   private void closeConnectionQuietly() {
     if (connection != null) {
@@ -796,6 +860,14 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
         Log.e(TAG, "Unexpected error while disconnecting", e);
       }
     }
+    releaseConnectionPermit();
+  }
+
+  private void releaseConnectionPermit() {
+    if (connectionPermit != null) {
+      checkNotNull(connectionLimiter).release(connectionPermit);
+      connectionPermit = null;
+    }
   }
 
   private static boolean isCompressed(HttpURLConnection connection) {
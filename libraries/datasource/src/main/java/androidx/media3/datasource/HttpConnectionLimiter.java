@@ -0,0 +1,213 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.util.UnstableApi;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of connections to each host that {@link DefaultHttpDataSource} instances use
+ * at the same time, set with {@link
+ * DefaultHttpDataSource.Factory#setConnectionLimiter(HttpConnectionLimiter)}.
+ *
+ * <p>Requests wait while {@code maxConnectionsPerHost} connections to the host are in use.
+ *
+ * <p>Data sources that share a limiter don't disconnect a connection when they're closed after
+ * reading the whole response body, so that the keep-alive cache of {@link HttpURLConnection} can
+ * reuse its socket for a later request to the same host. The sockets are owned by that cache, so
+ * the limiter can't tell whether a request reused one.
+ *
+ * <p>This class is thread-safe.
+ */
+@UnstableApi
+public final class HttpConnectionLimiter {
+
+  /** Statistics describing the use of an {@link HttpConnectionLimiter}. */
+  public static final class Stats {
+
+    /** The number of requests that have been made through the limiter. */
+    public final long requestCount;
+
+    /**
+     * The number of requests that waited for a connection because {@code maxConnectionsPerHost}
+     * connections to the host were in use.
+     */
+    public final long waitCount;
+
+    /** The number of connections that are currently in use. */
+    public final int activeConnectionCount;
+
+    /* package */ Stats(long requestCount, long waitCount, int activeConnectionCount) {
+      this.requestCount = requestCount;
+      this.waitCount = waitCount;
+      this.activeConnectionCount = activeConnectionCount;
+    }
+  }
+
+  /** The default maximum number of connections per host. */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+
+  private final int maxConnectionsPerHost;
+  @Nullable private final Runnable waitListener;
+
+  @GuardedBy("this")
+  private final Map<String, Host> hosts;
+
+  @GuardedBy("this")
+  private long requestCount;
+
+  @GuardedBy("this")
+  private long waitCount;
+
+  /** Creates an instance with default parameters. */
+  public HttpConnectionLimiter() {
+    this(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxConnectionsPerHost The maximum number of connections to each host that may be in use
+   *     at the same time.
+   */
+  public HttpConnectionLimiter(int maxConnectionsPerHost) {
+    this(maxConnectionsPerHost, /* waitListener= */ null);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxConnectionsPerHost The maximum number of connections to each host that may be in use
+   *     at the same time.
+   * @param waitListener A listener called on the requesting thread, while holding the lock of the
+   *     limiter, when a request starts waiting for a connection.
+   */
+  @VisibleForTesting
+  /* package */ HttpConnectionLimiter(int maxConnectionsPerHost, @Nullable Runnable waitListener) {
+    checkArgument(maxConnectionsPerHost > 0);
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.waitListener = waitListener;
+    hosts = new HashMap<>();
+  }
+
+  /** Returns {@link Stats} describing the use of the limiter. */
+  public synchronized Stats getStats() {
+    int activeConnectionCount = 0;
+    for (Host host : hosts.values()) {
+      activeConnectionCount += host.activeConnectionCount;
+    }
+    return new Stats(requestCount, waitCount, activeConnectionCount);
+  }
+
+  /**
+   * Acquires a permit to connect to the host of {@code url}, waiting while {@code
+   * maxConnectionsPerHost} connections to the host are in use.
+   *
+   * @param url The URL to connect to.
+   * @return A {@link Permit}, which must be passed to {@link #release} when the connection is no
+   *     longer in use.
+   * @throws InterruptedIOException If the thread is interrupted while waiting.
+   */
+  /* package */ synchronized Permit acquire(URL url) throws InterruptedIOException {
+    String hostKey = getHostKey(url);
+    Host host = getOrCreateHost(hostKey);
+    if (host.activeConnectionCount >= maxConnectionsPerHost) {
+      waitCount++;
+      // Prevent the host from being removed while waiting.
+      host.waitingRequestCount++;
+      try {
+        if (waitListener != null) {
+          waitListener.run();
+        }
+        while (host.activeConnectionCount >= maxConnectionsPerHost) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        host.waitingRequestCount--;
+        removeHostIfUnused(hostKey, host);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      host.waitingRequestCount--;
+    }
+    host.activeConnectionCount++;
+    requestCount++;
+    return new Permit(hostKey);
+  }
+
+  /**
+   * Releases a {@link Permit}.
+   *
+   * @param permit The {@link Permit}.
+   */
+  /* package */ synchronized void release(Permit permit) {
+    @Nullable Host host = hosts.get(permit.hostKey);
+    if (host == null) {
+      // Should never happen.
+      return;
+    }
+    host.activeConnectionCount--;
+    removeHostIfUnused(permit.hostKey, host);
+    notifyAll();
+  }
+
+  @GuardedBy("this")
+  private Host getOrCreateHost(String hostKey) {
+    @Nullable Host host = hosts.get(hostKey);
+    if (host == null) {
+      host = new Host();
+      hosts.put(hostKey, host);
+    }
+    return host;
+  }
+
+  @GuardedBy("this")
+  private void removeHostIfUnused(String hostKey, Host host) {
+    if (host.activeConnectionCount == 0 && host.waitingRequestCount == 0) {
+      hosts.remove(hostKey);
+    }
+  }
+
+  private static String getHostKey(URL url) {
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    return url.getProtocol() + "://" + url.getHost() + ":" + port;
+  }
+
+  /** A permit to use a connection, acquired from the limiter. */
+  /* package */ static final class Permit {
+
+    public final String hostKey;
+
+    private Permit(String hostKey) {
+      this.hostKey = hostKey;
+    }
+  }
+
+  private static final class Host {
+
+    public int activeConnectionCount;
+    public int waitingRequestCount;
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static androidx.media3.common.util.Assertions.checkState;
+import static androidx.media3.common.util.Util.castNonNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.FileDataSource.FileDataSourceException;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} for reading local files through memory mappings.
+ *
+ * <p>Files are mapped with {@link FileChannel#map}, and reads are served by copying directly from
+ * the mapped memory, which avoids a system call for every read. Mappings are shared between the
+ * instances created by the same {@link Factory}, which retains the most recently used mappings so
+ * that reopening the same file doesn't require it to be opened and mapped again. This is useful
+ * for reading cached spans through {@link androidx.media3.datasource.cache.CacheDataSource}, which
+ * opens the same span file repeatedly when a resource is read in several requests. To use it for
+ * this purpose, pass a {@link Factory} to {@link
+ * androidx.media3.datasource.cache.CacheDataSource.Factory#setCacheReadDataSourceFactory}.
+ *
+ * <p>A retained mapping is reused only if the length and modification time of the file are
+ * unchanged. Retained mappings of files that have since been deleted or changed, for example span
+ * files evicted from a cache, are released whenever an instance created by the same {@link
+ * Factory} is closed after reading a mapped file. Files larger than {@link
+ * Factory#setMaxMappedFileSize(long)} are read without being mapped.
+ */
+@UnstableApi
+public final class MappedFileDataSource extends BaseDataSource {
+
+  /** {@link DataSource.Factory} for {@link MappedFileDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    /** The default maximum number of mappings that are retained. */
+    public static final int DEFAULT_MAX_RETAINED_MAPPINGS = 8;
+
+    /** The default maximum size of files that are mapped, in bytes. */
+    public static final long DEFAULT_MAX_MAPPED_FILE_SIZE = 32 * 1024 * 1024;
+
+    @Nullable private TransferListener listener;
+    private int maxRetainedMappings;
+    private long maxMappedFileSize;
+    @Nullable private MappingCache mappingCache;
+
+    /** Creates an instance. */
+    public Factory() {
+      maxRetainedMappings = DEFAULT_MAX_RETAINED_MAPPINGS;
+      maxMappedFileSize = DEFAULT_MAX_MAPPED_FILE_SIZE;
+    }
+
+    /**
+     * Sets a {@link TransferListener} for {@link MappedFileDataSource} instances created by this
+     * factory.
+     *
+     * @param listener The {@link TransferListener}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setListener(@Nullable TransferListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of mappings that are retained for reuse by subsequent reads of the
+     * same file. The least recently used mapping is released when the limit is exceeded.
+     *
+     * <p>Must not be called after the first call to {@link #createDataSource()}.
+     *
+     * <p>The default value is {@link #DEFAULT_MAX_RETAINED_MAPPINGS}.
+     *
+     * @param maxRetainedMappings The maximum number of retained mappings, or 0 to map files for the
+     *     duration of each read only.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setMaxRetainedMappings(int maxRetainedMappings) {
+      checkState(mappingCache == null);
+      checkArgument(maxRetainedMappings >= 0);
+      this.maxRetainedMappings = maxRetainedMappings;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size of files that are mapped, in bytes. Larger files are read without being
+     * mapped.
+     *
+     * <p>The default value is {@link #DEFAULT_MAX_MAPPED_FILE_SIZE}.
+     *
+     * @param maxMappedFileSize The maximum size of files that are mapped, in bytes. Must not exceed
+     *     {@link Integer#MAX_VALUE}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setMaxMappedFileSize(long maxMappedFileSize) {
+      checkArgument(maxMappedFileSize >= 0 && maxMappedFileSize <= Integer.MAX_VALUE);
+      this.maxMappedFileSize = maxMappedFileSize;
+      return this;
+    }
+
+    @Override
+    public MappedFileDataSource createDataSource() {
+      if (mappingCache == null) {
+        mappingCache = new MappingCache(maxRetainedMappings);
+      }
+      MappedFileDataSource dataSource = new MappedFileDataSource(mappingCache, maxMappedFileSize);
+      if (listener != null) {
+        dataSource.addTransferListener(listener);
+      }
+      return dataSource;
+    }
+  }
+
+  private final MappingCache mappingCache;
+  private final long maxMappedFileSize;
+
+  @Nullable private Uri uri;
+  @Nullable private ByteBuffer mappedBuffer;
+  @Nullable private RandomAccessFile file;
+  private long bytesRemaining;
+  private boolean opened;
+
+  /** Creates an instance that doesn't share its mappings with any other instance. */
+  public MappedFileDataSource() {
+    this(
+        new MappingCache(/* maxSize= */ Factory.DEFAULT_MAX_RETAINED_MAPPINGS),
+        Factory.DEFAULT_MAX_MAPPED_FILE_SIZE);
+  }
+
+  private MappedFileDataSource(MappingCache mappingCache, long maxMappedFileSize) {
+    super(/* isNetwork= */ false);
+    this.mappingCache = mappingCache;
+    this.maxMappedFileSize = maxMappedFileSize;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws FileDataSourceException {
+    Uri uri = dataSpec.uri;
+    this.uri = uri;
+    transferInitializing(dataSpec);
+    String path = checkNotNull(uri.getPath());
+    long fileLength;
+    @Nullable MappedByteBuffer mapping = mappingCache.get(path);
+    if (mapping != null) {
+      fileLength = mapping.capacity();
+    } else {
+      RandomAccessFile file = FileDataSource.openLocalFile(uri);
+      try {
+        fileLength = file.length();
+        if (fileLength <= maxMappedFileSize) {
+          mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+          mappingCache.put(path, mapping);
+          // The mapping remains valid after the file is closed.
+          file.close();
+        } else {
+          this.file = file;
+        }
+      } catch (IOException e) {
+        closeQuietly(file);
+        throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+      }
+    }
+
+    bytesRemaining =
+        dataSpec.length == C.LENGTH_UNSET ? fileLength - dataSpec.position : dataSpec.length;
+    if (bytesRemaining < 0) {
+      closeQuietly(file);
+      file = null;
+      throw new FileDataSourceException(
+          /* message= */ null,
+          /* cause= */ null,
+          PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE);
+    }
+    try {
+      if (mapping != null) {
+        // Duplicate the shared mapping so that this instance has its own position.
+        ByteBuffer mappedBuffer = mapping.duplicate();
+        mappedBuffer.position((int) min(dataSpec.position, fileLength));
+        this.mappedBuffer = mappedBuffer;
+      } else {
+        castNonNull(file).seek(dataSpec.position);
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+    }
+
+    opened = true;
+    transferStarted(dataSpec);
+
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws FileDataSourceException {
+    if (length == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesToRead = (int) min(bytesRemaining, length);
+    int bytesRead;
+    if (mappedBuffer != null) {
+      if (!mappedBuffer.hasRemaining()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      bytesRead = min(bytesToRead, mappedBuffer.remaining());
+      mappedBuffer.get(buffer, offset, bytesRead);
+    } else {
+      try {
+        bytesRead = castNonNull(file).read(buffer, offset, bytesToRead);
+      } catch (IOException e) {
+        throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+      }
+    }
+
+    if (bytesRead > 0) {
+      bytesRemaining -= bytesRead;
+      bytesTransferred(bytesRead);
+    }
+
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return uri;
+  }
+
+  @Override
+  public void close() throws FileDataSourceException {
+    uri = null;
+    @Nullable ByteBuffer mappedBuffer = this.mappedBuffer;
+    this.mappedBuffer = null;
+    if (mappedBuffer != null) {
+      mappingCache.removeChangedMappings();
+    }
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+    } finally {
+      file = null;
+      if (opened) {
+        opened = false;
+        transferEnded();
+      }
+    }
+  }
+
+  /** Returns the number of mappings that are currently retained for reuse. */
+  @VisibleForTesting
+  /* package */ int getRetainedMappingCount() {
+    return mappingCache.size();
+  }
+
+  private static void closeQuietly(@Nullable RandomAccessFile file) {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        // Ignore.
+      }
+    }
+  }
+
+  /** A thread-safe LRU cache of file mappings, keyed by file path. */
+  private static final class MappingCache {
+
+    private final int maxSize;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<String, Mapping> mappings;
+
+    public MappingCache(int maxSize) {
+      this.maxSize = maxSize;
+      mappings =
+          new LinkedHashMap<String, Mapping>(
+              /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mapping> eldest) {
+              return size() > MappingCache.this.maxSize;
+            }
+          };
+    }
+
+    /**
+     * Returns the retained mapping of the file at {@code path}, or {@code null} if there isn't one
+     * or if the file has changed since it was mapped.
+     */
+    @Nullable
+    public MappedByteBuffer get(String path) {
+      @Nullable Mapping mapping;
+      synchronized (this) {
+        mapping = mappings.get(path);
+      }
+      if (mapping == null) {
+        return null;
+      }
+      if (hasChanged(path, mapping)) {
+        remove(path, mapping);
+        return null;
+      }
+      return mapping.buffer;
+    }
+
+    /**
+     * Releases the retained mappings of files that no longer exist or have changed since they were
+     * mapped.
+     */
+    public void removeChangedMappings() {
+      List<String> paths;
+      List<Mapping> retainedMappings;
+      synchronized (this) {
+        if (mappings.isEmpty()) {
+          return;
+        }
+        paths = new ArrayList<>(mappings.keySet());
+        retainedMappings = new ArrayList<>(mappings.values());
+      }
+      for (int i = 0; i < paths.size(); i++) {
+        String path = paths.get(i);
+        Mapping mapping = retainedMappings.get(i);
+        if (hasChanged(path, mapping)) {
+          remove(path, mapping);
+        }
+      }
+    }
+
+    /** Retains a mapping of the file at {@code path}. */
+    public void put(String path, MappedByteBuffer buffer) {
+      if (maxSize == 0) {
+        return;
+      }
+      Mapping mapping = new Mapping(buffer, buffer.capacity(), new File(path).lastModified());
+      synchronized (this) {
+        mappings.put(path, mapping);
+      }
+    }
+
+    public synchronized int size() {
+      return mappings.size();
+    }
+
+    private synchronized void remove(String path, Mapping mapping) {
+      if (mappings.get(path) == mapping) {
+        mappings.remove(path);
+      }
+    }
+
+    private static boolean hasChanged(String path, Mapping mapping) {
+      // A file that no longer exists has a length and modification time of 0.
+      File file = new File(path);
+      return file.lastModified() != mapping.lastModified || file.length() != mapping.length;
+    }
+  }
+
+  private static final class Mapping {
+
+    public final MappedByteBuffer buffer;
+    public final long length;
+    public final long lastModified;
+
+    public Mapping(MappedByteBuffer buffer, long length, long lastModified) {
+      this.buffer = buffer;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+}
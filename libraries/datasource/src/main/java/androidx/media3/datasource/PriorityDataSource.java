@@ -34,6 +34,11 @@ import java.util.Map;
  * there exists a higher priority task then {@link PriorityTaskManager.PriorityTooLowException} is
  * thrown.
  *
+ * <p>Alternatively, if a {@link BandwidthScheduler} is used, calls to {@link #read(byte[], int,
+ * int)} are allowed to proceed at a throttled rate while there exists a higher priority task. If
+ * the priority is lower than {@link C#PRIORITY_PLAYBACK}, reads are also limited by the scheduler's
+ * maximum background rate.
+ *
  * <p>Instances of this class are intended to be used as parts of (possibly larger) tasks that are
  * registered with the {@link PriorityTaskManager}, and hence do <em>not</em> register as tasks
  * themselves.
@@ -46,6 +51,7 @@ public final class PriorityDataSource implements DataSource {
 
     private final DataSource.Factory upstreamFactory;
     private final PriorityTaskManager priorityTaskManager;
+    @Nullable private final BandwidthScheduler bandwidthScheduler;
     private final @C.Priority int priority;
 
     /**
@@ -65,17 +71,42 @@ public final class PriorityDataSource implements DataSource {
       this.upstreamFactory = upstreamFactory;
       this.priorityTaskManager = priorityTaskManager;
       this.priority = priority;
+      bandwidthScheduler = null;
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param upstreamFactory A {@link DataSource.Factory} that provides upstream {@link DataSource
+     *     DataSources} for {@link PriorityDataSource} instances created by the factory.
+     * @param bandwidthScheduler The {@link BandwidthScheduler} that schedules the reads of {@link
+     *     PriorityDataSource} instances created by this factory, whose tasks are registered to its
+     *     {@link BandwidthScheduler#getPriorityTaskManager() PriorityTaskManager}.
+     * @param priority The {@link C.Priority} of the tasks using {@link PriorityDataSource}
+     *     instances created by this factory.
+     */
+    public Factory(
+        DataSource.Factory upstreamFactory,
+        BandwidthScheduler bandwidthScheduler,
+        @C.Priority int priority) {
+      this.upstreamFactory = upstreamFactory;
+      this.bandwidthScheduler = bandwidthScheduler;
+      this.priority = priority;
+      priorityTaskManager = bandwidthScheduler.getPriorityTaskManager();
     }
 
     @Override
     public PriorityDataSource createDataSource() {
-      return new PriorityDataSource(
-          upstreamFactory.createDataSource(), priorityTaskManager, priority);
+      return bandwidthScheduler != null
+          ? new PriorityDataSource(upstreamFactory.createDataSource(), bandwidthScheduler, priority)
+          : new PriorityDataSource(
+              upstreamFactory.createDataSource(), priorityTaskManager, priority);
     }
   }
 
   private final DataSource upstream;
   private final PriorityTaskManager priorityTaskManager;
+  @Nullable private final BandwidthScheduler bandwidthScheduler;
   private final @C.Priority int priority;
 
   /**
@@ -88,6 +119,22 @@ public final class PriorityDataSource implements DataSource {
     this.upstream = Assertions.checkNotNull(upstream);
     this.priorityTaskManager = Assertions.checkNotNull(priorityTaskManager);
     this.priority = priority;
+    bandwidthScheduler = null;
+  }
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param bandwidthScheduler The {@link BandwidthScheduler} that schedules reads, and to whose
+   *     {@link BandwidthScheduler#getPriorityTaskManager() PriorityTaskManager} the task is
+   *     registered.
+   * @param priority The {@link C.Priority} of the task.
+   */
+  public PriorityDataSource(
+      DataSource upstream, BandwidthScheduler bandwidthScheduler, @C.Priority int priority) {
+    this.upstream = Assertions.checkNotNull(upstream);
+    this.bandwidthScheduler = bandwidthScheduler;
+    this.priority = priority;
+    priorityTaskManager = bandwidthScheduler.getPriorityTaskManager();
   }
 
   @Override
@@ -98,14 +145,27 @@ public final class PriorityDataSource implements DataSource {
 
   @Override
   public long open(DataSpec dataSpec) throws IOException {
-    priorityTaskManager.proceedOrThrow(priority);
+    if (bandwidthScheduler == null) {
+      priorityTaskManager.proceedOrThrow(priority);
+    }
     return upstream.open(dataSpec);
   }
 
   @Override
   public int read(byte[] buffer, int offset, int length) throws IOException {
-    priorityTaskManager.proceedOrThrow(priority);
-    return upstream.read(buffer, offset, length);
+    if (bandwidthScheduler == null) {
+      priorityTaskManager.proceedOrThrow(priority);
+      return upstream.read(buffer, offset, length);
+    }
+    if (length == 0) {
+      return 0;
+    }
+    int bytesRead =
+        upstream.read(buffer, offset, bandwidthScheduler.awaitBandwidth(priority, length));
+    if (bytesRead > 0) {
+      bandwidthScheduler.onBytesTransferred(priority, bytesRead);
+    }
+    return bytesRead;
   }
 
   @Override
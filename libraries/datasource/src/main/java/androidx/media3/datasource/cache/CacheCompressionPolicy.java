@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSpec;
+import com.google.common.base.Ascii;
+
+/**
+ * Decides which resources are stored compressed by a {@link CacheDataSink}.
+ *
+ * <p>Compression is decided per cache key, when the first data of the key is written to the cache.
+ * The decision is recorded in the {@link ContentMetadata} of the key under {@link
+ * ContentMetadata#KEY_COMPRESSED}, and applies to all of its spans until the key is removed from
+ * the cache. Resources that already have uncompressed spans in the cache remain uncompressed.
+ */
+@UnstableApi
+public interface CacheCompressionPolicy {
+
+  /**
+   * A policy that compresses text-like resources, which typically compress well: DASH, HLS and
+   * SmoothStreaming manifests and playlists, subtitles, and XML and JSON documents. Resources are
+   * identified by the extension of their URI.
+   */
+  CacheCompressionPolicy TEXT =
+      dataSpec -> {
+        @C.ContentType int contentType = Util.inferContentType(dataSpec.uri);
+        if (contentType == C.CONTENT_TYPE_DASH
+            || contentType == C.CONTENT_TYPE_HLS
+            || contentType == C.CONTENT_TYPE_SS) {
+          return true;
+        }
+        @Nullable String path = dataSpec.uri.getPath();
+        if (path == null) {
+          return false;
+        }
+        path = Ascii.toLowerCase(path);
+        return path.endsWith(".vtt")
+            || path.endsWith(".webvtt")
+            || path.endsWith(".ttml")
+            || path.endsWith(".dfxp")
+            || path.endsWith(".srt")
+            || path.endsWith(".xml")
+            || path.endsWith(".json");
+      };
+
+  /**
+   * Returns whether the resource containing the data defined by a {@link DataSpec} should be
+   * stored compressed.
+   *
+   * @param dataSpec The {@link DataSpec} of the data that's about to be written to the cache.
+   * @return Whether the resource should be stored compressed.
+   */
+  boolean shouldCompress(DataSpec dataSpec);
+}
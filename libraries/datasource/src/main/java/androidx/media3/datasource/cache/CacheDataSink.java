@@ -18,7 +18,10 @@ package androidx.media3.datasource.cache;
 import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.common.util.Util.castNonNull;
 import static java.lang.Math.min;
+import static java.lang.annotation.ElementType.TYPE_USE;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
@@ -33,6 +36,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.zip.DeflaterOutputStream;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -41,6 +52,19 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * <p>If the {@link DataSpec} passed to {@link #open(DataSpec)} has the {@code length} field set to
  * {@link C#LENGTH_UNSET} and {@link DataSpec#FLAG_DONT_CACHE_IF_LENGTH_UNKNOWN} set, then {@link
  * #write(byte[], int, int)} calls are ignored.
+ *
+ * <p>By default data is written to cache files through a buffered {@link OutputStream}. If {@link
+ * Factory#setDirectBufferEnabled(boolean) direct buffers} are enabled, data is instead batched in
+ * a direct {@link ByteBuffer} that's borrowed from a pool shared by the sinks created by the same
+ * {@link Factory}, and written to the file through a {@link FileChannel}. This isn't zero-copy:
+ * each {@code byte[]} passed to {@link #write(byte[], int, int)} is still copied into the direct
+ * buffer. It only avoids the copies of the {@link OutputStream} path, through an intermediate heap
+ * buffer and a native buffer allocated by each write, which reduces memory traffic when caching
+ * high bitrate streams.
+ *
+ * <p>If a {@link Factory#setCompressionPolicy(CacheCompressionPolicy) compression policy} is set,
+ * resources it selects are stored compressed with DEFLATE. {@link CacheDataSource} decompresses
+ * them when they're read.
  */
 @UnstableApi
 public final class CacheDataSink implements DataSink {
@@ -51,11 +75,16 @@ public final class CacheDataSink implements DataSink {
     private @MonotonicNonNull Cache cache;
     private long fragmentSize;
     private int bufferSize;
+    private boolean directBufferEnabled;
+    private @SyncPolicy int syncPolicy;
+    @Nullable private CacheCompressionPolicy compressionPolicy;
+    @Nullable private DirectBufferPool directBufferPool;
 
     /** Creates an instance. */
     public Factory() {
       fragmentSize = CacheDataSink.DEFAULT_FRAGMENT_SIZE;
       bufferSize = CacheDataSink.DEFAULT_BUFFER_SIZE;
+      syncPolicy = SYNC_POLICY_NONE;
     }
 
     /**
@@ -106,9 +135,83 @@ public final class CacheDataSink implements DataSink {
       return this;
     }
 
+    /**
+     * Sets whether data is batched in pooled direct buffers and written through a {@link
+     * FileChannel}, rather than through a buffered {@link OutputStream}.
+     *
+     * <p>Each sink borrows a buffer of {@link #setBufferSize(int) the buffer size} from a pool
+     * that's shared by the sinks created by this factory, and returns it when it's closed. The
+     * buffer is written to the cache file whenever it's full, so the buffer size is the size of
+     * each write to the file. If the buffer size is zero or negative, {@link
+     * CacheDataSink#DEFAULT_BUFFER_SIZE} is used.
+     *
+     * <p>Written data is still copied into the direct buffer before it's written to the file. Only
+     * the copies made when writing through a {@link FileOutputStream} are avoided.
+     *
+     * <p>Must not be called after the first call to {@link #createDataSink()}.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * @param directBufferEnabled Whether data is written through pooled direct buffers.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setDirectBufferEnabled(boolean directBufferEnabled) {
+      Assertions.checkState(directBufferPool == null);
+      this.directBufferEnabled = directBufferEnabled;
+      return this;
+    }
+
+    /**
+     * Sets when the content of cache files is synchronized with the underlying storage device.
+     *
+     * <p>The default value is {@link #SYNC_POLICY_NONE}.
+     *
+     * @param syncPolicy The {@link SyncPolicy}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setSyncPolicy(@SyncPolicy int syncPolicy) {
+      this.syncPolicy = syncPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the {@link CacheCompressionPolicy} that decides which resources are stored compressed,
+     * or {@code null} to store all resources uncompressed. Resources that were stored compressed
+     * are always written compressed, regardless of the policy.
+     *
+     * <p>Compressed spans are smaller than their {@link CacheSpan#length}, so they take up less of
+     * the space budget of a {@link SimpleCache}. Reading part of a compressed span requires the
+     * span to be decompressed from its start, so compression is best suited to small resources
+     * that compress well, such as manifests, playlists and subtitles. Compressed spans are only
+     * retained across restarts by a {@link SimpleCache} that has a {@link
+     * androidx.media3.database.DatabaseProvider}.
+     *
+     * <p>The default value is {@code null}.
+     *
+     * @param compressionPolicy The {@link CacheCompressionPolicy}, or {@code null}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setCompressionPolicy(@Nullable CacheCompressionPolicy compressionPolicy) {
+      this.compressionPolicy = compressionPolicy;
+      return this;
+    }
+
     @Override
     public DataSink createDataSink() {
-      return new CacheDataSink(checkNotNull(cache), fragmentSize, bufferSize);
+      if (directBufferEnabled && directBufferPool == null) {
+        directBufferPool =
+            new DirectBufferPool(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+      }
+      return new CacheDataSink(
+          checkNotNull(cache),
+          fragmentSize,
+          bufferSize,
+          directBufferPool,
+          syncPolicy,
+          compressionPolicy);
     }
   }
 
@@ -120,6 +223,31 @@ public final class CacheDataSink implements DataSink {
     }
   }
 
+  /**
+   * Policies for synchronizing the content of cache files with the underlying storage device. One
+   * of {@link #SYNC_POLICY_NONE} or {@link #SYNC_POLICY_ON_COMMIT}.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(TYPE_USE)
+  @IntDef({SYNC_POLICY_NONE, SYNC_POLICY_ON_COMMIT})
+  public @interface SyncPolicy {}
+
+  /**
+   * Cache files aren't explicitly synchronized, and are written to the storage device when the
+   * operating system decides to do so. Cache files that were committed shortly before a power
+   * failure may be truncated or lost, in which case they're removed when the cache is next
+   * initialized.
+   */
+  public static final int SYNC_POLICY_NONE = 0;
+
+  /**
+   * Each cache file is synchronized with the storage device before it's committed to the cache.
+   * This guarantees that committed files survive a power failure, at the cost of blocking each
+   * commit until the data has been written.
+   */
+  public static final int SYNC_POLICY_ON_COMMIT = 1;
+
   /** Default {@code fragmentSize} recommended for caching use cases. */
   public static final long DEFAULT_FRAGMENT_SIZE = 5 * 1024 * 1024;
 
@@ -129,14 +257,25 @@ public final class CacheDataSink implements DataSink {
   private static final long MIN_RECOMMENDED_FRAGMENT_SIZE = 2 * 1024 * 1024;
   private static final String TAG = "CacheDataSink";
 
+  /** The maximum number of direct buffers retained by each pool for reuse. */
+  private static final int MAX_POOLED_DIRECT_BUFFERS = 4;
+
   private final Cache cache;
   private final long fragmentSize;
   private final int bufferSize;
+  @Nullable private final DirectBufferPool directBufferPool;
+  private final @SyncPolicy int syncPolicy;
+  @Nullable private final CacheCompressionPolicy compressionPolicy;
 
   @Nullable private DataSpec dataSpec;
   private long dataSpecFragmentSize;
+  private boolean dataSpecCompressed;
   @Nullable private File file;
   @Nullable private OutputStream outputStream;
+  @Nullable private FileOutputStream fileOutputStream;
+  @Nullable private FileChannel fileChannel;
+  @Nullable private DeflaterOutputStream deflaterOutputStream;
+  @Nullable private ByteBuffer directBuffer;
   private long outputStreamBytesWritten;
   private long dataSpecBytesWritten;
   private @MonotonicNonNull ReusableBufferedOutputStream bufferedOutputStream;
@@ -166,6 +305,22 @@ public final class CacheDataSink implements DataSink {
    *     value disables buffering.
    */
   public CacheDataSink(Cache cache, long fragmentSize, int bufferSize) {
+    this(
+        cache,
+        fragmentSize,
+        bufferSize,
+        /* directBufferPool= */ null,
+        /* syncPolicy= */ SYNC_POLICY_NONE,
+        /* compressionPolicy= */ null);
+  }
+
+  private CacheDataSink(
+      Cache cache,
+      long fragmentSize,
+      int bufferSize,
+      @Nullable DirectBufferPool directBufferPool,
+      @SyncPolicy int syncPolicy,
+      @Nullable CacheCompressionPolicy compressionPolicy) {
     Assertions.checkState(
         fragmentSize > 0 || fragmentSize == C.LENGTH_UNSET,
         "fragmentSize must be positive or C.LENGTH_UNSET.");
@@ -179,6 +334,9 @@ public final class CacheDataSink implements DataSink {
     this.cache = checkNotNull(cache);
     this.fragmentSize = fragmentSize == C.LENGTH_UNSET ? Long.MAX_VALUE : fragmentSize;
     this.bufferSize = bufferSize;
+    this.directBufferPool = directBufferPool;
+    this.syncPolicy = syncPolicy;
+    this.compressionPolicy = compressionPolicy;
   }
 
   @Override
@@ -194,6 +352,7 @@ public final class CacheDataSink implements DataSink {
         dataSpec.isFlagSet(DataSpec.FLAG_ALLOW_CACHE_FRAGMENTATION) ? fragmentSize : Long.MAX_VALUE;
     dataSpecBytesWritten = 0;
     try {
+      dataSpecCompressed = shouldCompress(dataSpec);
       openNextOutputStream(dataSpec);
     } catch (IOException e) {
       throw new CacheDataSinkException(e);
@@ -215,7 +374,11 @@ public final class CacheDataSink implements DataSink {
         }
         int bytesToWrite =
             (int) min(length - bytesWritten, dataSpecFragmentSize - outputStreamBytesWritten);
-        castNonNull(outputStream).write(buffer, offset + bytesWritten, bytesToWrite);
+        if (fileChannel != null) {
+          writeToChannel(buffer, offset + bytesWritten, bytesToWrite);
+        } else {
+          castNonNull(outputStream).write(buffer, offset + bytesWritten, bytesToWrite);
+        }
         bytesWritten += bytesToWrite;
         outputStreamBytesWritten += bytesToWrite;
         dataSpecBytesWritten += bytesToWrite;
@@ -234,6 +397,11 @@ public final class CacheDataSink implements DataSink {
       closeCurrentOutputStream();
     } catch (IOException e) {
       throw new CacheDataSinkException(e);
+    } finally {
+      if (directBuffer != null) {
+        checkNotNull(directBufferPool).release(directBuffer);
+        directBuffer = null;
+      }
     }
   }
 
@@ -246,6 +414,15 @@ public final class CacheDataSink implements DataSink {
         cache.startFile(
             castNonNull(dataSpec.key), dataSpec.position + dataSpecBytesWritten, length);
     FileOutputStream underlyingFileOutputStream = new FileOutputStream(file);
+    fileOutputStream = underlyingFileOutputStream;
+    outputStreamBytesWritten = 0;
+    if (directBufferPool != null && !dataSpecCompressed) {
+      fileChannel = underlyingFileOutputStream.getChannel();
+      if (directBuffer == null) {
+        directBuffer = directBufferPool.acquire();
+      }
+      return;
+    }
     if (bufferSize > 0) {
       if (bufferedOutputStream == null) {
         bufferedOutputStream =
@@ -257,21 +434,90 @@ public final class CacheDataSink implements DataSink {
     } else {
       outputStream = underlyingFileOutputStream;
     }
-    outputStreamBytesWritten = 0;
+    if (dataSpecCompressed) {
+      deflaterOutputStream = new DeflaterOutputStream(outputStream);
+      outputStream = deflaterOutputStream;
+    }
+  }
+
+  /**
+   * Returns whether the resource being written is stored compressed, marking it as compressed if
+   * the compression policy selects it and none of its data is cached yet.
+   */
+  private boolean shouldCompress(DataSpec dataSpec) throws CacheException {
+    String key = castNonNull(dataSpec.key);
+    if (ContentMetadata.isCompressed(cache.getContentMetadata(key))) {
+      return true;
+    }
+    if (compressionPolicy == null
+        || !compressionPolicy.shouldCompress(dataSpec)
+        || !cache.getCachedSpans(key).isEmpty()) {
+      return false;
+    }
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setCompressed(mutations, /* compressed= */ true);
+    cache.applyContentMetadataMutations(key, mutations);
+    return true;
+  }
+
+  /** Batches data in the direct buffer, writing it to the file channel whenever it's full. */
+  private void writeToChannel(byte[] buffer, int offset, int length) throws IOException {
+    ByteBuffer directBuffer = checkNotNull(this.directBuffer);
+    int bytesCopied = 0;
+    while (bytesCopied < length) {
+      int bytesToCopy = min(length - bytesCopied, directBuffer.remaining());
+      directBuffer.put(buffer, offset + bytesCopied, bytesToCopy);
+      bytesCopied += bytesToCopy;
+      if (!directBuffer.hasRemaining()) {
+        flushDirectBuffer();
+      }
+    }
+  }
+
+  private void flushDirectBuffer() throws IOException {
+    ByteBuffer directBuffer = checkNotNull(this.directBuffer);
+    FileChannel fileChannel = checkNotNull(this.fileChannel);
+    directBuffer.flip();
+    while (directBuffer.hasRemaining()) {
+      fileChannel.write(directBuffer);
+    }
+    directBuffer.clear();
   }
 
   private void closeCurrentOutputStream() throws IOException {
-    if (outputStream == null) {
+    if (fileOutputStream == null) {
       return;
     }
 
     boolean success = false;
     try {
-      outputStream.flush();
+      if (fileChannel != null) {
+        flushDirectBuffer();
+        if (syncPolicy == SYNC_POLICY_ON_COMMIT) {
+          fileChannel.force(/* metaData= */ false);
+        }
+      } else {
+        if (deflaterOutputStream != null) {
+          deflaterOutputStream.finish();
+        }
+        castNonNull(outputStream).flush();
+        if (syncPolicy == SYNC_POLICY_ON_COMMIT) {
+          fileOutputStream.getFD().sync();
+        }
+      }
       success = true;
     } finally {
-      Util.closeQuietly(outputStream);
+      if (fileChannel != null) {
+        // Discard any data that wasn't written.
+        checkNotNull(directBuffer).clear();
+        Util.closeQuietly(fileOutputStream);
+      } else {
+        Util.closeQuietly(outputStream);
+      }
       outputStream = null;
+      fileOutputStream = null;
+      fileChannel = null;
+      deflaterOutputStream = null;
       File fileToCommit = castNonNull(file);
       file = null;
       if (success) {
@@ -281,4 +527,37 @@ public final class CacheDataSink implements DataSink {
       }
     }
   }
+
+  /** A thread-safe pool of direct buffers of a fixed size. */
+  private static final class DirectBufferPool {
+
+    private final int bufferSize;
+
+    @GuardedBy("this")
+    private final ArrayDeque<ByteBuffer> buffers;
+
+    public DirectBufferPool(int bufferSize) {
+      this.bufferSize = bufferSize;
+      buffers = new ArrayDeque<>();
+    }
+
+    /** Returns a cleared buffer, which should be returned by calling {@link #release}. */
+    public ByteBuffer acquire() {
+      @Nullable ByteBuffer buffer;
+      synchronized (this) {
+        buffer = buffers.pollLast();
+      }
+      return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /** Returns a buffer to the pool. */
+    public void release(ByteBuffer buffer) {
+      buffer.clear();
+      synchronized (this) {
+        if (buffers.size() < MAX_POOLED_DIRECT_BUFFERS) {
+          buffers.addLast(buffer);
+        }
+      }
+    }
+  }
 }
@@ -32,11 +32,13 @@ import androidx.media3.common.PlaybackException;
 import androidx.media3.common.PriorityTaskManager;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.BandwidthScheduler;
 import androidx.media3.datasource.DataSink;
 import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSourceException;
 import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.FileDataSource;
+import androidx.media3.datasource.MappedFileDataSource;
 import androidx.media3.datasource.PlaceholderDataSource;
 import androidx.media3.datasource.PriorityDataSource;
 import androidx.media3.datasource.TeeDataSource;
@@ -72,6 +74,7 @@ public final class CacheDataSource implements DataSource {
     private boolean cacheIsReadOnly;
     @Nullable private DataSource.Factory upstreamDataSourceFactory;
     @Nullable private PriorityTaskManager upstreamPriorityTaskManager;
+    @Nullable private BandwidthScheduler upstreamBandwidthScheduler;
     private @C.Priority int upstreamPriority;
     private @CacheDataSource.Flags int flags;
     @Nullable private CacheDataSource.EventListener eventListener;
@@ -108,7 +111,9 @@ public final class CacheDataSource implements DataSource {
      * Sets the {@link DataSource.Factory} for {@link DataSource DataSources} for reading from the
      * cache.
      *
-     * <p>The default is a {@link FileDataSource.Factory} in its default configuration.
+     * <p>The default is a {@link FileDataSource.Factory} in its default configuration. A {@link
+     * MappedFileDataSource.Factory} can be used instead to serve cache hits from memory mappings of
+     * the cached span files.
      *
      * @param cacheReadDataSourceFactory The {@link DataSource.Factory} for reading from the cache.
      * @return This factory.
@@ -200,18 +205,53 @@ public final class CacheDataSource implements DataSource {
     }
 
     /**
-     * Returns the {@link PriorityTaskManager} that will bs used when requesting data from upstream,
+     * Sets an optional {@link BandwidthScheduler} to use when requesting data from upstream. Takes
+     * precedence over a {@link PriorityTaskManager} set by calling {@link
+     * #setUpstreamPriorityTaskManager}.
+     *
+     * <p>If set, reads from upstream are throttled instead of failing with a {@link
+     * PriorityTaskManager.PriorityTooLowException} while there exists a higher priority task
+     * registered to the scheduler's {@link BandwidthScheduler#getPriorityTaskManager()
+     * PriorityTaskManager}. As with {@link #setUpstreamPriorityTaskManager}, {@link
+     * CacheDataSource} does <em>not</em> register a task by itself.
+     *
+     * <p>The default is {@code null}.
+     *
+     * @param upstreamBandwidthScheduler The upstream {@link BandwidthScheduler}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setUpstreamBandwidthScheduler(
+        @Nullable BandwidthScheduler upstreamBandwidthScheduler) {
+      this.upstreamBandwidthScheduler = upstreamBandwidthScheduler;
+      return this;
+    }
+
+    /**
+     * Returns the {@link BandwidthScheduler} that will be used when requesting data from upstream,
      * or {@code null} if there is none.
      */
     @Nullable
+    public BandwidthScheduler getUpstreamBandwidthScheduler() {
+      return upstreamBandwidthScheduler;
+    }
+
+    /**
+     * Returns the {@link PriorityTaskManager} that will bs used when requesting data from upstream,
+     * or {@code null} if there is none. If a {@link BandwidthScheduler} is set, this is its {@link
+     * BandwidthScheduler#getPriorityTaskManager() PriorityTaskManager}.
+     */
+    @Nullable
     public PriorityTaskManager getUpstreamPriorityTaskManager() {
-      return upstreamPriorityTaskManager;
+      return upstreamBandwidthScheduler != null
+          ? upstreamBandwidthScheduler.getPriorityTaskManager()
+          : upstreamPriorityTaskManager;
     }
 
     /**
      * Sets the {@link C.Priority} to use when requesting data from upstream. The priority is only
-     * used if a {@link PriorityTaskManager} is set by calling {@link
-     * #setUpstreamPriorityTaskManager}.
+     * used if a {@link PriorityTaskManager} or {@link BandwidthScheduler} is set by calling {@link
+     * #setUpstreamPriorityTaskManager} or {@link #setUpstreamBandwidthScheduler}.
      *
      * <p>The default is {@link C#PRIORITY_PLAYBACK}.
      *
@@ -318,6 +358,7 @@ public final class CacheDataSource implements DataSource {
           cacheKeyFactory,
           flags,
           upstreamPriorityTaskManager,
+          upstreamBandwidthScheduler,
           upstreamPriority,
           eventListener);
     }
@@ -340,6 +381,65 @@ public final class CacheDataSource implements DataSource {
      * @param reason Reason cache is bypassed.
      */
     void onCacheIgnored(@CacheIgnoredReason int reason);
+
+    /**
+     * Called when a request is closed, with metrics describing how the data that was read was
+     * served. Called for every request that was opened, including requests that failed.
+     *
+     * <p>The default implementation does nothing.
+     *
+     * @param metrics The {@link RequestMetrics}.
+     */
+    default void onRequestCompleted(RequestMetrics metrics) {}
+  }
+
+  /** Metrics describing how the data read in a single request was served. */
+  public static final class RequestMetrics {
+
+    /** The cache key of the request. */
+    public final String key;
+
+    /** Whether the data that was read was served from the cache. */
+    public final @CacheResult int cacheResult;
+
+    /** The number of bytes that were read from the cache. */
+    public final long bytesReadFromCache;
+
+    /** The number of bytes that were read from upstream. */
+    public final long bytesReadFromUpstream;
+
+    /**
+     * The time from the request being opened until the first byte was read, in microseconds, or
+     * {@link C#TIME_UNSET} if no data was read.
+     */
+    public final long timeToFirstByteUs;
+
+    /** Whether the first byte was read from the cache. */
+    public final boolean isFirstByteFromCache;
+
+    /**
+     * The time spent waiting in {@link Cache#startReadWrite} and {@link
+     * Cache#startReadWriteNonBlocking}, in microseconds. This includes time spent waiting for
+     * data that was being written to the cache by another request.
+     */
+    public final long cacheLockWaitTimeUs;
+
+    /* package */ RequestMetrics(
+        String key,
+        @CacheResult int cacheResult,
+        long bytesReadFromCache,
+        long bytesReadFromUpstream,
+        long timeToFirstByteUs,
+        boolean isFirstByteFromCache,
+        long cacheLockWaitTimeUs) {
+      this.key = key;
+      this.cacheResult = cacheResult;
+      this.bytesReadFromCache = bytesReadFromCache;
+      this.bytesReadFromUpstream = bytesReadFromUpstream;
+      this.timeToFirstByteUs = timeToFirstByteUs;
+      this.isFirstByteFromCache = isFirstByteFromCache;
+      this.cacheLockWaitTimeUs = cacheLockWaitTimeUs;
+    }
   }
 
   /**
@@ -390,6 +490,25 @@ public final class CacheDataSource implements DataSource {
   @IntDef({CACHE_IGNORED_REASON_ERROR, CACHE_IGNORED_REASON_UNSET_LENGTH})
   public @interface CacheIgnoredReason {}
 
+  /**
+   * How the data read in a request was served. One of {@link #CACHE_RESULT_HIT}, {@link
+   * #CACHE_RESULT_PARTIAL_HIT} or {@link #CACHE_RESULT_MISS}.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(TYPE_USE)
+  @IntDef({CACHE_RESULT_HIT, CACHE_RESULT_PARTIAL_HIT, CACHE_RESULT_MISS})
+  public @interface CacheResult {}
+
+  /** All of the data that was read was served from the cache. */
+  public static final int CACHE_RESULT_HIT = 0;
+
+  /** Some, but not all, of the data that was read was served from the cache. */
+  public static final int CACHE_RESULT_PARTIAL_HIT = 1;
+
+  /** None of the data that was read was served from the cache, or no data was read. */
+  public static final int CACHE_RESULT_MISS = 2;
+
   /** Cache not ignored. */
   private static final int CACHE_NOT_IGNORED = -1;
 
@@ -404,6 +523,7 @@ public final class CacheDataSource implements DataSource {
 
   private final Cache cache;
   private final DataSource cacheReadDataSource;
+  private final DataSource compressedCacheReadDataSource;
   @Nullable private final DataSource cacheWriteDataSource;
   private final DataSource upstreamDataSource;
   private final CacheKeyFactory cacheKeyFactory;
@@ -425,6 +545,12 @@ public final class CacheDataSource implements DataSource {
   private boolean currentRequestIgnoresCache;
   private long totalCachedBytesRead;
   private long checkCachePosition;
+  private long requestOpenTimeNs;
+  private long requestFirstByteTimeNs;
+  private boolean requestFirstByteFromCache;
+  private long requestCachedBytesRead;
+  private long requestUpstreamBytesRead;
+  private long requestCacheLockWaitTimeNs;
 
   /**
    * Constructs an instance with default {@link DataSource} and {@link DataSink} instances for
@@ -522,6 +648,7 @@ public final class CacheDataSource implements DataSource {
         cacheKeyFactory,
         flags,
         /* upstreamPriorityTaskManager= */ null,
+        /* upstreamBandwidthScheduler= */ null,
         /* upstreamPriority= */ C.PRIORITY_PLAYBACK,
         eventListener);
   }
@@ -534,17 +661,23 @@ public final class CacheDataSource implements DataSource {
       @Nullable CacheKeyFactory cacheKeyFactory,
       @Flags int flags,
       @Nullable PriorityTaskManager upstreamPriorityTaskManager,
+      @Nullable BandwidthScheduler upstreamBandwidthScheduler,
       @C.Priority int upstreamPriority,
       @Nullable EventListener eventListener) {
     this.cache = cache;
     this.cacheReadDataSource = cacheReadDataSource;
+    compressedCacheReadDataSource = new InflaterDataSource(cacheReadDataSource);
     this.cacheKeyFactory = cacheKeyFactory != null ? cacheKeyFactory : CacheKeyFactory.DEFAULT;
     this.blockOnCache = (flags & FLAG_BLOCK_ON_CACHE) != 0;
     this.ignoreCacheOnError = (flags & FLAG_IGNORE_CACHE_ON_ERROR) != 0;
     this.ignoreCacheForUnsetLengthRequests =
         (flags & FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS) != 0;
     if (upstreamDataSource != null) {
-      if (upstreamPriorityTaskManager != null) {
+      if (upstreamBandwidthScheduler != null) {
+        upstreamDataSource =
+            new PriorityDataSource(
+                upstreamDataSource, upstreamBandwidthScheduler, upstreamPriority);
+      } else if (upstreamPriorityTaskManager != null) {
         upstreamDataSource =
             new PriorityDataSource(
                 upstreamDataSource, upstreamPriorityTaskManager, upstreamPriority);
@@ -584,6 +717,11 @@ public final class CacheDataSource implements DataSource {
       String key = cacheKeyFactory.buildCacheKey(dataSpec);
       DataSpec requestDataSpec = dataSpec.buildUpon().setKey(key).build();
       this.requestDataSpec = requestDataSpec;
+      requestOpenTimeNs = System.nanoTime();
+      requestFirstByteTimeNs = C.TIME_UNSET;
+      requestCachedBytesRead = 0;
+      requestUpstreamBytesRead = 0;
+      requestCacheLockWaitTimeNs = 0;
       actualUri = getRedirectedUriOrDefault(cache, key, /* defaultUri= */ requestDataSpec.uri);
       readPosition = dataSpec.position;
 
@@ -637,8 +775,15 @@ public final class CacheDataSource implements DataSource {
       }
       int bytesRead = checkNotNull(currentDataSource).read(buffer, offset, length);
       if (bytesRead != C.RESULT_END_OF_INPUT) {
+        if (requestFirstByteTimeNs == C.TIME_UNSET && bytesRead > 0) {
+          requestFirstByteTimeNs = System.nanoTime();
+          requestFirstByteFromCache = isReadingFromCache();
+        }
         if (isReadingFromCache()) {
           totalCachedBytesRead += bytesRead;
+          requestCachedBytesRead += bytesRead;
+        } else {
+          requestUpstreamBytesRead += bytesRead;
         }
         readPosition += bytesRead;
         currentDataSourceBytesRead += bytesRead;
@@ -680,6 +825,9 @@ public final class CacheDataSource implements DataSource {
 
   @Override
   public void close() throws IOException {
+    if (requestDataSpec != null) {
+      notifyRequestCompleted(castNonNull(requestDataSpec.key));
+    }
     requestDataSpec = null;
     actualUri = null;
     readPosition = 0;
@@ -712,15 +860,20 @@ public final class CacheDataSource implements DataSource {
     String key = castNonNull(requestDataSpec.key);
     if (currentRequestIgnoresCache) {
       nextSpan = null;
-    } else if (blockOnCache) {
+    } else {
+      long startTimeNs = System.nanoTime();
       try {
-        nextSpan = cache.startReadWrite(key, readPosition, bytesRemaining);
+        if (blockOnCache) {
+          nextSpan = cache.startReadWrite(key, readPosition, bytesRemaining);
+        } else {
+          nextSpan = cache.startReadWriteNonBlocking(key, readPosition, bytesRemaining);
+        }
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
         throw new InterruptedIOException();
+      } finally {
+        requestCacheLockWaitTimeNs += System.nanoTime() - startTimeNs;
       }
-    } else {
-      nextSpan = cache.startReadWriteNonBlocking(key, readPosition, bytesRemaining);
     }
 
     DataSpec nextDataSpec;
@@ -748,7 +901,10 @@ public final class CacheDataSource implements DataSource {
               .setPosition(positionInFile)
               .setLength(length)
               .build();
-      nextDataSource = cacheReadDataSource;
+      nextDataSource =
+          ContentMetadata.isCompressed(cache.getContentMetadata(key))
+              ? compressedCacheReadDataSource
+              : cacheReadDataSource;
     } else {
       // Data is not cached, and data is not locked, read from upstream with cache backing.
       long length;
@@ -840,7 +996,8 @@ public final class CacheDataSource implements DataSource {
   }
 
   private boolean isReadingFromCache() {
-    return currentDataSource == cacheReadDataSource;
+    return currentDataSource == cacheReadDataSource
+        || currentDataSource == compressedCacheReadDataSource;
   }
 
   private boolean isWritingToCache() {
@@ -885,6 +1042,33 @@ public final class CacheDataSource implements DataSource {
     }
   }
 
+  private void notifyRequestCompleted(String key) {
+    if (eventListener == null) {
+      return;
+    }
+    @CacheResult int cacheResult;
+    if (requestCachedBytesRead == 0) {
+      cacheResult = CACHE_RESULT_MISS;
+    } else if (requestUpstreamBytesRead == 0) {
+      cacheResult = CACHE_RESULT_HIT;
+    } else {
+      cacheResult = CACHE_RESULT_PARTIAL_HIT;
+    }
+    long timeToFirstByteUs =
+        requestFirstByteTimeNs == C.TIME_UNSET
+            ? C.TIME_UNSET
+            : (requestFirstByteTimeNs - requestOpenTimeNs) / 1000;
+    eventListener.onRequestCompleted(
+        new RequestMetrics(
+            key,
+            cacheResult,
+            requestCachedBytesRead,
+            requestUpstreamBytesRead,
+            timeToFirstByteUs,
+            requestFirstByteFromCache,
+            requestCacheLockWaitTimeNs / 1000));
+  }
+
   private void notifyBytesRead() {
     if (eventListener != null && totalCachedBytesRead > 0) {
       eventListener.onCachedBytesRead(cache.getCacheSpace(), totalCachedBytesRead);
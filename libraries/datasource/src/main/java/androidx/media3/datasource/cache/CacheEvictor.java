@@ -44,4 +44,22 @@ public interface CacheEvictor extends Cache.Listener {
    * @param length The length of the data being written, or {@link C#LENGTH_UNSET} if unknown.
    */
   void onStartFile(Cache cache, String key, long position, long length);
+
+  /**
+   * Called when the number of bytes that are included in the lengths of cached spans, but that
+   * don't take up storage, changes.
+   *
+   * <p>A cache may store identical content once, even if it belongs to several spans, and may store
+   * the content of spans compressed. The {@link CacheSpan#length} of a span is the length of its
+   * content regardless, so evictors that limit the space used by the cache should subtract the
+   * saved bytes from the total length of the spans.
+   *
+   * <p>The default implementation does nothing.
+   *
+   * @param cache The source of the event.
+   * @param savedBytes The number of bytes by which the total length of the spans in the cache
+   *     exceeds the storage they take up. May be negative if compressed content takes up more
+   *     storage than it would uncompressed.
+   */
+  default void onSavedBytesChanged(Cache cache, long savedBytes) {}
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.WorkerThread;
+import androidx.media3.database.DatabaseIOException;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.database.VersionTable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+
+/**
+ * Maintains an index of the digests of the content of cache files, which is used to store
+ * identical content once.
+ */
+/* package */ final class CacheFileDigestIndex {
+
+  private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "CacheFileDigest";
+  private static final int TABLE_VERSION = 1;
+
+  private static final String COLUMN_NAME = "name";
+  private static final String COLUMN_DIGEST = "digest";
+
+  private static final int COLUMN_INDEX_NAME = 0;
+  private static final int COLUMN_INDEX_DIGEST = 1;
+
+  private static final String WHERE_NAME_EQUALS = COLUMN_NAME + " = ?";
+
+  private static final String[] COLUMNS = new String[] {COLUMN_NAME, COLUMN_DIGEST};
+  private static final String TABLE_SCHEMA =
+      "(" + COLUMN_NAME + " TEXT PRIMARY KEY NOT NULL," + COLUMN_DIGEST + " TEXT NOT NULL)";
+
+  private final DatabaseProvider databaseProvider;
+
+  private @MonotonicNonNull String tableName;
+
+  /**
+   * Deletes index data for the specified cache.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param databaseProvider Provides the database in which the index is stored.
+   * @param uid The cache UID.
+   * @throws DatabaseIOException If an error occurs deleting the index data.
+   */
+  @WorkerThread
+  public static void delete(DatabaseProvider databaseProvider, long uid)
+      throws DatabaseIOException {
+    String hexUid = Long.toHexString(uid);
+    try {
+      SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+      writableDatabase.beginTransactionNonExclusive();
+      try {
+        VersionTable.removeVersion(
+            writableDatabase, VersionTable.FEATURE_CACHE_FILE_DIGEST, hexUid);
+        dropTable(writableDatabase, getTableName(hexUid));
+        writableDatabase.setTransactionSuccessful();
+      } finally {
+        writableDatabase.endTransaction();
+      }
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * @param databaseProvider Provides the database in which the index is stored.
+   */
+  public CacheFileDigestIndex(DatabaseProvider databaseProvider) {
+    this.databaseProvider = databaseProvider;
+  }
+
+  /**
+   * Initializes the index for the given cache UID.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param uid The cache UID.
+   * @throws DatabaseIOException If an error occurs initializing the index.
+   */
+  @WorkerThread
+  public void initialize(long uid) throws DatabaseIOException {
+    try {
+      String hexUid = Long.toHexString(uid);
+      tableName = getTableName(hexUid);
+      SQLiteDatabase readableDatabase = databaseProvider.getReadableDatabase();
+      int version =
+          VersionTable.getVersion(readableDatabase, VersionTable.FEATURE_CACHE_FILE_DIGEST, hexUid);
+      if (version != TABLE_VERSION) {
+        SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+        writableDatabase.beginTransactionNonExclusive();
+        try {
+          VersionTable.setVersion(
+              writableDatabase, VersionTable.FEATURE_CACHE_FILE_DIGEST, hexUid, TABLE_VERSION);
+          dropTable(writableDatabase, tableName);
+          writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
+          writableDatabase.setTransactionSuccessful();
+        } finally {
+          writableDatabase.endTransaction();
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Returns all file digests keyed by file name. The returned map is mutable and may be modified
+   * by the caller.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @return The file digests keyed by file name.
+   * @throws DatabaseIOException If an error occurs loading the digests.
+   */
+  @WorkerThread
+  public Map<String, String> getAll() throws DatabaseIOException {
+    try (Cursor cursor = getCursor()) {
+      Map<String, String> digests = new HashMap<>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        digests.put(
+            checkNotNull(cursor.getString(COLUMN_INDEX_NAME)),
+            checkNotNull(cursor.getString(COLUMN_INDEX_DIGEST)));
+      }
+      return digests;
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Sets the digest of a given file.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param name The name of the file.
+   * @param digest The digest of the content of the file.
+   * @throws DatabaseIOException If an error occurs setting the digest.
+   */
+  @WorkerThread
+  public void set(String name, String digest) throws DatabaseIOException {
+    ContentValues values = new ContentValues();
+    values.put(COLUMN_NAME, name);
+    values.put(COLUMN_DIGEST, digest);
+    try {
+      databaseProvider
+          .getWritableDatabase()
+          .replaceOrThrow(checkNotNull(tableName), /* nullColumnHack= */ null, values);
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Removes the digests of the given files.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param names The names of the files whose digests are to be removed.
+   * @throws DatabaseIOException If an error occurs removing the digests.
+   */
+  @WorkerThread
+  public void removeAll(Set<String> names) throws DatabaseIOException {
+    checkNotNull(tableName);
+    try {
+      SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+      writableDatabase.beginTransactionNonExclusive();
+      try {
+        for (String name : names) {
+          writableDatabase.delete(tableName, WHERE_NAME_EQUALS, new String[] {name});
+        }
+        writableDatabase.setTransactionSuccessful();
+      } finally {
+        writableDatabase.endTransaction();
+      }
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  private Cursor getCursor() {
+    return databaseProvider
+        .getReadableDatabase()
+        .query(
+            checkNotNull(tableName),
+            COLUMNS,
+            /* selection= */ null,
+            /* selectionArgs= */ null,
+            /* groupBy= */ null,
+            /* having= */ null,
+            /* orderBy= */ null);
+  }
+
+  private static void dropTable(SQLiteDatabase writableDatabase, String tableName) {
+    writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
+  }
+
+  private static String getTableName(String hexUid) {
+    return TABLE_PREFIX + hexUid;
+  }
+}
@@ -21,19 +21,26 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.util.Assertions;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.NullableType;
 import androidx.media3.database.DatabaseIOException;
 import androidx.media3.database.DatabaseProvider;
 import androidx.media3.database.VersionTable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /** Maintains an index of cache file metadata. */
 /* package */ final class CacheFileMetadataIndex {
 
+  private static final String TAG = "CacheFileMetadataIndex";
+
   private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "CacheFileMetadata";
   private static final int TABLE_VERSION = 1;
 
@@ -61,6 +68,18 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
           + " INTEGER NOT NULL)";
 
   private final DatabaseProvider databaseProvider;
+  @Nullable private final Executor writeExecutor;
+  private final Object writeLock;
+
+  /**
+   * Changes that haven't been written yet, keyed by file name. A null value indicates that the
+   * metadata for the file is to be removed. Only used if there's a write executor.
+   */
+  @GuardedBy("this")
+  private HashMap<String, @NullableType CacheFileMetadata> pendingWrites;
+
+  @GuardedBy("this")
+  private boolean writeScheduled;
 
   private @MonotonicNonNull String tableName;
 
@@ -98,7 +117,22 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * @param databaseProvider Provides the database in which the index is stored.
    */
   public CacheFileMetadataIndex(DatabaseProvider databaseProvider) {
+    this(databaseProvider, /* writeExecutor= */ null);
+  }
+
+  /**
+   * @param databaseProvider Provides the database in which the index is stored.
+   * @param writeExecutor The {@link Executor} on which changes are written, or {@code null} to
+   *     write changes synchronously. If non-null, changes made by {@link #set}, {@link #remove} and
+   *     {@link #removeAll} return without blocking, and changes that are pending at the same time
+   *     are coalesced and written in a single transaction.
+   */
+  public CacheFileMetadataIndex(
+      DatabaseProvider databaseProvider, @Nullable Executor writeExecutor) {
     this.databaseProvider = databaseProvider;
+    this.writeExecutor = writeExecutor;
+    writeLock = new Object();
+    pendingWrites = new HashMap<>();
   }
 
   /**
@@ -147,6 +181,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    */
   @WorkerThread
   public Map<String, CacheFileMetadata> getAll() throws DatabaseIOException {
+    flush();
     try (Cursor cursor = getCursor()) {
       Map<String, CacheFileMetadata> fileMetadata = new HashMap<>(cursor.getCount());
       while (cursor.moveToNext()) {
@@ -174,13 +209,16 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @WorkerThread
   public void set(String name, long length, long lastTouchTimestamp) throws DatabaseIOException {
     Assertions.checkNotNull(tableName);
+    if (writeExecutor != null) {
+      synchronized (this) {
+        pendingWrites.put(name, new CacheFileMetadata(length, lastTouchTimestamp));
+        maybeScheduleWrite(writeExecutor);
+      }
+      return;
+    }
     try {
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      ContentValues values = new ContentValues();
-      values.put(COLUMN_NAME, name);
-      values.put(COLUMN_LENGTH, length);
-      values.put(COLUMN_LAST_TOUCH_TIMESTAMP, lastTouchTimestamp);
-      writableDatabase.replaceOrThrow(tableName, /* nullColumnHack= */ null, values);
+      setRow(writableDatabase, name, length, lastTouchTimestamp);
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
@@ -197,6 +235,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @WorkerThread
   public void remove(String name) throws DatabaseIOException {
     Assertions.checkNotNull(tableName);
+    if (writeExecutor != null) {
+      synchronized (this) {
+        pendingWrites.put(name, null);
+        maybeScheduleWrite(writeExecutor);
+      }
+      return;
+    }
     try {
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
       writableDatabase.delete(tableName, WHERE_NAME_EQUALS, new String[] {name});
@@ -216,6 +261,15 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @WorkerThread
   public void removeAll(Set<String> names) throws DatabaseIOException {
     Assertions.checkNotNull(tableName);
+    if (writeExecutor != null) {
+      synchronized (this) {
+        for (String name : names) {
+          pendingWrites.put(name, null);
+        }
+        maybeScheduleWrite(writeExecutor);
+      }
+      return;
+    }
     try {
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
       writableDatabase.beginTransactionNonExclusive();
@@ -232,6 +286,89 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
   }
 
+  /**
+   * Blocks until all changes have been written. Does nothing if changes are written synchronously.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @throws DatabaseIOException If an error occurs writing the changes.
+   */
+  @WorkerThread
+  public void flush() throws DatabaseIOException {
+    if (writeExecutor != null) {
+      writePendingWrites();
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeScheduleWrite(Executor writeExecutor) {
+    if (!writeScheduled) {
+      writeScheduled = true;
+      writeExecutor.execute(this::writePendingWritesQuietly);
+    }
+  }
+
+  private void writePendingWritesQuietly() {
+    try {
+      writePendingWrites();
+    } catch (DatabaseIOException e) {
+      Log.e(TAG, "Writing file metadata failed", e);
+    }
+  }
+
+  private void writePendingWrites() throws DatabaseIOException {
+    synchronized (writeLock) {
+      HashMap<String, @NullableType CacheFileMetadata> writes;
+      synchronized (this) {
+        writeScheduled = false;
+        if (pendingWrites.isEmpty()) {
+          return;
+        }
+        writes = pendingWrites;
+        pendingWrites = new HashMap<>();
+      }
+      try {
+        SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+        writableDatabase.beginTransactionNonExclusive();
+        try {
+          for (Map.Entry<String, @NullableType CacheFileMetadata> write : writes.entrySet()) {
+            String name = write.getKey();
+            @Nullable CacheFileMetadata metadata = write.getValue();
+            if (metadata == null) {
+              writableDatabase.delete(
+                  checkNotNull(tableName), WHERE_NAME_EQUALS, new String[] {name});
+            } else {
+              setRow(writableDatabase, name, metadata.length, metadata.lastTouchTimestamp);
+            }
+          }
+          writableDatabase.setTransactionSuccessful();
+        } finally {
+          writableDatabase.endTransaction();
+        }
+      } catch (SQLException e) {
+        synchronized (this) {
+          // Restore the changes that haven't been superseded, so that they're written by the next
+          // attempt.
+          for (Map.Entry<String, @NullableType CacheFileMetadata> write : writes.entrySet()) {
+            if (!pendingWrites.containsKey(write.getKey())) {
+              pendingWrites.put(write.getKey(), write.getValue());
+            }
+          }
+        }
+        throw new DatabaseIOException(e);
+      }
+    }
+  }
+
+  private void setRow(
+      SQLiteDatabase writableDatabase, String name, long length, long lastTouchTimestamp) {
+    ContentValues values = new ContentValues();
+    values.put(COLUMN_NAME, name);
+    values.put(COLUMN_LENGTH, length);
+    values.put(COLUMN_LAST_TOUCH_TIMESTAMP, lastTouchTimestamp);
+    writableDatabase.replaceOrThrow(checkNotNull(tableName), /* nullColumnHack= */ null, values);
+  }
+
   private Cursor getCursor() {
     Assertions.checkNotNull(tableName);
     return databaseProvider
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link CacheDataSource.EventListener} that aggregates {@link CacheDataSource.RequestMetrics}
+ * by cache key prefix.
+ *
+ * <p>For each key prefix, the collector counts cache hits, partial hits and misses, and the bytes
+ * read from the cache and from upstream. It also records {@link Histogram histograms} of the time
+ * to first byte, separately for requests whose first byte was read from the cache and from
+ * upstream, and of the time spent waiting for the cache. Recording a request takes constant time
+ * and doesn't allocate once its key prefix has been seen, so a single collector can be shared by
+ * all of the {@link CacheDataSource} instances of an application.
+ *
+ * <p>To keep the number of aggregates bounded, requests whose key prefix is seen after {@link
+ * #DEFAULT_MAX_KEY_PREFIX_COUNT} other prefixes are aggregated under {@link #OTHER_KEY_PREFIX}.
+ */
+@UnstableApi
+public final class CacheMetricsCollector implements CacheDataSource.EventListener {
+
+  /** Maps cache keys to the prefixes by which their metrics are aggregated. */
+  public interface KeyPrefixFunction {
+
+    /**
+     * Returns the prefix by which the metrics of requests for {@code key} are aggregated. The
+     * default function returns the part of the key up to and including its last {@code '/'}, or
+     * the whole key if it doesn't contain one.
+     */
+    KeyPrefixFunction DEFAULT =
+        key -> {
+          int lastSlashIndex = key.lastIndexOf('/');
+          return lastSlashIndex == -1 ? key : key.substring(0, lastSlashIndex + 1);
+        };
+
+    /** Returns the prefix of {@code key}. */
+    String getKeyPrefix(String key);
+  }
+
+  /**
+   * A histogram of durations with logarithmic buckets.
+   *
+   * <p>Bucket 0 counts durations of zero microseconds, and bucket {@code i > 0} counts durations
+   * from {@code 2^(i - 1)} up to {@code 2^i - 1} microseconds.
+   */
+  public static final class Histogram {
+
+    /** The number of buckets. */
+    public static final int BUCKET_COUNT = 40;
+
+    private final long[] counts;
+    private long totalCount;
+    private long sumUs;
+
+    private Histogram() {
+      counts = new long[BUCKET_COUNT];
+    }
+
+    private Histogram(Histogram other) {
+      counts = Arrays.copyOf(other.counts, BUCKET_COUNT);
+      totalCount = other.totalCount;
+      sumUs = other.sumUs;
+    }
+
+    /** Returns the number of recorded durations. */
+    public long getCount() {
+      return totalCount;
+    }
+
+    /** Returns the number of recorded durations in the bucket with the given index. */
+    public long getCount(int bucketIndex) {
+      return counts[bucketIndex];
+    }
+
+    /** Returns the largest duration counted by the bucket with the given index, in microseconds. */
+    public static long getBucketUpperBoundUs(int bucketIndex) {
+      return bucketIndex == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucketIndex) - 1;
+    }
+
+    /** Returns the mean of the recorded durations in microseconds, or 0 if there are none. */
+    public long getMeanUs() {
+      return totalCount == 0 ? 0 : sumUs / totalCount;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the recorded durations, in microseconds,
+     * or {@link C#TIME_UNSET} if there are none.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     */
+    public long getPercentileUs(double percentile) {
+      checkArgument(percentile >= 0 && percentile <= 100);
+      if (totalCount == 0) {
+        return C.TIME_UNSET;
+      }
+      long rank = Math.max(1, (long) Math.ceil(totalCount * percentile / 100));
+      long count = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        count += counts[i];
+        if (count >= rank) {
+          return getBucketUpperBoundUs(i);
+        }
+      }
+      return getBucketUpperBoundUs(BUCKET_COUNT - 1);
+    }
+
+    private void add(long durationUs) {
+      durationUs = Math.max(0, durationUs);
+      int bucketIndex = Math.min(64 - Long.numberOfLeadingZeros(durationUs), BUCKET_COUNT - 1);
+      counts[bucketIndex]++;
+      totalCount++;
+      sumUs += durationUs;
+    }
+  }
+
+  /** Aggregated metrics of the requests for the keys with a common prefix. */
+  public static final class Metrics {
+
+    /** The number of requests. */
+    public final long requestCount;
+
+    /** The number of requests for which all of the data that was read was cached. */
+    public final long hitCount;
+
+    /** The number of requests for which some, but not all, of the data that was read was cached. */
+    public final long partialHitCount;
+
+    /** The number of requests for which none of the data that was read was cached. */
+    public final long missCount;
+
+    /** The number of bytes that were read from the cache. */
+    public final long bytesReadFromCache;
+
+    /** The number of bytes that were read from upstream. */
+    public final long bytesReadFromUpstream;
+
+    /** The time to first byte of requests whose first byte was read from the cache. */
+    public final Histogram cacheTimeToFirstByte;
+
+    /** The time to first byte of requests whose first byte was read from upstream. */
+    public final Histogram upstreamTimeToFirstByte;
+
+    /** The time spent waiting for the cache by each request. */
+    public final Histogram cacheLockWaitTime;
+
+    private Metrics(MutableMetrics metrics) {
+      requestCount = metrics.hitCount + metrics.partialHitCount + metrics.missCount;
+      hitCount = metrics.hitCount;
+      partialHitCount = metrics.partialHitCount;
+      missCount = metrics.missCount;
+      bytesReadFromCache = metrics.bytesReadFromCache;
+      bytesReadFromUpstream = metrics.bytesReadFromUpstream;
+      cacheTimeToFirstByte = new Histogram(metrics.cacheTimeToFirstByte);
+      upstreamTimeToFirstByte = new Histogram(metrics.upstreamTimeToFirstByte);
+      cacheLockWaitTime = new Histogram(metrics.cacheLockWaitTime);
+    }
+
+    /** Returns the fraction of the bytes that were read from the cache, or 0 if none were read. */
+    public double getByteHitRatio() {
+      long totalBytes = bytesReadFromCache + bytesReadFromUpstream;
+      return totalBytes == 0 ? 0 : (double) bytesReadFromCache / totalBytes;
+    }
+  }
+
+  /** The default maximum number of key prefixes for which metrics are aggregated separately. */
+  public static final int DEFAULT_MAX_KEY_PREFIX_COUNT = 64;
+
+  /** The prefix under which requests are aggregated once the maximum prefix count is reached. */
+  public static final String OTHER_KEY_PREFIX = "";
+
+  private final KeyPrefixFunction keyPrefixFunction;
+  private final int maxKeyPrefixCount;
+
+  @GuardedBy("this")
+  private final HashMap<String, MutableMetrics> metricsByKeyPrefix;
+
+  @GuardedBy("this")
+  private long cacheIgnoredCount;
+
+  /** Creates an instance that aggregates by {@link KeyPrefixFunction#DEFAULT}. */
+  public CacheMetricsCollector() {
+    this(KeyPrefixFunction.DEFAULT, DEFAULT_MAX_KEY_PREFIX_COUNT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param keyPrefixFunction The {@link KeyPrefixFunction} that maps keys to the prefixes by which
+   *     metrics are aggregated.
+   * @param maxKeyPrefixCount The maximum number of key prefixes for which metrics are aggregated
+   *     separately.
+   */
+  public CacheMetricsCollector(KeyPrefixFunction keyPrefixFunction, int maxKeyPrefixCount) {
+    checkArgument(maxKeyPrefixCount > 0);
+    this.keyPrefixFunction = keyPrefixFunction;
+    this.maxKeyPrefixCount = maxKeyPrefixCount;
+    metricsByKeyPrefix = new HashMap<>();
+  }
+
+  /** Returns a snapshot of the aggregated metrics, keyed by key prefix. */
+  public synchronized ImmutableMap<String, Metrics> getMetrics() {
+    ImmutableMap.Builder<String, Metrics> metrics = ImmutableMap.builder();
+    for (Map.Entry<String, MutableMetrics> entry : metricsByKeyPrefix.entrySet()) {
+      metrics.put(entry.getKey(), new Metrics(entry.getValue()));
+    }
+    return metrics.buildOrThrow();
+  }
+
+  /** Returns the number of requests that ignored the cache. */
+  public synchronized long getCacheIgnoredCount() {
+    return cacheIgnoredCount;
+  }
+
+  /** Discards all of the aggregated metrics. */
+  public synchronized void reset() {
+    metricsByKeyPrefix.clear();
+    cacheIgnoredCount = 0;
+  }
+
+  @Override
+  public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+    // Do nothing. Bytes read are reported by onRequestCompleted.
+  }
+
+  @Override
+  public synchronized void onCacheIgnored(@CacheDataSource.CacheIgnoredReason int reason) {
+    cacheIgnoredCount++;
+  }
+
+  @Override
+  public void onRequestCompleted(CacheDataSource.RequestMetrics requestMetrics) {
+    String keyPrefix = keyPrefixFunction.getKeyPrefix(requestMetrics.key);
+    synchronized (this) {
+      getOrAddMetrics(keyPrefix).add(requestMetrics);
+    }
+  }
+
+  @GuardedBy("this")
+  private MutableMetrics getOrAddMetrics(String keyPrefix) {
+    @Nullable MutableMetrics metrics = metricsByKeyPrefix.get(keyPrefix);
+    if (metrics != null) {
+      return metrics;
+    }
+    if (metricsByKeyPrefix.size() >= maxKeyPrefixCount) {
+      keyPrefix = OTHER_KEY_PREFIX;
+      metrics = metricsByKeyPrefix.get(keyPrefix);
+      if (metrics != null) {
+        return metrics;
+      }
+    }
+    metrics = new MutableMetrics();
+    metricsByKeyPrefix.put(keyPrefix, metrics);
+    return metrics;
+  }
+
+  private static final class MutableMetrics {
+
+    public final Histogram cacheTimeToFirstByte;
+    public final Histogram upstreamTimeToFirstByte;
+    public final Histogram cacheLockWaitTime;
+
+    public long hitCount;
+    public long partialHitCount;
+    public long missCount;
+    public long bytesReadFromCache;
+    public long bytesReadFromUpstream;
+
+    public MutableMetrics() {
+      cacheTimeToFirstByte = new Histogram();
+      upstreamTimeToFirstByte = new Histogram();
+      cacheLockWaitTime = new Histogram();
+    }
+
+    public void add(CacheDataSource.RequestMetrics requestMetrics) {
+      switch (requestMetrics.cacheResult) {
+        case CacheDataSource.CACHE_RESULT_HIT:
+          hitCount++;
+          break;
+        case CacheDataSource.CACHE_RESULT_PARTIAL_HIT:
+          partialHitCount++;
+          break;
+        case CacheDataSource.CACHE_RESULT_MISS:
+        default:
+          missCount++;
+          break;
+      }
+      bytesReadFromCache += requestMetrics.bytesReadFromCache;
+      bytesReadFromUpstream += requestMetrics.bytesReadFromUpstream;
+      if (requestMetrics.timeToFirstByteUs != C.TIME_UNSET) {
+        if (requestMetrics.isFirstByteFromCache) {
+          cacheTimeToFirstByte.add(requestMetrics.timeToFirstByteUs);
+        } else {
+          upstreamTimeToFirstByte.add(requestMetrics.timeToFirstByteUs);
+        }
+      }
+      cacheLockWaitTime.add(requestMetrics.cacheLockWaitTimeUs);
+    }
+  }
+}
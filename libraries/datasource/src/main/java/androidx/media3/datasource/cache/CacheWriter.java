@@ -15,16 +15,28 @@
  */
 package androidx.media3.datasource.cache;
 
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.C;
 import androidx.media3.common.PriorityTaskManager;
 import androidx.media3.common.PriorityTaskManager.PriorityTooLowException;
+import androidx.media3.common.util.RunnableFutureTask;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSourceUtil;
 import androidx.media3.datasource.DataSpec;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /** Caching related utility methods. */
 @UnstableApi
@@ -48,15 +60,30 @@ public final class CacheWriter {
   /** Default buffer size to be used while caching. */
   public static final int DEFAULT_BUFFER_SIZE_BYTES = 128 * 1024;
 
+  /** Default maximum length of each request made when caching in parallel, in bytes. */
+  public static final long DEFAULT_PARALLEL_CHUNK_LENGTH_BYTES = 8 * 1024 * 1024;
+
   private final CacheDataSource dataSource;
   private final Cache cache;
   private final DataSpec dataSpec;
   private final String cacheKey;
   private final byte[] temporaryBuffer;
   @Nullable private final ProgressListener progressListener;
+  @Nullable private final CacheDataSource.Factory parallelDataSourceFactory;
+  @Nullable private final Executor parallelExecutor;
+  private final int maxParallelRequests;
+  private final long parallelChunkLength;
+
+  /**
+   * The chunk tasks that are currently active. Modifications, as well as the iteration on the
+   * {@link #cancel} thread, must be synchronized on the instance.
+   */
+  private final ArrayList<ChunkTask> activeChunkTasks;
 
   private long nextPosition;
-  private long endPosition;
+  private volatile long endPosition;
+
+  @GuardedBy("this")
   private long bytesCached;
 
   private volatile boolean isCanceled;
@@ -81,6 +108,57 @@ public final class CacheWriter {
     this.progressListener = progressListener;
     cacheKey = dataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
     nextPosition = dataSpec.position;
+    parallelDataSourceFactory = null;
+    parallelExecutor = null;
+    maxParallelRequests = 1;
+    parallelChunkLength = C.LENGTH_UNSET;
+    activeChunkTasks = new ArrayList<>();
+  }
+
+  /**
+   * Creates an instance that caches uncached ranges of the requested data in parallel.
+   *
+   * <p>The uncached ranges are split into chunks of at most {@code chunkLength} bytes, which are
+   * requested concurrently on the {@code executor}, each through its own {@link CacheDataSource}.
+   * Chunks are locked in the cache in the same way as for any other write, so other writers of the
+   * same content block on, rather than duplicate, the chunks that are being cached. If the length
+   * of the requested data isn't known then the first uncached range is requested without a length
+   * to resolve it, and the request is closed after {@code chunkLength} bytes. If the length can't
+   * be resolved, the data is cached sequentially.
+   *
+   * <p>{@link #cache()} blocks until all chunks have been cached. It must not be called on a thread
+   * of the {@code executor}, unless the executor has enough threads to run the requests as well.
+   *
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
+   *     data will be written. Data sources are created with {@link
+   *     CacheDataSource.Factory#createDataSourceForDownloading()}.
+   * @param dataSpec Defines the data to be written.
+   * @param progressListener An optional progress listener. It may be called on the threads of the
+   *     {@code executor}, but calls are never concurrent.
+   * @param executor The {@link Executor} on which requests for chunks are made.
+   * @param maxParallelRequests The maximum number of chunks that are requested concurrently.
+   * @param chunkLength The maximum length of each chunk, in bytes.
+   */
+  public CacheWriter(
+      CacheDataSource.Factory cacheDataSourceFactory,
+      DataSpec dataSpec,
+      @Nullable ProgressListener progressListener,
+      Executor executor,
+      int maxParallelRequests,
+      long chunkLength) {
+    checkArgument(maxParallelRequests > 0 && chunkLength > 0);
+    this.dataSource = cacheDataSourceFactory.createDataSourceForDownloading();
+    this.cache = dataSource.getCache();
+    this.dataSpec = dataSpec;
+    this.temporaryBuffer = new byte[DEFAULT_BUFFER_SIZE_BYTES];
+    this.progressListener = progressListener;
+    this.parallelDataSourceFactory = cacheDataSourceFactory;
+    this.parallelExecutor = executor;
+    this.maxParallelRequests = maxParallelRequests;
+    this.parallelChunkLength = chunkLength;
+    cacheKey = dataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
+    nextPosition = dataSpec.position;
+    activeChunkTasks = new ArrayList<>();
   }
 
   /**
@@ -89,7 +167,12 @@ public final class CacheWriter {
    * operation has been canceled.
    */
   public void cancel() {
-    isCanceled = true;
+    synchronized (activeChunkTasks) {
+      isCanceled = true;
+      for (int i = 0; i < activeChunkTasks.size(); i++) {
+        activeChunkTasks.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+    }
   }
 
   /**
@@ -111,19 +194,26 @@ public final class CacheWriter {
   public void cache() throws IOException {
     throwIfCanceled();
 
-    bytesCached = cache.getCachedBytes(cacheKey, dataSpec.position, dataSpec.length);
-    if (dataSpec.length != C.LENGTH_UNSET) {
-      endPosition = dataSpec.position + dataSpec.length;
-    } else {
-      long contentLength = ContentMetadata.getContentLength(cache.getContentMetadata(cacheKey));
-      endPosition = contentLength == C.LENGTH_UNSET ? C.INDEX_UNSET : contentLength;
-    }
-    if (progressListener != null) {
-      progressListener.onProgress(getLength(), bytesCached, /* newBytesCached= */ 0);
+    synchronized (this) {
+      bytesCached = cache.getCachedBytes(cacheKey, dataSpec.position, dataSpec.length);
+      if (dataSpec.length != C.LENGTH_UNSET) {
+        endPosition = dataSpec.position + dataSpec.length;
+      } else {
+        long contentLength = ContentMetadata.getContentLength(cache.getContentMetadata(cacheKey));
+        endPosition = contentLength == C.LENGTH_UNSET ? C.INDEX_UNSET : contentLength;
+      }
+      if (progressListener != null) {
+        progressListener.onProgress(getLength(), bytesCached, /* newBytesCached= */ 0);
+      }
     }
 
+    boolean cacheInParallel = parallelExecutor != null;
     while (endPosition == C.INDEX_UNSET || nextPosition < endPosition) {
       throwIfCanceled();
+      if (cacheInParallel && endPosition != C.INDEX_UNSET) {
+        cacheChunksInParallel();
+        return;
+      }
       long maxRemainingLength =
           endPosition == C.INDEX_UNSET ? Long.MAX_VALUE : endPosition - nextPosition;
       long blockLength = cache.getCachedLength(cacheKey, nextPosition, maxRemainingLength);
@@ -133,20 +223,149 @@ public final class CacheWriter {
         // There's a hole of length -blockLength.
         blockLength = -blockLength;
         long nextRequestLength = blockLength == Long.MAX_VALUE ? C.LENGTH_UNSET : blockLength;
-        nextPosition += readBlockToCache(nextPosition, nextRequestLength);
+        if (cacheInParallel) {
+          // Only read the first chunk, which resolves the end position if the length of the
+          // content can be determined. The rest of the data is then cached in parallel.
+          nextPosition +=
+              readBlockToCache(
+                  dataSource,
+                  temporaryBuffer,
+                  nextPosition,
+                  nextRequestLength,
+                  /* maxBytesToRead= */ parallelChunkLength);
+          cacheInParallel = endPosition != C.INDEX_UNSET;
+        } else {
+          nextPosition +=
+              readBlockToCache(
+                  dataSource,
+                  temporaryBuffer,
+                  nextPosition,
+                  nextRequestLength,
+                  /* maxBytesToRead= */ Long.MAX_VALUE);
+        }
       }
     }
   }
 
+  /**
+   * Caches the remaining data by splitting the holes between {@link #nextPosition} and {@link
+   * #endPosition} into chunks, and reading them in parallel on the {@link #parallelExecutor}.
+   */
+  private void cacheChunksInParallel() throws IOException {
+    Executor executor = checkNotNull(parallelExecutor);
+    ArrayDeque<ChunkTask> recycledChunkTasks = new ArrayDeque<>();
+    // Chunks that are being read are locked in the cache, so the holes are scanned ahead of the
+    // chunks that have been cached. nextPosition is only advanced once all chunks are cached, so
+    // that the operation can be continued from it if a chunk fails.
+    long position = nextPosition;
+    try {
+      while (position < endPosition) {
+        throwIfCanceled();
+        long blockLength = cache.getCachedLength(cacheKey, position, endPosition - position);
+        if (blockLength > 0) {
+          position += blockLength;
+          continue;
+        }
+        long chunkLength = min(-blockLength, parallelChunkLength);
+
+        // Wait for a chunk to finish if the maximum number of chunks are already being read.
+        while (activeChunkTasks.size() >= maxParallelRequests) {
+          ChunkTask finishedChunkTask = getFirstChunkTask();
+          removeActiveChunkTask(finishedChunkTask);
+          recycledChunkTasks.add(finishedChunkTask);
+        }
+
+        CacheDataSource chunkDataSource;
+        byte[] chunkTemporaryBuffer;
+        @Nullable ChunkTask recycledChunkTask = recycledChunkTasks.poll();
+        if (recycledChunkTask != null) {
+          chunkDataSource = recycledChunkTask.dataSource;
+          chunkTemporaryBuffer = recycledChunkTask.temporaryBuffer;
+        } else {
+          chunkDataSource =
+              checkNotNull(parallelDataSourceFactory).createDataSourceForDownloading();
+          chunkTemporaryBuffer = new byte[DEFAULT_BUFFER_SIZE_BYTES];
+        }
+        ChunkTask chunkTask =
+            new ChunkTask(chunkDataSource, chunkTemporaryBuffer, position, chunkLength);
+        addActiveChunkTask(chunkTask);
+        executor.execute(chunkTask);
+        position += chunkLength;
+      }
+      while (!activeChunkTasks.isEmpty()) {
+        removeActiveChunkTask(getFirstChunkTask());
+      }
+      nextPosition = position;
+    } finally {
+      // If one of the chunks has failed, then the others may still be doing work. Cancel them and
+      // wait until they've finished before returning.
+      for (int i = 0; i < activeChunkTasks.size(); i++) {
+        activeChunkTasks.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+      for (int i = activeChunkTasks.size() - 1; i >= 0; i--) {
+        ChunkTask chunkTask = activeChunkTasks.get(i);
+        chunkTask.blockUntilFinished();
+        removeActiveChunkTask(chunkTask);
+      }
+    }
+  }
+
+  /** Waits for the oldest active chunk task to finish, and returns it. */
+  private ChunkTask getFirstChunkTask() throws IOException {
+    ChunkTask chunkTask = activeChunkTasks.get(0);
+    try {
+      chunkTask.get();
+    } catch (ExecutionException e) {
+      Throwable cause = checkNotNull(e.getCause());
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else {
+        // The cause must be an uncaught Throwable type.
+        Util.sneakyThrow(cause);
+      }
+    } catch (CancellationException e) {
+      throw new InterruptedIOException();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    return chunkTask;
+  }
+
+  private void addActiveChunkTask(ChunkTask chunkTask) throws InterruptedIOException {
+    synchronized (activeChunkTasks) {
+      if (isCanceled) {
+        throw new InterruptedIOException();
+      }
+      activeChunkTasks.add(chunkTask);
+    }
+  }
+
+  private void removeActiveChunkTask(ChunkTask chunkTask) {
+    synchronized (activeChunkTasks) {
+      activeChunkTasks.remove(chunkTask);
+    }
+  }
+
   /**
    * Reads the specified block of data, writing it into the cache.
    *
+   * @param dataSource The {@link CacheDataSource} through which to read the block.
+   * @param temporaryBuffer A temporary buffer to use while reading.
    * @param position The starting position of the block.
    * @param length The length of the block, or {@link C#LENGTH_UNSET} if unbounded.
+   * @param maxBytesToRead The maximum number of bytes to read. If fewer bytes than the length of
+   *     the block are read, the rest of the block remains uncached.
    * @return The number of bytes read.
    * @throws IOException If an error occurs reading the data or writing it to the cache.
    */
-  private long readBlockToCache(long position, long length) throws IOException {
+  private long readBlockToCache(
+      CacheDataSource dataSource,
+      byte[] temporaryBuffer,
+      long position,
+      long length,
+      long maxBytesToRead)
+      throws IOException {
     boolean isLastBlock = position + length == endPosition || length == C.LENGTH_UNSET;
 
     long resolvedLength = C.LENGTH_UNSET;
@@ -178,21 +397,22 @@ public final class CacheWriter {
       }
     }
 
-    int totalBytesRead = 0;
+    long totalBytesRead = 0;
     try {
       if (isLastBlock && resolvedLength != C.LENGTH_UNSET) {
         onRequestEndPosition(position + resolvedLength);
       }
       int bytesRead = 0;
-      while (bytesRead != C.RESULT_END_OF_INPUT) {
+      while (bytesRead != C.RESULT_END_OF_INPUT && totalBytesRead < maxBytesToRead) {
         throwIfCanceled();
-        bytesRead = dataSource.read(temporaryBuffer, /* offset= */ 0, temporaryBuffer.length);
+        int readLength = (int) min(temporaryBuffer.length, maxBytesToRead - totalBytesRead);
+        bytesRead = dataSource.read(temporaryBuffer, /* offset= */ 0, readLength);
         if (bytesRead != C.RESULT_END_OF_INPUT) {
           onNewBytesCached(bytesRead);
           totalBytesRead += bytesRead;
         }
       }
-      if (isLastBlock) {
+      if (isLastBlock && bytesRead == C.RESULT_END_OF_INPUT) {
         onRequestEndPosition(position + totalBytesRead);
       }
     } catch (IOException e) {
@@ -207,7 +427,7 @@ public final class CacheWriter {
     return totalBytesRead;
   }
 
-  private void onRequestEndPosition(long endPosition) {
+  private synchronized void onRequestEndPosition(long endPosition) {
     if (this.endPosition == endPosition) {
       return;
     }
@@ -217,13 +437,14 @@ public final class CacheWriter {
     }
   }
 
-  private void onNewBytesCached(long newBytesCached) {
+  private synchronized void onNewBytesCached(long newBytesCached) {
     bytesCached += newBytesCached;
     if (progressListener != null) {
       progressListener.onProgress(getLength(), bytesCached, newBytesCached);
     }
   }
 
+  @GuardedBy("this")
   private long getLength() {
     return endPosition == C.INDEX_UNSET ? C.LENGTH_UNSET : endPosition - dataSpec.position;
   }
@@ -233,4 +454,34 @@ public final class CacheWriter {
       throw new InterruptedIOException();
     }
   }
+
+  private final class ChunkTask extends RunnableFutureTask<Void, IOException> {
+
+    public final CacheDataSource dataSource;
+    public final byte[] temporaryBuffer;
+    private final long position;
+    private final long length;
+
+    public ChunkTask(
+        CacheDataSource dataSource, byte[] temporaryBuffer, long position, long length) {
+      this.dataSource = dataSource;
+      this.temporaryBuffer = temporaryBuffer;
+      this.position = position;
+      this.length = length;
+    }
+
+    @Override
+    protected Void doWork() throws IOException {
+      long endPosition = CacheWriter.this.endPosition;
+      if (position < endPosition) {
+        // The end position may have been reduced by another chunk reaching the end of the data.
+        long chunkLength = min(length, endPosition - position);
+        // Limit the number of bytes read in case the bounded request fails and the chunk is read
+        // with an unbounded request instead.
+        readBlockToCache(
+            dataSource, temporaryBuffer, position, chunkLength, /* maxBytesToRead= */ chunkLength);
+      }
+      return null;
+    }
+  }
 }
@@ -104,18 +104,32 @@ import java.util.TreeSet;
   }
 
   /**
-   * Attempts to lock the specified range of the resource.
+   * Returns whether any part of the specified range of the resource is locked.
    *
    * @param position The position of the range.
    * @param length The length of the range, or {@link C#LENGTH_UNSET} if unbounded.
-   * @return Whether the range was successfully locked.
+   * @return Whether any part of the range is locked.
    */
-  public boolean lockRange(long position, long length) {
+  public boolean isPartiallyLocked(long position, long length) {
     for (int i = 0; i < lockedRanges.size(); i++) {
       if (lockedRanges.get(i).intersects(position, length)) {
-        return false;
+        return true;
       }
     }
+    return false;
+  }
+
+  /**
+   * Attempts to lock the specified range of the resource.
+   *
+   * @param position The position of the range.
+   * @param length The length of the range, or {@link C#LENGTH_UNSET} if unbounded.
+   * @return Whether the range was successfully locked.
+   */
+  public boolean lockRange(long position, long length) {
+    if (isPartiallyLocked(position, length)) {
+      return false;
+    }
     lockedRanges.add(new Range(position, length));
     return true;
   }
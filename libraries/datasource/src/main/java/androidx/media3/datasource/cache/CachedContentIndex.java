@@ -18,6 +18,7 @@ package androidx.media3.datasource.cache;
 import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.common.util.Assertions.checkState;
 import static androidx.media3.common.util.Util.castNonNull;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import android.content.ContentValues;
@@ -27,11 +28,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.AtomicFile;
+import androidx.media3.common.util.Log;
 import androidx.media3.common.util.NullableType;
 import androidx.media3.common.util.Util;
 import androidx.media3.database.DatabaseIOException;
@@ -39,24 +42,34 @@ import androidx.media3.database.DatabaseProvider;
 import androidx.media3.database.VersionTable;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
@@ -69,6 +82,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 /* package */ class CachedContentIndex {
 
   /* package */ static final String FILE_NAME_ATOMIC = "cached_content_index.exi";
+  /* package */ static final String FILE_NAME_JOURNALED = "cached_content_index.exj";
+
+  private static final String TAG = "CachedContentIndex";
 
   private static final int INCREMENTAL_METADATA_READ_LENGTH = 10 * 1024 * 1024;
 
@@ -99,16 +115,24 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    */
   private final SparseBooleanArray removedIds;
 
+  /**
+   * Ids that were removed before a call to {@link #store()} whose changes may not have been
+   * persisted yet. Their (id -> null) entries are kept in idToKey until the storage reports that
+   * the corresponding store has been persisted.
+   */
+  private final ArrayDeque<RemovedIds> unpersistedRemovedIds;
+
   /** Tracks ids that are new since the index was last stored. */
   private final SparseBooleanArray newIds;
 
   private Storage storage;
   @Nullable private Storage previousStorage;
+  private long storeCount;
 
   /** Returns whether the file is an index file. */
   public static boolean isIndexFile(String fileName) {
-    // Atomic file backups add additional suffixes to the file name.
-    return fileName.startsWith(FILE_NAME_ATOMIC);
+    // Atomic file backups and journals add additional suffixes to the file name.
+    return fileName.startsWith(FILE_NAME_ATOMIC) || fileName.startsWith(FILE_NAME_JOURNALED);
   }
 
   /**
@@ -165,6 +189,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     keyToContent = new HashMap<>();
     idToKey = new SparseArray<>();
     removedIds = new SparseBooleanArray();
+    unpersistedRemovedIds = new ArrayDeque<>();
     newIds = new SparseBooleanArray();
     @Nullable
     Storage databaseStorage =
@@ -186,6 +211,44 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
   }
 
+  /**
+   * Creates an instance supporting both database and journaled storage.
+   *
+   * <p>Journaled storage appends changes to a journal file rather than rewriting the index, and
+   * performs all of its writes on {@code journalWriteExecutor}, coalescing the changes from
+   * consecutive calls to {@link #store()}. The journal is periodically compacted into a snapshot
+   * file, also on {@code journalWriteExecutor}.
+   *
+   * @param databaseProvider Provides the database in which the index is stored if journaled
+   *     storage isn't preferred.
+   * @param journalDir The directory in which journaled storage is stored.
+   * @param preferJournaledStorage Whether to use journaled storage. If {@code true}, an index in
+   *     database storage is migrated to journaled storage. If {@code false}, an index in journaled
+   *     storage is migrated back to database storage.
+   * @param journalWriteExecutor The {@link Executor} on which journaled storage is written.
+   */
+  public CachedContentIndex(
+      DatabaseProvider databaseProvider,
+      File journalDir,
+      boolean preferJournaledStorage,
+      Executor journalWriteExecutor) {
+    keyToContent = new HashMap<>();
+    idToKey = new SparseArray<>();
+    removedIds = new SparseBooleanArray();
+    unpersistedRemovedIds = new ArrayDeque<>();
+    newIds = new SparseBooleanArray();
+    Storage databaseStorage = new DatabaseStorage(databaseProvider);
+    Storage journaledStorage =
+        new JournaledStorage(new File(journalDir, FILE_NAME_JOURNALED), journalWriteExecutor);
+    if (preferJournaledStorage) {
+      storage = journaledStorage;
+      previousStorage = databaseStorage;
+    } else {
+      storage = databaseStorage;
+      previousStorage = journaledStorage;
+    }
+  }
+
   /**
    * Loads the index data for the given cache UID.
    *
@@ -224,13 +287,26 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @WorkerThread
   public void store() throws IOException {
     storage.storeIncremental(keyToContent);
-    // Make ids that were removed since the index was last stored eligible for re-use.
-    int removedIdCount = removedIds.size();
-    for (int i = 0; i < removedIdCount; i++) {
-      idToKey.remove(removedIds.keyAt(i));
+    storeCount++;
+    if (removedIds.size() > 0) {
+      unpersistedRemovedIds.add(new RemovedIds(storeCount, removedIds.clone()));
+      removedIds.clear();
     }
-    removedIds.clear();
     newIds.clear();
+    releasePersistedRemovedIds();
+  }
+
+  /**
+   * Blocks until the changes from all previous calls to {@link #store()} have been persisted.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @throws IOException If an error occurs persisting the index data.
+   */
+  @WorkerThread
+  public void flush() throws IOException {
+    storage.flush();
+    releasePersistedRemovedIds();
   }
 
   /**
@@ -346,6 +422,25 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     return cachedContent;
   }
 
+  /**
+   * Makes ids that were removed before a persisted call to {@link #store()} eligible for re-use.
+   * Ids must not be re-used before their removal has been persisted, since otherwise files written
+   * for a new key could be associated with the removed key if the process is shut down.
+   */
+  private void releasePersistedRemovedIds() {
+    long persistedStoreCount = storage.getPersistedStoreCount();
+    @Nullable RemovedIds persistedRemovedIds;
+    while ((persistedRemovedIds = unpersistedRemovedIds.peek()) != null
+        && persistedRemovedIds.storeCount <= persistedStoreCount) {
+      unpersistedRemovedIds.remove();
+      SparseBooleanArray ids = persistedRemovedIds.ids;
+      int removedIdCount = ids.size();
+      for (int i = 0; i < removedIdCount; i++) {
+        idToKey.remove(ids.keyAt(i));
+      }
+    }
+  }
+
   /**
    * Returns an id which isn't used in the given array. If the maximum id in the array is smaller
    * than {@link java.lang.Integer#MAX_VALUE} it just returns the next bigger integer. Otherwise it
@@ -472,6 +567,21 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      */
     void storeIncremental(HashMap<String, CachedContent> content) throws IOException;
 
+    /**
+     * Blocks until changes passed to previous calls to {@link #storeIncremental(HashMap)} have been
+     * persisted. Does nothing if {@link #storeIncremental(HashMap)} persists changes before
+     * returning.
+     *
+     * @throws IOException If an error occurs persisting the index.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Returns the number of successful calls to {@link #storeIncremental(HashMap)} whose changes
+     * have been persisted.
+     */
+    long getPersistedStoreCount();
+
     /**
      * Called when a {@link CachedContent} is added or updated.
      *
@@ -503,6 +613,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     private final AtomicFile atomicFile;
 
     private boolean changed;
+    private long storeCount;
     @Nullable private ReusableBufferedOutputStream bufferedOutputStream;
 
     public LegacyStorage(File file, @Nullable byte[] secretKey, boolean encrypt) {
@@ -561,10 +672,20 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
-      if (!changed) {
-        return;
+      if (changed) {
+        storeFully(content);
       }
-      storeFully(content);
+      storeCount++;
+    }
+
+    @Override
+    public void flush() {
+      // Do nothing. Changes are persisted synchronously.
+    }
+
+    @Override
+    public long getPersistedStoreCount() {
+      return storeCount;
     }
 
     @Override
@@ -761,6 +882,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     private final DatabaseProvider databaseProvider;
     private final SparseArray<@NullableType CachedContent> pendingUpdates;
 
+    private long storeCount;
     private @MonotonicNonNull String hexUid;
     private @MonotonicNonNull String tableName;
 
@@ -866,6 +988,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     @Override
     public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
       if (pendingUpdates.size() == 0) {
+        storeCount++;
         return;
       }
       try {
@@ -888,6 +1011,17 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       } catch (SQLException e) {
         throw new DatabaseIOException(e);
       }
+      storeCount++;
+    }
+
+    @Override
+    public void flush() {
+      // Do nothing. Changes are persisted synchronously.
+    }
+
+    @Override
+    public long getPersistedStoreCount() {
+      return storeCount;
     }
 
     @Override
@@ -972,4 +1106,424 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       return TABLE_PREFIX + hexUid;
     }
   }
+
+  /**
+   * {@link Storage} implementation that appends changes to a journal file, which is compacted into
+   * a snapshot file once it grows larger than the snapshot.
+   *
+   * <p>Storing the index only serializes the changes since the last store, which are then appended
+   * to the journal on the write {@link Executor}. Changes from consecutive stores that are pending
+   * at the same time are coalesced into a single write. Compaction rebuilds the snapshot from the
+   * snapshot and journal files, so it doesn't need access to the in-memory index and is also
+   * performed on the write {@link Executor}.
+   */
+  private static final class JournaledStorage implements Storage {
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final int RECORD_TYPE_UPDATE = 0;
+    private static final int RECORD_TYPE_REMOVE = 1;
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    /** The minimum length of the journal, in bytes, before it's compacted. */
+    private static final long MIN_COMPACTION_JOURNAL_LENGTH = 64 * 1024;
+
+    private final File snapshotFile;
+    private final AtomicFile atomicSnapshotFile;
+    private final File journalFile;
+    private final Executor writeExecutor;
+    private final SparseArray<@NullableType CachedContent> pendingUpdates;
+    private final Object writeLock;
+
+    @GuardedBy("this")
+    private ByteArrayOutputStream pendingRecords;
+
+    @GuardedBy("this")
+    private long submittedStoreCount;
+
+    @GuardedBy("this")
+    private boolean writeScheduled;
+
+    @GuardedBy("writeLock")
+    private long journalLength;
+
+    @GuardedBy("writeLock")
+    private long snapshotLength;
+
+    private volatile long persistedStoreCount;
+
+    public JournaledStorage(File snapshotFile, Executor writeExecutor) {
+      this.snapshotFile = snapshotFile;
+      this.writeExecutor = writeExecutor;
+      atomicSnapshotFile = new AtomicFile(snapshotFile);
+      journalFile = new File(snapshotFile.getPath() + ".journal");
+      pendingUpdates = new SparseArray<>();
+      writeLock = new Object();
+      pendingRecords = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void initialize(long uid) {
+      // Do nothing. Journaled storage uses separate files for each cache.
+    }
+
+    @Override
+    public boolean exists() {
+      return atomicSnapshotFile.exists() || journalFile.exists();
+    }
+
+    @Override
+    public void delete() {
+      synchronized (writeLock) {
+        atomicSnapshotFile.delete();
+        journalFile.delete();
+        journalLength = 0;
+        snapshotLength = 0;
+      }
+    }
+
+    @Override
+    public void load(
+        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      checkState(pendingUpdates.size() == 0);
+      SparseArray<CachedContent> contentById = new SparseArray<>();
+      synchronized (writeLock) {
+        if (!readSnapshot(contentById)) {
+          delete();
+          return;
+        }
+        long validJournalLength = readJournal(contentById);
+        if (journalFile.length() > validJournalLength) {
+          // Discard the partially written records at the end of the journal, so that subsequent
+          // records are appended after the last valid record.
+          try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(validJournalLength);
+          }
+        }
+        journalLength = validJournalLength;
+        snapshotLength = snapshotFile.length();
+      }
+      for (int i = 0; i < contentById.size(); i++) {
+        CachedContent cachedContent = contentById.valueAt(i);
+        content.put(cachedContent.key, cachedContent);
+        idToKey.put(cachedContent.id, cachedContent.key);
+      }
+    }
+
+    @Override
+    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+      synchronized (writeLock) {
+        writeSnapshot(content.values());
+        journalFile.delete();
+        journalLength = 0;
+        synchronized (this) {
+          pendingRecords.reset();
+        }
+      }
+      pendingUpdates.clear();
+    }
+
+    @Override
+    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+      @Nullable byte[] records = null;
+      if (pendingUpdates.size() > 0) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        // Removals are written first, so that a partially written set of records can't contain an
+        // update that reassigns a key without also containing the removal of its previous id.
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+          if (pendingUpdates.valueAt(i) == null) {
+            writeRecord(pendingUpdates.keyAt(i), /* cachedContent= */ null, outputStream);
+          }
+        }
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+          @Nullable CachedContent cachedContent = pendingUpdates.valueAt(i);
+          if (cachedContent != null) {
+            writeRecord(cachedContent.id, cachedContent, outputStream);
+          }
+        }
+        pendingUpdates.clear();
+        records = outputStream.toByteArray();
+      }
+      synchronized (this) {
+        if (records != null) {
+          pendingRecords.write(records, /* off= */ 0, records.length);
+        }
+        submittedStoreCount++;
+        if (!writeScheduled) {
+          writeScheduled = true;
+          writeExecutor.execute(this::writePendingRecordsQuietly);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writePendingRecords();
+    }
+
+    @Override
+    public long getPersistedStoreCount() {
+      return persistedStoreCount;
+    }
+
+    @Override
+    public void onUpdate(CachedContent cachedContent) {
+      pendingUpdates.put(cachedContent.id, cachedContent);
+    }
+
+    @Override
+    public void onRemove(CachedContent cachedContent, boolean neverStored) {
+      if (neverStored) {
+        pendingUpdates.delete(cachedContent.id);
+      } else {
+        pendingUpdates.put(cachedContent.id, null);
+      }
+    }
+
+    private void writePendingRecordsQuietly() {
+      try {
+        writePendingRecords();
+      } catch (IOException e) {
+        Log.e(TAG, "Writing index journal failed", e);
+      }
+    }
+
+    private void writePendingRecords() throws IOException {
+      synchronized (writeLock) {
+        byte[] records;
+        long storeCount;
+        synchronized (this) {
+          writeScheduled = false;
+          records = pendingRecords.toByteArray();
+          pendingRecords.reset();
+          storeCount = submittedStoreCount;
+        }
+        if (records.length > 0) {
+          try {
+            appendToJournal(records);
+          } catch (IOException e) {
+            synchronized (this) {
+              // Restore the records so that they're written by the next attempt.
+              byte[] newerRecords = pendingRecords.toByteArray();
+              pendingRecords.reset();
+              pendingRecords.write(records, /* off= */ 0, records.length);
+              pendingRecords.write(newerRecords, /* off= */ 0, newerRecords.length);
+            }
+            throw e;
+          }
+        }
+        persistedStoreCount = storeCount;
+        if (journalLength >= max(MIN_COMPACTION_JOURNAL_LENGTH, snapshotLength)) {
+          try {
+            compact();
+          } catch (IOException e) {
+            // The journal is still valid, so compaction can be retried after the next write.
+            Log.w(TAG, "Compacting index journal failed", e);
+          }
+        }
+      }
+    }
+
+    @GuardedBy("writeLock")
+    private void appendToJournal(byte[] records) throws IOException {
+      try (FileOutputStream outputStream = new FileOutputStream(journalFile, /* append= */ true)) {
+        try {
+          outputStream.write(records);
+          outputStream.getFD().sync();
+        } catch (IOException e) {
+          // Discard any partially written records, since records appended after them would
+          // otherwise be ignored when the journal is read.
+          try {
+            outputStream.getChannel().truncate(journalLength);
+          } catch (IOException truncateException) {
+            e.addSuppressed(truncateException);
+          }
+          throw e;
+        }
+      }
+      journalLength += records.length;
+    }
+
+    @GuardedBy("writeLock")
+    private void compact() throws IOException {
+      SparseArray<CachedContent> contentById = new SparseArray<>();
+      if (!readSnapshot(contentById)) {
+        throw new IOException("Invalid index snapshot");
+      }
+      readJournal(contentById);
+      ArrayList<CachedContent> content = new ArrayList<>(contentById.size());
+      for (int i = 0; i < contentById.size(); i++) {
+        content.add(contentById.valueAt(i));
+      }
+      writeSnapshot(content);
+      // If the process is shut down before the journal is deleted, replaying it on top of the new
+      // snapshot yields the same index, since the new snapshot already includes all of its records.
+      journalFile.delete();
+      journalLength = 0;
+    }
+
+    /**
+     * Reads the snapshot into {@code contentById}.
+     *
+     * @return Whether the snapshot is valid or doesn't exist.
+     */
+    @GuardedBy("writeLock")
+    private boolean readSnapshot(SparseArray<CachedContent> contentById) {
+      if (!atomicSnapshotFile.exists()) {
+        return true;
+      }
+      @Nullable DataInputStream input = null;
+      try {
+        CRC32 checksum = new CRC32();
+        input =
+            new DataInputStream(
+                new CheckedInputStream(
+                    new BufferedInputStream(atomicSnapshotFile.openRead()), checksum));
+        int version = input.readInt();
+        if (version != SNAPSHOT_VERSION) {
+          return false;
+        }
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+          int id = input.readInt();
+          String key = input.readUTF();
+          DefaultContentMetadata metadata = readContentMetadata(input);
+          contentById.put(id, new CachedContent(id, key, metadata));
+        }
+        int expectedChecksum = (int) checksum.getValue();
+        if (input.readInt() != expectedChecksum || input.read() != -1) {
+          contentById.clear();
+          return false;
+        }
+      } catch (IOException e) {
+        contentById.clear();
+        return false;
+      } finally {
+        Util.closeQuietly(input);
+      }
+      return true;
+    }
+
+    @GuardedBy("writeLock")
+    private void writeSnapshot(Collection<CachedContent> content) throws IOException {
+      @Nullable DataOutputStream output = null;
+      try {
+        CRC32 checksum = new CRC32();
+        output =
+            new DataOutputStream(
+                new CheckedOutputStream(
+                    new BufferedOutputStream(atomicSnapshotFile.startWrite()), checksum));
+        output.writeInt(SNAPSHOT_VERSION);
+        output.writeInt(content.size());
+        for (CachedContent cachedContent : content) {
+          output.writeInt(cachedContent.id);
+          output.writeUTF(cachedContent.key);
+          writeContentMetadata(cachedContent.getMetadata(), output);
+        }
+        output.writeInt((int) checksum.getValue());
+        atomicSnapshotFile.endWrite(output);
+        output = null;
+      } finally {
+        Util.closeQuietly(output);
+      }
+      snapshotLength = snapshotFile.length();
+    }
+
+    /**
+     * Applies the records in the journal to {@code contentById}. Reading stops at the first record
+     * that is incomplete or corrupt, which may be the result of a write that was interrupted.
+     *
+     * @return The length of the valid records at the start of the journal, in bytes.
+     * @throws IOException If an error occurs reading the journal.
+     */
+    @GuardedBy("writeLock")
+    private long readJournal(SparseArray<CachedContent> contentById) throws IOException {
+      if (!journalFile.exists()) {
+        return 0;
+      }
+      long fileLength = journalFile.length();
+      long validLength = 0;
+      CRC32 checksum = new CRC32();
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+        while (validLength + RECORD_HEADER_LENGTH <= fileLength) {
+          int recordLength = input.readInt();
+          int recordChecksum = input.readInt();
+          if (recordLength <= 0
+              || validLength + RECORD_HEADER_LENGTH + recordLength > fileLength) {
+            break;
+          }
+          byte[] record = new byte[recordLength];
+          input.readFully(record);
+          checksum.reset();
+          checksum.update(record, /* off= */ 0, recordLength);
+          if ((int) checksum.getValue() != recordChecksum || !applyRecord(record, contentById)) {
+            break;
+          }
+          validLength += RECORD_HEADER_LENGTH + recordLength;
+        }
+      }
+      return validLength;
+    }
+
+    /** Applies a journal record to {@code contentById}, returning whether the record is valid. */
+    private static boolean applyRecord(byte[] record, SparseArray<CachedContent> contentById) {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+      try {
+        int type = input.readUnsignedByte();
+        int id = input.readInt();
+        if (type == RECORD_TYPE_UPDATE) {
+          String key = input.readUTF();
+          DefaultContentMetadata metadata = readContentMetadata(input);
+          contentById.put(id, new CachedContent(id, key, metadata));
+        } else if (type == RECORD_TYPE_REMOVE) {
+          contentById.remove(id);
+        } else {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Writes a journal record that updates {@code id} to {@code cachedContent}, or that removes
+     * {@code id} if {@code cachedContent} is null.
+     */
+    private static void writeRecord(
+        int id, @Nullable CachedContent cachedContent, ByteArrayOutputStream outputStream)
+        throws IOException {
+      ByteArrayOutputStream recordOutputStream = new ByteArrayOutputStream();
+      DataOutputStream recordOutput = new DataOutputStream(recordOutputStream);
+      recordOutput.writeByte(cachedContent != null ? RECORD_TYPE_UPDATE : RECORD_TYPE_REMOVE);
+      recordOutput.writeInt(id);
+      if (cachedContent != null) {
+        recordOutput.writeUTF(cachedContent.key);
+        writeContentMetadata(cachedContent.getMetadata(), recordOutput);
+      }
+      byte[] record = recordOutputStream.toByteArray();
+      CRC32 checksum = new CRC32();
+      checksum.update(record, /* off= */ 0, record.length);
+      DataOutputStream output = new DataOutputStream(outputStream);
+      output.writeInt(record.length);
+      output.writeInt((int) checksum.getValue());
+      output.write(record);
+    }
+  }
+
+  /** Ids removed before a given call to {@link #store()}. */
+  private static final class RemovedIds {
+
+    /** The number of calls to {@link #store()}, up to and including the one that stored them. */
+    public final long storeCount;
+
+    public final SparseBooleanArray ids;
+
+    public RemovedIds(long storeCount, SparseBooleanArray ids) {
+      this.storeCount = storeCount;
+      this.ids = ids;
+    }
+  }
 }
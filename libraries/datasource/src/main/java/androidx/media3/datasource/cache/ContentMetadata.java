@@ -37,6 +37,18 @@ public interface ContentMetadata {
   /** Key for content length in bytes (type: long). */
   String KEY_CONTENT_LENGTH = "exo_len";
 
+  /**
+   * Key for whether the cached spans of the content are stored compressed with DEFLATE (type:
+   * long, 1 if compressed).
+   */
+  String KEY_COMPRESSED = "exo_comp";
+
+  /**
+   * Key for a serialized seek index of the content recorded by an extractor, used to seek within
+   * the content without searching it (type: byte[]).
+   */
+  String KEY_SEEK_INDEX = "exo_seek_idx";
+
   /**
    * Returns a metadata value.
    *
@@ -86,4 +98,9 @@ public interface ContentMetadata {
     @Nullable String redirectedUri = contentMetadata.get(KEY_REDIRECTED_URI, (String) null);
     return redirectedUri == null ? null : Uri.parse(redirectedUri);
   }
+
+  /** Returns whether the value stored under {@link #KEY_COMPRESSED} indicates compression. */
+  static boolean isCompressed(ContentMetadata contentMetadata) {
+    return contentMetadata.get(KEY_COMPRESSED, /* defaultValue= */ 0) == 1;
+  }
 }
@@ -66,6 +66,23 @@ public class ContentMetadataMutations {
     }
   }
 
+  /**
+   * Adds a mutation to set the {@link ContentMetadata#KEY_COMPRESSED} value, or to remove any
+   * existing entry if {@code false} is passed.
+   *
+   * @param mutations The mutations to modify.
+   * @param compressed Whether the cached spans of the content are compressed.
+   * @return The mutations instance, for convenience.
+   */
+  public static ContentMetadataMutations setCompressed(
+      ContentMetadataMutations mutations, boolean compressed) {
+    if (compressed) {
+      return mutations.set(ContentMetadata.KEY_COMPRESSED, 1);
+    } else {
+      return mutations.remove(ContentMetadata.KEY_COMPRESSED);
+    }
+  }
+
   private final Map<String, Object> editedValues;
   private final List<String> removedValues;
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A probabilistic estimate of how often items have been accessed, with aging.
+ *
+ * <p>The sketch is a count-min sketch of 4-bit counters, packed sixteen to a {@code long}, where
+ * each item maps to four counters. Estimates may be too high as a result of hash collisions, but
+ * are never too low, and are capped at {@link #MAX_FREQUENCY}. Once the number of recorded accesses
+ * reaches ten times the number of items the sketch is sized for, all counters are halved, so that
+ * items that were popular in the past but are no longer accessed eventually lose their estimated
+ * frequency.
+ */
+/* package */ final class FrequencySketch {
+
+  /** The maximum frequency that can be estimated. */
+  public static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS =
+      new long[] {
+        0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+      };
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private final long[] table;
+  private final int counterMask;
+  private final int sampleSize;
+
+  private int accessCount;
+
+  /**
+   * Creates an instance.
+   *
+   * @param expectedItemCount The number of distinct items whose frequencies are expected to be
+   *     tracked. Larger values reduce the error caused by hash collisions, at the cost of memory.
+   */
+  public FrequencySketch(int expectedItemCount) {
+    checkArgument(expectedItemCount > 0);
+    // Use one long, holding sixteen counters, per expected item, rounded up to a power of two.
+    int tableLength = max(Integer.highestOneBit(min(expectedItemCount, 1 << 26) - 1) << 1, 4);
+    table = new long[tableLength];
+    counterMask = tableLength * 16 - 1;
+    sampleSize = 10 * tableLength;
+  }
+
+  /** Returns the estimated number of times {@code item} has been accessed. */
+  public int getFrequency(Object item) {
+    int hash = spread(item.hashCode());
+    int frequency = MAX_FREQUENCY;
+    for (int row = 0; row < SEEDS.length; row++) {
+      frequency = min(frequency, getCounter(indexOf(hash, row)));
+    }
+    return frequency;
+  }
+
+  /** Records an access to {@code item}. */
+  public void increment(Object item) {
+    int hash = spread(item.hashCode());
+    boolean incremented = false;
+    for (int row = 0; row < SEEDS.length; row++) {
+      incremented |= incrementCounter(indexOf(hash, row));
+    }
+    if (incremented && ++accessCount >= sampleSize) {
+      reset();
+    }
+  }
+
+  /** Halves all counters. */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    accessCount /= 2;
+  }
+
+  private int getCounter(int counterIndex) {
+    int offset = (counterIndex & 15) << 2;
+    return (int) ((table[counterIndex >>> 4] >>> offset) & 0xF);
+  }
+
+  private boolean incrementCounter(int counterIndex) {
+    int tableIndex = counterIndex >>> 4;
+    int offset = (counterIndex & 15) << 2;
+    long mask = 0xFL << offset;
+    if ((table[tableIndex] & mask) == mask) {
+      return false;
+    }
+    table[tableIndex] += 1L << offset;
+    return true;
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return (int) h & counterMask;
+  }
+
+  /** Applies a supplemental hash function to defend against poor quality hash codes. */
+  private static int spread(int hashCode) {
+    int h = hashCode;
+    h = ((h >>> 16) ^ h) * 0x45D9F3B;
+    h = ((h >>> 16) ^ h) * 0x45D9F3B;
+    return (h >>> 16) ^ h;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static androidx.media3.common.util.Util.castNonNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceException;
+import androidx.media3.datasource.DataSourceInputStream;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import java.io.IOException;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link DataSource} that reads cache files whose content was compressed by a {@link
+ * CacheDataSink}.
+ *
+ * <p>The position and length of each {@link DataSpec} refer to the uncompressed content. The file
+ * is decompressed from its start, and the data before the requested position is skipped.
+ */
+/* package */ final class InflaterDataSource implements DataSource {
+
+  private final DataSource upstream;
+
+  @Nullable private InflaterInputStream inputStream;
+  private long bytesRemaining;
+
+  public InflaterDataSource(DataSource upstream) {
+    this.upstream = upstream;
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    DataSpec compressedDataSpec =
+        dataSpec.buildUpon().setPosition(0).setLength(C.LENGTH_UNSET).build();
+    DataSourceInputStream compressedInputStream =
+        new DataSourceInputStream(upstream, compressedDataSpec);
+    InflaterInputStream inputStream = new InflaterInputStream(compressedInputStream);
+    this.inputStream = inputStream;
+    compressedInputStream.open();
+    long bytesToSkip = dataSpec.position;
+    while (bytesToSkip > 0) {
+      long bytesSkipped = inputStream.skip(bytesToSkip);
+      if (bytesSkipped <= 0) {
+        throw new DataSourceException(PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE);
+      }
+      bytesToSkip -= bytesSkipped;
+    }
+    bytesRemaining = dataSpec.length;
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesToRead = bytesRemaining == C.LENGTH_UNSET ? length : (int) min(bytesRemaining, length);
+    int bytesRead = castNonNull(inputStream).read(buffer, offset, bytesToRead);
+    if (bytesRead == -1) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    if (bytesRemaining != C.LENGTH_UNSET) {
+      bytesRemaining -= bytesRead;
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return upstream.getUri();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (inputStream != null) {
+      try {
+        // Also closes the upstream data source.
+        inputStream.close();
+      } finally {
+        inputStream = null;
+      }
+    } else {
+      upstream.close();
+    }
+  }
+}
@@ -27,6 +27,7 @@ public final class LeastRecentlyUsedCacheEvictor implements CacheEvictor {
   private final TreeSet<CacheSpan> leastRecentlyUsed;
 
   private long currentSize;
+  private long savedBytes;
 
   public LeastRecentlyUsedCacheEvictor(long maxBytes) {
     this.maxBytes = maxBytes;
@@ -69,8 +70,13 @@ public final class LeastRecentlyUsedCacheEvictor implements CacheEvictor {
     onSpanAdded(cache, newSpan);
   }
 
+  @Override
+  public void onSavedBytesChanged(Cache cache, long savedBytes) {
+    this.savedBytes = savedBytes;
+  }
+
   private void evictCache(Cache cache, long requiredSpace) {
-    while (currentSize + requiredSpace > maxBytes && !leastRecentlyUsed.isEmpty()) {
+    while (currentSize - savedBytes + requiredSpace > maxBytes && !leastRecentlyUsed.isEmpty()) {
       cache.removeSpan(leastRecentlyUsed.first());
     }
   }
@@ -15,8 +15,14 @@
  */
 package androidx.media3.datasource.cache;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.Math.min;
+
 import android.os.ConditionVariable;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
@@ -25,17 +31,33 @@ import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.database.DatabaseIOException;
 import androidx.media3.database.DatabaseProvider;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -46,12 +68,314 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * <p>To delete a SimpleCache, use {@link #delete(File, DatabaseProvider)} rather than deleting the
  * directory and its contents directly. This is necessary to ensure that associated index data is
  * also removed.
+ *
+ * <p>By default all operations are serialized on a single lock. If the cache is shared between
+ * many concurrent readers and writers (for example several players, a preloader and a {@code
+ * DownloadManager}), a {@link Builder#setConcurrencyLevel(int) concurrency level} greater than one
+ * can be set. In this mode operations that only access the state of a single key ({@link
+ * #startReadWrite}, {@link #getCachedLength}, {@link #isCached}, {@link #getCachedSpans}, ...) are
+ * guarded by striped per-key locks and can proceed in parallel, whilst operations that update
+ * global state (committing files, removing spans, notifying the {@link CacheEvictor} and storing
+ * the index) remain exclusive.
+ *
+ * <p>By default the cache directory is scanned in full before the cache can be used, which can take
+ * a long time for caches containing many files. If {@link
+ * Builder#setIncrementalInitializationEnabled(boolean) incremental initialization} is enabled, the
+ * cache can be used as soon as its indices have been loaded, and the directory is scanned in the
+ * background. Progress can be monitored with {@link #getInitializationStats()}.
+ *
+ * <p>If {@link Builder#setContentDeduplicationEnabled(boolean) content deduplication} is enabled,
+ * identical content that's cached under different keys is stored once.
  */
 @UnstableApi
 public final class SimpleCache implements Cache {
 
+  /** A builder for {@link SimpleCache} instances. */
+  public static final class Builder {
+
+    private final File cacheDir;
+    private final CacheEvictor evictor;
+    private final DatabaseProvider databaseProvider;
+
+    private int concurrencyLevel;
+    private boolean journaledIndexEnabled;
+    private boolean incrementalInitializationEnabled;
+    private boolean contentDeduplicationEnabled;
+
+    /**
+     * Creates a builder.
+     *
+     * @param cacheDir A dedicated cache directory. The cache will delete any unrecognized files
+     *     from the directory. Hence the directory cannot be used to store other files.
+     * @param evictor The evictor to be used. For download use cases where cache eviction should not
+     *     occur, use {@link NoOpCacheEvictor}.
+     * @param databaseProvider Provides the database in which the cache index is stored.
+     */
+    public Builder(File cacheDir, CacheEvictor evictor, DatabaseProvider databaseProvider) {
+      this.cacheDir = cacheDir;
+      this.evictor = evictor;
+      this.databaseProvider = databaseProvider;
+      concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+    }
+
+    /**
+     * Sets the number of lock stripes used to guard the state of individual cache keys.
+     *
+     * <p>A value of {@code 1} serializes all operations on a single lock. Larger values allow
+     * operations on different keys to proceed concurrently. The value should be in the order of
+     * the number of threads that are expected to access the cache at the same time.
+     *
+     * <p>The default value is {@link #DEFAULT_CONCURRENCY_LEVEL}.
+     *
+     * @param concurrencyLevel The number of lock stripes. Must be greater than zero.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setConcurrencyLevel(int concurrencyLevel) {
+      Assertions.checkArgument(concurrencyLevel > 0);
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /**
+     * Sets whether the cache index is persisted incrementally in a journal in the cache directory.
+     *
+     * <p>By default the cache index is stored in the database, and each store writes every change
+     * since the previous one synchronously. When journaling is enabled, changes are appended to a
+     * journal file instead, which is compacted in the background once it grows larger than the
+     * index itself. Journal writes and file metadata updates are performed on a dedicated thread,
+     * and changes that are pending at the same time are coalesced into a single write. This avoids
+     * blocking cache operations on index I/O, which can be significant for caches with many
+     * entries.
+     *
+     * <p>An existing index is migrated to the journal when journaling is enabled, and back to the
+     * database when it's disabled again.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * @param journaledIndexEnabled Whether the cache index is persisted in a journal.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setJournaledIndexEnabled(boolean journaledIndexEnabled) {
+      this.journaledIndexEnabled = journaledIndexEnabled;
+      return this;
+    }
+
+    /**
+     * Sets whether the cache directory is scanned in the background after the cache indices have
+     * been loaded, rather than before the cache can be used.
+     *
+     * <p>When enabled, the spans of a key are located using the file index when the key is first
+     * accessed, without waiting for the rest of the directory to be scanned. The background scan
+     * loads spans for keys that haven't been accessed yet, removes index entries for files that
+     * no longer exist, and adds or deletes files that are missing from the index. Until the scan
+     * has completed, {@link #getCacheSpace()} and {@link #getKeys()} reflect only the part of the
+     * cache that has been loaded, and the evictor may not yet be aware of all spans.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * @param incrementalInitializationEnabled Whether the cache directory is scanned in the
+     *     background.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setIncrementalInitializationEnabled(boolean incrementalInitializationEnabled) {
+      this.incrementalInitializationEnabled = incrementalInitializationEnabled;
+      return this;
+    }
+
+    /**
+     * Sets whether identical content is stored once, even if it's cached under different keys.
+     *
+     * <p>This is useful if the same media is requested from different URLs that aren't mapped to
+     * the same key by the {@link CacheKeyFactory}, for example signed or mirrored CDN URLs, or
+     * identical CMAF segments that are packaged for both DASH and HLS.
+     *
+     * <p>When enabled, a digest of the content of each span is computed when it's committed. If
+     * identical content is already stored, the new span file is replaced with a hard link to the
+     * existing file, so that the content is stored once and shared by both spans. Its storage is
+     * released once all of the spans that share it have been removed. Shared content is counted
+     * once by {@link #getCacheSpace()}, and is included in the saved bytes of which evictors are
+     * notified through {@link CacheEvictor#onSavedBytesChanged(Cache, long)}. Content is only
+     * shared between spans of equal length, so it's most effective for segmented media.
+     *
+     * <p>Has no effect before API level 26, or if the file system doesn't support hard links.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * @param contentDeduplicationEnabled Whether identical content is stored once.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setContentDeduplicationEnabled(boolean contentDeduplicationEnabled) {
+      this.contentDeduplicationEnabled = contentDeduplicationEnabled;
+      return this;
+    }
+
+    /** Builds the {@link SimpleCache}. */
+    public SimpleCache build() {
+      @Nullable
+      ExecutorService indexWriteExecutor =
+          journaledIndexEnabled ? Util.newSingleThreadExecutor(INDEX_WRITER_THREAD_NAME) : null;
+      try {
+        return new SimpleCache(
+            cacheDir,
+            evictor,
+            new CachedContentIndex(
+                databaseProvider,
+                cacheDir,
+                /* preferJournaledStorage= */ journaledIndexEnabled,
+                indexWriteExecutor != null ? indexWriteExecutor : directExecutor()),
+            new CacheFileMetadataIndex(databaseProvider, indexWriteExecutor),
+            contentDeduplicationEnabled && Util.SDK_INT >= 26
+                ? new CacheFileDigestIndex(databaseProvider)
+                : null,
+            concurrencyLevel,
+            incrementalInitializationEnabled,
+            indexWriteExecutor);
+      } catch (RuntimeException e) {
+        if (indexWriteExecutor != null) {
+          indexWriteExecutor.shutdown();
+        }
+        throw e;
+      }
+    }
+  }
+
+  /** Statistics describing the progress of the initialization of a {@link SimpleCache}. */
+  public static final class InitializationStats {
+
+    /** Whether the cache indices have been loaded, after which the cache can be used. */
+    public final boolean isIndexLoaded;
+
+    /** Whether the cache directory has been scanned, after which initialization is complete. */
+    public final boolean isDirectoryScanned;
+
+    /** The number of keys whose spans haven't been loaded yet. */
+    public final int pendingKeyCount;
+
+    /** The number of files in the file index that haven't been located yet. */
+    public final int pendingFileCount;
+
+    /** The number of files that have been scanned. */
+    public final long scannedFileCount;
+
+    /** The number of spans that have been loaded. */
+    public final long loadedSpanCount;
+
+    /**
+     * The number of keys whose spans were loaded when the key was accessed, rather than by the
+     * directory scan.
+     */
+    public final long onDemandLoadedKeyCount;
+
+    /** The number of unrecognized, empty or conflicting files that were deleted. */
+    public final long deletedFileCount;
+
+    /** The number of files in the file index that didn't exist. */
+    public final long missingFileCount;
+
+    /** The time taken to load the cache indices, or {@link C#TIME_UNSET} if not yet loaded. */
+    public final long indexLoadDurationMs;
+
+    /**
+     * The time taken to complete initialization, including the index load and the directory scan,
+     * or {@link C#TIME_UNSET} if not yet complete.
+     */
+    public final long initializationDurationMs;
+
+    /* package */ InitializationStats(
+        boolean isIndexLoaded,
+        boolean isDirectoryScanned,
+        int pendingKeyCount,
+        int pendingFileCount,
+        long scannedFileCount,
+        long loadedSpanCount,
+        long onDemandLoadedKeyCount,
+        long deletedFileCount,
+        long missingFileCount,
+        long indexLoadDurationMs,
+        long initializationDurationMs) {
+      this.isIndexLoaded = isIndexLoaded;
+      this.isDirectoryScanned = isDirectoryScanned;
+      this.pendingKeyCount = pendingKeyCount;
+      this.pendingFileCount = pendingFileCount;
+      this.scannedFileCount = scannedFileCount;
+      this.loadedSpanCount = loadedSpanCount;
+      this.onDemandLoadedKeyCount = onDemandLoadedKeyCount;
+      this.deletedFileCount = deletedFileCount;
+      this.missingFileCount = missingFileCount;
+      this.indexLoadDurationMs = indexLoadDurationMs;
+      this.initializationDurationMs = initializationDurationMs;
+    }
+  }
+
+  /** Statistics describing accesses to a {@link SimpleCache} and evictions from it. */
+  public static final class AccessStats {
+
+    /** The number of calls to {@link #startReadWrite} and {@link #startReadWriteNonBlocking}. */
+    public final long startReadWriteCount;
+
+    /**
+     * The total time spent waiting to acquire the locks of the cache in {@link #startReadWrite}
+     * and {@link #startReadWriteNonBlocking}, in microseconds.
+     */
+    public final long lockWaitTimeUs;
+
+    /**
+     * The number of calls to {@link #startReadWrite} that blocked because the requested data was
+     * being written by another caller.
+     */
+    public final long blockedStartReadWriteCount;
+
+    /**
+     * The total time spent blocked in {@link #startReadWrite} waiting for data that was being
+     * written by another caller, in microseconds.
+     */
+    public final long blockedTimeUs;
+
+    /** The number of spans that have been removed by the {@link CacheEvictor}. */
+    public final long evictedSpanCount;
+
+    /** The total length of the spans that have been removed by the {@link CacheEvictor}. */
+    public final long evictedBytes;
+
+    /* package */ AccessStats(
+        long startReadWriteCount,
+        long lockWaitTimeUs,
+        long blockedStartReadWriteCount,
+        long blockedTimeUs,
+        long evictedSpanCount,
+        long evictedBytes) {
+      this.startReadWriteCount = startReadWriteCount;
+      this.lockWaitTimeUs = lockWaitTimeUs;
+      this.blockedStartReadWriteCount = blockedStartReadWriteCount;
+      this.blockedTimeUs = blockedTimeUs;
+      this.evictedSpanCount = evictedSpanCount;
+      this.evictedBytes = evictedBytes;
+    }
+  }
+
+  /** The default concurrency level, which serializes all operations on a single lock. */
+  public static final int DEFAULT_CONCURRENCY_LEVEL = 1;
+
   private static final String TAG = "SimpleCache";
 
+  private static final String INDEX_WRITER_THREAD_NAME = "ExoPlayer:SimpleCacheIndexWriter";
+
+  /**
+   * The maximum number of span touches that can be pending before a reader blocks to apply them.
+   * Only used if the concurrency level is greater than one.
+   */
+  private static final int MAX_PENDING_SPAN_TOUCHES = 256;
+
+  /**
+   * The maximum number of files that are reconciled by the background directory scan each time it
+   * holds the global lock. Only used if incremental initialization is enabled.
+   */
+  private static final int DIRECTORY_SCAN_BATCH_SIZE = 64;
+
   /**
    * Cache files are distributed between a number of subdirectories. This helps to avoid poor
    * performance in cases where the performance of the underlying file system (e.g. FAT32) scales
@@ -62,19 +386,121 @@ public final class SimpleCache implements Cache {
 
   private static final String UID_FILE_SUFFIX = ".uid";
 
+  private static final String LINK_FILE_SUFFIX = ".link";
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
 
   private final File cacheDir;
   private final CacheEvictor evictor;
   private final CachedContentIndex contentIndex;
   @Nullable private final CacheFileMetadataIndex fileIndex;
+  @Nullable private final CacheFileDigestIndex digestIndex;
+  @Nullable private final ExecutorService indexWriteExecutor;
   private final HashMap<String, ArrayList<Listener>> listeners;
   private final Random random;
   private final boolean touchCacheSpans;
 
+  /**
+   * Guards global state. Operations that only access the state of a single key hold the read lock
+   * and the stripe lock for that key, whilst all other operations hold the write lock. If there's
+   * only a single stripe, all operations hold the write lock.
+   */
+  private final ReentrantReadWriteLock globalLock;
+
+  /** Signalled when a span is added or a hole span is released, if there's only one stripe. */
+  private final Condition globalLockCondition;
+
+  /** Per-key lock stripes, or {@code null} if all operations are serialized on the global lock. */
+  @Nullable private final ReentrantLock[] keyLocks;
+
+  /** Signalled when the corresponding stripe's version is incremented. */
+  @Nullable private final Condition[] keyLockConditions;
+
+  /**
+   * Incremented when a span is added or a hole span is released for a key in the corresponding
+   * stripe. Guarded by the corresponding stripe lock.
+   */
+  @Nullable private final long[] keyLockVersions;
+
+  /**
+   * Span touches that have been applied to the in-memory representation while holding a stripe
+   * lock, but for which the file index, listeners and evictor have not yet been updated.
+   */
+  private final ConcurrentLinkedQueue<SpanTouch> pendingSpanTouches;
+
+  private final AtomicInteger pendingSpanTouchCount;
+
+  private final boolean incrementalInitialization;
+
+  /**
+   * The metadata of files in the file index that haven't been located yet, keyed by file name. Only
+   * used if incremental initialization is enabled.
+   */
+  private final HashMap<String, CacheFileMetadata> pendingFileMetadata;
+
+  /**
+   * The names of the files in {@link #pendingFileMetadata}, keyed by the key to which they belong.
+   * Keys are removed once their spans have been loaded. Concurrent so that whether a key is pending
+   * can be checked without holding the global lock, but only modified whilst holding it
+   * exclusively.
+   */
+  private final ConcurrentHashMap<String, HashSet<String>> pendingFileNamesByKey;
+
+  /** Opened once initialization, including any background directory scan, is complete. */
+  private final ConditionVariable initializationCompleted;
+
+  /**
+   * The content digests of files that haven't been loaded as spans yet, keyed by file name. Only
+   * used if content deduplication is enabled.
+   */
+  private final HashMap<String, String> pendingFileDigests;
+
+  /** The content digests of span files, keyed by file name. */
+  private final HashMap<String, String> fileDigests;
+
+  /** The stored content, keyed by digest. */
+  private final HashMap<String, SharedContent> sharedContents;
+
+  /** The number of bytes that are counted more than once by {@link #totalSpace}. */
+  private long sharedBytes;
+
+  /**
+   * The lengths of the files of spans whose content is stored compressed, keyed by file name. The
+   * length of such a file differs from the length of its span.
+   */
+  private final HashMap<String, Long> compressedFileLengths;
+
+  /**
+   * The number of bytes by which the lengths of spans whose content is stored compressed exceed
+   * the lengths of their files.
+   */
+  private long compressionSavedBytes;
+
+  private long initializationStartTimeMs;
+  private long indexLoadDurationMs;
+  private long initializationDurationMs;
+  private long scannedFileCount;
+  private long loadedSpanCount;
+  private long onDemandLoadedKeyCount;
+  private long deletedFileCount;
+  private long missingFileCount;
+
+  private final AtomicLong startReadWriteCount;
+  private final AtomicLong lockWaitTimeNs;
+  private final AtomicLong blockedStartReadWriteCount;
+  private final AtomicLong blockedTimeNs;
+
+  /** The number of evictor callbacks in progress, during which removed spans count as evicted. */
+  private int evictorCallDepth;
+
+  private long evictedSpanCount;
+  private long evictedBytes;
+
   private long uid;
   private long totalSpace;
-  private boolean released;
+  private volatile boolean released;
   private @MonotonicNonNull CacheException initializationException;
 
   /**
@@ -121,6 +547,11 @@ public final class SimpleCache implements Cache {
         } catch (DatabaseIOException e) {
           Log.w(TAG, "Failed to delete file metadata: " + uid);
         }
+        try {
+          CacheFileDigestIndex.delete(databaseProvider, uid);
+        } catch (DatabaseIOException e) {
+          Log.w(TAG, "Failed to delete file digests: " + uid);
+        }
       }
     }
 
@@ -212,6 +643,36 @@ public final class SimpleCache implements Cache {
       CacheEvictor evictor,
       CachedContentIndex contentIndex,
       @Nullable CacheFileMetadataIndex fileIndex) {
+    this(
+        cacheDir,
+        evictor,
+        contentIndex,
+        fileIndex,
+        /* digestIndex= */ null,
+        DEFAULT_CONCURRENCY_LEVEL,
+        /* incrementalInitialization= */ false,
+        /* indexWriteExecutor= */ null);
+  }
+
+  /**
+   * @param digestIndex The index of the content digests of cache files, or {@code null} if content
+   *     isn't deduplicated. Requires a {@code fileIndex}.
+   * @param incrementalInitialization Whether the cache directory is scanned in the background after
+   *     the indices have been loaded. Requires a {@code fileIndex}.
+   * @param indexWriteExecutor The {@link ExecutorService} on which the indices write changes, if
+   *     any. It's shut down when the cache is released.
+   */
+  /* package */ SimpleCache(
+      File cacheDir,
+      CacheEvictor evictor,
+      CachedContentIndex contentIndex,
+      @Nullable CacheFileMetadataIndex fileIndex,
+      @Nullable CacheFileDigestIndex digestIndex,
+      int concurrencyLevel,
+      boolean incrementalInitialization,
+      @Nullable ExecutorService indexWriteExecutor) {
+    Assertions.checkArgument(!incrementalInitialization || fileIndex != null);
+    Assertions.checkArgument(digestIndex == null || fileIndex != null);
     if (!lockFolder(cacheDir)) {
       throw new IllegalStateException("Another SimpleCache instance uses the folder: " + cacheDir);
     }
@@ -220,20 +681,67 @@ public final class SimpleCache implements Cache {
     this.evictor = evictor;
     this.contentIndex = contentIndex;
     this.fileIndex = fileIndex;
+    this.digestIndex = digestIndex;
+    this.indexWriteExecutor = indexWriteExecutor;
     listeners = new HashMap<>();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
     uid = UID_UNSET;
+    globalLock = new ReentrantReadWriteLock();
+    globalLockCondition = globalLock.writeLock().newCondition();
+    if (concurrencyLevel > 1) {
+      keyLocks = new ReentrantLock[concurrencyLevel];
+      keyLockConditions = new Condition[concurrencyLevel];
+      for (int i = 0; i < concurrencyLevel; i++) {
+        keyLocks[i] = new ReentrantLock();
+        keyLockConditions[i] = keyLocks[i].newCondition();
+      }
+      keyLockVersions = new long[concurrencyLevel];
+    } else {
+      keyLocks = null;
+      keyLockConditions = null;
+      keyLockVersions = null;
+    }
+    pendingSpanTouches = new ConcurrentLinkedQueue<>();
+    pendingSpanTouchCount = new AtomicInteger();
+    this.incrementalInitialization = incrementalInitialization;
+    pendingFileMetadata = new HashMap<>();
+    pendingFileNamesByKey = new ConcurrentHashMap<>();
+    initializationCompleted = new ConditionVariable();
+    pendingFileDigests = new HashMap<>();
+    fileDigests = new HashMap<>();
+    sharedContents = new HashMap<>();
+    compressedFileLengths = new HashMap<>();
+    startReadWriteCount = new AtomicLong();
+    lockWaitTimeNs = new AtomicLong();
+    blockedStartReadWriteCount = new AtomicLong();
+    blockedTimeNs = new AtomicLong();
+    indexLoadDurationMs = C.TIME_UNSET;
+    initializationDurationMs = C.TIME_UNSET;
 
     // Start cache initialization.
     final ConditionVariable conditionVariable = new ConditionVariable();
     new Thread("ExoPlayer:SimpleCacheInit") {
       @Override
       public void run() {
-        synchronized (SimpleCache.this) {
+        @Nullable File[] filesToScan;
+        lockExclusive();
+        try {
           conditionVariable.open();
-          initialize();
-          SimpleCache.this.evictor.onCacheInitialized();
+          filesToScan = initialize();
+          if (filesToScan == null) {
+            SimpleCache.this.evictor.onCacheInitialized();
+            initializationCompleted.open();
+          }
+        } finally {
+          unlockExclusive();
+        }
+        if (filesToScan != null) {
+          try {
+            scanDirectory(filesToScan);
+          } finally {
+            initializationCompleted.open();
+          }
         }
       }
     }.start();
@@ -245,283 +753,554 @@ public final class SimpleCache implements Cache {
    *
    * @throws CacheException If an error occurred during initialization.
    */
-  public synchronized void checkInitialization() throws CacheException {
-    if (initializationException != null) {
-      throw initializationException;
+  public void checkInitialization() throws CacheException {
+    lockShared();
+    try {
+      if (initializationException != null) {
+        throw initializationException;
+      }
+    } finally {
+      unlockShared();
+    }
+  }
+
+  /**
+   * Returns statistics describing the progress of the initialization of the cache.
+   *
+   * <p>If {@link Builder#setIncrementalInitializationEnabled(boolean) incremental initialization}
+   * is enabled, this can be used to monitor the background directory scan.
+   */
+  public InitializationStats getInitializationStats() {
+    lockShared();
+    try {
+      return new InitializationStats(
+          /* isIndexLoaded= */ indexLoadDurationMs != C.TIME_UNSET,
+          /* isDirectoryScanned= */ initializationDurationMs != C.TIME_UNSET,
+          pendingFileNamesByKey.size(),
+          pendingFileMetadata.size(),
+          scannedFileCount,
+          loadedSpanCount,
+          onDemandLoadedKeyCount,
+          deletedFileCount,
+          missingFileCount,
+          indexLoadDurationMs,
+          initializationDurationMs);
+    } finally {
+      unlockShared();
     }
   }
 
-  @Override
-  public synchronized long getUid() {
-    return uid;
+  /**
+   * Returns statistics describing accesses to the cache and evictions from it since the cache was
+   * created.
+   */
+  public AccessStats getAccessStats() {
+    lockShared();
+    try {
+      return new AccessStats(
+          startReadWriteCount.get(),
+          lockWaitTimeNs.get() / 1000,
+          blockedStartReadWriteCount.get(),
+          blockedTimeNs.get() / 1000,
+          evictedSpanCount,
+          evictedBytes);
+    } finally {
+      unlockShared();
+    }
+  }
+
+  /** Blocks until initialization, including any background directory scan, is complete. */
+  @VisibleForTesting
+  /* package */ void blockUntilInitialized() {
+    initializationCompleted.block();
   }
 
   @Override
-  public synchronized void release() {
-    if (released) {
-      return;
-    }
-    listeners.clear();
-    removeStaleSpans();
+  public long getUid() {
+    lockShared();
     try {
-      contentIndex.store();
-    } catch (IOException e) {
-      Log.e(TAG, "Storing index file failed", e);
+      return uid;
     } finally {
-      unlockFolder(cacheDir);
-      released = true;
+      unlockShared();
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
-    Assertions.checkState(!released);
-    Assertions.checkNotNull(key);
-    Assertions.checkNotNull(listener);
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+  public void release() {
+    lockExclusive();
+    try {
+      if (released) {
+        return;
+      }
+      listeners.clear();
+      removeStaleSpans();
+      try {
+        contentIndex.store();
+        contentIndex.flush();
+        if (fileIndex != null) {
+          fileIndex.flush();
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Storing index file failed", e);
+      } finally {
+        if (indexWriteExecutor != null) {
+          indexWriteExecutor.shutdown();
+        }
+        unlockFolder(cacheDir);
+        released = true;
+      }
+    } finally {
+      unlockExclusive();
     }
-    listenersForKey.add(listener);
-    return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
-    if (released) {
-      return;
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    lockExclusive();
+    try {
+      Assertions.checkState(!released);
+      Assertions.checkNotNull(key);
+      Assertions.checkNotNull(listener);
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
+      return getCachedSpans(key);
+    } finally {
+      unlockExclusive();
     }
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+  }
+
+  @Override
+  public void removeListener(String key, Listener listener) {
+    lockExclusive();
+    try {
+      if (released) {
+        return;
+      }
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          listeners.remove(key);
+        }
       }
+    } finally {
+      unlockExclusive();
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
-    Assertions.checkState(!released);
-    CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent == null || cachedContent.isEmpty()
-        ? new TreeSet<>()
-        : new TreeSet<CacheSpan>(cachedContent.getSpans());
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    maybeLoadPendingKey(key);
+    lockKey(key);
+    try {
+      Assertions.checkState(!released);
+      CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent == null || cachedContent.isEmpty()
+          ? new TreeSet<>()
+          : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    } finally {
+      unlockKey(key);
+    }
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
-    Assertions.checkState(!released);
-    return new HashSet<>(contentIndex.getKeys());
+  public Set<String> getKeys() {
+    lockShared();
+    try {
+      Assertions.checkState(!released);
+      return new HashSet<>(contentIndex.getKeys());
+    } finally {
+      unlockShared();
+    }
   }
 
   @Override
-  public synchronized long getCacheSpace() {
-    Assertions.checkState(!released);
-    return totalSpace;
+  public long getCacheSpace() {
+    lockShared();
+    try {
+      Assertions.checkState(!released);
+      return totalSpace - sharedBytes - compressionSavedBytes;
+    } finally {
+      unlockShared();
+    }
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position, long length)
+  public CacheSpan startReadWrite(String key, long position, long length)
       throws InterruptedException, CacheException {
     Assertions.checkState(!released);
     checkInitialization();
+    startReadWriteCount.incrementAndGet();
 
-    while (true) {
-      CacheSpan span = startReadWriteNonBlocking(key, position, length);
-      if (span != null) {
-        return span;
-      } else {
-        // Lock not available. We'll be woken up when a span is added, or when a locked span is
-        // released. We'll be able to make progress when either:
-        // 1. A span is added for the requested key that covers the requested position, in which
-        //    case a read can be started.
-        // 2. The lock for the requested key is released, in which case a write can be started.
-        wait();
+    long blockedStartTimeNs = C.TIME_UNSET;
+    if (keyLocks == null) {
+      lockExclusiveTimed();
+      try {
+        while (true) {
+          CacheSpan span = tryStartReadWrite(key, position, length);
+          if (span != null) {
+            return span;
+          } else {
+            if (blockedStartTimeNs == C.TIME_UNSET) {
+              blockedStartTimeNs = System.nanoTime();
+            }
+            // Lock not available. We'll be woken up when a span is added, or when a locked span is
+            // released. We'll be able to make progress when either:
+            // 1. A span is added for the requested key that covers the requested position, in
+            //    which case a read can be started.
+            // 2. The lock for the requested key is released, in which case a write can be started.
+            globalLockCondition.await();
+          }
+        }
+      } finally {
+        unlockExclusive();
+        maybeRecordBlockedTime(blockedStartTimeNs);
+      }
+    }
+
+    int stripeIndex = getStripeIndex(key);
+    ReentrantLock keyLock = keyLocks[stripeIndex];
+    Condition keyLockCondition = Assertions.checkNotNull(keyLockConditions)[stripeIndex];
+    long[] keyLockVersions = Assertions.checkNotNull(this.keyLockVersions);
+    try {
+      while (true) {
+        long version;
+        keyLock.lock();
+        try {
+          version = keyLockVersions[stripeIndex];
+        } finally {
+          keyLock.unlock();
+        }
+        CacheSpan span = tryStartReadWrite(key, position, length);
+        if (span != null) {
+          return span;
+        }
+        if (blockedStartTimeNs == C.TIME_UNSET) {
+          blockedStartTimeNs = System.nanoTime();
+        }
+        // Lock not available. Wait until a span is added or a hole span is released for a key in
+        // the same stripe, unless that's already happened since the attempt above was started.
+        keyLock.lockInterruptibly();
+        try {
+          while (version == keyLockVersions[stripeIndex]) {
+            keyLockCondition.await();
+          }
+        } finally {
+          keyLock.unlock();
+        }
       }
+    } finally {
+      maybeRecordBlockedTime(blockedStartTimeNs);
     }
   }
 
   @Override
   @Nullable
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+  public CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+      throws CacheException {
+    startReadWriteCount.incrementAndGet();
+    return tryStartReadWrite(key, position, length);
+  }
+
+  @Nullable
+  private CacheSpan tryStartReadWrite(String key, long position, long length)
       throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
+    maybeLoadPendingKey(key);
 
-    SimpleCacheSpan span = getSpan(key, position, length);
-
-    if (span.isCached) {
-      // Read case.
-      return touchSpan(key, span);
+    if (keyLocks != null) {
+      // Try to serve the request holding only the lock for the key. This is possible unless the
+      // key has to be added to the index, or the in-memory representation has to be repaired.
+      lockKeyTimed(key);
+      try {
+        @Nullable CachedContent cachedContent = contentIndex.get(key);
+        if (cachedContent != null) {
+          SimpleCacheSpan span = cachedContent.getSpan(position, length);
+          if (!span.isCached) {
+            // Write case.
+            return cachedContent.lockRange(position, span.length) ? span : null;
+          } else if (hasExpectedFileLength(span)) {
+            // Read case.
+            return touchSpan(key, span);
+          }
+        }
+      } finally {
+        unlockKey(key);
+      }
     }
 
-    CachedContent cachedContent = contentIndex.getOrAdd(key);
-    if (cachedContent.lockRange(position, span.length)) {
-      // Write case.
-      return span;
-    }
+    lockExclusiveTimed();
+    try {
+      SimpleCacheSpan span = getSpan(key, position, length);
 
-    // Lock not available.
-    return null;
-  }
+      if (span.isCached) {
+        // Read case.
+        return touchSpan(key, span);
+      }
 
-  @Override
-  public synchronized File startFile(String key, long position, long length) throws CacheException {
-    Assertions.checkState(!released);
-    checkInitialization();
+      CachedContent cachedContent = contentIndex.getOrAdd(key);
+      if (cachedContent.lockRange(position, span.length)) {
+        // Write case.
+        return span;
+      }
 
-    CachedContent cachedContent = contentIndex.get(key);
-    Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isFullyLocked(position, length));
-    if (!cacheDir.exists()) {
-      // The cache directory has been deleted from underneath us. Recreate it, and remove in-memory
-      // spans corresponding to cache files that no longer exist.
-      createCacheDirectories(cacheDir);
-      removeStaleSpans();
-    }
-    evictor.onStartFile(this, key, position, length);
-    // Randomly distribute files into subdirectories with a uniform distribution.
-    File cacheSubDir = new File(cacheDir, Integer.toString(random.nextInt(SUBDIRECTORY_COUNT)));
-    if (!cacheSubDir.exists()) {
-      createCacheDirectories(cacheSubDir);
+      // Lock not available.
+      return null;
+    } finally {
+      unlockExclusive();
     }
-    long lastTouchTimestamp = System.currentTimeMillis();
-    return SimpleCacheSpan.getCacheFile(
-        cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
   }
 
   @Override
-  public synchronized void commitFile(File file, long length) throws CacheException {
-    Assertions.checkState(!released);
-    if (!file.exists()) {
-      return;
-    }
-    if (length == 0) {
-      file.delete();
-      return;
+  public File startFile(String key, long position, long length) throws CacheException {
+    lockExclusive();
+    try {
+      Assertions.checkState(!released);
+      checkInitialization();
+
+      CachedContent cachedContent = contentIndex.get(key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isFullyLocked(position, length));
+      if (!cacheDir.exists()) {
+        // The cache directory has been deleted from underneath us. Recreate it, and remove
+        // in-memory spans corresponding to cache files that no longer exist.
+        createCacheDirectories(cacheDir);
+        removeStaleSpans();
+      }
+      evictorCallDepth++;
+      try {
+        evictor.onStartFile(this, key, position, length);
+      } finally {
+        evictorCallDepth--;
+      }
+      // Randomly distribute files into subdirectories with a uniform distribution.
+      File cacheSubDir = new File(cacheDir, Integer.toString(random.nextInt(SUBDIRECTORY_COUNT)));
+      if (!cacheSubDir.exists()) {
+        createCacheDirectories(cacheSubDir);
+      }
+      long lastTouchTimestamp = System.currentTimeMillis();
+      return SimpleCacheSpan.getCacheFile(
+          cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
+    } finally {
+      unlockExclusive();
     }
+  }
 
-    SimpleCacheSpan span =
-        Assertions.checkNotNull(SimpleCacheSpan.createCacheEntry(file, length, contentIndex));
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
-    Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
+  @Override
+  public void commitFile(File file, long length) throws CacheException {
+    // Compute the digest before acquiring the lock, since the whole file has to be read.
+    @Nullable String digest = digestIndex != null && length > 0 ? computeDigest(file) : null;
+    lockExclusive();
+    try {
+      Assertions.checkState(!released);
+      if (!file.exists()) {
+        return;
+      }
+      if (length == 0) {
+        file.delete();
+        return;
+      }
 
-    // Check if the span conflicts with the set content length
-    long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
-    if (contentLength != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= contentLength);
-    }
+      SimpleCacheSpan span =
+          Assertions.checkNotNull(SimpleCacheSpan.createCacheEntry(file, length, contentIndex));
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
+      Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
 
-    if (fileIndex != null) {
-      String fileName = file.getName();
+      // Check if the span conflicts with the set content length
+      long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
+      if (contentLength != C.LENGTH_UNSET) {
+        Assertions.checkState((span.position + span.length) <= contentLength);
+      }
+
+      if (fileIndex != null) {
+        String fileName = file.getName();
+        try {
+          fileIndex.set(fileName, span.length, span.lastTouchTimestamp);
+        } catch (IOException e) {
+          throw new CacheException(e);
+        }
+      }
+      // Compressed content isn't shared, since the lengths of the files differ from those of their
+      // spans.
+      if (digest != null
+          && !ContentMetadata.isCompressed(cachedContent.getMetadata())
+          && maybeShareContent(file, digest, length)) {
+        pendingFileDigests.put(file.getName(), digest);
+        try {
+          Assertions.checkNotNull(digestIndex).set(file.getName(), digest);
+        } catch (IOException e) {
+          // The content won't be known to be shared next time the cache is initialized, in which
+          // case it will be counted more than once.
+          Log.w(TAG, "Failed to set file digest for: " + file.getName());
+        }
+      }
+      addSpan(span);
       try {
-        fileIndex.set(fileName, span.length, span.lastTouchTimestamp);
+        contentIndex.store();
       } catch (IOException e) {
         throw new CacheException(e);
       }
+      signalWaiters(span.key);
+    } finally {
+      unlockExclusive();
     }
-    addSpan(span);
+  }
+
+  @Override
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    lockExclusive();
     try {
-      contentIndex.store();
-    } catch (IOException e) {
-      throw new CacheException(e);
+      Assertions.checkState(!released);
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
+      cachedContent.unlockRange(holeSpan.position);
+      contentIndex.maybeRemove(cachedContent.key);
+      signalWaiters(holeSpan.key);
+    } finally {
+      unlockExclusive();
     }
-    notifyAll();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    Assertions.checkState(!released);
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
-    cachedContent.unlockRange(holeSpan.position);
-    contentIndex.maybeRemove(cachedContent.key);
-    notifyAll();
+  public void removeResource(String key) {
+    lockExclusive();
+    try {
+      Assertions.checkState(!released);
+      for (CacheSpan span : getCachedSpans(key)) {
+        removeSpanInternal(span);
+      }
+    } finally {
+      unlockExclusive();
+    }
   }
 
   @Override
-  public synchronized void removeResource(String key) {
-    Assertions.checkState(!released);
-    for (CacheSpan span : getCachedSpans(key)) {
+  public void removeSpan(CacheSpan span) {
+    lockExclusive();
+    try {
+      Assertions.checkState(!released);
       removeSpanInternal(span);
+    } finally {
+      unlockExclusive();
     }
   }
 
   @Override
-  public synchronized void removeSpan(CacheSpan span) {
-    Assertions.checkState(!released);
-    removeSpanInternal(span);
+  public boolean isCached(String key, long position, long length) {
+    maybeLoadPendingKey(key);
+    lockKey(key);
+    try {
+      Assertions.checkState(!released);
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null
+          && cachedContent.getCachedBytesLength(position, length) >= length;
+    } finally {
+      unlockKey(key);
+    }
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
-    Assertions.checkState(!released);
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
+  public long getCachedLength(String key, long position, long length) {
+    maybeLoadPendingKey(key);
+    lockKey(key);
+    try {
+      Assertions.checkState(!released);
+      if (length == C.LENGTH_UNSET) {
+        length = Long.MAX_VALUE;
+      }
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null
+          ? cachedContent.getCachedBytesLength(position, length)
+          : -length;
+    } finally {
+      unlockKey(key);
+    }
   }
 
   @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
-    Assertions.checkState(!released);
-    if (length == C.LENGTH_UNSET) {
-      length = Long.MAX_VALUE;
-    }
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
-  }
-
-  @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
-    long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
-    if (endPosition < 0) {
-      // The calculation rolled over (length is probably Long.MAX_VALUE).
-      endPosition = Long.MAX_VALUE;
-    }
-    long currentPosition = position;
-    long cachedBytes = 0;
-    while (currentPosition < endPosition) {
-      long maxRemainingLength = endPosition - currentPosition;
-      long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
-      if (blockLength > 0) {
-        cachedBytes += blockLength;
-      } else {
-        // There's a hole of length -blockLength.
-        blockLength = -blockLength;
+  public long getCachedBytes(String key, long position, long length) {
+    // Load the key before acquiring the lock for it, since loading requires the global lock to be
+    // held exclusively.
+    maybeLoadPendingKey(key);
+    lockKey(key);
+    try {
+      long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
+      if (endPosition < 0) {
+        // The calculation rolled over (length is probably Long.MAX_VALUE).
+        endPosition = Long.MAX_VALUE;
       }
-      currentPosition += blockLength;
+      long currentPosition = position;
+      long cachedBytes = 0;
+      while (currentPosition < endPosition) {
+        long maxRemainingLength = endPosition - currentPosition;
+        long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
+        if (blockLength > 0) {
+          cachedBytes += blockLength;
+        } else {
+          // There's a hole of length -blockLength.
+          blockLength = -blockLength;
+        }
+        currentPosition += blockLength;
+      }
+      return cachedBytes;
+    } finally {
+      unlockKey(key);
     }
-    return cachedBytes;
   }
 
   @Override
-  public synchronized void applyContentMetadataMutations(
-      String key, ContentMetadataMutations mutations) throws CacheException {
-    Assertions.checkState(!released);
-    checkInitialization();
-
-    contentIndex.applyContentMetadataMutations(key, mutations);
+  public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations)
+      throws CacheException {
+    lockExclusive();
     try {
-      contentIndex.store();
-    } catch (IOException e) {
-      throw new CacheException(e);
+      Assertions.checkState(!released);
+      checkInitialization();
+
+      contentIndex.applyContentMetadataMutations(key, mutations);
+      try {
+        contentIndex.store();
+      } catch (IOException e) {
+        throw new CacheException(e);
+      }
+    } finally {
+      unlockExclusive();
     }
   }
 
   @Override
-  public synchronized ContentMetadata getContentMetadata(String key) {
-    Assertions.checkState(!released);
-    return contentIndex.getContentMetadata(key);
+  public ContentMetadata getContentMetadata(String key) {
+    lockKey(key);
+    try {
+      Assertions.checkState(!released);
+      return contentIndex.getContentMetadata(key);
+    } finally {
+      unlockKey(key);
+    }
   }
 
-  /** Ensures that the cache's in-memory representation has been initialized. */
-  private void initialize() {
+  /**
+   * Ensures that the cache's in-memory representation has been initialized.
+   *
+   * <p>If incremental initialization is enabled, only the indices are loaded, and the files in the
+   * root directory are returned so that they can be passed to {@link #scanDirectory(File[])} once
+   * the global lock has been released.
+   *
+   * @return The files in the root directory if they still need to be scanned, or {@code null} if
+   *     initialization is complete or failed.
+   */
+  @Nullable
+  private File[] initialize() {
+    initializationStartTimeMs = SystemClock.elapsedRealtime();
     if (!cacheDir.exists()) {
       try {
         createCacheDirectories(cacheDir);
       } catch (CacheException e) {
         initializationException = e;
-        return;
+        return null;
       }
     }
 
@@ -530,7 +1309,7 @@ public final class SimpleCache implements Cache {
       String message = "Failed to list cache directory files: " + cacheDir;
       Log.e(TAG, message);
       initializationException = new CacheException(message);
-      return;
+      return null;
     }
 
     uid = loadUid(files);
@@ -541,15 +1320,24 @@ public final class SimpleCache implements Cache {
         String message = "Failed to create cache UID: " + cacheDir;
         Log.e(TAG, message, e);
         initializationException = new CacheException(message, e);
-        return;
+        return null;
       }
     }
 
     try {
       contentIndex.initialize(uid);
+      if (digestIndex != null) {
+        digestIndex.initialize(uid);
+        pendingFileDigests.putAll(digestIndex.getAll());
+      }
       if (fileIndex != null) {
         fileIndex.initialize(uid);
         Map<String, CacheFileMetadata> fileMetadata = fileIndex.getAll();
+        if (incrementalInitialization) {
+          addPendingFiles(fileMetadata);
+          indexLoadDurationMs = SystemClock.elapsedRealtime() - initializationStartTimeMs;
+          return files;
+        }
         loadDirectory(cacheDir, /* isRoot= */ true, files, fileMetadata);
         fileIndex.removeAll(fileMetadata.keySet());
       } else {
@@ -559,15 +1347,300 @@ public final class SimpleCache implements Cache {
       String message = "Failed to initialize cache indices: " + cacheDir;
       Log.e(TAG, message, e);
       initializationException = new CacheException(message, e);
-      return;
+      return null;
     }
 
+    onInitializationCompleted();
+    return null;
+  }
+
+  /** Removes empty content from the index and stores it once all files have been loaded. */
+  private void onInitializationCompleted() {
+    if (digestIndex != null && !pendingFileDigests.isEmpty()) {
+      // Remove the digests of files that no longer exist.
+      try {
+        digestIndex.removeAll(pendingFileDigests.keySet());
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to remove stale file digests");
+      }
+      pendingFileDigests.clear();
+    }
     contentIndex.removeEmpty();
     try {
       contentIndex.store();
     } catch (IOException e) {
       Log.e(TAG, "Storing index file failed", e);
     }
+    initializationDurationMs = SystemClock.elapsedRealtime() - initializationStartTimeMs;
+    if (indexLoadDurationMs == C.TIME_UNSET) {
+      indexLoadDurationMs = initializationDurationMs;
+    }
+  }
+
+  /**
+   * Records the files in the file index as pending, grouped by the key to which they belong, so
+   * that they can be located when the key is first accessed or by the background directory scan.
+   */
+  private void addPendingFiles(Map<String, CacheFileMetadata> fileMetadata) {
+    pendingFileMetadata.putAll(fileMetadata);
+    for (String fileName : fileMetadata.keySet()) {
+      int id = SimpleCacheSpan.getCacheFileId(fileName);
+      @Nullable String key = id != C.INDEX_UNSET ? contentIndex.getKeyForId(id) : null;
+      if (key == null) {
+        // The file will be deleted by the directory scan, if it exists.
+        continue;
+      }
+      @Nullable HashSet<String> fileNames = pendingFileNamesByKey.get(key);
+      if (fileNames == null) {
+        fileNames = new HashSet<>();
+        pendingFileNamesByKey.put(key, fileNames);
+      }
+      fileNames.add(fileName);
+    }
+  }
+
+  /**
+   * Loads the spans of {@code key} if they haven't been loaded yet, by looking for the files in the
+   * file index that belong to the key in each of the cache directories. Must not be called whilst
+   * holding the global lock for reading only.
+   */
+  private void maybeLoadPendingKey(String key) {
+    if (pendingFileNamesByKey.isEmpty() || !pendingFileNamesByKey.containsKey(key)) {
+      return;
+    }
+    lockExclusive();
+    try {
+      @Nullable HashSet<String> fileNames = pendingFileNamesByKey.remove(key);
+      if (fileNames == null || released) {
+        return;
+      }
+      for (String fileName : fileNames) {
+        @Nullable CacheFileMetadata metadata = pendingFileMetadata.remove(fileName);
+        if (metadata == null) {
+          continue;
+        }
+        @Nullable File file = findCacheFile(fileName);
+        @Nullable
+        SimpleCacheSpan span =
+            file != null
+                ? SimpleCacheSpan.createCacheEntry(
+                    file, metadata.length, metadata.lastTouchTimestamp, contentIndex)
+                : null;
+        if (span != null) {
+          addSpan(span);
+          loadedSpanCount++;
+        } else {
+          missingFileCount++;
+          removeFileIndexEntry(fileName);
+        }
+      }
+      onDemandLoadedKeyCount++;
+    } finally {
+      unlockExclusive();
+    }
+  }
+
+  /**
+   * Returns the cache file with the given name in one of the cache subdirectories or the root
+   * directory, or {@code null} if it doesn't exist.
+   */
+  @Nullable
+  private File findCacheFile(String fileName) {
+    for (int i = 0; i < SUBDIRECTORY_COUNT; i++) {
+      File file = new File(new File(cacheDir, Integer.toString(i)), fileName);
+      if (file.exists()) {
+        return file;
+      }
+    }
+    File file = new File(cacheDir, fileName);
+    return file.exists() ? file : null;
+  }
+
+  /**
+   * Scans the cache directory in the background, reconciling each file with the in-memory
+   * representation. Directories are listed without holding the global lock, which is acquired for
+   * batches of files so that other operations can proceed whilst the scan is in progress.
+   *
+   * @param rootFiles The files belonging to the root directory.
+   */
+  private void scanDirectory(File[] rootFiles) {
+    ArrayList<File> files = new ArrayList<>();
+    ArrayList<File> deferredFiles = new ArrayList<>();
+    for (File rootFile : rootFiles) {
+      String fileName = rootFile.getName();
+      if (fileName.indexOf('.') == -1) {
+        @Nullable File[] subdirectoryFiles = rootFile.listFiles();
+        if (subdirectoryFiles == null || subdirectoryFiles.length == 0) {
+          // See loadDirectory.
+          rootFile.delete();
+        } else {
+          Collections.addAll(files, subdirectoryFiles);
+        }
+      } else if (!CachedContentIndex.isIndexFile(fileName)
+          && !fileName.endsWith(UID_FILE_SUFFIX)) {
+        files.add(rootFile);
+      }
+      if (!reconcileFiles(files, deferredFiles)) {
+        return;
+      }
+      files.clear();
+    }
+
+    lockExclusive();
+    try {
+      if (released) {
+        return;
+      }
+      // All files have been scanned, so any files in the file index that are still pending don't
+      // exist.
+      missingFileCount += pendingFileMetadata.size();
+      for (String fileName : pendingFileMetadata.keySet()) {
+        removeFileIndexEntry(fileName);
+      }
+      pendingFileMetadata.clear();
+      pendingFileNamesByKey.clear();
+    } finally {
+      unlockExclusive();
+    }
+
+    if (!reconcileFiles(deferredFiles, /* deferredFiles= */ null)) {
+      return;
+    }
+
+    lockExclusive();
+    try {
+      if (!released) {
+        onInitializationCompleted();
+        evictor.onCacheInitialized();
+      }
+    } finally {
+      unlockExclusive();
+    }
+  }
+
+  /**
+   * Reconciles scanned files with the in-memory representation, acquiring the global lock once for
+   * each batch of files.
+   *
+   * @param files The scanned files.
+   * @param deferredFiles A list to which files that need to be reconciled once all pending files
+   *     have been found are added, or {@code null} if all pending files have been found.
+   * @return Whether the scan should continue, which is {@code false} if the cache has been
+   *     released.
+   */
+  private boolean reconcileFiles(List<File> files, @Nullable List<File> deferredFiles) {
+    int reconciledFileCount = 0;
+    while (reconciledFileCount < files.size()) {
+      lockExclusive();
+      try {
+        if (released) {
+          return false;
+        }
+        int batchEndIndex = min(reconciledFileCount + DIRECTORY_SCAN_BATCH_SIZE, files.size());
+        for (; reconciledFileCount < batchEndIndex; reconciledFileCount++) {
+          reconcileFile(files.get(reconciledFileCount), deferredFiles);
+        }
+      } finally {
+        unlockExclusive();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reconciles a file found by the background directory scan with the in-memory representation.
+   * Must be called with the global lock held exclusively.
+   *
+   * <p>A pending file from the file index is loaded as a span. Other files are either already
+   * known (if the span was located when its key was accessed, or if it was written after the
+   * directory was listed), are being written, or are missing from the file index. The latter are
+   * deferred until all of the pending files of their key have been found, and then added if they
+   * don't conflict with the known spans of the key, or deleted otherwise.
+   *
+   * @param file The file.
+   * @param deferredFiles A list to which the file is added if it needs to be reconciled once all
+   *     pending files have been found, or {@code null} if all pending files have been found.
+   */
+  private void reconcileFile(File file, @Nullable List<File> deferredFiles) {
+    if (deferredFiles != null) {
+      scannedFileCount++;
+    }
+    String fileName = file.getName();
+    @Nullable CacheFileMetadata metadata = pendingFileMetadata.remove(fileName);
+    if (metadata != null) {
+      @Nullable
+      SimpleCacheSpan span =
+          SimpleCacheSpan.createCacheEntry(
+              file, metadata.length, metadata.lastTouchTimestamp, contentIndex);
+      if (span == null) {
+        deletedFileCount++;
+        file.delete();
+        return;
+      }
+      @Nullable HashSet<String> fileNames = pendingFileNamesByKey.get(span.key);
+      if (fileNames != null) {
+        fileNames.remove(fileName);
+        if (fileNames.isEmpty()) {
+          pendingFileNamesByKey.remove(span.key);
+        }
+      }
+      addSpan(span);
+      loadedSpanCount++;
+      return;
+    }
+
+    @Nullable
+    SimpleCacheSpan span =
+        SimpleCacheSpan.createCacheEntry(file, C.LENGTH_UNSET, C.TIME_UNSET, contentIndex);
+    if (span == null) {
+      deletedFileCount++;
+      file.delete();
+      return;
+    }
+    // The file may have been renamed if it was created by an earlier version.
+    File spanFile = Assertions.checkNotNull(span.file);
+    CachedContent cachedContent = contentIndex.getOrAdd(span.key);
+    SimpleCacheSpan existingSpan = cachedContent.getSpan(span.position, span.length);
+    if (existingSpan.isCached && spanFile.equals(existingSpan.file)) {
+      // The span is already known.
+      return;
+    }
+    if (deferredFiles != null && pendingFileNamesByKey.containsKey(span.key)) {
+      deferredFiles.add(spanFile);
+      return;
+    }
+    if (cachedContent.isPartiallyLocked(span.position, span.length)) {
+      // The file may be being written.
+      return;
+    }
+    if (existingSpan.isCached
+        || (!existingSpan.isOpenEnded() && existingSpan.length < span.length)
+        || ContentMetadata.isCompressed(cachedContent.getMetadata())) {
+      // The file overlaps a known span, or its content is compressed and so the length of its
+      // span is unknown.
+      deletedFileCount++;
+      spanFile.delete();
+      return;
+    }
+    if (fileIndex != null) {
+      try {
+        fileIndex.set(spanFile.getName(), span.length, span.lastTouchTimestamp);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to add file index entry for: " + spanFile);
+      }
+    }
+    addSpan(span);
+    loadedSpanCount++;
+  }
+
+  private void removeFileIndexEntry(String fileName) {
+    try {
+      Assertions.checkNotNull(fileIndex).remove(fileName);
+    } catch (IOException e) {
+      // This will leave a stale entry in the file index. It will be removed next time the cache is
+      // initialized.
+      Log.w(TAG, "Failed to remove file index entry for: " + fileName);
+    }
   }
 
   /**
@@ -604,6 +1677,7 @@ public final class SimpleCache implements Cache {
           // Skip expected UID and index files in the root directory.
           continue;
         }
+        scannedFileCount++;
         long length = C.LENGTH_UNSET;
         long lastTouchTimestamp = C.TIME_UNSET;
         @Nullable
@@ -615,9 +1689,15 @@ public final class SimpleCache implements Cache {
         @Nullable
         SimpleCacheSpan span =
             SimpleCacheSpan.createCacheEntry(file, length, lastTouchTimestamp, contentIndex);
+        if (span != null && metadata == null && isCompressed(span.key)) {
+          // The content of the file is compressed, so the length of its span is unknown.
+          span = null;
+        }
         if (span != null) {
           addSpan(span);
+          loadedSpanCount++;
         } else {
+          deletedFileCount++;
           file.delete();
         }
       }
@@ -628,6 +1708,9 @@ public final class SimpleCache implements Cache {
    * Touches a cache span, returning the updated result. If the evictor does not require cache spans
    * to be touched, then this method does nothing and the span is returned without modification.
    *
+   * <p>If only the lock for the key is held, updating the file index, listeners and evictor is
+   * deferred until the global lock is next held exclusively.
+   *
    * @param key The key of the span being touched.
    * @param span The span being touched.
    * @return The updated span.
@@ -636,26 +1719,45 @@ public final class SimpleCache implements Cache {
     if (!touchCacheSpans) {
       return span;
     }
-    String fileName = Assertions.checkNotNull(span.file).getName();
-    long length = span.length;
     long lastTouchTimestamp = System.currentTimeMillis();
-    boolean updateFile = false;
+    // Updating the file itself to incorporate the new last touch timestamp is much slower than
+    // updating the file index. Hence we only update the file if we don't have a file index.
+    boolean updateFile = fileIndex == null;
+    SimpleCacheSpan newSpan =
+        Assertions.checkNotNull(contentIndex.get(key))
+            .setLastTouchTimestamp(span, lastTouchTimestamp, updateFile);
+    if (globalLock.isWriteLockedByCurrentThread()) {
+      onSpanTouched(span, newSpan);
+    } else {
+      pendingSpanTouchCount.incrementAndGet();
+      pendingSpanTouches.add(new SpanTouch(span, newSpan));
+    }
+    return newSpan;
+  }
+
+  /**
+   * Updates the file index, listeners and evictor after a span has been touched. Must be called
+   * with the global lock held exclusively.
+   */
+  private void onSpanTouched(SimpleCacheSpan oldSpan, SimpleCacheSpan newSpan) {
+    File oldFile = Assertions.checkNotNull(oldSpan.file);
+    File newFile = Assertions.checkNotNull(newSpan.file);
+    if (!oldFile.equals(newFile)) {
+      // The file was renamed.
+      @Nullable Long compressedFileLength = compressedFileLengths.remove(oldFile.getName());
+      if (compressedFileLength != null) {
+        compressedFileLengths.put(newFile.getName(), compressedFileLength);
+      }
+    }
     if (fileIndex != null) {
+      String fileName = Assertions.checkNotNull(newSpan.file).getName();
       try {
-        fileIndex.set(fileName, length, lastTouchTimestamp);
+        fileIndex.set(fileName, newSpan.length, newSpan.lastTouchTimestamp);
       } catch (IOException e) {
         Log.w(TAG, "Failed to update index with new touch timestamp.");
       }
-    } else {
-      // Updating the file itself to incorporate the new last touch timestamp is much slower than
-      // updating the file index. Hence we only update the file if we don't have a file index.
-      updateFile = true;
     }
-    SimpleCacheSpan newSpan =
-        Assertions.checkNotNull(contentIndex.get(key))
-            .setLastTouchTimestamp(span, lastTouchTimestamp, updateFile);
-    notifySpanTouched(span, newSpan);
-    return newSpan;
+    notifySpanTouched(oldSpan, newSpan);
   }
 
   /**
@@ -674,7 +1776,7 @@ public final class SimpleCache implements Cache {
     }
     while (true) {
       SimpleCacheSpan span = cachedContent.getSpan(position, length);
-      if (span.isCached && Assertions.checkNotNull(span.file).length() != span.length) {
+      if (span.isCached && !hasExpectedFileLength(span)) {
         // The file has been modified or deleted underneath us. It's likely that other files will
         // have been modified too, so scan the whole in-memory representation.
         removeStaleSpans();
@@ -690,8 +1792,18 @@ public final class SimpleCache implements Cache {
    * @param span The span to be added.
    */
   private void addSpan(SimpleCacheSpan span) {
-    contentIndex.getOrAdd(span.key).addSpan(span);
+    CachedContent cachedContent = contentIndex.getOrAdd(span.key);
+    cachedContent.addSpan(span);
     totalSpace += span.length;
+    if (ContentMetadata.isCompressed(cachedContent.getMetadata())) {
+      File file = Assertions.checkNotNull(span.file);
+      long fileLength = file.length();
+      compressedFileLengths.put(file.getName(), fileLength);
+      compressionSavedBytes += span.length - fileLength;
+      notifySavedBytesChanged();
+    } else if (digestIndex != null) {
+      addSharedContentReference(span);
+    }
     notifySpanAdded(span);
   }
 
@@ -701,6 +1813,19 @@ public final class SimpleCache implements Cache {
       return;
     }
     totalSpace -= span.length;
+    if (evictorCallDepth > 0) {
+      evictedSpanCount++;
+      evictedBytes += span.length;
+    }
+    @Nullable
+    Long compressedFileLength =
+        compressedFileLengths.remove(Assertions.checkNotNull(span.file).getName());
+    if (compressedFileLength != null) {
+      compressionSavedBytes -= span.length - compressedFileLength;
+      notifySavedBytesChanged();
+    } else if (digestIndex != null) {
+      removeSharedContentReference(span);
+    }
     if (fileIndex != null) {
       String fileName = Assertions.checkNotNull(span.file).getName();
       try {
@@ -723,7 +1848,7 @@ public final class SimpleCache implements Cache {
     ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
     for (CachedContent cachedContent : contentIndex.getAll()) {
       for (CacheSpan span : cachedContent.getSpans()) {
-        if (Assertions.checkNotNull(span.file).length() != span.length) {
+        if (!hasExpectedFileLength(span)) {
           spansToBeRemoved.add(span);
         }
       }
@@ -733,6 +1858,121 @@ public final class SimpleCache implements Cache {
     }
   }
 
+  /**
+   * Replaces a new cache file with a hard link to an existing file with identical content, if there
+   * is one.
+   *
+   * @param file The new cache file.
+   * @param digest The digest of the content of the file.
+   * @param length The length of the file.
+   * @return Whether the content is either shared with an existing file or not yet stored, in which
+   *     case the digest should be recorded for the file.
+   */
+  private boolean maybeShareContent(File file, String digest, long length) {
+    @Nullable SharedContent sharedContent = sharedContents.get(digest);
+    if (sharedContent == null) {
+      return true;
+    }
+    if (sharedContent.length != length) {
+      return false;
+    }
+    File sharedFile = sharedContent.files.iterator().next();
+    if (Util.SDK_INT < 26 || sharedFile.length() != length) {
+      return false;
+    }
+    // Create the link under a temporary name and then rename it, so that the new file is left
+    // intact if linking fails.
+    File linkFile = new File(file.getPath() + LINK_FILE_SUFFIX);
+    try {
+      linkFile.delete();
+      Api26.createLink(linkFile, sharedFile);
+    } catch (IOException | UnsupportedOperationException | SecurityException e) {
+      Log.w(TAG, "Failed to link cache file: " + file, e);
+      return false;
+    }
+    if (!linkFile.renameTo(file)) {
+      linkFile.delete();
+      return false;
+    }
+    return true;
+  }
+
+  /** Records that a newly added span references shared content, if its digest is known. */
+  private void addSharedContentReference(SimpleCacheSpan span) {
+    File file = Assertions.checkNotNull(span.file);
+    @Nullable String digest = pendingFileDigests.remove(file.getName());
+    if (digest == null) {
+      return;
+    }
+    fileDigests.put(file.getName(), digest);
+    @Nullable SharedContent sharedContent = sharedContents.get(digest);
+    if (sharedContent == null) {
+      sharedContent = new SharedContent(span.length);
+      sharedContents.put(digest, sharedContent);
+    } else {
+      sharedBytes += sharedContent.length;
+      notifySavedBytesChanged();
+    }
+    sharedContent.files.add(file);
+  }
+
+  /** Records that a removed span no longer references shared content. */
+  private void removeSharedContentReference(CacheSpan span) {
+    File file = Assertions.checkNotNull(span.file);
+    @Nullable String digest = fileDigests.remove(file.getName());
+    if (digest == null) {
+      return;
+    }
+    try {
+      Assertions.checkNotNull(digestIndex).removeAll(Collections.singleton(file.getName()));
+    } catch (IOException e) {
+      // This will leave a stale entry in the digest index. It will be removed next time the cache
+      // is initialized.
+      Log.w(TAG, "Failed to remove file digest for: " + file.getName());
+    }
+    SharedContent sharedContent = Assertions.checkNotNull(sharedContents.get(digest));
+    sharedContent.files.remove(file);
+    if (sharedContent.files.isEmpty()) {
+      sharedContents.remove(digest);
+    } else {
+      sharedBytes -= sharedContent.length;
+      notifySavedBytesChanged();
+    }
+  }
+
+  /**
+   * Notifies the evictor of the number of bytes saved by storing shared content once and by
+   * storing content compressed.
+   */
+  private void notifySavedBytesChanged() {
+    evictor.onSavedBytesChanged(this, sharedBytes + compressionSavedBytes);
+  }
+
+  /**
+   * Returns whether the file of a cached span has the expected length, which is the length of the
+   * span unless its content is stored compressed. Must be called with the global lock held.
+   */
+  private boolean hasExpectedFileLength(CacheSpan span) {
+    File file = Assertions.checkNotNull(span.file);
+    long fileLength = file.length();
+    if (fileLength == span.length) {
+      return true;
+    }
+    @Nullable
+    Long compressedFileLength =
+        compressedFileLengths.isEmpty() ? null : compressedFileLengths.get(file.getName());
+    return compressedFileLength != null && fileLength == compressedFileLength;
+  }
+
+  /**
+   * Returns whether the spans of {@code key} are stored compressed, in which case their lengths
+   * can't be determined from their files.
+   */
+  private boolean isCompressed(String key) {
+    @Nullable CachedContent cachedContent = contentIndex.get(key);
+    return cachedContent != null && ContentMetadata.isCompressed(cachedContent.getMetadata());
+  }
+
   private void notifySpanRemoved(CacheSpan span) {
     @Nullable ArrayList<Listener> keyListeners = listeners.get(span.key);
     if (keyListeners != null) {
@@ -750,7 +1990,12 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanAdded(this, span);
       }
     }
-    evictor.onSpanAdded(this, span);
+    evictorCallDepth++;
+    try {
+      evictor.onSpanAdded(this, span);
+    } finally {
+      evictorCallDepth--;
+    }
   }
 
   private void notifySpanTouched(SimpleCacheSpan oldSpan, CacheSpan newSpan) {
@@ -760,7 +2005,130 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
       }
     }
-    evictor.onSpanTouched(this, oldSpan, newSpan);
+    evictorCallDepth++;
+    try {
+      evictor.onSpanTouched(this, oldSpan, newSpan);
+    } finally {
+      evictorCallDepth--;
+    }
+  }
+
+  /** Acquires the global lock exclusively, and applies any pending span touches. */
+  private void lockExclusive() {
+    globalLock.writeLock().lock();
+    applyPendingSpanTouches();
+  }
+
+  private void unlockExclusive() {
+    globalLock.writeLock().unlock();
+  }
+
+  /**
+   * Acquires the global lock for an operation that reads global state. This is an exclusive lock
+   * if all operations are serialized on the global lock.
+   */
+  private void lockShared() {
+    if (keyLocks == null) {
+      lockExclusive();
+    } else {
+      globalLock.readLock().lock();
+    }
+  }
+
+  private void unlockShared() {
+    if (keyLocks == null) {
+      unlockExclusive();
+    } else {
+      globalLock.readLock().unlock();
+      maybeApplyPendingSpanTouches();
+    }
+  }
+
+  /** Acquires the lock for {@code key}, recording the time spent waiting for it. */
+  private void lockKeyTimed(String key) {
+    long startTimeNs = System.nanoTime();
+    lockKey(key);
+    lockWaitTimeNs.addAndGet(System.nanoTime() - startTimeNs);
+  }
+
+  /** Acquires the global lock exclusively, recording the time spent waiting for it. */
+  private void lockExclusiveTimed() {
+    long startTimeNs = System.nanoTime();
+    lockExclusive();
+    lockWaitTimeNs.addAndGet(System.nanoTime() - startTimeNs);
+  }
+
+  private void maybeRecordBlockedTime(long blockedStartTimeNs) {
+    if (blockedStartTimeNs != C.TIME_UNSET) {
+      blockedStartReadWriteCount.incrementAndGet();
+      blockedTimeNs.addAndGet(System.nanoTime() - blockedStartTimeNs);
+    }
+  }
+
+  /** Acquires the locks required for an operation that only accesses the state of {@code key}. */
+  private void lockKey(String key) {
+    lockShared();
+    if (keyLocks != null) {
+      keyLocks[getStripeIndex(key)].lock();
+    }
+  }
+
+  private void unlockKey(String key) {
+    if (keyLocks != null) {
+      keyLocks[getStripeIndex(key)].unlock();
+    }
+    unlockShared();
+  }
+
+  private int getStripeIndex(String key) {
+    int hash = key.hashCode();
+    return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % Assertions.checkNotNull(keyLocks).length;
+  }
+
+  /** Wakes up threads blocked in {@link #startReadWrite} for {@code key}. */
+  private void signalWaiters(String key) {
+    if (keyLocks == null) {
+      globalLockCondition.signalAll();
+      return;
+    }
+    int stripeIndex = getStripeIndex(key);
+    ReentrantLock keyLock = keyLocks[stripeIndex];
+    keyLock.lock();
+    try {
+      Assertions.checkNotNull(keyLockVersions)[stripeIndex]++;
+      Assertions.checkNotNull(keyLockConditions)[stripeIndex].signalAll();
+    } finally {
+      keyLock.unlock();
+    }
+  }
+
+  /**
+   * Applies pending span touches if the global lock can be acquired exclusively without blocking,
+   * or if too many span touches are pending. Does nothing if the current thread holds the global
+   * lock for reading.
+   */
+  private void maybeApplyPendingSpanTouches() {
+    if (pendingSpanTouchCount.get() <= 0 || globalLock.getReadHoldCount() > 0) {
+      return;
+    }
+    if (pendingSpanTouchCount.get() >= MAX_PENDING_SPAN_TOUCHES) {
+      lockExclusive();
+      unlockExclusive();
+    } else if (globalLock.writeLock().tryLock()) {
+      try {
+        applyPendingSpanTouches();
+      } finally {
+        globalLock.writeLock().unlock();
+      }
+    }
+  }
+
+  private void applyPendingSpanTouches() {
+    @Nullable SpanTouch spanTouch;
+    while ((spanTouch = pendingSpanTouches.poll()) != null) {
+      pendingSpanTouchCount.decrementAndGet();
+      onSpanTouched(spanTouch.oldSpan, spanTouch.newSpan);
+    }
   }
 
   /**
@@ -804,6 +2172,25 @@ public final class SimpleCache implements Cache {
     return Long.parseLong(fileName.substring(0, fileName.indexOf('.')), /* radix= */ 16);
   }
 
+  /**
+   * Returns the hex encoded digest of the content of a file, or {@code null} if it can't be read.
+   */
+  @Nullable
+  private static String computeDigest(File file) {
+    try (InputStream inputStream = new FileInputStream(file)) {
+      MessageDigest messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      byte[] buffer = new byte[16 * 1024];
+      int bytesRead;
+      while ((bytesRead = inputStream.read(buffer)) != -1) {
+        messageDigest.update(buffer, 0, bytesRead);
+      }
+      return Util.toHexString(messageDigest.digest());
+    } catch (IOException | NoSuchAlgorithmException e) {
+      Log.w(TAG, "Failed to compute digest of: " + file, e);
+      return null;
+    }
+  }
+
   private static void createCacheDirectories(File cacheDir) throws CacheException {
     // If mkdirs() returns false, double check that the directory doesn't exist before throwing.
     if (!cacheDir.mkdirs() && !cacheDir.isDirectory()) {
@@ -820,4 +2207,34 @@ public final class SimpleCache implements Cache {
   private static synchronized void unlockFolder(File cacheDir) {
     lockedCacheDirs.remove(cacheDir.getAbsoluteFile());
   }
+
+  private static final class SharedContent {
+
+    public final long length;
+    public final HashSet<File> files;
+
+    public SharedContent(long length) {
+      this.length = length;
+      files = new HashSet<>();
+    }
+  }
+
+  @RequiresApi(26)
+  private static final class Api26 {
+
+    public static void createLink(File link, File existing) throws IOException {
+      Files.createLink(link.toPath(), existing.toPath());
+    }
+  }
+
+  private static final class SpanTouch {
+
+    public final SimpleCacheSpan oldSpan;
+    public final SimpleCacheSpan newSpan;
+
+    public SpanTouch(SimpleCacheSpan oldSpan, SimpleCacheSpan newSpan) {
+      this.oldSpan = oldSpan;
+      this.newSpan = newSpan;
+    }
+  }
 }
@@ -50,6 +50,20 @@ import java.util.regex.Pattern;
     return new File(cacheDir, id + "." + position + "." + timestamp + SUFFIX);
   }
 
+  /**
+   * Returns the id encoded in the name of a cache file.
+   *
+   * @param fileName The name of the cache file.
+   * @return The id, or {@link C#INDEX_UNSET} if the name isn't that of a cache file created by the
+   *     current version of {@link SimpleCache}.
+   */
+  public static int getCacheFileId(String fileName) {
+    Matcher matcher = CACHE_FILE_PATTERN_V3.matcher(fileName);
+    return matcher.matches()
+        ? Integer.parseInt(Assertions.checkNotNull(matcher.group(1)))
+        : C.INDEX_UNSET;
+  }
+
   /**
    * Creates a lookup span.
    *
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**
+ * Evicts cache content based on how frequently and how recently it's been accessed, using the
+ * W-TinyLFU policy.
+ *
+ * <p>Unlike {@link LeastRecentlyUsedCacheEvictor}, which evicts individual spans, this evictor
+ * tracks and evicts all spans of a cache key together. Newly cached keys enter a small
+ * least-recently-used admission window. Keys that overflow the window are only admitted to the
+ * main part of the cache if they have been accessed more frequently than the keys they would
+ * replace, as estimated by a compact frequency sketch. This makes the cache resistant to scans: a
+ * long piece of content that's played through once, or a bulk download, can't flush out a small
+ * set of frequently accessed content such as shared intros, thumbnails and initialization
+ * segments. The main part of the cache is split into a probation segment and a protected segment,
+ * to which keys are promoted when they're accessed again.
+ *
+ * <p>An access to a key is counted when a span of the key is added or read at a position that
+ * isn't after the position of the previous counted access, or if the key isn't already in the
+ * cache. Sequentially reading or writing the spans of a key therefore counts as a single access.
+ */
+@UnstableApi
+public final class WindowTinyLfuCacheEvictor implements CacheEvictor {
+
+  /** The default number of cache keys for which access frequencies are tracked accurately. */
+  public static final int DEFAULT_EXPECTED_KEY_COUNT = 4096;
+
+  /** The fraction of the maximum size of the cache that's used for the admission window. */
+  private static final float WINDOW_FRACTION = 0.01f;
+
+  /** The fraction of the main part of the cache that's used for the protected segment. */
+  private static final float PROTECTED_FRACTION = 0.8f;
+
+  private static final int REGION_WINDOW = 0;
+  private static final int REGION_PROBATION = 1;
+  private static final int REGION_PROTECTED = 2;
+
+  private final long maxBytes;
+  private final long maxWindowBytes;
+  private final long maxProtectedBytes;
+  private final FrequencySketch frequencySketch;
+  private final HashMap<String, Entry> entries;
+  private final LinkedHashMap<String, Entry> window;
+  private final LinkedHashMap<String, Entry> probation;
+  private final LinkedHashMap<String, Entry> protectedEntries;
+
+  private long currentSize;
+  private long windowSize;
+  private long protectedSize;
+  private long savedBytes;
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   */
+  public WindowTinyLfuCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_EXPECTED_KEY_COUNT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param expectedKeyCount The number of cache keys for which access frequencies are expected to
+   *     be tracked. This should be in the order of the number of keys in the cache. Larger values
+   *     improve the accuracy of the frequency estimates, at the cost of memory.
+   */
+  public WindowTinyLfuCacheEvictor(long maxBytes, int expectedKeyCount) {
+    checkArgument(maxBytes > 0);
+    this.maxBytes = maxBytes;
+    maxWindowBytes = (long) (maxBytes * WINDOW_FRACTION);
+    maxProtectedBytes = (long) ((maxBytes - maxWindowBytes) * PROTECTED_FRACTION);
+    frequencySketch = new FrequencySketch(expectedKeyCount);
+    entries = new HashMap<>();
+    window = new LinkedHashMap<>();
+    probation = new LinkedHashMap<>();
+    protectedEntries = new LinkedHashMap<>();
+  }
+
+  @Override
+  public boolean requiresCacheSpanTouches() {
+    return true;
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    if (length != C.LENGTH_UNSET) {
+      evictCache(cache, length);
+    }
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    @Nullable Entry entry = entries.get(span.key);
+    if (entry == null) {
+      entry = new Entry(span.key);
+      entries.put(span.key, entry);
+      window.put(span.key, entry);
+      frequencySketch.increment(span.key);
+      entry.lastAccessPosition = span.position;
+    } else {
+      onAccess(entry, span.position);
+    }
+    entry.spans.add(span);
+    entry.size += span.length;
+    currentSize += span.length;
+    updateRegionSize(entry.region, span.length);
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    @Nullable Entry entry = entries.get(span.key);
+    if (entry == null || !entry.spans.remove(span)) {
+      return;
+    }
+    entry.size -= span.length;
+    currentSize -= span.length;
+    updateRegionSize(entry.region, -span.length);
+    if (entry.spans.isEmpty()) {
+      removeEntry(entry);
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    @Nullable Entry entry = entries.get(oldSpan.key);
+    if (entry == null) {
+      onSpanAdded(cache, newSpan);
+      return;
+    }
+    entry.spans.remove(oldSpan);
+    entry.spans.add(newSpan);
+    long sizeDelta = newSpan.length - oldSpan.length;
+    entry.size += sizeDelta;
+    currentSize += sizeDelta;
+    updateRegionSize(entry.region, sizeDelta);
+    onAccess(entry, newSpan.position);
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSavedBytesChanged(Cache cache, long savedBytes) {
+    this.savedBytes = savedBytes;
+  }
+
+  /** Returns the estimated access frequency of {@code key}. */
+  @VisibleForTesting
+  /* package */ int getFrequency(String key) {
+    return frequencySketch.getFrequency(key);
+  }
+
+  /**
+   * Updates the recency and, if the access is counted, frequency of {@code entry} following an
+   * access at {@code position}.
+   */
+  private void onAccess(Entry entry, long position) {
+    boolean countAccess = position <= entry.lastAccessPosition;
+    entry.lastAccessPosition = position;
+    if (countAccess) {
+      frequencySketch.increment(entry.key);
+    }
+    switch (entry.region) {
+      case REGION_WINDOW:
+        moveToMostRecentlyUsed(window, entry);
+        break;
+      case REGION_PROBATION:
+        if (countAccess) {
+          // Promote the entry, and demote the least recently used protected entries if the
+          // protected segment overflows.
+          probation.remove(entry.key);
+          setRegion(entry, REGION_PROTECTED);
+          protectedEntries.put(entry.key, entry);
+          demoteProtectedEntries();
+        } else {
+          moveToMostRecentlyUsed(probation, entry);
+        }
+        break;
+      case REGION_PROTECTED:
+        moveToMostRecentlyUsed(protectedEntries, entry);
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private void evictCache(Cache cache, long requiredSpace) {
+    // Entries that overflow the window become candidates for admission to the main cache. Space
+    // that's required for new content counts towards the window, since that's where it'll be added.
+    ArrayDeque<Entry> candidates = new ArrayDeque<>();
+    while (requiredSpace > 0
+        ? windowSize + requiredSpace > maxWindowBytes && !window.isEmpty()
+        : windowSize > maxWindowBytes && window.size() > 1) {
+      Entry candidate = checkNotNull(getEldest(window));
+      window.remove(candidate.key);
+      setRegion(candidate, REGION_PROBATION);
+      candidates.add(candidate);
+    }
+    while (currentSize - savedBytes + requiredSpace > maxBytes && !entries.isEmpty()) {
+      @Nullable Entry candidate = candidates.peek();
+      @Nullable Entry victim = getEldest(probation);
+      if (victim == null) {
+        victim = getEldest(protectedEntries);
+      }
+      Entry entryToEvict;
+      if (candidate == null) {
+        entryToEvict = victim != null ? victim : checkNotNull(getEldest(window));
+      } else if (victim != null
+          && frequencySketch.getFrequency(candidate.key)
+              > frequencySketch.getFrequency(victim.key)) {
+        entryToEvict = victim;
+      } else {
+        entryToEvict = candidates.remove();
+      }
+      evictEntry(cache, entryToEvict);
+    }
+    // Admit the remaining candidates.
+    for (Entry candidate : candidates) {
+      probation.put(candidate.key, candidate);
+    }
+  }
+
+  private void demoteProtectedEntries() {
+    Iterator<Entry> iterator = protectedEntries.values().iterator();
+    while (protectedSize > maxProtectedBytes && protectedEntries.size() > 1) {
+      Entry entry = iterator.next();
+      iterator.remove();
+      setRegion(entry, REGION_PROBATION);
+      probation.put(entry.key, entry);
+    }
+  }
+
+  private void evictEntry(Cache cache, Entry entry) {
+    for (CacheSpan span : new ArrayList<>(entry.spans)) {
+      cache.removeSpan(span);
+    }
+    if (entries.get(entry.key) == entry) {
+      // The cache didn't report the removal of all spans. Stop tracking the entry regardless, so
+      // that eviction makes progress.
+      currentSize -= entry.size;
+      updateRegionSize(entry.region, -entry.size);
+      removeEntry(entry);
+    }
+  }
+
+  private void removeEntry(Entry entry) {
+    entries.remove(entry.key);
+    getRegion(entry.region).remove(entry.key);
+  }
+
+  private void setRegion(Entry entry, int region) {
+    updateRegionSize(entry.region, -entry.size);
+    entry.region = region;
+    updateRegionSize(region, entry.size);
+  }
+
+  private void updateRegionSize(int region, long sizeDelta) {
+    if (region == REGION_WINDOW) {
+      windowSize += sizeDelta;
+    } else if (region == REGION_PROTECTED) {
+      protectedSize += sizeDelta;
+    }
+  }
+
+  private LinkedHashMap<String, Entry> getRegion(int region) {
+    switch (region) {
+      case REGION_WINDOW:
+        return window;
+      case REGION_PROBATION:
+        return probation;
+      case REGION_PROTECTED:
+        return protectedEntries;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  @Nullable
+  private static Entry getEldest(LinkedHashMap<String, Entry> region) {
+    return region.isEmpty() ? null : region.values().iterator().next();
+  }
+
+  private static void moveToMostRecentlyUsed(LinkedHashMap<String, Entry> region, Entry entry) {
+    region.remove(entry.key);
+    region.put(entry.key, entry);
+  }
+
+  private static final class Entry {
+
+    public final String key;
+    public final TreeSet<CacheSpan> spans;
+
+    public int region;
+    public long size;
+    public long lastAccessPosition;
+
+    public Entry(String key) {
+      this.key = key;
+      spans = new TreeSet<>();
+      region = REGION_WINDOW;
+    }
+  }
+}
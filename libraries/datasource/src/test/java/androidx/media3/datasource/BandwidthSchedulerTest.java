@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.PriorityTaskManager;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BandwidthScheduler}. */
+@RunWith(AndroidJUnit4.class)
+public final class BandwidthSchedulerTest {
+
+  private static final int RATE_BYTES_PER_SECOND = 100_000;
+  private static final int DATA_LENGTH = 50_000;
+
+  @Test
+  public void read_withHigherPriorityTask_isThrottled() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler =
+        new BandwidthScheduler(
+            priorityTaskManager,
+            BandwidthScheduler.RATE_UNLIMITED,
+            /* throttledBytesPerSecond= */ RATE_BYTES_PER_SECOND);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+
+    long readTimeMs = readToEnd(bandwidthScheduler, C.PRIORITY_DOWNLOAD);
+
+    // The first burst is read immediately, and the remaining bytes at the throttled rate.
+    assertThat(readTimeMs).isAtLeast(300);
+  }
+
+  @Test
+  public void read_withHighestPriority_isNotThrottled() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler =
+        new BandwidthScheduler(
+            priorityTaskManager,
+            BandwidthScheduler.RATE_UNLIMITED,
+            /* throttledBytesPerSecond= */ RATE_BYTES_PER_SECOND);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+
+    long readTimeMs = readToEnd(bandwidthScheduler, C.PRIORITY_PLAYBACK);
+
+    assertThat(readTimeMs).isLessThan(300);
+  }
+
+  @Test
+  public void read_withBackgroundPriority_isLimitedByMaxBackgroundRate() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler =
+        new BandwidthScheduler(
+            priorityTaskManager,
+            /* maxBackgroundBytesPerSecond= */ RATE_BYTES_PER_SECOND,
+            BandwidthScheduler.RATE_UNLIMITED);
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+
+    long readTimeMs = readToEnd(bandwidthScheduler, C.PRIORITY_DOWNLOAD);
+
+    assertThat(readTimeMs).isAtLeast(300);
+  }
+
+  @Test
+  public void read_withPlaybackPriority_isNotLimitedByMaxBackgroundRate() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler =
+        new BandwidthScheduler(
+            priorityTaskManager,
+            /* maxBackgroundBytesPerSecond= */ RATE_BYTES_PER_SECOND,
+            BandwidthScheduler.RATE_UNLIMITED);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+
+    long readTimeMs = readToEnd(bandwidthScheduler, C.PRIORITY_PLAYBACK);
+
+    assertThat(readTimeMs).isLessThan(300);
+  }
+
+  @Test
+  public void read_afterHigherPriorityTaskRemoved_isNotThrottled() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler =
+        new BandwidthScheduler(
+            priorityTaskManager,
+            BandwidthScheduler.RATE_UNLIMITED,
+            /* throttledBytesPerSecond= */ RATE_BYTES_PER_SECOND);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+
+    long readTimeMs = readToEnd(bandwidthScheduler, C.PRIORITY_DOWNLOAD);
+
+    assertThat(readTimeMs).isLessThan(300);
+  }
+
+  @Test
+  public void cacheDataSourceFactory_withBandwidthScheduler_returnsItsPriorityTaskManager() {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    BandwidthScheduler bandwidthScheduler = new BandwidthScheduler(priorityTaskManager);
+
+    CacheDataSource.Factory factory =
+        new CacheDataSource.Factory().setUpstreamBandwidthScheduler(bandwidthScheduler);
+
+    assertThat(factory.getUpstreamBandwidthScheduler()).isSameInstanceAs(bandwidthScheduler);
+    assertThat(factory.getUpstreamPriorityTaskManager()).isSameInstanceAs(priorityTaskManager);
+  }
+
+  /** Reads data with a {@link PriorityDataSource} and returns the time taken, in milliseconds. */
+  private static long readToEnd(BandwidthScheduler bandwidthScheduler, @C.Priority int priority)
+      throws Exception {
+    byte[] data = TestUtil.buildTestData(DATA_LENGTH);
+    DataSource dataSource =
+        new PriorityDataSource.Factory(
+                () -> new ByteArrayDataSource(data), bandwidthScheduler, priority)
+            .createDataSource();
+    long startTimeNs = System.nanoTime();
+    try {
+      dataSource.open(new DataSpec(Uri.EMPTY));
+      assertThat(DataSourceUtil.readToEnd(dataSource)).isEqualTo(data);
+    } finally {
+      dataSource.close();
+    }
+    return (System.nanoTime() - startTimeNs) / 1_000_000;
+  }
+}
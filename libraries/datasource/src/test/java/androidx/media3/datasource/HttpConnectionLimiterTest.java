@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link HttpConnectionLimiter}. */
+@RunWith(AndroidJUnit4.class)
+public final class HttpConnectionLimiterTest {
+
+  private static final String RESPONSE_BODY = "0123456789";
+  private static final long TIMEOUT_MS = 10_000;
+
+  private MockWebServer mockWebServer;
+
+  @Before
+  public void setUp() throws Exception {
+    mockWebServer = new MockWebServer();
+    mockWebServer.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mockWebServer.shutdown();
+  }
+
+  @Test
+  public void requestsToSameHost_withResponseBodiesRead_reuseConnection() throws Exception {
+    HttpConnectionLimiter connectionLimiter = new HttpConnectionLimiter();
+    enqueueResponses(/* count= */ 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(readToEnd(createDataSource(connectionLimiter))).isEqualTo(RESPONSE_BODY);
+    }
+
+    assertThat(mockWebServer.getRequestCount()).isEqualTo(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(mockWebServer.takeRequest().getSequenceNumber()).isEqualTo(i);
+    }
+    HttpConnectionLimiter.Stats stats = connectionLimiter.getStats();
+    assertThat(stats.requestCount).isEqualTo(3);
+    assertThat(stats.waitCount).isEqualTo(0);
+    assertThat(stats.activeConnectionCount).isEqualTo(0);
+  }
+
+  @Test
+  public void close_withResponseBodyNotRead_releasesConnection() throws Exception {
+    HttpConnectionLimiter connectionLimiter = new HttpConnectionLimiter();
+    enqueueResponses(/* count= */ 2);
+    DataSource dataSource = createDataSource(connectionLimiter);
+
+    dataSource.open(new DataSpec(getUri()));
+    dataSource.read(new byte[2], /* offset= */ 0, /* length= */ 2);
+    dataSource.close();
+    HttpConnectionLimiter.Stats statsAfterClose = connectionLimiter.getStats();
+    readToEnd(dataSource);
+
+    assertThat(statsAfterClose.activeConnectionCount).isEqualTo(0);
+    assertThat(connectionLimiter.getStats().requestCount).isEqualTo(2);
+  }
+
+  @Test
+  public void requestsToSameHost_withConnectionCloseHeader_useNewConnection() throws Exception {
+    HttpConnectionLimiter connectionLimiter = new HttpConnectionLimiter();
+    mockWebServer.enqueue(
+        new MockResponse().setBody(RESPONSE_BODY).setHeader("Connection", "close"));
+    mockWebServer.enqueue(new MockResponse().setBody(RESPONSE_BODY));
+
+    readToEnd(createDataSource(connectionLimiter));
+    readToEnd(createDataSource(connectionLimiter));
+
+    assertThat(mockWebServer.takeRequest().getSequenceNumber()).isEqualTo(0);
+    assertThat(mockWebServer.takeRequest().getSequenceNumber()).isEqualTo(0);
+  }
+
+  @Test
+  public void open_withMaxConnectionsPerHostInUse_waitsForConnection() throws Exception {
+    CountDownLatch waitStarted = new CountDownLatch(1);
+    HttpConnectionLimiter connectionLimiter =
+        new HttpConnectionLimiter(/* maxConnectionsPerHost= */ 1, waitStarted::countDown);
+    enqueueResponses(/* count= */ 2);
+    DataSource dataSource1 = createDataSource(connectionLimiter);
+    dataSource1.open(new DataSpec(getUri()));
+    AtomicReference<Object> result = new AtomicReference<>();
+
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                result.set(readToEnd(createDataSource(connectionLimiter)));
+              } catch (Exception e) {
+                result.set(e);
+              }
+            });
+    thread.start();
+    assertThat(waitStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    HttpConnectionLimiter.Stats statsWhileWaiting = connectionLimiter.getStats();
+    DataSourceUtil.readToEnd(dataSource1);
+    dataSource1.close();
+    thread.join(TIMEOUT_MS);
+
+    assertThat(statsWhileWaiting.waitCount).isEqualTo(1);
+    assertThat(statsWhileWaiting.requestCount).isEqualTo(1);
+    assertThat(statsWhileWaiting.activeConnectionCount).isEqualTo(1);
+    assertThat(result.get()).isEqualTo(RESPONSE_BODY);
+    HttpConnectionLimiter.Stats stats = connectionLimiter.getStats();
+    assertThat(stats.requestCount).isEqualTo(2);
+    assertThat(stats.activeConnectionCount).isEqualTo(0);
+  }
+
+  @Test
+  public void open_interruptedWhileWaitingForConnection_throws() throws Exception {
+    CountDownLatch waitStarted = new CountDownLatch(1);
+    HttpConnectionLimiter connectionLimiter =
+        new HttpConnectionLimiter(/* maxConnectionsPerHost= */ 1, waitStarted::countDown);
+    enqueueResponses(/* count= */ 1);
+    DataSource dataSource1 = createDataSource(connectionLimiter);
+    dataSource1.open(new DataSpec(getUri()));
+    AtomicReference<Exception> exception = new AtomicReference<>();
+
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                createDataSource(connectionLimiter).open(new DataSpec(getUri()));
+              } catch (Exception e) {
+                exception.set(e);
+              }
+            });
+    thread.start();
+    assertThat(waitStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    thread.interrupt();
+    thread.join(TIMEOUT_MS);
+    dataSource1.close();
+
+    assertThat(exception.get()).isInstanceOf(HttpDataSource.HttpDataSourceException.class);
+    HttpConnectionLimiter.Stats stats = connectionLimiter.getStats();
+    assertThat(stats.requestCount).isEqualTo(1);
+    assertThat(stats.activeConnectionCount).isEqualTo(0);
+  }
+
+  private void enqueueResponses(int count) {
+    for (int i = 0; i < count; i++) {
+      mockWebServer.enqueue(new MockResponse().setBody(RESPONSE_BODY));
+    }
+  }
+
+  private Uri getUri() {
+    return Uri.parse(mockWebServer.url("/test-path").toString());
+  }
+
+  private static DataSource createDataSource(HttpConnectionLimiter connectionLimiter) {
+    return new DefaultHttpDataSource.Factory()
+        .setConnectTimeoutMs(1000)
+        .setReadTimeoutMs(1000)
+        .setConnectionLimiter(connectionLimiter)
+        .createDataSource();
+  }
+
+  private String readToEnd(DataSource dataSource) throws Exception {
+    try {
+      dataSource.open(new DataSpec(getUri()));
+      return new String(DataSourceUtil.readToEnd(dataSource));
+    } finally {
+      dataSource.close();
+    }
+  }
+}
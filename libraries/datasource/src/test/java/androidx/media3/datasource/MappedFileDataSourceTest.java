@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheSpan;
+import androidx.media3.datasource.cache.NoOpCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MappedFileDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class MappedFileDataSourceTest {
+
+  @Rule public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void read_afterReopen_reusesMapping() throws Exception {
+    byte[] data = TestUtil.buildTestData(/* length= */ 100);
+    Uri uri = writeFile(data);
+    MappedFileDataSource.Factory factory = new MappedFileDataSource.Factory();
+    MappedFileDataSource dataSource1 = factory.createDataSource();
+    MappedFileDataSource dataSource2 = factory.createDataSource();
+
+    byte[] readData1 = readRange(dataSource1, uri, /* position= */ 0, /* length= */ 50);
+    byte[] readData2 = readRange(dataSource2, uri, /* position= */ 50, C.LENGTH_UNSET);
+
+    assertThat(readData1).isEqualTo(Arrays.copyOfRange(data, 0, 50));
+    assertThat(readData2).isEqualTo(Arrays.copyOfRange(data, 50, 100));
+    assertThat(dataSource1.getRetainedMappingCount()).isEqualTo(1);
+    assertThat(dataSource2.getRetainedMappingCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void read_afterFileModified_readsNewContent() throws Exception {
+    byte[] data = TestUtil.buildTestData(/* length= */ 100);
+    Uri uri = writeFile(data);
+    MappedFileDataSource dataSource = new MappedFileDataSource();
+    readRange(dataSource, uri, /* position= */ 0, C.LENGTH_UNSET);
+
+    byte[] newData = TestUtil.buildTestData(/* length= */ 120, /* seed= */ 1);
+    File file = new File(uri.getPath());
+    Files.write(Paths.get(file.getAbsolutePath()), newData);
+    byte[] readData = readRange(dataSource, uri, /* position= */ 0, C.LENGTH_UNSET);
+
+    assertThat(readData).isEqualTo(newData);
+  }
+
+  @Test
+  public void read_withMoreFilesThanMaxRetainedMappings_evictsLeastRecentlyUsed()
+      throws Exception {
+    Uri uri1 = writeFile(TestUtil.buildTestData(/* length= */ 10));
+    Uri uri2 = writeFile(TestUtil.buildTestData(/* length= */ 10));
+    Uri uri3 = writeFile(TestUtil.buildTestData(/* length= */ 10));
+    MappedFileDataSource dataSource =
+        new MappedFileDataSource.Factory().setMaxRetainedMappings(2).createDataSource();
+
+    readRange(dataSource, uri1, /* position= */ 0, C.LENGTH_UNSET);
+    readRange(dataSource, uri2, /* position= */ 0, C.LENGTH_UNSET);
+    readRange(dataSource, uri3, /* position= */ 0, C.LENGTH_UNSET);
+
+    assertThat(dataSource.getRetainedMappingCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void read_withMaxRetainedMappingsZero_doesNotRetainMappings() throws Exception {
+    byte[] data = TestUtil.buildTestData(/* length= */ 10);
+    Uri uri = writeFile(data);
+    MappedFileDataSource dataSource =
+        new MappedFileDataSource.Factory().setMaxRetainedMappings(0).createDataSource();
+
+    byte[] readData = readRange(dataSource, uri, /* position= */ 0, C.LENGTH_UNSET);
+
+    assertThat(readData).isEqualTo(data);
+    assertThat(dataSource.getRetainedMappingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void close_afterRetainedCacheSpanEvicted_releasesMapping() throws Exception {
+    SimpleCache cache =
+        new SimpleCache(
+            tempFolder.newFolder(), new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    try {
+      byte[] data = TestUtil.buildTestData(/* length= */ 100);
+      // Read the data through a cache data source, to write it to the cache.
+      readRange(
+          new CacheDataSource(cache, new ByteArrayDataSource(data)),
+          Uri.parse("test://key"),
+          /* position= */ 0,
+          C.LENGTH_UNSET);
+      CacheSpan span = cache.getCachedSpans("test://key").first();
+      Uri spanUri = Uri.fromFile(checkNotNull(span.file));
+      MappedFileDataSource dataSource = new MappedFileDataSource();
+      byte[] readData = readRange(dataSource, spanUri, /* position= */ 0, C.LENGTH_UNSET);
+      assertThat(dataSource.getRetainedMappingCount()).isEqualTo(1);
+
+      dataSource.open(new DataSpec(spanUri));
+      cache.removeSpan(span);
+      dataSource.close();
+
+      assertThat(readData).isEqualTo(data);
+      assertThat(dataSource.getRetainedMappingCount()).isEqualTo(0);
+    } finally {
+      cache.release();
+    }
+  }
+
+  private Uri writeFile(byte[] data) throws Exception {
+    File file = tempFolder.newFile();
+    Files.write(Paths.get(file.getAbsolutePath()), data);
+    return Uri.fromFile(file);
+  }
+
+  private static byte[] readRange(DataSource dataSource, Uri uri, long position, long length)
+      throws Exception {
+    try {
+      dataSource.open(
+          new DataSpec.Builder().setUri(uri).setPosition(position).setLength(length).build());
+      return DataSourceUtil.readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+}
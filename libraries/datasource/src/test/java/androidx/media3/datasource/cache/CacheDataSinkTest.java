@@ -0,0 +1,250 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSink;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link CacheDataSink}. */
+@RunWith(AndroidJUnit4.class)
+public final class CacheDataSinkTest {
+
+  private static final String KEY = "key";
+
+  private File tempFolder;
+  private SimpleCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void write_withDirectBuffer_writesDataAcrossFragmentsAndBuffers() throws Exception {
+    byte[] data = TestUtil.buildTestData(1000);
+    DataSink dataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setFragmentSize(300)
+            .setBufferSize(64)
+            .setDirectBufferEnabled(true)
+            .createDataSink();
+
+    writeInChunks(dataSink, data, /* chunkSize= */ 100);
+
+    assertThat(cache.getCachedSpans(KEY)).hasSize(4);
+    for (CacheSpan span : cache.getCachedSpans(KEY)) {
+      assertThat(span.length).isAtMost(300);
+    }
+    assertThat(readCachedData(data.length)).isEqualTo(data);
+  }
+
+  @Test
+  public void write_withDirectBufferAndWritesLargerThanBuffer_writesData() throws Exception {
+    byte[] data = TestUtil.buildTestData(1000);
+    DataSink dataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setBufferSize(16)
+            .setDirectBufferEnabled(true)
+            .createDataSink();
+
+    writeInChunks(dataSink, data, /* chunkSize= */ data.length);
+
+    assertThat(cache.getCachedSpans(KEY)).hasSize(1);
+    assertThat(readCachedData(data.length)).isEqualTo(data);
+  }
+
+  @Test
+  public void write_withDirectBufferReusedBySequentialSinks_doesNotLeakData() throws Exception {
+    CacheDataSink.Factory factory =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setBufferSize(64)
+            .setDirectBufferEnabled(true);
+    byte[] firstData = TestUtil.buildTestData(/* length= */ 50, /* seed= */ 1);
+    byte[] secondData = TestUtil.buildTestData(/* length= */ 30, /* seed= */ 2);
+
+    writeInChunks(factory.createDataSink(), firstData, /* chunkSize= */ 7, "key1");
+    writeInChunks(factory.createDataSink(), secondData, /* chunkSize= */ 7, "key2");
+
+    assertThat(readCachedData("key1", firstData.length)).isEqualTo(firstData);
+    assertThat(readCachedData("key2", secondData.length)).isEqualTo(secondData);
+  }
+
+  @Test
+  public void write_withSyncOnCommit_writesData() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    DataSink streamDataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setSyncPolicy(CacheDataSink.SYNC_POLICY_ON_COMMIT)
+            .createDataSink();
+    DataSink channelDataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setDirectBufferEnabled(true)
+            .setSyncPolicy(CacheDataSink.SYNC_POLICY_ON_COMMIT)
+            .createDataSink();
+
+    writeInChunks(streamDataSink, data, /* chunkSize= */ 10, "key1");
+    writeInChunks(channelDataSink, data, /* chunkSize= */ 10, "key2");
+
+    assertThat(readCachedData("key1", data.length)).isEqualTo(data);
+    assertThat(readCachedData("key2", data.length)).isEqualTo(data);
+  }
+
+  @Test
+  public void write_withCompressionPolicy_storesCompressedSpansThatReadCorrectly()
+      throws Exception {
+    String key = "playlist.m3u8";
+    byte[] data = buildPlaylist();
+    DataSink dataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setFragmentSize(1000)
+            .setCompressionPolicy(CacheCompressionPolicy.TEXT)
+            .createDataSink();
+
+    writeInChunks(dataSink, data, /* chunkSize= */ 100, key);
+
+    assertThat(ContentMetadata.isCompressed(cache.getContentMetadata(key))).isTrue();
+    assertThat(cache.getCachedSpans(key).size()).isGreaterThan(1);
+    assertThat(cache.getCacheSpace()).isLessThan(data.length / 2);
+    assertThat(readCachedData(key, /* position= */ 0, data.length)).isEqualTo(data);
+    // Read across the boundary between two spans.
+    assertThat(readCachedData(key, /* position= */ 900, /* length= */ 1200))
+        .isEqualTo(Arrays.copyOfRange(data, 900, 2100));
+  }
+
+  @Test
+  public void write_withCompressionPolicyAndUncompressedSpans_doesNotCompress() throws Exception {
+    String key = "playlist.m3u8";
+    byte[] data = buildPlaylist();
+    DataSink uncompressedDataSink = new CacheDataSink.Factory().setCache(cache).createDataSink();
+    DataSink dataSink =
+        new CacheDataSink.Factory()
+            .setCache(cache)
+            .setCompressionPolicy(CacheCompressionPolicy.TEXT)
+            .createDataSink();
+
+    writeInChunks(
+        uncompressedDataSink,
+        Arrays.copyOf(data, 1000),
+        /* chunkSize= */ 100,
+        key,
+        /* position= */ 0);
+    writeInChunks(
+        dataSink,
+        Arrays.copyOfRange(data, 1000, data.length),
+        /* chunkSize= */ 100,
+        key,
+        /* position= */ 1000);
+
+    assertThat(ContentMetadata.isCompressed(cache.getContentMetadata(key))).isFalse();
+    assertThat(cache.getCacheSpace()).isEqualTo(data.length);
+    assertThat(readCachedData(key, /* position= */ 0, data.length)).isEqualTo(data);
+  }
+
+  private void writeInChunks(DataSink dataSink, byte[] data, int chunkSize) throws IOException {
+    writeInChunks(dataSink, data, chunkSize, KEY);
+  }
+
+  private void writeInChunks(DataSink dataSink, byte[] data, int chunkSize, String key)
+      throws IOException {
+    writeInChunks(dataSink, data, chunkSize, key, /* position= */ 0);
+  }
+
+  private void writeInChunks(
+      DataSink dataSink, byte[] data, int chunkSize, String key, long position)
+      throws IOException {
+    CacheSpan holeSpan = cache.startReadWriteNonBlocking(key, position, /* length= */ data.length);
+    assertThat(holeSpan).isNotNull();
+    dataSink.open(
+        new DataSpec.Builder()
+            .setUri(Uri.parse("https://www.test.com/" + key))
+            .setPosition(position)
+            .setLength(data.length)
+            .setKey(key)
+            .setFlags(DataSpec.FLAG_ALLOW_CACHE_FRAGMENTATION)
+            .build());
+    for (int offset = 0; offset < data.length; offset += chunkSize) {
+      dataSink.write(data, offset, min(chunkSize, data.length - offset));
+    }
+    dataSink.close();
+    cache.releaseHoleSpan(holeSpan);
+  }
+
+  private byte[] readCachedData(int length) throws IOException {
+    return readCachedData(KEY, length);
+  }
+
+  private byte[] readCachedData(String key, int length) throws IOException {
+    assertThat(cache.getCachedBytes(key, /* position= */ 0, C.LENGTH_UNSET)).isEqualTo(length);
+    return readCachedData(key, /* position= */ 0, length);
+  }
+
+  private byte[] readCachedData(String key, long position, int length) throws IOException {
+    CacheDataSource cacheDataSource = new CacheDataSource(cache, /* upstreamDataSource= */ null);
+    cacheDataSource.open(
+        new DataSpec.Builder()
+            .setUri(Uri.parse("https://www.test.com/" + key))
+            .setPosition(position)
+            .setLength(length)
+            .setKey(key)
+            .build());
+    try {
+      return DataSourceUtil.readToEnd(cacheDataSource);
+    } finally {
+      cacheDataSource.close();
+    }
+  }
+
+  /** Returns a media playlist, which is highly compressible. */
+  private static byte[] buildPlaylist() {
+    StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:4\n");
+    for (int i = 0; playlist.length() < 4000; i++) {
+      playlist.append("#EXTINF:4.000,\nsegment").append(i).append(".ts\n");
+    }
+    return Util.getUtf8Bytes(playlist.toString());
+  }
+}
@@ -27,6 +27,7 @@ import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSourceUtil;
 import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.FileDataSource;
+import androidx.media3.datasource.MappedFileDataSource;
 import androidx.media3.test.utils.CacheAsserts;
 import androidx.media3.test.utils.FakeDataSet.FakeData;
 import androidx.media3.test.utils.FakeDataSource;
@@ -35,8 +36,10 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import org.junit.After;
@@ -147,6 +150,33 @@ public final class CacheDataSourceTest {
         /* unknownLength= */ false);
   }
 
+  @Test
+  public void cacheAndRead_withMappedCacheReadDataSource_readsFromCache() throws Exception {
+    // Read and cache all data from upstream.
+    CacheDataSource cacheDataSource = createCacheDataSource(false, false);
+    assertReadDataContentLength(
+        cacheDataSource, unboundedDataSpec, /* unknownLength= */ false, /* customCacheKey= */ false);
+    upstreamDataSource
+        .getDataSet()
+        .newDefaultData()
+        .appendReadData(TEST_DATA)
+        .appendReadError(new IOException("Shouldn't read from upstream"));
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(() -> upstreamDataSource)
+            .setCacheReadDataSourceFactory(new MappedFileDataSource.Factory())
+            .setCacheWriteDataSinkFactory(null);
+
+    // Read from cache twice, so that the second read reuses the mappings of the first one.
+    assertReadData(
+        cacheDataSourceFactory.createDataSource(), unboundedDataSpec, /* unknownLength= */ false);
+    assertReadData(
+        cacheDataSourceFactory.createDataSource(),
+        buildDataSpec(/* position= */ 4, /* length= */ 5),
+        /* unknownLength= */ false);
+  }
+
   @Test
   public void propagatesHttpHeadersUpstream() throws Exception {
     CacheDataSource cacheDataSource =
@@ -522,6 +552,63 @@ public final class CacheDataSourceTest {
     cacheDataSource.close();
   }
 
+  @Test
+  public void onRequestCompleted_reportsCacheResultAndBytesRead() throws Exception {
+    upstreamDataSource.getDataSet().newDefaultData().appendReadData(TEST_DATA);
+    List<CacheDataSource.RequestMetrics> requestMetrics = new ArrayList<>();
+    CacheDataSource.EventListener eventListener =
+        new CacheDataSource.EventListener() {
+          @Override
+          public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {}
+
+          @Override
+          public void onCacheIgnored(int reason) {}
+
+          @Override
+          public void onRequestCompleted(CacheDataSource.RequestMetrics metrics) {
+            requestMetrics.add(metrics);
+          }
+        };
+    CacheDataSource cacheDataSource =
+        new CacheDataSource(
+            cache,
+            upstreamDataSource,
+            new FileDataSource(),
+            new CacheDataSink(cache, CACHE_FRAGMENT_SIZE),
+            /* flags= */ 0,
+            eventListener);
+
+    DataSpec firstHalfDataSpec = buildDataSpec(/* position= */ 0, /* length= */ 5);
+    cacheDataSource.open(firstHalfDataSpec);
+    DataSourceUtil.readToEnd(cacheDataSource);
+    cacheDataSource.close();
+    cacheDataSource.open(firstHalfDataSpec);
+    DataSourceUtil.readToEnd(cacheDataSource);
+    cacheDataSource.close();
+    cacheDataSource.open(boundedDataSpec);
+    DataSourceUtil.readToEnd(cacheDataSource);
+    cacheDataSource.close();
+
+    assertThat(requestMetrics).hasSize(3);
+    CacheDataSource.RequestMetrics miss = requestMetrics.get(0);
+    assertThat(miss.key).isEqualTo(defaultCacheKey);
+    assertThat(miss.cacheResult).isEqualTo(CacheDataSource.CACHE_RESULT_MISS);
+    assertThat(miss.bytesReadFromCache).isEqualTo(0);
+    assertThat(miss.bytesReadFromUpstream).isEqualTo(5);
+    assertThat(miss.isFirstByteFromCache).isFalse();
+    assertThat(miss.timeToFirstByteUs).isAtLeast(0);
+    CacheDataSource.RequestMetrics hit = requestMetrics.get(1);
+    assertThat(hit.cacheResult).isEqualTo(CacheDataSource.CACHE_RESULT_HIT);
+    assertThat(hit.bytesReadFromCache).isEqualTo(5);
+    assertThat(hit.bytesReadFromUpstream).isEqualTo(0);
+    assertThat(hit.isFirstByteFromCache).isTrue();
+    CacheDataSource.RequestMetrics partialHit = requestMetrics.get(2);
+    assertThat(partialHit.cacheResult).isEqualTo(CacheDataSource.CACHE_RESULT_PARTIAL_HIT);
+    assertThat(partialHit.bytesReadFromCache).isEqualTo(5);
+    assertThat(partialHit.bytesReadFromUpstream).isEqualTo(5);
+    assertThat(partialHit.isFirstByteFromCache).isTrue();
+  }
+
   private void assertCacheAndRead(DataSpec dataSpec, boolean unknownLength) throws IOException {
     assertCacheAndRead(dataSpec, unknownLength, /* cacheKeyFactory= */ null);
   }
@@ -18,8 +18,10 @@ package androidx.media3.datasource.cache;
 import static com.google.common.truth.Truth.assertThat;
 
 import androidx.media3.database.DatabaseIOException;
+import androidx.media3.database.DatabaseProvider;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Map;
 import org.junit.Test;
@@ -126,6 +128,46 @@ public class CacheFileMetadataIndexTest {
     assertThat(metadata.lastTouchTimestamp).isEqualTo(123);
   }
 
+  @Test
+  public void insertAndRemove_withWriteExecutor_coalescesWrites() throws DatabaseIOException {
+    DatabaseProvider databaseProvider = TestUtil.getInMemoryDatabaseProvider();
+    ArrayDeque<Runnable> pendingWrites = new ArrayDeque<>();
+    CacheFileMetadataIndex index = new CacheFileMetadataIndex(databaseProvider, pendingWrites::add);
+    index.initialize(/* uid= */ 1234);
+
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 789);
+    index.remove("name2");
+
+    assertThat(pendingWrites).hasSize(1);
+    CacheFileMetadataIndex index2 = new CacheFileMetadataIndex(databaseProvider);
+    index2.initialize(/* uid= */ 1234);
+    assertThat(index2.getAll()).isEmpty();
+
+    pendingWrites.remove().run();
+    Map<String, CacheFileMetadata> all = index2.getAll();
+    assertThat(all.keySet()).containsExactly("name1");
+    assertThat(all.get("name1").lastTouchTimestamp).isEqualTo(789);
+  }
+
+  @Test
+  public void getAll_withWriteExecutor_includesPendingWrites() throws DatabaseIOException {
+    ArrayDeque<Runnable> pendingWrites = new ArrayDeque<>();
+    CacheFileMetadataIndex index =
+        new CacheFileMetadataIndex(TestUtil.getInMemoryDatabaseProvider(), pendingWrites::add);
+    index.initialize(/* uid= */ 1234);
+
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
+    HashSet<String> namesToRemove = new HashSet<>();
+    namesToRemove.add("name1");
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.removeAll(namesToRemove);
+
+    Map<String, CacheFileMetadata> all = index.getAll();
+    assertThat(all.keySet()).containsExactly("name2");
+  }
+
   private static CacheFileMetadataIndex newInitializedIndex() throws DatabaseIOException {
     CacheFileMetadataIndex index =
         new CacheFileMetadataIndex(TestUtil.getInMemoryDatabaseProvider());
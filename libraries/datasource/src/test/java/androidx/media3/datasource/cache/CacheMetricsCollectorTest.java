@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link CacheMetricsCollector}. */
+@RunWith(AndroidJUnit4.class)
+public final class CacheMetricsCollectorTest {
+
+  @Test
+  public void onRequestCompleted_aggregatesByKeyPrefix() {
+    CacheMetricsCollector collector = new CacheMetricsCollector();
+
+    collector.onRequestCompleted(
+        buildRequestMetrics(
+            "https://a.com/video/1.ts",
+            CacheDataSource.CACHE_RESULT_HIT,
+            /* bytesReadFromCache= */ 100,
+            /* bytesReadFromUpstream= */ 0,
+            /* timeToFirstByteUs= */ 3));
+    collector.onRequestCompleted(
+        buildRequestMetrics(
+            "https://a.com/video/2.ts",
+            CacheDataSource.CACHE_RESULT_PARTIAL_HIT,
+            /* bytesReadFromCache= */ 50,
+            /* bytesReadFromUpstream= */ 50,
+            /* timeToFirstByteUs= */ 5));
+    collector.onRequestCompleted(
+        buildRequestMetrics(
+            "https://a.com/audio/1.ts",
+            CacheDataSource.CACHE_RESULT_MISS,
+            /* bytesReadFromCache= */ 0,
+            /* bytesReadFromUpstream= */ 200,
+            /* timeToFirstByteUs= */ 1000));
+    ImmutableMap<String, CacheMetricsCollector.Metrics> metrics = collector.getMetrics();
+
+    assertThat(metrics.keySet()).containsExactly("https://a.com/video/", "https://a.com/audio/");
+    CacheMetricsCollector.Metrics videoMetrics = metrics.get("https://a.com/video/");
+    assertThat(videoMetrics.requestCount).isEqualTo(2);
+    assertThat(videoMetrics.hitCount).isEqualTo(1);
+    assertThat(videoMetrics.partialHitCount).isEqualTo(1);
+    assertThat(videoMetrics.missCount).isEqualTo(0);
+    assertThat(videoMetrics.bytesReadFromCache).isEqualTo(150);
+    assertThat(videoMetrics.bytesReadFromUpstream).isEqualTo(50);
+    assertThat(videoMetrics.getByteHitRatio()).isEqualTo(0.75);
+    assertThat(videoMetrics.cacheTimeToFirstByte.getCount()).isEqualTo(2);
+    assertThat(videoMetrics.upstreamTimeToFirstByte.getCount()).isEqualTo(0);
+    CacheMetricsCollector.Metrics audioMetrics = metrics.get("https://a.com/audio/");
+    assertThat(audioMetrics.missCount).isEqualTo(1);
+    assertThat(audioMetrics.upstreamTimeToFirstByte.getCount()).isEqualTo(1);
+    assertThat(audioMetrics.upstreamTimeToFirstByte.getMeanUs()).isEqualTo(1000);
+  }
+
+  @Test
+  public void onRequestCompleted_withMaxKeyPrefixCountReached_aggregatesUnderOtherKeyPrefix() {
+    CacheMetricsCollector collector =
+        new CacheMetricsCollector(CacheMetricsCollector.KeyPrefixFunction.DEFAULT, 2);
+
+    collector.onRequestCompleted(buildMissRequestMetrics("a/1"));
+    collector.onRequestCompleted(buildMissRequestMetrics("b/1"));
+    collector.onRequestCompleted(buildMissRequestMetrics("c/1"));
+    collector.onRequestCompleted(buildMissRequestMetrics("d/1"));
+    collector.onRequestCompleted(buildMissRequestMetrics("a/2"));
+    ImmutableMap<String, CacheMetricsCollector.Metrics> metrics = collector.getMetrics();
+
+    assertThat(metrics.keySet())
+        .containsExactly("a/", "b/", CacheMetricsCollector.OTHER_KEY_PREFIX);
+    assertThat(metrics.get("a/").requestCount).isEqualTo(2);
+    assertThat(metrics.get(CacheMetricsCollector.OTHER_KEY_PREFIX).requestCount).isEqualTo(2);
+  }
+
+  @Test
+  public void getMetrics_returnsSnapshot() {
+    CacheMetricsCollector collector = new CacheMetricsCollector();
+    collector.onRequestCompleted(buildMissRequestMetrics("a/1"));
+
+    CacheMetricsCollector.Metrics snapshot = collector.getMetrics().get("a/");
+    collector.onRequestCompleted(buildMissRequestMetrics("a/2"));
+
+    assertThat(snapshot.requestCount).isEqualTo(1);
+    assertThat(snapshot.upstreamTimeToFirstByte.getCount()).isEqualTo(1);
+    assertThat(collector.getMetrics().get("a/").requestCount).isEqualTo(2);
+  }
+
+  @Test
+  public void reset_discardsMetrics() {
+    CacheMetricsCollector collector = new CacheMetricsCollector();
+    collector.onRequestCompleted(buildMissRequestMetrics("a/1"));
+    collector.onCacheIgnored(CacheDataSource.CACHE_IGNORED_REASON_ERROR);
+
+    collector.reset();
+
+    assertThat(collector.getMetrics()).isEmpty();
+    assertThat(collector.getCacheIgnoredCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void histogram_percentiles() {
+    CacheMetricsCollector collector = new CacheMetricsCollector();
+    for (int i = 1; i <= 100; i++) {
+      collector.onRequestCompleted(
+          buildRequestMetrics(
+              "a/" + i,
+              CacheDataSource.CACHE_RESULT_HIT,
+              /* bytesReadFromCache= */ 1,
+              /* bytesReadFromUpstream= */ 0,
+              /* timeToFirstByteUs= */ i));
+    }
+
+    CacheMetricsCollector.Histogram histogram =
+        collector.getMetrics().get("a/").cacheTimeToFirstByte;
+
+    assertThat(histogram.getCount()).isEqualTo(100);
+    // Bucket 1 counts durations of 1us, and bucket 7 counts durations from 64us to 127us.
+    assertThat(histogram.getCount(/* bucketIndex= */ 1)).isEqualTo(1);
+    assertThat(histogram.getCount(/* bucketIndex= */ 7)).isEqualTo(37);
+    assertThat(histogram.getPercentileUs(0)).isEqualTo(1);
+    assertThat(histogram.getPercentileUs(50)).isEqualTo(63);
+    assertThat(histogram.getPercentileUs(100)).isEqualTo(127);
+    assertThat(collector.getMetrics().get("a/").upstreamTimeToFirstByte.getPercentileUs(50))
+        .isEqualTo(C.TIME_UNSET);
+  }
+
+  private static CacheDataSource.RequestMetrics buildMissRequestMetrics(String key) {
+    return buildRequestMetrics(
+        key,
+        CacheDataSource.CACHE_RESULT_MISS,
+        /* bytesReadFromCache= */ 0,
+        /* bytesReadFromUpstream= */ 10,
+        /* timeToFirstByteUs= */ 10);
+  }
+
+  private static CacheDataSource.RequestMetrics buildRequestMetrics(
+      String key,
+      @CacheDataSource.CacheResult int cacheResult,
+      long bytesReadFromCache,
+      long bytesReadFromUpstream,
+      long timeToFirstByteUs) {
+    return new CacheDataSource.RequestMetrics(
+        key,
+        cacheResult,
+        bytesReadFromCache,
+        bytesReadFromUpstream,
+        timeToFirstByteUs,
+        /* isFirstByteFromCache= */ bytesReadFromCache > 0,
+        /* cacheLockWaitTimeUs= */ 0);
+  }
+}
@@ -30,8 +30,15 @@ import androidx.media3.test.utils.FakeDataSource;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Supplier;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
@@ -45,6 +52,7 @@ public final class CacheWriterTest {
 
   private File tempFolder;
   private SimpleCache cache;
+  private ExecutorService executorService;
 
   @Before
   public void setUp() throws Exception {
@@ -53,10 +61,12 @@ public final class CacheWriterTest {
         Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
     cache =
         new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    executorService = Executors.newFixedThreadPool(/* nThreads= */ 4);
   }
 
   @After
   public void tearDown() {
+    executorService.shutdown();
     Util.recursiveDelete(tempFolder);
   }
 
@@ -263,6 +273,167 @@ public final class CacheWriterTest {
     assertCachedData(cache, fakeDataSet);
   }
 
+  @Test
+  public void cacheInParallel() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    List<FakeDataSource> upstreamDataSources = Collections.synchronizedList(new ArrayList<>());
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            createCacheDataSourceFactory(() -> createFakeDataSet(data), upstreamDataSources),
+            new DataSpec(Uri.parse("test_data")),
+            counters,
+            executorService,
+            /* maxParallelRequests= */ 4,
+            /* chunkLength= */ 16);
+    cacheWriter.cache();
+
+    counters.assertValues(0, 100, 100);
+    assertCachedData(cache, createFakeDataSet(data));
+    List<DataSpec> openedDataSpecs = getOpenedDataSpecs(upstreamDataSources);
+    // The first chunk resolves the length of the data, and the rest is requested in chunks.
+    assertThat(openedDataSpecs).hasSize(7);
+    assertThat(openedDataSpecs.get(0).length).isEqualTo(C.LENGTH_UNSET);
+    for (int i = 1; i < openedDataSpecs.size(); i++) {
+      assertThat(openedDataSpecs.get(i).length).isAtMost(16);
+    }
+  }
+
+  @Test
+  public void cacheInParallel_withPartiallyCachedData_onlyRequestsHoles() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    Uri testUri = Uri.parse("test_data");
+    new CacheWriter(
+            new CacheDataSource(cache, new FakeDataSource(createFakeDataSet(data))),
+            new DataSpec(testUri, /* position= */ 10, /* length= */ 20),
+            /* temporaryBuffer= */ null,
+            /* progressListener= */ null)
+        .cache();
+    List<FakeDataSource> upstreamDataSources = Collections.synchronizedList(new ArrayList<>());
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            createCacheDataSourceFactory(() -> createFakeDataSet(data), upstreamDataSources),
+            new DataSpec(testUri),
+            counters,
+            executorService,
+            /* maxParallelRequests= */ 4,
+            /* chunkLength= */ 32);
+    cacheWriter.cache();
+
+    counters.assertValues(20, 80, 100);
+    assertCachedData(cache, createFakeDataSet(data));
+    for (DataSpec dataSpec : getOpenedDataSpecs(upstreamDataSources)) {
+      assertThat(dataSpec.position + dataSpec.length <= 10 || dataSpec.position >= 30).isTrue();
+    }
+  }
+
+  @Test
+  public void cacheInParallel_lengthExceedsActualDataLength() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            createCacheDataSourceFactory(() -> createFakeDataSet(data), new ArrayList<>()),
+            new DataSpec(Uri.parse("test_data"), /* position= */ 0, /* length= */ 120),
+            counters,
+            executorService,
+            /* maxParallelRequests= */ 2,
+            /* chunkLength= */ 40);
+    cacheWriter.cache();
+
+    counters.assertValues(0, 100, 100);
+    assertCachedData(cache, createFakeDataSet(data));
+  }
+
+  @Test
+  public void cacheInParallel_unresolvableLength_cachesSequentially() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    List<FakeDataSource> upstreamDataSources = Collections.synchronizedList(new ArrayList<>());
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            createCacheDataSourceFactory(
+                () ->
+                    new FakeDataSet()
+                        .newData("test_data")
+                        .setSimulateUnknownLength(true)
+                        .appendReadData(data)
+                        .endData(),
+                upstreamDataSources),
+            new DataSpec(Uri.parse("test_data")),
+            counters,
+            executorService,
+            /* maxParallelRequests= */ 4,
+            /* chunkLength= */ 16);
+    cacheWriter.cache();
+
+    counters.assertValues(0, 100, 100);
+    assertCachedData(cache, createFakeDataSet(data));
+    assertThat(getOpenedDataSpecs(upstreamDataSources)).hasSize(2);
+  }
+
+  @Test
+  public void cacheInParallel_withFailingChunk_throwsAndCanBeResumed() throws Exception {
+    byte[] data = TestUtil.buildTestData(100);
+    AtomicBoolean failRead = new AtomicBoolean(/* initialValue= */ true);
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            createCacheDataSourceFactory(
+                () ->
+                    failRead.get()
+                        ? new FakeDataSet()
+                            .newData("test_data")
+                            .appendReadData(Arrays.copyOf(data, 50))
+                            .appendReadError(new IOException())
+                            .appendReadData(Arrays.copyOfRange(data, 50, 100))
+                            .endData()
+                        : createFakeDataSet(data),
+                new ArrayList<>()),
+            new DataSpec(Uri.parse("test_data")),
+            /* progressListener= */ null,
+            executorService,
+            /* maxParallelRequests= */ 4,
+            /* chunkLength= */ 20);
+
+    assertThrows(IOException.class, cacheWriter::cache);
+    failRead.set(false);
+    cacheWriter.cache();
+
+    assertCachedData(cache, createFakeDataSet(data));
+  }
+
+  private CacheDataSource.Factory createCacheDataSourceFactory(
+      Supplier<FakeDataSet> fakeDataSetSupplier, List<FakeDataSource> upstreamDataSources) {
+    // FakeDataSource instances sharing a FakeDataSet can't be used concurrently, so give each
+    // instance its own.
+    return new CacheDataSource.Factory()
+        .setCache(cache)
+        .setUpstreamDataSourceFactory(
+            () -> {
+              FakeDataSource dataSource = new FakeDataSource(fakeDataSetSupplier.get());
+              upstreamDataSources.add(dataSource);
+              return dataSource;
+            });
+  }
+
+  private static FakeDataSet createFakeDataSet(byte[] data) {
+    return new FakeDataSet().setData("test_data", data);
+  }
+
+  private static List<DataSpec> getOpenedDataSpecs(List<FakeDataSource> dataSources) {
+    List<DataSpec> openedDataSpecs = new ArrayList<>();
+    for (FakeDataSource dataSource : dataSources) {
+      Collections.addAll(openedDataSpecs, dataSource.getAndClearOpenedDataSpecs());
+    }
+    Collections.sort(openedDataSpecs, (a, b) -> Long.compare(a.position, b.position));
+    return openedDataSpecs;
+  }
+
   private static final class CachingCounters implements CacheWriter.ProgressListener {
 
     private long contentLength = C.LENGTH_UNSET;
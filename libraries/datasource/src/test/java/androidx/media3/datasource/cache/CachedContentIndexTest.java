@@ -23,15 +23,19 @@ import android.net.Uri;
 import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import androidx.media3.common.util.Util;
+import androidx.media3.database.DatabaseProvider;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -402,6 +406,152 @@ public class CachedContentIndexTest {
     assertStoredAndLoadedEqual(index, newLegacyInstance(key));
   }
 
+  @Test
+  public void journaledStoreAndLoad() throws Exception {
+    assertStoredAndLoadedEqual(newJournaledInstance(), newJournaledInstance());
+  }
+
+  @Test
+  public void journaledStoreAndLoad_withRemovedContent() throws Exception {
+    CachedContentIndex index = newJournaledInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.getOrAdd("key2");
+    index.store();
+    index.maybeRemove("key1");
+    index.store();
+
+    CachedContentIndex index2 = newJournaledInstance();
+    index2.initialize(/* uid= */ 0);
+
+    assertThat(index2.getKeys()).containsExactly("key2");
+    assertThat(index2.get("key2")).isEqualTo(index.get("key2"));
+  }
+
+  @Test
+  public void journaledStore_withPendingWrite_isNotPersistedUntilWritten() throws Exception {
+    ArrayDeque<Runnable> pendingWrites = new ArrayDeque<>();
+    CachedContentIndex index = newJournaledInstance(pendingWrites::add);
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+
+    // Both stores are coalesced into a single write.
+    assertThat(pendingWrites).hasSize(1);
+    CachedContentIndex index2 = newJournaledInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).isEmpty();
+
+    pendingWrites.remove().run();
+    CachedContentIndex index3 = newJournaledInstance();
+    index3.initialize(/* uid= */ 0);
+    assertThat(index3.getKeys()).containsExactly("key1", "key2");
+  }
+
+  @Test
+  public void journaledStore_withPendingWrite_doesNotReuseRemovedIdUntilWritten()
+      throws Exception {
+    ArrayDeque<Runnable> pendingWrites = new ArrayDeque<>();
+    CachedContentIndex index = newJournaledInstance(pendingWrites::add);
+    index.initialize(/* uid= */ 0);
+    int removedId = index.assignIdForKey("key1");
+    index.store();
+    pendingWrites.remove().run();
+
+    index.maybeRemove("key1");
+    index.store();
+    int idWhileRemovalPending = index.assignIdForKey("key2");
+    index.flush();
+    index.maybeRemove("key2");
+    index.store();
+    index.flush();
+    int idAfterRemovalWritten = index.assignIdForKey("key3");
+
+    assertThat(idWhileRemovalPending).isNotEqualTo(removedId);
+    assertThat(idAfterRemovalWritten).isEqualTo(removedId);
+  }
+
+  @Test
+  public void journaledStore_withLargeJournal_compactsIntoSnapshot() throws Exception {
+    CachedContentIndex index = newJournaledInstance();
+    index.initialize(/* uid= */ 0);
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNALED + ".journal");
+    byte[] value = TestUtil.buildTestData(/* length= */ 1024);
+    boolean compacted = false;
+    for (int i = 0; i < 100 && !compacted; i++) {
+      ContentMetadataMutations mutations = new ContentMetadataMutations();
+      mutations.set("value" + i, value);
+      index.applyContentMetadataMutations("key" + (i % 10), mutations);
+      index.store();
+      compacted = !journalFile.exists();
+    }
+
+    assertThat(compacted).isTrue();
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNALED).exists()).isTrue();
+    CachedContentIndex index2 = newJournaledInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).isEqualTo(index.getKeys());
+    for (String key : index.getKeys()) {
+      assertThat(index2.get(key)).isEqualTo(index.get(key));
+    }
+  }
+
+  @Test
+  public void journaledLoad_withPartiallyWrittenRecord_ignoresRecord() throws Exception {
+    CachedContentIndex index = newJournaledInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNALED + ".journal");
+    long validJournalLength = journalFile.length();
+    try (FileOutputStream outputStream = new FileOutputStream(journalFile, /* append= */ true)) {
+      outputStream.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+    }
+
+    CachedContentIndex index2 = newJournaledInstance();
+    index2.initialize(/* uid= */ 0);
+    index2.getOrAdd("key2");
+    index2.store();
+    CachedContentIndex index3 = newJournaledInstance();
+    index3.initialize(/* uid= */ 0);
+
+    assertThat(index2.getKeys()).containsExactly("key1", "key2");
+    assertThat(index3.getKeys()).containsExactly("key1", "key2");
+    assertThat(journalFile.length()).isGreaterThan(validJournalLength);
+  }
+
+  @Test
+  public void journaledInitialize_withDatabaseIndex_migratesIndex() throws Exception {
+    DatabaseProvider databaseProvider = TestUtil.getInMemoryDatabaseProvider();
+    CachedContentIndex databaseIndex = new CachedContentIndex(databaseProvider);
+    databaseIndex.initialize(/* uid= */ 0);
+    databaseIndex.getOrAdd("key1");
+    databaseIndex.store();
+
+    CachedContentIndex journaledIndex =
+        new CachedContentIndex(
+            databaseProvider,
+            cacheDir,
+            /* preferJournaledStorage= */ true,
+            MoreExecutors.directExecutor());
+    journaledIndex.initialize(/* uid= */ 0);
+    journaledIndex.getOrAdd("key2");
+    journaledIndex.store();
+    CachedContentIndex migratedBackIndex =
+        new CachedContentIndex(
+            databaseProvider,
+            cacheDir,
+            /* preferJournaledStorage= */ false,
+            MoreExecutors.directExecutor());
+    migratedBackIndex.initialize(/* uid= */ 0);
+
+    assertThat(journaledIndex.getKeys()).containsExactly("key1", "key2");
+    assertThat(migratedBackIndex.getKeys()).containsExactly("key1", "key2");
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNALED).exists()).isFalse();
+  }
+
   @Test
   public void removeEmptyNotLockedCachedContent() {
     CachedContentIndex index = newInstance();
@@ -465,6 +615,18 @@ public class CachedContentIndexTest {
     return new CachedContentIndex(TestUtil.getInMemoryDatabaseProvider());
   }
 
+  private CachedContentIndex newJournaledInstance() {
+    return newJournaledInstance(MoreExecutors.directExecutor());
+  }
+
+  private CachedContentIndex newJournaledInstance(Executor journalWriteExecutor) {
+    return new CachedContentIndex(
+        TestUtil.getInMemoryDatabaseProvider(),
+        cacheDir,
+        /* preferJournaledStorage= */ true,
+        journalWriteExecutor);
+  }
+
   private CachedContentIndex newLegacyInstance() {
     return newLegacyInstance(null);
   }
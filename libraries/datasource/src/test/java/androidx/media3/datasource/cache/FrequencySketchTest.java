@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link FrequencySketch}. */
+@RunWith(AndroidJUnit4.class)
+public class FrequencySketchTest {
+
+  @Test
+  public void getFrequency_unknownItem_returnsZero() {
+    FrequencySketch sketch = new FrequencySketch(/* expectedItemCount= */ 512);
+
+    assertThat(sketch.getFrequency("item")).isEqualTo(0);
+  }
+
+  @Test
+  public void increment_increasesFrequency() {
+    FrequencySketch sketch = new FrequencySketch(/* expectedItemCount= */ 512);
+
+    for (int i = 1; i <= 5; i++) {
+      sketch.increment("item");
+      assertThat(sketch.getFrequency("item")).isAtLeast(i);
+    }
+  }
+
+  @Test
+  public void increment_capsFrequencyAtMaximum() {
+    FrequencySketch sketch = new FrequencySketch(/* expectedItemCount= */ 512);
+
+    for (int i = 0; i < 100; i++) {
+      sketch.increment("item");
+    }
+
+    assertThat(sketch.getFrequency("item")).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+  }
+
+  @Test
+  public void increment_manyItems_halvesFrequencies() {
+    FrequencySketch sketch = new FrequencySketch(/* expectedItemCount= */ 64);
+    for (int i = 0; i < FrequencySketch.MAX_FREQUENCY; i++) {
+      sketch.increment("item");
+    }
+    assertThat(sketch.getFrequency("item")).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+
+    // Record enough accesses to other items to trigger at least one reset.
+    for (int i = 0; i < 10 * 64; i++) {
+      sketch.increment("other" + i);
+    }
+
+    assertThat(sketch.getFrequency("item")).isLessThan(FrequencySketch.MAX_FREQUENCY);
+  }
+}
@@ -16,7 +16,10 @@
 package androidx.media3.datasource.cache;
 
 import static androidx.media3.common.C.LENGTH_UNSET;
+import static androidx.media3.common.util.Assertions.checkNotNull;
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.doAnswer;
 
@@ -28,12 +31,21 @@ import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DeflaterOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -629,6 +641,426 @@ public class SimpleCacheTest {
         () -> simpleCache.startReadWriteNonBlocking(KEY_1, 0, LENGTH_UNSET));
   }
 
+  @Test
+  public void withJournaledIndex_newInstanceWithExistingCacheDirectory_loadsCachedData()
+      throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setJournaledIndexEnabled(true)
+            .build();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setRedirectedUri(mutations, Uri.parse("https://redirect.google.com"));
+    simpleCache.applyContentMetadataMutations(KEY_1, mutations);
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setJournaledIndexEnabled(true)
+            .build();
+
+    CacheSpan fileSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    assertCachedDataReadCorrect(fileSpan);
+    assertThat(ContentMetadata.getRedirectedUri(simpleCache.getContentMetadata(KEY_1)))
+        .isEqualTo(Uri.parse("https://redirect.google.com"));
+  }
+
+  @Test
+  public void withJournaledIndex_newInstanceWithExistingDatabaseIndex_migratesCachedData()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setJournaledIndexEnabled(true)
+            .build();
+    holeSpan = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_2, 0, 10);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.release();
+    simpleCache = new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider).build();
+
+    assertThat(simpleCache.getKeys()).containsExactly(KEY_1, KEY_2);
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(15);
+    assertThat(simpleCache.getCachedBytes(KEY_2, 0, LENGTH_UNSET)).isEqualTo(10);
+  }
+
+  @Test
+  public void withConcurrencyLevel_writeAndReadMultipleKeys() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setConcurrencyLevel(4)
+            .build();
+
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    addCache(simpleCache, KEY_2, 0, 10);
+    simpleCache.releaseHoleSpan(holeSpan1);
+    simpleCache.releaseHoleSpan(holeSpan2);
+
+    CacheSpan readSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    CacheSpan readSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    assertCachedDataReadCorrect(readSpan1);
+    assertCachedDataReadCorrect(readSpan2);
+    assertThat(simpleCache.getCachedLength(KEY_1, 0, LENGTH_UNSET)).isEqualTo(15);
+    assertThat(simpleCache.getCachedBytes(KEY_2, 0, LENGTH_UNSET)).isEqualTo(10);
+    assertThat(simpleCache.isCached(KEY_2, 0, 10)).isTrue();
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(25);
+    assertThat(simpleCache.getKeys()).containsExactly(KEY_1, KEY_2);
+  }
+
+  @Test
+  public void withConcurrencyLevel_startReadWrite_blocksUntilHoleSpanReleased() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setConcurrencyLevel(4)
+            .build();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    AtomicReference<CacheSpan> blockedSpan = new AtomicReference<>();
+    CountDownLatch blockedSpanLatch = new CountDownLatch(1);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                blockedSpan.set(simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET));
+              } catch (InterruptedException | CacheException e) {
+                throw new IllegalStateException(e);
+              }
+              blockedSpanLatch.countDown();
+            });
+    thread.start();
+
+    assertThat(blockedSpanLatch.await(100, MILLISECONDS)).isFalse();
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+
+    assertThat(blockedSpanLatch.await(10, SECONDS)).isTrue();
+    assertCachedDataReadCorrect(blockedSpan.get());
+  }
+
+  @Test
+  public void withConcurrencyLevel_readSpan_notifiesEvictorOfTouch() throws Exception {
+    CacheEvictor evictor = Mockito.mock(CacheEvictor.class);
+    Mockito.when(evictor.requiresCacheSpanTouches()).thenReturn(true);
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, evictor, databaseProvider)
+            .setConcurrencyLevel(4)
+            .build();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+
+    Mockito.verify(evictor)
+        .onSpanTouched(Mockito.eq(simpleCache), Mockito.any(), Mockito.eq(readSpan));
+  }
+
+  @Test
+  public void withConcurrencyLevel_concurrentWritersAndReaders() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new LeastRecentlyUsedCacheEvictor(1000), databaseProvider)
+            .setConcurrencyLevel(4)
+            .build();
+    int threadCount = 8;
+    int spansPerThread = 5;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      String key = "key" + i;
+      futures.add(
+          executorService.submit(
+              () -> {
+                for (int j = 0; j < spansPerThread; j++) {
+                  CacheSpan holeSpan = simpleCache.startReadWrite(key, j * 10, 10);
+                  addCache(simpleCache, key, j * 10, 10);
+                  simpleCache.releaseHoleSpan(holeSpan);
+                  assertCachedDataReadCorrect(simpleCache.startReadWrite(key, 0, LENGTH_UNSET));
+                }
+                return null;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, SECONDS);
+    }
+    executorService.shutdown();
+
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(threadCount * spansPerThread * 10);
+    for (int i = 0; i < threadCount; i++) {
+      assertThat(simpleCache.getCachedBytes("key" + i, 0, LENGTH_UNSET))
+          .isEqualTo(spansPerThread * 10);
+    }
+  }
+
+  @Test
+  public void withIncrementalInitialization_newInstanceWithExistingCacheDirectory_loadsCachedData()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, 15, 5);
+    simpleCache.releaseHoleSpan(holeSpan1);
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_2, 0, 10);
+    simpleCache.releaseHoleSpan(holeSpan2);
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setIncrementalInitializationEnabled(true)
+            .build();
+
+    // The key can be accessed whether or not the directory scan has completed.
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(20);
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 15, LENGTH_UNSET));
+    simpleCache.blockUntilInitialized();
+    SimpleCache.InitializationStats stats = simpleCache.getInitializationStats();
+    assertThat(stats.isIndexLoaded).isTrue();
+    assertThat(stats.isDirectoryScanned).isTrue();
+    assertThat(stats.pendingKeyCount).isEqualTo(0);
+    assertThat(stats.pendingFileCount).isEqualTo(0);
+    assertThat(stats.loadedSpanCount).isEqualTo(3);
+    assertThat(stats.missingFileCount).isEqualTo(0);
+    assertThat(simpleCache.getCachedBytes(KEY_2, 0, LENGTH_UNSET)).isEqualTo(10);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(30);
+  }
+
+  @Test
+  public void withIncrementalInitialization_missingFile_removesSpanAndFileIndexEntry()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, 15, 5);
+    simpleCache.releaseHoleSpan(holeSpan);
+    CacheSpan missingSpan = simpleCache.getCachedSpans(KEY_1).last();
+    simpleCache.release();
+    assertThat(checkNotNull(missingSpan.file).delete()).isTrue();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setIncrementalInitializationEnabled(true)
+            .build();
+
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(15);
+    simpleCache.blockUntilInitialized();
+    assertThat(simpleCache.getInitializationStats().missingFileCount).isEqualTo(1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setIncrementalInitializationEnabled(true)
+            .build();
+    simpleCache.blockUntilInitialized();
+    assertThat(simpleCache.getInitializationStats().missingFileCount).isEqualTo(0);
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(15);
+  }
+
+  @Test
+  public void withIncrementalInitialization_fileMissingFromIndex_addsOrDeletesFile()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    File cacheFile = checkNotNull(simpleCache.getCachedSpans(KEY_1).first().file);
+    simpleCache.release();
+    File cacheSubdirectory = checkNotNull(cacheFile.getParentFile());
+    int id = SimpleCacheSpan.getCacheFileId(cacheFile.getName());
+    // A file that doesn't conflict with the indexed span.
+    File adjacentFile =
+        SimpleCacheSpan.getCacheFile(cacheSubdirectory, id, /* position= */ 15, /* timestamp= */ 0);
+    Files.write(generateData(KEY_1, 15, 5), adjacentFile);
+    // A file that overlaps the indexed span.
+    File overlappingFile =
+        SimpleCacheSpan.getCacheFile(cacheSubdirectory, id, /* position= */ 10, /* timestamp= */ 0);
+    Files.write(generateData(KEY_1, 10, 10), overlappingFile);
+    File unrecognizedFile = new File(cacheDir, "unrecognized.file");
+    assertThat(unrecognizedFile.createNewFile()).isTrue();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setIncrementalInitializationEnabled(true)
+            .build();
+    assertThat(simpleCache.isCached(KEY_1, 0, 15)).isTrue();
+    simpleCache.blockUntilInitialized();
+
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(20);
+    assertThat(simpleCache.getInitializationStats().deletedFileCount).isEqualTo(2);
+    assertThat(adjacentFile.exists()).isTrue();
+    assertThat(overlappingFile.exists()).isFalse();
+    assertThat(unrecognizedFile.exists()).isFalse();
+  }
+
+  @Test
+  public void getInitializationStats_withoutIncrementalInitialization_isComplete()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.release();
+
+    simpleCache = getSimpleCache();
+    simpleCache.checkInitialization();
+    SimpleCache.InitializationStats stats = simpleCache.getInitializationStats();
+
+    assertThat(stats.isIndexLoaded).isTrue();
+    assertThat(stats.isDirectoryScanned).isTrue();
+    assertThat(stats.scannedFileCount).isEqualTo(1);
+    assertThat(stats.loadedSpanCount).isEqualTo(1);
+    assertThat(stats.onDemandLoadedKeyCount).isEqualTo(0);
+  }
+
+  @Test
+  public void withContentDeduplication_identicalContentForDifferentKeys_isStoredOnce()
+      throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setContentDeduplicationEnabled(true)
+            .build();
+    byte[] data = generateData(KEY_1, 0, 15);
+
+    addCache(simpleCache, KEY_1, data);
+    addCache(simpleCache, KEY_2, data);
+
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(15);
+    assertThat(simpleCache.getCachedBytes(KEY_2, 0, LENGTH_UNSET)).isEqualTo(15);
+    simpleCache.removeResource(KEY_1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+    CacheSpan cacheSpan = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    assertThat(Files.toByteArray(checkNotNull(cacheSpan.file))).isEqualTo(data);
+  }
+
+  @Test
+  public void withContentDeduplication_newInstanceWithExistingCacheDirectory_loadsSharedContent()
+      throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setContentDeduplicationEnabled(true)
+            .build();
+    byte[] data = generateData(KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, data);
+    addCache(simpleCache, KEY_2, data);
+    addCache(simpleCache, "key3", generateData("key3", 0, 10));
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache.Builder(cacheDir, new NoOpCacheEvictor(), databaseProvider)
+            .setContentDeduplicationEnabled(true)
+            .build();
+
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(25);
+    simpleCache.removeResource(KEY_2);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(25);
+    simpleCache.removeResource(KEY_1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(10);
+  }
+
+  @Test
+  public void withContentDeduplication_evictorCountsSharedContentOnce() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, new LeastRecentlyUsedCacheEvictor(40), databaseProvider)
+            .setContentDeduplicationEnabled(true)
+            .build();
+    byte[] data = generateData(KEY_1, 0, 15);
+
+    addCache(simpleCache, KEY_1, data);
+    addCache(simpleCache, KEY_2, data);
+    addCache(simpleCache, "key3", data);
+    addCache(simpleCache, "key4", generateData("key4", 0, 10));
+
+    assertThat(simpleCache.getKeys()).containsExactly(KEY_1, KEY_2, "key3", "key4");
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(25);
+
+    addCache(simpleCache, "key5", generateData("key5", 0, 20));
+
+    // All of the spans that share the least recently used content are evicted to make space.
+    assertThat(simpleCache.getKeys()).containsExactly("key4", "key5");
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(30);
+  }
+
+  @Test
+  public void withContentDeduplication_notifiesEvictorOfSavedBytes() throws Exception {
+    CacheEvictor evictor = Mockito.mock(CacheEvictor.class);
+    SimpleCache simpleCache =
+        new SimpleCache.Builder(cacheDir, evictor, databaseProvider)
+            .setContentDeduplicationEnabled(true)
+            .build();
+    byte[] data = generateData(KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, data);
+
+    addCache(simpleCache, KEY_2, data);
+
+    Mockito.verify(evictor).onSavedBytesChanged(simpleCache, /* savedBytes= */ 15);
+
+    simpleCache.removeResource(KEY_2);
+
+    Mockito.verify(evictor).onSavedBytesChanged(simpleCache, /* savedBytes= */ 0);
+  }
+
+  @Test
+  public void compressedContent_countsFileLengthAndIsRetainedByNewInstance() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    byte[] data = new byte[1000];
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setCompressed(mutations, /* compressed= */ true);
+    simpleCache.applyContentMetadataMutations(KEY_1, mutations);
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    File file = simpleCache.startFile(KEY_1, 0, data.length);
+    try (DeflaterOutputStream outputStream =
+        new DeflaterOutputStream(new FileOutputStream(file))) {
+      outputStream.write(data);
+    }
+    long fileLength = file.length();
+    simpleCache.commitFile(file, data.length);
+    simpleCache.releaseHoleSpan(holeSpan);
+
+    assertThat(fileLength).isLessThan(data.length);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(fileLength);
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(data.length);
+    assertThat(simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET).isCached).isTrue();
+    simpleCache.release();
+
+    simpleCache = getSimpleCache();
+
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(fileLength);
+    assertThat(simpleCache.getCachedBytes(KEY_1, 0, LENGTH_UNSET)).isEqualTo(data.length);
+    assertThat(simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET).isCached).isTrue();
+    simpleCache.removeResource(KEY_1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(0);
+  }
+
+  @Test
+  public void getAccessStats_countsStartReadWriteCallsAndEvictions() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(20), databaseProvider);
+
+    addCache(simpleCache, KEY_1, generateData(KEY_1, 0, 15));
+    addCache(simpleCache, KEY_2, generateData(KEY_2, 0, 15));
+    assertThat(simpleCache.startReadWriteNonBlocking(KEY_2, 0, LENGTH_UNSET).isCached).isTrue();
+    simpleCache.removeResource(KEY_2);
+    SimpleCache.AccessStats accessStats = simpleCache.getAccessStats();
+    simpleCache.release();
+
+    assertThat(accessStats.startReadWriteCount).isEqualTo(3);
+    assertThat(accessStats.lockWaitTimeUs).isAtLeast(0);
+    assertThat(accessStats.blockedStartReadWriteCount).isEqualTo(0);
+    assertThat(accessStats.blockedTimeUs).isEqualTo(0);
+    // Removing KEY_2 explicitly isn't counted as an eviction.
+    assertThat(accessStats.evictedSpanCount).isEqualTo(1);
+    assertThat(accessStats.evictedBytes).isEqualTo(15);
+  }
+
   private SimpleCache getSimpleCache() {
     return new SimpleCache(cacheDir, new NoOpCacheEvictor(), databaseProvider);
   }
@@ -642,6 +1074,15 @@ public class SimpleCacheTest {
     simpleCache.commitFile(file, length);
   }
 
+  private static void addCache(SimpleCache simpleCache, String key, byte[] data)
+      throws IOException, InterruptedException {
+    CacheSpan holeSpan = simpleCache.startReadWrite(key, 0, LENGTH_UNSET);
+    File file = simpleCache.startFile(key, 0, data.length);
+    Files.write(data, file);
+    simpleCache.commitFile(file, data.length);
+    simpleCache.releaseHoleSpan(holeSpan);
+  }
+
   private static void assertCachedDataReadCorrect(CacheSpan cacheSpan) throws IOException {
     assertThat(cacheSpan.isCached).isTrue();
     byte[] expected = generateData(cacheSpan.key, (int) cacheSpan.position, (int) cacheSpan.length);
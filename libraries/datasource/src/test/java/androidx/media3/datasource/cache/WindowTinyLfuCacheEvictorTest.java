@@ -0,0 +1,218 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.C.LENGTH_UNSET;
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.util.Util;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.test.utils.CacheTraceReplayer;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+/** Unit tests for {@link WindowTinyLfuCacheEvictor}. */
+@RunWith(AndroidJUnit4.class)
+public class WindowTinyLfuCacheEvictorTest {
+
+  private static final int MAX_BYTES = 1000;
+  private static final int SPAN_LENGTH = 100;
+
+  private File testDir;
+  private DatabaseProvider databaseProvider;
+
+  @Before
+  public void setUp() throws Exception {
+    testDir =
+        Util.createTempFile(
+            ApplicationProvider.getApplicationContext(), "WindowTinyLfuCacheEvictorTest");
+    assertThat(testDir.delete()).isTrue();
+    assertThat(testDir.mkdirs()).isTrue();
+    databaseProvider = TestUtil.getInMemoryDatabaseProvider();
+  }
+
+  @After
+  public void tearDown() {
+    Util.recursiveDelete(testDir);
+  }
+
+  @Test
+  public void contentBiggerThanMaxSizeDoesNotThrowException() {
+    WindowTinyLfuCacheEvictor evictor = new WindowTinyLfuCacheEvictor(MAX_BYTES);
+    evictor.onCacheInitialized();
+    evictor.onStartFile(Mockito.mock(Cache.class), "key", 0, MAX_BYTES + 1);
+  }
+
+  @Test
+  public void addSpans_evictsToMaxSize() throws Exception {
+    SimpleCache cache =
+        new SimpleCache(
+            new File(testDir, "cache"), new WindowTinyLfuCacheEvictor(MAX_BYTES), databaseProvider);
+
+    for (int i = 0; i < 25; i++) {
+      addCache(cache, "key" + i, /* position= */ 0);
+      assertThat(cache.getCacheSpace()).isAtMost(MAX_BYTES);
+    }
+
+    assertThat(cache.getCacheSpace()).isEqualTo(MAX_BYTES);
+    cache.release();
+  }
+
+  @Test
+  public void addSpans_evictsAllSpansOfKeyTogether() throws Exception {
+    SimpleCache cache =
+        new SimpleCache(
+            new File(testDir, "cache"), new WindowTinyLfuCacheEvictor(MAX_BYTES), databaseProvider);
+    for (int i = 0; i < 5; i++) {
+      addCache(cache, "multiSpanKey", /* position= */ (long) i * SPAN_LENGTH);
+    }
+
+
+    // Add keys that are accessed more frequently than the multi-span key.
+    for (int i = 0; i < 10; i++) {
+      addCache(cache, "key" + i, /* position= */ 0);
+      cache.startReadWrite("key" + i, /* position= */ 0, SPAN_LENGTH);
+      cache.startReadWrite("key" + i, /* position= */ 0, SPAN_LENGTH);
+    }
+
+    assertThat(cache.getCachedSpans("multiSpanKey")).isEmpty();
+    assertThat(cache.getCacheSpace()).isAtMost(MAX_BYTES);
+    cache.release();
+  }
+
+  @Test
+  public void scan_doesNotEvictFrequentlyAccessedKey() throws Exception {
+    WindowTinyLfuCacheEvictor evictor = new WindowTinyLfuCacheEvictor(MAX_BYTES);
+    SimpleCache cache = new SimpleCache(new File(testDir, "cache"), evictor, databaseProvider);
+    addCache(cache, "hotKey", /* position= */ 0);
+    for (int i = 0; i < 5; i++) {
+      cache.startReadWrite("hotKey", /* position= */ 0, SPAN_LENGTH);
+    }
+    assertThat(evictor.getFrequency("hotKey")).isAtLeast(5);
+
+    for (int i = 0; i < 50; i++) {
+      addCache(cache, "scanKey" + i, /* position= */ 0);
+    }
+
+    assertThat(cache.isCached("hotKey", /* position= */ 0, SPAN_LENGTH)).isTrue();
+    assertThat(cache.getCacheSpace()).isAtMost(MAX_BYTES);
+    cache.release();
+  }
+
+  @Test
+  public void sequentialReadOfSpans_countsAsSingleAccess() throws Exception {
+    WindowTinyLfuCacheEvictor evictor = new WindowTinyLfuCacheEvictor(MAX_BYTES);
+    SimpleCache cache = new SimpleCache(new File(testDir, "cache"), evictor, databaseProvider);
+    for (int i = 0; i < 3; i++) {
+      addCache(cache, "key", /* position= */ (long) i * SPAN_LENGTH);
+    }
+    assertThat(evictor.getFrequency("key")).isEqualTo(1);
+
+    for (int i = 0; i < 3; i++) {
+      cache.startReadWrite("key", /* position= */ (long) i * SPAN_LENGTH, LENGTH_UNSET);
+    }
+    assertThat(evictor.getFrequency("key")).isEqualTo(2);
+    cache.release();
+  }
+
+  @Test
+  public void replayTrace_withScans_hasHigherHitRatioThanLeastRecentlyUsed() throws Exception {
+    List<CacheTraceReplayer.Access> trace = createHotSetWithScansTrace();
+
+    CacheTraceReplayer.Result windowTinyLfuResult =
+        CacheTraceReplayer.replay(
+            trace,
+            new WindowTinyLfuCacheEvictor(MAX_BYTES),
+            new File(testDir, "windowTinyLfu"),
+            databaseProvider);
+    CacheTraceReplayer.Result leastRecentlyUsedResult =
+        CacheTraceReplayer.replay(
+            trace,
+            new LeastRecentlyUsedCacheEvictor(MAX_BYTES),
+            new File(testDir, "leastRecentlyUsed"),
+            databaseProvider);
+
+    assertThat(windowTinyLfuResult.requestCount).isEqualTo(trace.size());
+    // The hot keys make up a third of the accesses, and are always hits once they're cached.
+    assertThat(windowTinyLfuResult.getHitRatio()).isGreaterThan(0.3);
+    assertThat(windowTinyLfuResult.getHitRatio())
+        .isGreaterThan(leastRecentlyUsedResult.getHitRatio());
+    assertThat(windowTinyLfuResult.getByteHitRatio())
+        .isGreaterThan(leastRecentlyUsedResult.getByteHitRatio());
+  }
+
+  @Test
+  public void parseTrace() throws Exception {
+    String trace = "# key,position,length\nkey1,0,100\n\nkey2 100 50\n";
+
+    ImmutableList<CacheTraceReplayer.Access> accesses =
+        CacheTraceReplayer.parseTrace(new StringReader(trace));
+
+    assertThat(accesses).hasSize(2);
+    assertThat(accesses.get(0).key).isEqualTo("key1");
+    assertThat(accesses.get(0).position).isEqualTo(0);
+    assertThat(accesses.get(0).length).isEqualTo(100);
+    assertThat(accesses.get(1).key).isEqualTo("key2");
+    assertThat(accesses.get(1).position).isEqualTo(100);
+    assertThat(accesses.get(1).length).isEqualTo(50);
+  }
+
+  /**
+   * Returns a trace in which each of a small set of hot keys is accessed repeatedly, interleaved
+   * with a scan of keys that are only accessed once. The scan between consecutive accesses to a hot
+   * key is larger than the cache.
+   */
+  private static List<CacheTraceReplayer.Access> createHotSetWithScansTrace() {
+    List<CacheTraceReplayer.Access> trace = new ArrayList<>();
+    int scanKeyIndex = 0;
+    for (int round = 0; round < 50; round++) {
+      for (int hotKeyIndex = 0; hotKeyIndex < 5; hotKeyIndex++) {
+        trace.add(
+            new CacheTraceReplayer.Access("hotKey" + hotKeyIndex, /* position= */ 0, SPAN_LENGTH));
+      }
+      for (int i = 0; i < 10; i++) {
+        trace.add(
+            new CacheTraceReplayer.Access(
+                "scanKey" + scanKeyIndex++, /* position= */ 0, SPAN_LENGTH));
+      }
+    }
+    return trace;
+  }
+
+  private static void addCache(SimpleCache cache, String key, long position)
+      throws IOException, InterruptedException {
+    CacheSpan holeSpan = cache.startReadWrite(key, position, SPAN_LENGTH);
+    File file = cache.startFile(key, position, SPAN_LENGTH);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(SPAN_LENGTH);
+    }
+    cache.commitFile(file, SPAN_LENGTH);
+    cache.releaseHoleSpan(holeSpan);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the latency of seeking within the buffer of a {@link SampleQueue}, depending on the
+ * number of queued samples.
+ *
+ * <p>The queue contains 30 fps video samples with a keyframe about every 2 seconds, in decode order
+ * with B-frames. Results are written to logcat with the tag {@code SampleQueueSeekPerfTest}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SampleQueueSeekPerformanceTest {
+
+  private static final String TAG = "SampleQueueSeekPerfTest";
+  private static final int[] QUEUE_DEPTHS = new int[] {1_000, 10_000, 100_000, 1_000_000};
+  private static final long SAMPLE_DURATION_US = 33_333;
+  private static final int KEYFRAME_INTERVAL = 61;
+  private static final int SEEK_COUNT = 10_000;
+  private static final Format FORMAT =
+      new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build();
+
+  @Test
+  public void seekTo_withinBuffer() {
+    for (int queueDepth : QUEUE_DEPTHS) {
+      SampleQueue sampleQueue = createSampleQueue(queueDepth);
+      long durationUs = queueDepth * SAMPLE_DURATION_US;
+      Random random = new Random(/* seed= */ 0);
+      // Warm up.
+      for (int i = 0; i < SEEK_COUNT; i++) {
+        sampleQueue.seekTo(
+            (random.nextLong() & Long.MAX_VALUE) % durationUs, /* allowTimeBeyondBuffer= */ false);
+      }
+
+      int successCount = 0;
+      long startTimeNs = System.nanoTime();
+      for (int i = 0; i < SEEK_COUNT; i++) {
+        long timeUs = (random.nextLong() & Long.MAX_VALUE) % durationUs;
+        if (sampleQueue.seekTo(timeUs, /* allowTimeBeyondBuffer= */ false)) {
+          successCount++;
+        }
+      }
+      long elapsedNs = System.nanoTime() - startTimeNs;
+
+      Log.i(
+          TAG,
+          "queueDepth="
+              + queueDepth
+              + ", seekLatency="
+              + (elapsedNs / SEEK_COUNT)
+              + " ns, successfulSeeks="
+              + successCount);
+      assertThat(successCount).isGreaterThan(0);
+      sampleQueue.release();
+    }
+  }
+
+  private static SampleQueue createSampleQueue(int sampleCount) {
+    SampleQueue sampleQueue =
+        SampleQueue.createWithoutDrm(
+            new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE));
+    sampleQueue.format(FORMAT);
+    ParsableByteArray sampleData = new ParsableByteArray(1);
+    for (int i = 0; i < sampleCount; i++) {
+      int indexInGroup = i % KEYFRAME_INTERVAL;
+      int flags = indexInGroup == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      // Each P-frame is followed by the two B-frames that precede it in presentation order.
+      int presentationIndex;
+      if (indexInGroup == 0) {
+        presentationIndex = i;
+      } else if (indexInGroup % 3 == 1) {
+        presentationIndex = i + 2;
+      } else {
+        presentationIndex = i - 1;
+      }
+      sampleData.setPosition(0);
+      sampleQueue.sampleData(sampleData, /* length= */ 1);
+      sampleQueue.sampleMetadata(
+          presentationIndex * SAMPLE_DURATION_US,
+          flags,
+          /* size= */ 1,
+          /* offset= */ 0,
+          /* cryptoData= */ null);
+    }
+    return sampleQueue;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream.experimental;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.Log;
+import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
+import androidx.media3.exoplayer.upstream.SlidingPercentile;
+import androidx.media3.test.utils.FakeClock;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cost of adding a transfer sample and calculating an estimate with a {@link
+ * QuantileSketchBandwidthStatistic}, compared to the {@link SlidingPercentile} used by {@link
+ * DefaultBandwidthMeter} by default and to a {@link SlidingPercentileBandwidthStatistic}.
+ *
+ * <p>The samples are a throughput trace with log-normally distributed throughput, whose median
+ * changes every few hundred transfers as when the network conditions change. The mean relative
+ * difference between the estimates of the sketch and of the {@link SlidingPercentile} is also
+ * reported. Results are written to logcat with the tag {@code QuantileSketchPerfTest}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuantileSketchBandwidthStatisticPerformanceTest {
+
+  private static final String TAG = "QuantileSketchPerfTest";
+  private static final int SAMPLE_COUNT = 100_000;
+  private static final int ITERATIONS = 5;
+  private static final long SAMPLE_INTERVAL_MS = 2_000;
+
+  @Test
+  public void addSampleAndGetEstimate_quantileSketchVersusSlidingPercentile() {
+    long[][] trace = createThroughputTrace();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+
+    double slidingPercentileNs = measureNanosPerSample(trace, clock, createSlidingPercentile());
+    double slidingPercentileStatisticNs =
+        measureNanosPerSample(trace, clock, new SlidingPercentileBandwidthStatistic());
+    double quantileSketchNs = measureNanosPerSample(trace, clock, createQuantileSketch(clock));
+    double meanRelativeDifference =
+        getMeanRelativeDifference(
+            trace, clock, createSlidingPercentile(), createQuantileSketch(clock));
+
+    Log.i(
+        TAG,
+        "slidingPercentile="
+            + slidingPercentileNs
+            + " ns/sample, slidingPercentileStatistic="
+            + slidingPercentileStatisticNs
+            + " ns/sample, quantileSketch="
+            + quantileSketchNs
+            + " ns/sample, meanRelativeDifference="
+            + meanRelativeDifference);
+    assertThat(quantileSketchNs).isGreaterThan(0);
+  }
+
+  private static double measureNanosPerSample(
+      long[][] trace, FakeClock clock, BandwidthStatistic statistic) {
+    // Warm up.
+    addSamples(trace, clock, statistic, /* estimates= */ null);
+    long elapsedNs = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      statistic.reset();
+      long startTimeNs = System.nanoTime();
+      addSamples(trace, clock, statistic, /* estimates= */ null);
+      elapsedNs += System.nanoTime() - startTimeNs;
+    }
+    return (double) elapsedNs / ((long) SAMPLE_COUNT * ITERATIONS);
+  }
+
+  private static double getMeanRelativeDifference(
+      long[][] trace,
+      FakeClock clock,
+      BandwidthStatistic referenceStatistic,
+      BandwidthStatistic statistic) {
+    long[] referenceEstimates = new long[SAMPLE_COUNT];
+    long[] estimates = new long[SAMPLE_COUNT];
+    addSamples(trace, clock, referenceStatistic, referenceEstimates);
+    addSamples(trace, clock, statistic, estimates);
+    double relativeDifferenceSum = 0;
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      relativeDifferenceSum +=
+          Math.abs(estimates[i] - referenceEstimates[i]) / (double) referenceEstimates[i];
+    }
+    return relativeDifferenceSum / SAMPLE_COUNT;
+  }
+
+  private static void addSamples(
+      long[][] trace,
+      FakeClock clock,
+      BandwidthStatistic statistic,
+      @Nullable long[] estimates) {
+    long estimateSum = 0;
+    for (int i = 0; i < trace.length; i++) {
+      clock.advanceTime(SAMPLE_INTERVAL_MS);
+      statistic.addSample(/* bytes= */ trace[i][0], /* durationUs= */ trace[i][1]);
+      long estimate = statistic.getBandwidthEstimate();
+      estimateSum += estimate;
+      if (estimates != null) {
+        estimates[i] = estimate;
+      }
+    }
+    // Use the estimates, so that calculating them isn't optimized away.
+    assertThat(estimateSum).isGreaterThan(0);
+  }
+
+  /**
+   * Returns a trace of {bytes, durationUs} transfer samples, with log-normally distributed
+   * throughput and segment sizes of 100 kB to 2 MB.
+   */
+  private static long[][] createThroughputTrace() {
+    Random random = new Random(/* seed= */ 0);
+    long[][] trace = new long[SAMPLE_COUNT][];
+    double medianBitrate = 5_000_000;
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      if (random.nextInt(500) == 0) {
+        medianBitrate = 500_000 + random.nextInt(50_000_000);
+      }
+      long bytes = 100_000 + random.nextInt(1_900_000);
+      double bitrate = medianBitrate * Math.exp(0.5 * random.nextGaussian());
+      trace[i] = new long[] {bytes, (long) (bytes * 8_000_000 / bitrate) + 1};
+    }
+    return trace;
+  }
+
+  private static BandwidthStatistic createSlidingPercentile() {
+    SlidingPercentile slidingPercentile =
+        new SlidingPercentile(DefaultBandwidthMeter.DEFAULT_SLIDING_WINDOW_MAX_WEIGHT);
+    return new BandwidthStatistic() {
+      @Override
+      public void addSample(long bytes, long durationUs) {
+        slidingPercentile.addSample(
+            (int) Math.sqrt(bytes), /* value= */ (bytes * 8_000_000f) / durationUs);
+      }
+
+      @Override
+      public long getBandwidthEstimate() {
+        return (long) slidingPercentile.getPercentile(/* percentile= */ 0.5f);
+      }
+
+      @Override
+      public void reset() {
+        slidingPercentile.reset();
+      }
+    };
+  }
+
+  private static QuantileSketchBandwidthStatistic createQuantileSketch(FakeClock clock) {
+    return new QuantileSketchBandwidthStatistic(
+        QuantileSketchBandwidthStatistic.DEFAULT_PERCENTILE,
+        QuantileSketchBandwidthStatistic.DEFAULT_HALF_LIFE_MS,
+        QuantileSketchBandwidthStatistic.DEFAULT_RELATIVE_ACCURACY,
+        clock);
+  }
+}
@@ -109,6 +109,9 @@ public class DefaultLoadControl implements LoadControl {
    */
   public static final int DEFAULT_MIN_BUFFER_SIZE = 200 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
 
+  /** The buffered duration below which loading always continues if it's not limited by size. */
+  private static final long MIN_BUFFER_FLOOR_US = 500_000;
+
   /** Builder for {@link DefaultLoadControl}. */
   public static final class Builder {
 
@@ -138,6 +141,9 @@ public class DefaultLoadControl implements LoadControl {
     /**
      * Sets the {@link DefaultAllocator} used by the loader.
      *
+     * <p>To share a memory budget between the players of an application, use allocators created by
+     * the same {@link androidx.media3.exoplayer.upstream.SharedAllocatorPool}.
+     *
      * @param allocator The {@link DefaultAllocator}.
      * @return This builder, for convenience.
      * @throws IllegalStateException If {@link #build()} has already been called.
@@ -380,8 +386,7 @@ public class DefaultLoadControl implements LoadControl {
   @Override
   public boolean shouldContinueLoading(Parameters parameters) {
     PlayerLoadingState playerLoadingState = checkNotNull(loadingStates.get(parameters.playerId));
-    boolean targetBufferSizeReached =
-        allocator.getTotalBytesAllocated() >= calculateTotalTargetBufferBytes();
+    boolean targetBufferSizeReached = isTargetBufferSizeReached();
     long minBufferUs = this.minBufferUs;
     if (parameters.playbackSpeed > 1) {
       // The playback speed is faster than real time, so scale up the minimum required media
@@ -391,10 +396,15 @@ public class DefaultLoadControl implements LoadControl {
       minBufferUs = min(mediaDurationMinBufferUs, maxBufferUs);
     }
     // Prevent playback from getting stuck if minBufferUs is too small.
-    minBufferUs = max(minBufferUs, 500_000);
-    if (parameters.bufferedDurationUs < minBufferUs) {
+    minBufferUs = max(minBufferUs, MIN_BUFFER_FLOOR_US);
+    if (parameters.bufferedDurationUs < MIN_BUFFER_FLOOR_US
+        && allocator.getTotalBytesAllocated() < calculateTotalTargetBufferBytes()) {
+      // The share granted by a SharedAllocatorPool may be too small to buffer anything, so it
+      // doesn't stop loading until the minimum amount of media needed to make progress is buffered.
+      playerLoadingState.isLoading = true;
+    } else if (parameters.bufferedDurationUs < minBufferUs) {
       playerLoadingState.isLoading = prioritizeTimeOverSizeThresholds || !targetBufferSizeReached;
-      if (!playerLoadingState.isLoading && parameters.bufferedDurationUs < 500_000) {
+      if (!playerLoadingState.isLoading && parameters.bufferedDurationUs < MIN_BUFFER_FLOOR_US) {
         Log.w(
             "DefaultLoadControl",
             "Target buffer size reached with less than 500ms of buffered media data.");
@@ -417,8 +427,7 @@ public class DefaultLoadControl implements LoadControl {
     }
     return minBufferDurationUs <= 0
         || bufferedDurationUs >= minBufferDurationUs
-        || (!prioritizeTimeOverSizeThresholds
-            && allocator.getTotalBytesAllocated() >= calculateTotalTargetBufferBytes());
+        || (!prioritizeTimeOverSizeThresholds && isTargetBufferSizeReached());
   }
 
   @Override
@@ -491,6 +500,16 @@ public class DefaultLoadControl implements LoadControl {
     }
   }
 
+  /**
+   * Returns whether the allocator reached the target buffer size, or the share of the budget
+   * granted to it by a {@link androidx.media3.exoplayer.upstream.SharedAllocatorPool} if that's
+   * smaller.
+   */
+  private boolean isTargetBufferSizeReached() {
+    return allocator.getTotalBytesAllocated()
+        >= min(calculateTotalTargetBufferBytes(), allocator.getGrantedBufferSize());
+  }
+
   private static int getDefaultBufferSize(@C.TrackType int trackType) {
     switch (trackType) {
       case C.TRACK_TYPE_DEFAULT:
@@ -39,6 +39,7 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
 
   private final CacheDataSource.Factory cacheDataSourceFactory;
   private final Executor executor;
+  private final int maxParallelProgressiveRequests;
 
   /**
    * Creates an instance.
@@ -64,8 +65,30 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
    */
   public DefaultDownloaderFactory(
       CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
+    this(cacheDataSourceFactory, executor, /* maxParallelProgressiveRequests= */ 1);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which
+   *     downloads will be written.
+   * @param executor An {@link Executor} used to download data. Passing {@code Runnable::run} will
+   *     cause each download task to download data on its own thread. Passing an {@link Executor}
+   *     that uses multiple threads will speed up download tasks that can be split into smaller
+   *     parts for parallel execution.
+   * @param maxParallelProgressiveRequests The maximum number of range requests that are made in
+   *     parallel to download a progressive stream. See {@link
+   *     ProgressiveDownloader#ProgressiveDownloader(MediaItem, CacheDataSource.Factory, Executor,
+   *     int)}.
+   */
+  public DefaultDownloaderFactory(
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      int maxParallelProgressiveRequests) {
     this.cacheDataSourceFactory = Assertions.checkNotNull(cacheDataSourceFactory);
     this.executor = Assertions.checkNotNull(executor);
+    this.maxParallelProgressiveRequests = maxParallelProgressiveRequests;
   }
 
   @Override
@@ -84,7 +107,8 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
                 .setCustomCacheKey(request.customCacheKey)
                 .build(),
             cacheDataSourceFactory,
-            executor);
+            executor,
+            maxParallelProgressiveRequests);
       default:
         throw new IllegalArgumentException("Unsupported type: " + contentType);
     }
@@ -41,6 +41,7 @@ import androidx.media3.common.util.Log;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.database.DatabaseProvider;
+import androidx.media3.datasource.BandwidthScheduler;
 import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSource.Factory;
 import androidx.media3.datasource.cache.Cache;
@@ -225,6 +226,47 @@ public final class DownloadManager {
             executor));
   }
 
+  /**
+   * Constructs a {@link DownloadManager} whose downloads are throttled by a {@link
+   * BandwidthScheduler}.
+   *
+   * <p>Downloads register tasks with priority {@link C#PRIORITY_DOWNLOAD} to the scheduler's {@link
+   * BandwidthScheduler#getPriorityTaskManager() PriorityTaskManager}. While there exists a higher
+   * priority task, such as playback, downloads continue at the scheduler's throttled rate instead
+   * of being paused. Downloads are also limited by the scheduler's {@link
+   * BandwidthScheduler#getMaxBackgroundBytesPerSecond() maximum background rate}, which doesn't
+   * apply to playback.
+   *
+   * @param context Any context.
+   * @param databaseProvider Provides the SQLite database in which downloads are persisted.
+   * @param cache A cache to be used to store downloaded data. The cache should be configured with
+   *     an {@link CacheEvictor} that will not evict downloaded content, for example {@link
+   *     NoOpCacheEvictor}.
+   * @param upstreamFactory A {@link Factory} for creating {@link DataSource}s for downloading data.
+   * @param executor An {@link Executor} used to download data. Passing {@code Runnable::run} will
+   *     cause each download task to download data on its own thread. Passing an {@link Executor}
+   *     that uses multiple threads will speed up download tasks that can be split into smaller
+   *     parts for parallel execution.
+   * @param bandwidthScheduler The {@link BandwidthScheduler} that throttles downloads.
+   */
+  public DownloadManager(
+      Context context,
+      DatabaseProvider databaseProvider,
+      Cache cache,
+      Factory upstreamFactory,
+      Executor executor,
+      BandwidthScheduler bandwidthScheduler) {
+    this(
+        context,
+        new DefaultDownloadIndex(databaseProvider),
+        new DefaultDownloaderFactory(
+            new CacheDataSource.Factory()
+                .setCache(cache)
+                .setUpstreamDataSourceFactory(upstreamFactory)
+                .setUpstreamBandwidthScheduler(bandwidthScheduler),
+            executor));
+  }
+
   /**
    * Constructs a {@link DownloadManager}.
    *
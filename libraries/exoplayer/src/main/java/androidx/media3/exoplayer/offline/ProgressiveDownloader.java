@@ -39,10 +39,12 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 public final class ProgressiveDownloader implements Downloader {
 
   private final Executor executor;
+  private final boolean cacheInParallel;
   private final DataSpec dataSpec;
   private final CacheDataSource dataSource;
   private final CacheWriter cacheWriter;
   @Nullable private final PriorityTaskManager priorityTaskManager;
+  private final boolean isBandwidthScheduled;
 
   @Nullable private ProgressListener progressListener;
   private volatile @MonotonicNonNull RunnableFutureTask<Void, IOException> downloadRunnable;
@@ -66,13 +68,36 @@ public final class ProgressiveDownloader implements Downloader {
    * @param mediaItem The media item with a uri to the stream to be downloaded.
    * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
    *     download will be written.
-   * @param executor An {@link Executor} used to make requests for the media being downloaded. In
-   *     the future, providing an {@link Executor} that uses multiple threads may speed up the
-   *     download by allowing parts of it to be executed in parallel.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
    */
   public ProgressiveDownloader(
       MediaItem mediaItem, CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
+    this(mediaItem, cacheDataSourceFactory, executor, /* maxParallelRequests= */ 1);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * <p>If {@code maxParallelRequests} is greater than one, the uncached parts of the stream are
+   * split into chunks of {@link CacheWriter#DEFAULT_PARALLEL_CHUNK_LENGTH_BYTES} that are
+   * requested in parallel, using range requests. This can speed up the download of large streams
+   * if the {@code executor} uses multiple threads, but should only be used if the server supports
+   * range requests.
+   *
+   * @param mediaItem The media item with a uri to the stream to be downloaded.
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
+   *     download will be written.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
+   * @param maxParallelRequests The maximum number of requests that are made in parallel.
+   */
+  public ProgressiveDownloader(
+      MediaItem mediaItem,
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      int maxParallelRequests) {
+    Assertions.checkArgument(maxParallelRequests > 0);
     this.executor = Assertions.checkNotNull(executor);
+    cacheInParallel = maxParallelRequests > 1;
     Assertions.checkNotNull(mediaItem.localConfiguration);
     dataSpec =
         new DataSpec.Builder()
@@ -84,8 +109,17 @@ public final class ProgressiveDownloader implements Downloader {
     @SuppressWarnings("nullness:methodref.receiver.bound")
     CacheWriter.ProgressListener progressListener = this::onProgress;
     cacheWriter =
-        new CacheWriter(dataSource, dataSpec, /* temporaryBuffer= */ null, progressListener);
+        cacheInParallel
+            ? new CacheWriter(
+                cacheDataSourceFactory,
+                dataSpec,
+                progressListener,
+                executor,
+                maxParallelRequests,
+                CacheWriter.DEFAULT_PARALLEL_CHUNK_LENGTH_BYTES)
+            : new CacheWriter(dataSource, dataSpec, /* temporaryBuffer= */ null, progressListener);
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
+    isBandwidthScheduled = cacheDataSourceFactory.getUpstreamBandwidthScheduler() != null;
   }
 
   @Override
@@ -112,10 +146,18 @@ public final class ProgressiveDownloader implements Downloader {
                 cacheWriter.cancel();
               }
             };
-        if (priorityTaskManager != null) {
+        // Block until there aren't any higher priority tasks, unless the bandwidth scheduler
+        // throttles the download instead.
+        if (priorityTaskManager != null && !isBandwidthScheduled) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
         }
-        executor.execute(downloadRunnable);
+        if (cacheInParallel) {
+          // The cache writer makes its requests on the executor. Coordinate them on this thread, so
+          // that a thread of the executor isn't blocked waiting for the others.
+          downloadRunnable.run();
+        } else {
+          executor.execute(downloadRunnable);
+        }
         try {
           downloadRunnable.get();
           finished = true;
@@ -86,6 +86,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
   private final Cache cache;
   private final CacheKeyFactory cacheKeyFactory;
   @Nullable private final PriorityTaskManager priorityTaskManager;
+  private final boolean isBandwidthScheduled;
   private final Executor executor;
   private final long maxMergedSegmentStartTimeDiffUs;
 
@@ -146,6 +147,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     cache = Assertions.checkNotNull(cacheDataSourceFactory.getCache());
     cacheKeyFactory = cacheDataSourceFactory.getCacheKeyFactory();
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
+    isBandwidthScheduled = cacheDataSourceFactory.getUpstreamBandwidthScheduler() != null;
     activeRunnables = new ArrayList<>();
     maxMergedSegmentStartTimeDiffUs = Util.msToUs(maxMergedSegmentStartTimeDiffMs);
   }
@@ -218,8 +220,9 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
               : null;
       pendingSegments.addAll(segments);
       while (!isCanceled && !pendingSegments.isEmpty()) {
-        // Block until there aren't any higher priority tasks.
-        if (priorityTaskManager != null) {
+        // Block until there aren't any higher priority tasks, unless the bandwidth scheduler
+        // throttles the download instead.
+        if (priorityTaskManager != null && !isBandwidthScheduled) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
         }
 
@@ -374,8 +377,9 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
       if (isCanceled) {
         throw new InterruptedException();
       }
-      // Block until there aren't any higher priority tasks.
-      if (priorityTaskManager != null) {
+      // Block until there aren't any higher priority tasks, unless the bandwidth scheduler
+      // throttles the download instead.
+      if (priorityTaskManager != null && !isBandwidthScheduled) {
         priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
       }
       addActiveRunnable(runnable);
@@ -27,8 +27,24 @@ import androidx.media3.extractor.ExtractorInput;
 import androidx.media3.extractor.ExtractorOutput;
 import androidx.media3.extractor.ExtractorsFactory;
 import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekIndex;
+import androidx.media3.extractor.SeekIndexConsumer;
+import androidx.media3.extractor.SeekIndexRecorder;
 import androidx.media3.extractor.SniffFailure;
+import androidx.media3.extractor.amr.AmrExtractor;
+import androidx.media3.extractor.avi.AviExtractor;
+import androidx.media3.extractor.flac.FlacExtractor;
+import androidx.media3.extractor.flv.FlvExtractor;
+import androidx.media3.extractor.jpeg.JpegExtractor;
+import androidx.media3.extractor.mkv.MatroskaExtractor;
 import androidx.media3.extractor.mp3.Mp3Extractor;
+import androidx.media3.extractor.mp4.FragmentedMp4Extractor;
+import androidx.media3.extractor.mp4.Mp4Extractor;
+import androidx.media3.extractor.ogg.OggExtractor;
+import androidx.media3.extractor.png.PngExtractor;
+import androidx.media3.extractor.ts.PsExtractor;
+import androidx.media3.extractor.wav.WavExtractor;
+import androidx.media3.extractor.webp.WebpExtractor;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -44,10 +60,18 @@ import java.util.Map;
 @UnstableApi
 public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor {
 
+  /** The number of bytes peeked to match the signatures of container formats. */
+  private static final int SIGNATURE_LENGTH = 12;
+
   private final ExtractorsFactory extractorsFactory;
+  @Nullable private final ExtractorSelectionCache extractorSelectionCache;
+  @Nullable private final SeekIndexStore seekIndexStore;
 
   @Nullable private Extractor extractor;
   @Nullable private ExtractorInput extractorInput;
+  @Nullable private Uri uri;
+  @Nullable private SeekIndexRecorder seekIndexRecorder;
+  @Nullable private SeekIndex seekIndex;
 
   /**
    * Creates a holder that will select an extractor and initialize it using the specified output.
@@ -55,7 +79,42 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
    * @param extractorsFactory The {@link ExtractorsFactory} providing the extractors to choose from.
    */
   public BundledExtractorsAdapter(ExtractorsFactory extractorsFactory) {
+    this(extractorsFactory, /* extractorSelectionCache= */ null);
+  }
+
+  /**
+   * Creates a holder that will select an extractor and initialize it using the specified output.
+   *
+   * @param extractorsFactory The {@link ExtractorsFactory} providing the extractors to choose from.
+   * @param extractorSelectionCache An {@link ExtractorSelectionCache} whose extractor for media
+   *     from the same host and with the same file extension is sniffed with first, and which is
+   *     updated with the selected extractor, or null if extractor selections shouldn't be cached.
+   */
+  public BundledExtractorsAdapter(
+      ExtractorsFactory extractorsFactory,
+      @Nullable ExtractorSelectionCache extractorSelectionCache) {
+    this(extractorsFactory, extractorSelectionCache, /* seekIndexStore= */ null);
+  }
+
+  /**
+   * Creates a holder that will select an extractor and initialize it using the specified output.
+   *
+   * @param extractorsFactory The {@link ExtractorsFactory} providing the extractors to choose from.
+   * @param extractorSelectionCache An {@link ExtractorSelectionCache} whose extractor for media
+   *     from the same host and with the same file extension is sniffed with first, and which is
+   *     updated with the selected extractor, or null if extractor selections shouldn't be cached.
+   * @param seekIndexStore A {@link SeekIndexStore} from which the {@link SeekIndex} of the media is
+   *     loaded if the selected extractor is a {@link SeekIndexConsumer}, and in which the index is
+   *     stored after recording the key frames output by the extractor, or null if seek indices
+   *     shouldn't be used.
+   */
+  public BundledExtractorsAdapter(
+      ExtractorsFactory extractorsFactory,
+      @Nullable ExtractorSelectionCache extractorSelectionCache,
+      @Nullable SeekIndexStore seekIndexStore) {
     this.extractorsFactory = extractorsFactory;
+    this.extractorSelectionCache = extractorSelectionCache;
+    this.seekIndexStore = seekIndexStore;
   }
 
   @Override
@@ -78,6 +137,7 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
     if (extractors.length == 1) {
       this.extractor = extractors[0];
     } else {
+      extractors = prioritizeExtractors(extractors, uri, extractorInput);
       for (Extractor extractor : extractors) {
         try {
           if (extractor.sniff(extractorInput)) {
@@ -107,12 +167,127 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
             Assertions.checkNotNull(uri),
             sniffFailures.build());
       }
+      if (extractorSelectionCache != null) {
+        extractorSelectionCache.put(uri, extractor.getUnderlyingImplementation().getClass());
+      }
+    }
+    Extractor underlyingExtractor = extractor.getUnderlyingImplementation();
+    if (seekIndexStore != null && underlyingExtractor instanceof SeekIndexConsumer) {
+      SeekIndexConsumer seekIndexConsumer = (SeekIndexConsumer) underlyingExtractor;
+      seekIndex = seekIndexStore.get(uri);
+      if (seekIndex != null) {
+        seekIndexConsumer.setSeekIndex(seekIndex);
+      }
+      seekIndexRecorder =
+          new SeekIndexRecorder(output, seekIndexConsumer.getMaxBufferedInputBytes());
+      output = seekIndexRecorder;
+      this.uri = uri;
     }
     extractor.init(output);
   }
 
+  /**
+   * Returns the extractors in the order in which to sniff with them. Extractors for a container
+   * format whose signature matches the start of the input come first, followed by extractors of the
+   * class in the {@link ExtractorSelectionCache}, followed by the other extractors in their
+   * original order.
+   */
+  private Extractor[] prioritizeExtractors(
+      Extractor[] extractors, Uri uri, ExtractorInput extractorInput) throws IOException {
+    @Nullable
+    Class<? extends Extractor> cachedExtractorClass =
+        extractorSelectionCache != null ? extractorSelectionCache.get(uri) : null;
+    List<Class<? extends Extractor>> signatureExtractorClasses =
+        getExtractorClassesForSignature(extractorInput);
+    if (cachedExtractorClass == null && signatureExtractorClasses.isEmpty()) {
+      return extractors;
+    }
+    int[] ranks = new int[extractors.length];
+    for (int i = 0; i < extractors.length; i++) {
+      Class<?> extractorClass = extractors[i].getUnderlyingImplementation().getClass();
+      ranks[i] =
+          signatureExtractorClasses.contains(extractorClass)
+              ? 0
+              : extractorClass == cachedExtractorClass ? 1 : 2;
+    }
+    Extractor[] prioritizedExtractors = new Extractor[extractors.length];
+    int prioritizedExtractorCount = 0;
+    for (int rank = 0; rank <= 2; rank++) {
+      for (int i = 0; i < extractors.length; i++) {
+        if (ranks[i] == rank) {
+          prioritizedExtractors[prioritizedExtractorCount++] = extractors[i];
+        }
+      }
+    }
+    return prioritizedExtractors;
+  }
+
+  /**
+   * Peeks the start of the input in a single pass, and returns the classes of the extractors for
+   * the container format whose signature it matches, or an empty list if it doesn't match an
+   * unambiguous signature. The peek position is reset before returning.
+   */
+  private static List<Class<? extends Extractor>> getExtractorClassesForSignature(
+      ExtractorInput extractorInput) throws IOException {
+    byte[] signature = new byte[SIGNATURE_LENGTH];
+    int signatureLength = 0;
+    while (signatureLength < SIGNATURE_LENGTH) {
+      int bytesPeeked =
+          extractorInput.peek(signature, signatureLength, SIGNATURE_LENGTH - signatureLength);
+      if (bytesPeeked == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+      signatureLength += bytesPeeked;
+    }
+    extractorInput.resetPeekPosition();
+
+    if (signatureLength < 4) {
+      return ImmutableList.of();
+    } else if (matches(signature, /* offset= */ 4, 'f', 't', 'y', 'p')) {
+      return ImmutableList.of(FragmentedMp4Extractor.class, Mp4Extractor.class);
+    } else if (matches(signature, /* offset= */ 0, 'F', 'L', 'V')) {
+      return ImmutableList.of(FlvExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 'f', 'L', 'a', 'C')) {
+      return ImmutableList.of(FlacExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 'O', 'g', 'g', 'S')) {
+      return ImmutableList.of(OggExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, '#', '!', 'A', 'M', 'R')) {
+      return ImmutableList.of(AmrExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+      return ImmutableList.of(MatroskaExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 0x00, 0x00, 0x01, 0xBA)) {
+      return ImmutableList.of(PsExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 0x89, 'P', 'N', 'G')) {
+      return ImmutableList.of(PngExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 0xFF, 0xD8, 0xFF)) {
+      return ImmutableList.of(JpegExtractor.class);
+    } else if (matches(signature, /* offset= */ 0, 'R', 'I', 'F', 'F')) {
+      if (matches(signature, /* offset= */ 8, 'W', 'A', 'V', 'E')) {
+        return ImmutableList.of(WavExtractor.class);
+      } else if (matches(signature, /* offset= */ 8, 'A', 'V', 'I', ' ')) {
+        return ImmutableList.of(AviExtractor.class);
+      } else if (matches(signature, /* offset= */ 8, 'W', 'E', 'B', 'P')) {
+        return ImmutableList.of(WebpExtractor.class);
+      }
+    }
+    return ImmutableList.of();
+  }
+
+  private static boolean matches(byte[] data, int offset, int... expectedBytes) {
+    if (offset + expectedBytes.length > data.length) {
+      return false;
+    }
+    for (int i = 0; i < expectedBytes.length; i++) {
+      if ((data[offset + i] & 0xFF) != expectedBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void release() {
+    maybeStoreSeekIndex();
     if (extractor != null) {
       extractor.release();
       extractor = null;
@@ -143,7 +318,25 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
 
   @Override
   public int read(PositionHolder positionHolder) throws IOException {
-    return Assertions.checkNotNull(extractor)
-        .read(Assertions.checkNotNull(extractorInput), positionHolder);
+    ExtractorInput extractorInput = Assertions.checkNotNull(this.extractorInput);
+    if (seekIndexRecorder != null) {
+      seekIndexRecorder.onReadStarting(extractorInput.getPosition());
+    }
+    int result = Assertions.checkNotNull(extractor).read(extractorInput, positionHolder);
+    if (result == Extractor.RESULT_END_OF_INPUT) {
+      maybeStoreSeekIndex();
+    }
+    return result;
+  }
+
+  private void maybeStoreSeekIndex() {
+    if (seekIndexRecorder == null || !seekIndexRecorder.hasNewSeekPoints()) {
+      return;
+    }
+    SeekIndex seekIndex = seekIndexRecorder.getSeekIndex(this.seekIndex);
+    if (!seekIndex.equals(this.seekIndex)) {
+      Assertions.checkNotNull(seekIndexStore).put(Assertions.checkNotNull(uri), seekIndex);
+      this.seekIndex = seekIndex;
+    }
   }
 }
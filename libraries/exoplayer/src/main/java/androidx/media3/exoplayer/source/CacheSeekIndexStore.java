@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheKeyFactory;
+import androidx.media3.datasource.cache.ContentMetadata;
+import androidx.media3.datasource.cache.ContentMetadataMutations;
+import androidx.media3.extractor.SeekIndex;
+
+/**
+ * A {@link SeekIndexStore} that stores the {@link SeekIndex} of media as {@link
+ * ContentMetadata#KEY_SEEK_INDEX content metadata} in a {@link Cache}, next to the cached media.
+ *
+ * <p>The cache key of media is built by the {@link CacheKeyFactory} from a {@link DataSpec} with
+ * only the URI of the media set, so it should be the same {@link CacheKeyFactory} that the {@link
+ * androidx.media3.datasource.cache.CacheDataSource} reading the media uses.
+ */
+@UnstableApi
+public final class CacheSeekIndexStore implements SeekIndexStore {
+
+  private static final String TAG = "CacheSeekIndexStore";
+
+  private final Cache cache;
+  private final CacheKeyFactory cacheKeyFactory;
+
+  /**
+   * Creates an instance using {@link CacheKeyFactory#DEFAULT}.
+   *
+   * @param cache The {@link Cache} in which to store seek indices.
+   */
+  public CacheSeekIndexStore(Cache cache) {
+    this(cache, CacheKeyFactory.DEFAULT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cache The {@link Cache} in which to store seek indices.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} building the cache key of media.
+   */
+  public CacheSeekIndexStore(Cache cache, CacheKeyFactory cacheKeyFactory) {
+    this.cache = cache;
+    this.cacheKeyFactory = cacheKeyFactory;
+  }
+
+  @Override
+  @Nullable
+  public SeekIndex get(Uri uri) {
+    @Nullable
+    byte[] data =
+        cache
+            .getContentMetadata(getCacheKey(uri))
+            .get(ContentMetadata.KEY_SEEK_INDEX, /* defaultValue= */ (byte[]) null);
+    return data != null ? SeekIndex.fromByteArray(data) : null;
+  }
+
+  @Override
+  public void put(Uri uri, SeekIndex seekIndex) {
+    ContentMetadataMutations mutations =
+        new ContentMetadataMutations().set(ContentMetadata.KEY_SEEK_INDEX, seekIndex.toByteArray());
+    try {
+      cache.applyContentMetadataMutations(getCacheKey(uri), mutations);
+    } catch (Cache.CacheException e) {
+      Log.w(TAG, "Failed to store seek index", e);
+    }
+  }
+
+  private String getCacheKey(Uri uri) {
+    return cacheKeyFactory.buildCacheKey(new DataSpec(uri));
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+
+import android.net.Uri;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.extractor.Extractor;
+import com.google.common.base.Ascii;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the {@link Extractor} implementation that was selected for media from a host
+ * with a file extension.
+ *
+ * <p>A {@link BundledExtractorsAdapter} using the cache sniffs with the cached implementation
+ * before the implementations that don't match the signature of the input, so that media from the
+ * same host and with the same extension as previously opened media can usually be opened with few
+ * sniffs. Media whose URI has no file extension isn't cached, as the extension is what identifies
+ * the container format of media from a host. The cache can be shared between adapters, and is
+ * thread-safe.
+ *
+ * <p>The cache isn't used by default. It can be enabled for a {@link ProgressiveMediaSource} with
+ * {@link ProgressiveMediaSource.Factory#Factory(androidx.media3.datasource.DataSource.Factory,
+ * androidx.media3.extractor.ExtractorsFactory, ExtractorSelectionCache)}.
+ */
+@UnstableApi
+public final class ExtractorSelectionCache {
+
+  /** The default maximum number of entries. */
+  public static final int DEFAULT_MAX_ENTRIES = 64;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Class<? extends Extractor>> entries;
+
+  /** Creates an instance with at most {@link #DEFAULT_MAX_ENTRIES} entries. */
+  public ExtractorSelectionCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxEntries The maximum number of entries. If the cache is full, the least recently used
+   *     entry is evicted when an entry is added.
+   */
+  public ExtractorSelectionCache(int maxEntries) {
+    checkArgument(maxEntries > 0);
+    entries =
+        new LinkedHashMap<String, Class<? extends Extractor>>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(
+              Map.Entry<String, Class<? extends Extractor>> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /** Removes all entries. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the class of the {@link Extractor#getUnderlyingImplementation() underlying extractor
+   * implementation} that was selected for media from the host of {@code uri} and with the same
+   * file extension, or null if there is none or {@code uri} has no file extension.
+   */
+  @Nullable
+  /* package */ synchronized Class<? extends Extractor> get(Uri uri) {
+    @Nullable String key = getKey(uri);
+    return key != null ? entries.get(key) : null;
+  }
+
+  /**
+   * Sets the class of the {@link Extractor#getUnderlyingImplementation() underlying extractor
+   * implementation} that was selected for media from the host of {@code uri} and with the same
+   * file extension. Does nothing if {@code uri} has no file extension.
+   */
+  /* package */ synchronized void put(Uri uri, Class<? extends Extractor> extractorClass) {
+    @Nullable String key = getKey(uri);
+    if (key != null) {
+      entries.put(key, extractorClass);
+    }
+  }
+
+  /** Returns the key for media with {@code uri}, or null if it has no file extension. */
+  @Nullable
+  private static String getKey(Uri uri) {
+    @Nullable String lastPathSegment = uri.getLastPathSegment();
+    if (lastPathSegment == null) {
+      return null;
+    }
+    int extensionIndex = lastPathSegment.lastIndexOf('.');
+    if (extensionIndex < 0 || extensionIndex == lastPathSegment.length() - 1) {
+      return null;
+    }
+    String extension = Ascii.toLowerCase(lastPathSegment.substring(extensionIndex + 1));
+    @Nullable String host = uri.getHost();
+    return (host == null ? "" : Ascii.toLowerCase(host)) + "/" + extension;
+  }
+}
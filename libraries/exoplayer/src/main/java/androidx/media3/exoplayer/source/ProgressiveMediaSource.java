@@ -109,6 +109,39 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       this(dataSourceFactory, playerId -> new BundledExtractorsAdapter(extractorsFactory));
     }
 
+    /**
+     * Equivalent to {@link #Factory(DataSource.Factory, ProgressiveMediaExtractor.Factory) new
+     * Factory(dataSourceFactory, () -> new BundledExtractorsAdapter(extractorsFactory,
+     * extractorSelectionCache)}.
+     *
+     * <p>The media sources created by the factory share the {@link ExtractorSelectionCache}, so
+     * that media from a host and with a file extension for which an extractor was previously
+     * selected is sniffed with that extractor early.
+     *
+     * <p>The factory will use the following default components:
+     *
+     * <ul>
+     *   <li>{@link DefaultDrmSessionManagerProvider}
+     *   <li>{@link DefaultLoadErrorHandlingPolicy}
+     * </ul>
+     *
+     * @param dataSourceFactory A factory for {@linkplain DataSource data sources} to read the
+     *     media.
+     * @param extractorsFactory A factory for the {@linkplain Extractor extractors} used to extract
+     *     the media from its container.
+     * @param extractorSelectionCache The {@link ExtractorSelectionCache} shared by the media
+     *     sources.
+     */
+    @UnstableApi
+    public Factory(
+        DataSource.Factory dataSourceFactory,
+        ExtractorsFactory extractorsFactory,
+        ExtractorSelectionCache extractorSelectionCache) {
+      this(
+          dataSourceFactory,
+          playerId -> new BundledExtractorsAdapter(extractorsFactory, extractorSelectionCache));
+    }
+
     /**
      * Creates a new factory for {@link ProgressiveMediaSource}s.
      *
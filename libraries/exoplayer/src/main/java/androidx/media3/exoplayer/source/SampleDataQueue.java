@@ -35,11 +35,20 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-/** A queue of media sample data. */
+/**
+ * A queue of media sample data.
+ *
+ * <p>The data can be stored in byte array or {@link Allocation#directBuffer direct buffer}
+ * allocations. Direct buffer data is copied directly into direct {@link DecoderInputBuffer#data}
+ * buffers when read.
+ */
 /* package */ class SampleDataQueue {
 
   private static final int INITIAL_SCRATCH_SIZE = 32;
 
+  /** The maximum number of bytes read from a {@link DataReader} into a direct buffer at once. */
+  private static final int DIRECT_WRITE_STAGING_SIZE = 16 * 1024;
+
   private final Allocator allocator;
   private final int allocationLength;
   private final ParsableByteArray scratch;
@@ -51,6 +60,7 @@ import java.util.Arrays;
 
   // Accessed only by the loading thread (or the consuming thread when there is no loading thread).
   private long totalBytesWritten;
+  @Nullable private byte[] directWriteStagingBuffer;
 
   public SampleDataQueue(Allocator allocator) {
     this.allocator = allocator;
@@ -174,11 +184,29 @@ import java.util.Arrays;
 
   public int sampleData(DataReader input, int length, boolean allowEndOfInput) throws IOException {
     length = preAppend(length);
-    int bytesAppended =
-        input.read(
-            writeAllocationNode.allocation.data,
-            writeAllocationNode.translateOffset(totalBytesWritten),
-            length);
+    @Nullable ByteBuffer writeView = writeAllocationNode.writeView;
+    int bytesAppended;
+    if (writeView == null) {
+      bytesAppended =
+          input.read(
+              writeAllocationNode.allocation.data,
+              writeAllocationNode.translateOffset(totalBytesWritten),
+              length);
+    } else {
+      // DataReader can only read into arrays, so stage the data before copying it.
+      if (directWriteStagingBuffer == null) {
+        directWriteStagingBuffer = new byte[min(allocationLength, DIRECT_WRITE_STAGING_SIZE)];
+      }
+      bytesAppended =
+          input.read(
+              directWriteStagingBuffer,
+              /* offset= */ 0,
+              min(length, directWriteStagingBuffer.length));
+      if (bytesAppended != C.RESULT_END_OF_INPUT) {
+        writeView.position(writeAllocationNode.translateOffset(totalBytesWritten));
+        writeView.put(directWriteStagingBuffer, /* offset= */ 0, bytesAppended);
+      }
+    }
     if (bytesAppended == C.RESULT_END_OF_INPUT) {
       if (allowEndOfInput) {
         return C.RESULT_END_OF_INPUT;
@@ -192,10 +220,16 @@ import java.util.Arrays;
   public void sampleData(ParsableByteArray buffer, int length) {
     while (length > 0) {
       int bytesAppended = preAppend(length);
-      buffer.readBytes(
-          writeAllocationNode.allocation.data,
-          writeAllocationNode.translateOffset(totalBytesWritten),
-          bytesAppended);
+      @Nullable ByteBuffer writeView = writeAllocationNode.writeView;
+      if (writeView == null) {
+        buffer.readBytes(
+            writeAllocationNode.allocation.data,
+            writeAllocationNode.translateOffset(totalBytesWritten),
+            bytesAppended);
+      } else {
+        writeView.position(writeAllocationNode.translateOffset(totalBytesWritten));
+        buffer.readBytes(writeView, bytesAppended);
+      }
       length -= bytesAppended;
       postAppend(bytesAppended);
     }
@@ -404,8 +438,15 @@ import java.util.Arrays;
     int remaining = length;
     while (remaining > 0) {
       int toCopy = min(remaining, (int) (allocationNode.endPosition - absolutePosition));
-      Allocation allocation = allocationNode.allocation;
-      target.put(allocation.data, allocationNode.translateOffset(absolutePosition), toCopy);
+      int offset = allocationNode.translateOffset(absolutePosition);
+      @Nullable ByteBuffer readView = allocationNode.readView;
+      if (readView == null) {
+        target.put(allocationNode.allocation.data, offset, toCopy);
+      } else {
+        readView.limit(offset + toCopy);
+        readView.position(offset);
+        target.put(readView);
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == allocationNode.endPosition) {
@@ -430,13 +471,16 @@ import java.util.Arrays;
     int remaining = length;
     while (remaining > 0) {
       int toCopy = min(remaining, (int) (allocationNode.endPosition - absolutePosition));
-      Allocation allocation = allocationNode.allocation;
-      System.arraycopy(
-          allocation.data,
-          allocationNode.translateOffset(absolutePosition),
-          target,
-          length - remaining,
-          toCopy);
+      int offset = allocationNode.translateOffset(absolutePosition);
+      @Nullable ByteBuffer readView = allocationNode.readView;
+      if (readView == null) {
+        System.arraycopy(
+            allocationNode.allocation.data, offset, target, length - remaining, toCopy);
+      } else {
+        readView.limit(offset + toCopy);
+        readView.position(offset);
+        readView.get(target, length - remaining, toCopy);
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == allocationNode.endPosition) {
@@ -478,6 +522,18 @@ import java.util.Arrays;
      */
     @Nullable public AllocationNode next;
 
+    /**
+     * A view of the {@link Allocation#directBuffer} of {@link #allocation} used by the loading
+     * thread, or {@code null} if the allocation isn't backed by a direct buffer.
+     */
+    @Nullable public ByteBuffer writeView;
+
+    /**
+     * A view of the {@link Allocation#directBuffer} of {@link #allocation} used by the consuming
+     * thread, or {@code null} if the allocation isn't backed by a direct buffer.
+     */
+    @Nullable public ByteBuffer readView;
+
     /**
      * @param startPosition See {@link #startPosition}.
      * @param allocationLength The length of the {@link Allocation} with which this node will be
@@ -508,11 +564,17 @@ import java.util.Arrays;
     public void initialize(Allocation allocation, AllocationNode next) {
       this.allocation = allocation;
       this.next = next;
+      if (allocation.directBuffer != null) {
+        // The loading and consuming threads can access the buffer concurrently, so each needs a
+        // view with its own position and limit.
+        writeView = allocation.directBuffer.duplicate();
+        readView = allocation.directBuffer.duplicate();
+      }
     }
 
     /**
-     * Gets the offset into the {@link #allocation}'s {@link Allocation#data} that corresponds to
-     * the specified absolute position.
+     * Gets the offset into the {@link #allocation}'s {@link Allocation#data}, or into its {@link
+     * Allocation#directBuffer} if non-null, that corresponds to the specified absolute position.
      *
      * @param absolutePosition The absolute position.
      * @return The corresponding offset into the allocation's data.
@@ -528,6 +590,8 @@ import java.util.Arrays;
      */
     public AllocationNode clear() {
       allocation = null;
+      writeView = null;
+      readView = null;
       AllocationNode temp = next;
       next = null;
       return temp;
@@ -73,6 +73,7 @@ public class SampleQueue implements TrackOutput {
   private final SampleDataQueue sampleDataQueue;
   private final SampleExtrasHolder extrasHolder;
   private final SpannedData<SharedSampleMetadata> sharedSampleMetadata;
+  private final KeyframeIndex keyframeIndex;
   @Nullable private final DrmSessionManager drmSessionManager;
   @Nullable private final DrmSessionEventListener.EventDispatcher drmEventDispatcher;
   @Nullable private UpstreamFormatChangedListener upstreamFormatChangeListener;
@@ -86,6 +87,8 @@ public class SampleQueue implements TrackOutput {
   private int[] sizes;
   private int[] flags;
   private long[] timesUs;
+  // The largest timestamp of each sample and of the samples queued before it.
+  private long[] largestTimesUs;
   private @NullableType CryptoData[] cryptoDatas;
 
   private int length;
@@ -171,9 +174,11 @@ public class SampleQueue implements TrackOutput {
     sourceIds = new long[capacity];
     offsets = new long[capacity];
     timesUs = new long[capacity];
+    largestTimesUs = new long[capacity];
     flags = new int[capacity];
     sizes = new int[capacity];
     cryptoDatas = new CryptoData[capacity];
+    keyframeIndex = new KeyframeIndex();
     sharedSampleMetadata =
         new SpannedData<>(/* removeCallback= */ metadata -> metadata.drmSessionReference.release());
     startTimeUs = Long.MIN_VALUE;
@@ -213,6 +218,7 @@ public class SampleQueue implements TrackOutput {
     absoluteFirstIndex = 0;
     relativeFirstIndex = 0;
     readPosition = 0;
+    keyframeIndex.clear();
     upstreamKeyframeRequired = true;
     startTimeUs = Long.MIN_VALUE;
     largestDiscardedTimestampUs = Long.MIN_VALUE;
@@ -817,11 +823,16 @@ public class SampleQueue implements TrackOutput {
 
     int relativeEndIndex = getRelativeIndex(length);
     timesUs[relativeEndIndex] = timeUs;
+    largestTimesUs[relativeEndIndex] =
+        length > 0 ? max(largestTimesUs[getRelativeIndex(length - 1)], timeUs) : timeUs;
     offsets[relativeEndIndex] = offset;
     sizes[relativeEndIndex] = size;
     flags[relativeEndIndex] = sampleFlags;
     cryptoDatas[relativeEndIndex] = cryptoData;
     sourceIds[relativeEndIndex] = upstreamSourceId;
+    if ((sampleFlags & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+      keyframeIndex.append(getWriteIndex());
+    }
 
     if (sharedSampleMetadata.isEmpty()
         || !sharedSampleMetadata.getEndValue().format.equals(upstreamFormat)) {
@@ -837,17 +848,19 @@ public class SampleQueue implements TrackOutput {
 
     length++;
     if (length == capacity) {
-      // Increase the capacity.
-      int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
+      // Double the capacity, so that the cost of copying the samples is amortized.
+      int newCapacity = capacity * 2;
       long[] newSourceIds = new long[newCapacity];
       long[] newOffsets = new long[newCapacity];
       long[] newTimesUs = new long[newCapacity];
+      long[] newLargestTimesUs = new long[newCapacity];
       int[] newFlags = new int[newCapacity];
       int[] newSizes = new int[newCapacity];
       CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
       int beforeWrap = capacity - relativeFirstIndex;
       System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
       System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
+      System.arraycopy(largestTimesUs, relativeFirstIndex, newLargestTimesUs, 0, beforeWrap);
       System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
       System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
       System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
@@ -855,12 +868,14 @@ public class SampleQueue implements TrackOutput {
       int afterWrap = relativeFirstIndex;
       System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
       System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
+      System.arraycopy(largestTimesUs, 0, newLargestTimesUs, beforeWrap, afterWrap);
       System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
       System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
       System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
       System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
       offsets = newOffsets;
       timesUs = newTimesUs;
+      largestTimesUs = newLargestTimesUs;
       flags = newFlags;
       sizes = newSizes;
       cryptoDatas = newCryptoDatas;
@@ -896,6 +911,7 @@ public class SampleQueue implements TrackOutput {
     largestQueuedTimestampUs = max(largestDiscardedTimestampUs, getLargestTimestamp(length));
     isLastSampleQueued = discardCount == 0 && isLastSampleQueued;
     sharedSampleMetadata.discardFrom(discardFromIndex);
+    keyframeIndex.discardFrom(discardFromIndex);
     if (length != 0) {
       int relativeLastWriteIndex = getRelativeIndex(length - 1);
       return offsets[relativeLastWriteIndex] + sizes[relativeLastWriteIndex];
@@ -971,9 +987,52 @@ public class SampleQueue implements TrackOutput {
    *     sample was found.
    */
   private int findSampleBefore(int relativeStartIndex, int length, long timeUs, boolean keyframe) {
-    // This could be optimized to use a binary search, however in practice callers to this method
-    // normally pass times near to the start of the search region. Hence it's unclear whether
-    // switching to a binary search would yield any real benefit.
+    if (length == 0 || largestTimesUs[relativeStartIndex] > timeUs) {
+      // Either the first sample is after the specified time, or an earlier sample is, in which case
+      // the largest timestamps can't be used to find where the linear search would stop.
+      return findSampleBeforeLinear(relativeStartIndex, length, timeUs, keyframe);
+    }
+    // A linear search stops at the first sample that's after the specified time, which is the first
+    // sample whose largest timestamp is after it. Only samples whose largest timestamp is equal to
+    // the specified time can be exactly at the specified time.
+    int endOffset =
+        findFirstLargestTimeAfter(relativeStartIndex, length, timeUs, /* inclusive= */ false);
+    int exactMatchStartOffset =
+        findFirstLargestTimeAfter(relativeStartIndex, endOffset, timeUs, /* inclusive= */ true);
+    if (!keyframe) {
+      for (int i = exactMatchStartOffset; i < endOffset; i++) {
+        if (timesUs[getRelativeIndex(relativeStartIndex, i)] == timeUs) {
+          return i;
+        }
+      }
+      return endOffset - 1;
+    }
+    int startOffset = relativeStartIndex - relativeFirstIndex;
+    int absoluteStartIndex =
+        absoluteFirstIndex + (startOffset < 0 ? startOffset + capacity : startOffset);
+    int keyframePosition =
+        keyframeIndex.binarySearchCeil(absoluteStartIndex + exactMatchStartOffset);
+    for (int i = keyframePosition;
+        i < keyframeIndex.size() && keyframeIndex.get(i) < absoluteStartIndex + endOffset;
+        i++) {
+      int offset = keyframeIndex.get(i) - absoluteStartIndex;
+      if (timesUs[getRelativeIndex(relativeStartIndex, offset)] == timeUs) {
+        return offset;
+      }
+    }
+    int lastKeyframePosition = keyframeIndex.binarySearchCeil(absoluteStartIndex + endOffset) - 1;
+    if (lastKeyframePosition < 0 || keyframeIndex.get(lastKeyframePosition) < absoluteStartIndex) {
+      return -1;
+    }
+    return keyframeIndex.get(lastKeyframePosition) - absoluteStartIndex;
+  }
+
+  /**
+   * Equivalent to {@link #findSampleBefore(int, int, long, boolean)}, but searches the range
+   * linearly.
+   */
+  private int findSampleBeforeLinear(
+      int relativeStartIndex, int length, long timeUs, boolean keyframe) {
     int sampleCountToTarget = -1;
     int searchIndex = relativeStartIndex;
     for (int i = 0; i < length && timesUs[searchIndex] <= timeUs; i++) {
@@ -1008,6 +1067,13 @@ public class SampleQueue implements TrackOutput {
    */
   private int findSampleAfter(
       int relativeStartIndex, int length, long timeUs, boolean allowTimeBeyondBuffer) {
+    if (length > 0 && largestTimesUs[relativeStartIndex] < timeUs) {
+      // All samples before the first sample whose largest timestamp is at or after the specified
+      // time are before it, and the timestamp of that sample is its largest timestamp.
+      int offset =
+          findFirstLargestTimeAfter(relativeStartIndex, length, timeUs, /* inclusive= */ true);
+      return offset < length || allowTimeBeyondBuffer ? offset : -1;
+    }
     int searchIndex = relativeStartIndex;
     for (int i = 0; i < length; i++) {
       if (timesUs[searchIndex] >= timeUs) {
@@ -1021,6 +1087,34 @@ public class SampleQueue implements TrackOutput {
     return allowTimeBeyondBuffer ? length : -1;
   }
 
+  /**
+   * Binary searches the largest timestamps of the specified range, which are non-decreasing, for
+   * the first sample whose largest timestamp is after the specified time.
+   *
+   * @param relativeStartIndex The relative index from which to start searching.
+   * @param length The length of the range being searched.
+   * @param timeUs The specified time, in microseconds.
+   * @param inclusive Whether a largest timestamp equal to {@code timeUs} is considered to be after
+   *     it.
+   * @return The offset from {@code relativeStartIndex} to the found sample, or {@code length} if no
+   *     sample in the range has a largest timestamp after the specified time.
+   */
+  private int findFirstLargestTimeAfter(
+      int relativeStartIndex, int length, long timeUs, boolean inclusive) {
+    int low = 0;
+    int high = length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      long largestTimeUs = largestTimesUs[getRelativeIndex(relativeStartIndex, mid)];
+      if (inclusive ? largestTimeUs >= timeUs : largestTimeUs > timeUs) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
   /**
    * Counts the number of samples that haven't been read that have a timestamp smaller than {@code
    * timeUs}.
@@ -1062,6 +1156,7 @@ public class SampleQueue implements TrackOutput {
       readPosition = 0;
     }
     sharedSampleMetadata.discardTo(absoluteFirstIndex);
+    keyframeIndex.discardTo(absoluteFirstIndex);
 
     if (length == 0) {
       int relativeLastDiscardIndex = (relativeFirstIndex == 0 ? capacity : relativeFirstIndex) - 1;
@@ -1108,6 +1203,18 @@ public class SampleQueue implements TrackOutput {
     return relativeIndex < capacity ? relativeIndex : relativeIndex - capacity;
   }
 
+  /**
+   * Returns the relative index for a given offset from a relative index.
+   *
+   * @param relativeStartIndex The relative index.
+   * @param offset The offset, which must be in the range [0, length] when added to the offset of
+   *     {@code relativeStartIndex} from the start of the queue.
+   */
+  private int getRelativeIndex(int relativeStartIndex, int offset) {
+    int relativeIndex = relativeStartIndex + offset;
+    return relativeIndex < capacity ? relativeIndex : relativeIndex - capacity;
+  }
+
   /** A holder for sample metadata not held by {@link DecoderInputBuffer}. */
   /* package */ static final class SampleExtrasHolder {
 
@@ -1116,6 +1223,90 @@ public class SampleQueue implements TrackOutput {
     @Nullable public CryptoData cryptoData;
   }
 
+  /**
+   * A circular buffer of the absolute indices of the queued keyframes, in increasing order, which
+   * allows keyframes to be found without scanning the samples between them.
+   */
+  private static final class KeyframeIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] absoluteIndices;
+    private int first;
+    private int size;
+
+    public KeyframeIndex() {
+      absoluteIndices = new int[INITIAL_CAPACITY];
+    }
+
+    /** Returns the number of keyframes in the index. */
+    public int size() {
+      return size;
+    }
+
+    /** Returns the absolute sample index of the keyframe at the specified position. */
+    public int get(int position) {
+      return absoluteIndices[getArrayIndex(position)];
+    }
+
+    /** Appends a keyframe, whose absolute index must be larger than those already in the index. */
+    public void append(int absoluteIndex) {
+      if (size == absoluteIndices.length) {
+        int[] newAbsoluteIndices = new int[size * 2];
+        int beforeWrap = size - first;
+        System.arraycopy(absoluteIndices, first, newAbsoluteIndices, 0, beforeWrap);
+        System.arraycopy(absoluteIndices, 0, newAbsoluteIndices, beforeWrap, first);
+        absoluteIndices = newAbsoluteIndices;
+        first = 0;
+      }
+      absoluteIndices[getArrayIndex(size)] = absoluteIndex;
+      size++;
+    }
+
+    /** Removes the keyframes whose absolute index is smaller than {@code absoluteIndex}. */
+    public void discardTo(int absoluteIndex) {
+      int discardCount = binarySearchCeil(absoluteIndex);
+      first = getArrayIndex(discardCount);
+      size -= discardCount;
+    }
+
+    /** Removes the keyframes whose absolute index is at or after {@code absoluteIndex}. */
+    public void discardFrom(int absoluteIndex) {
+      size = binarySearchCeil(absoluteIndex);
+    }
+
+    /** Removes all keyframes. */
+    public void clear() {
+      first = 0;
+      size = 0;
+    }
+
+    /**
+     * Returns the position of the first keyframe whose absolute index is at or after {@code
+     * absoluteIndex}, or {@link #size()} if there's no such keyframe.
+     */
+    public int binarySearchCeil(int absoluteIndex) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (get(mid) >= absoluteIndex) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+
+    private int getArrayIndex(int position) {
+      int arrayIndex = first + position;
+      return arrayIndex < absoluteIndices.length
+          ? arrayIndex
+          : arrayIndex - absoluteIndices.length;
+    }
+  }
+
   /** A holder for metadata that applies to a span of contiguous samples. */
   private static final class SharedSampleMetadata {
     public final Format format;
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.extractor.SeekIndex;
+
+/**
+ * Stores the {@link SeekIndex} recorded while extracting media, so that it can be used when the
+ * media is extracted again.
+ *
+ * <p>Methods are called on the loading thread, and implementations must be thread-safe if they're
+ * shared between players.
+ */
+@UnstableApi
+public interface SeekIndexStore {
+
+  /** Returns the stored {@link SeekIndex} of the media at {@code uri}, or null if there is none. */
+  @Nullable
+  SeekIndex get(Uri uri);
+
+  /** Stores the {@link SeekIndex} of the media at {@code uri}, replacing any stored index. */
+  void put(Uri uri, SeekIndex seekIndex);
+}
@@ -15,13 +15,22 @@
  */
 package androidx.media3.exoplayer.upstream;
 
+import static androidx.media3.common.util.Assertions.checkArgument;
+
+import androidx.annotation.Nullable;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import java.nio.ByteBuffer;
 
 /**
- * An allocation within a byte array.
+ * An allocation within a byte array, or within a direct {@link ByteBuffer}.
  *
  * <p>The allocation's length is obtained by calling {@link
  * Allocator#getIndividualAllocationLength()} on the {@link Allocator} from which it was obtained.
+ *
+ * <p>If {@link #directBuffer} is non-null, the allocated space is the whole of {@link
+ * #directBuffer}, and {@link #data} is empty. Users of an {@link Allocator} that may return such
+ * allocations must check {@link #directBuffer} before accessing {@link #data}.
  */
 @UnstableApi
 public final class Allocation {
@@ -35,6 +44,13 @@ public final class Allocation {
   /** The offset of the allocated space in {@link #data}. */
   public final int offset;
 
+  /**
+   * The direct buffer containing the allocated space, or null if the space is allocated in {@link
+   * #data}. The position and limit of the buffer are undefined, so users must create their own
+   * {@link ByteBuffer#duplicate() duplicate} to access it.
+   */
+  @Nullable public final ByteBuffer directBuffer;
+
   /**
    * @param data The array containing the allocated space.
    * @param offset The offset of the allocated space in {@code data}.
@@ -42,5 +58,16 @@ public final class Allocation {
   public Allocation(byte[] data, int offset) {
     this.data = data;
     this.offset = offset;
+    directBuffer = null;
+  }
+
+  /**
+   * @param directBuffer A direct buffer whose capacity is the allocated space.
+   */
+  public Allocation(ByteBuffer directBuffer) {
+    checkArgument(directBuffer.isDirect());
+    this.directBuffer = directBuffer;
+    data = Util.EMPTY_BYTE_ARRAY;
+    offset = 0;
   }
 }
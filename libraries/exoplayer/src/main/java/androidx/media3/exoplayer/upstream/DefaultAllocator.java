@@ -16,28 +16,73 @@
 package androidx.media3.exoplayer.upstream;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 import androidx.annotation.Nullable;
+import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.NullableType;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** Default implementation of {@link Allocator}. */
+/**
+ * Default implementation of {@link Allocator}.
+ *
+ * <p>By default, each instance creates and discards its own {@link Allocation Allocations}. An
+ * instance created by {@link SharedAllocatorPool#createAllocator(int)} instead obtains allocations
+ * from the pool and returns trimmed allocations to it, and is granted a share of the memory budget
+ * of the pool.
+ *
+ * <p>An instance can also be created with a thread cache, in which case each thread that allocates
+ * or releases {@link Allocation Allocations} keeps a small number of available allocations that it
+ * can reuse without acquiring the allocator's lock. Allocations are moved between the thread caches
+ * and the allocator in batches, so that a loading thread that allocates and a playback thread that
+ * releases only contend for the lock once per batch. Releasing an allocation still acquires the
+ * lock briefly, to wake up threads waiting for the allocated size to drop. {@link #trim()} returns
+ * the allocations cached by all threads to the allocator, so that they can be discarded.
+ *
+ * <p>An instance can also be created to return allocations backed by {@link
+ * Allocation#directBuffer direct buffers}, which keeps large media buffers out of the Java heap.
+ * Direct allocations are sliced from slabs of {@link #DIRECT_SLAB_ALLOCATION_COUNT} allocations,
+ * and the memory of a slab is only freed once all of its allocations have been discarded.
+ */
 @UnstableApi
 public final class DefaultAllocator implements Allocator {
 
+  /**
+   * A suggested thread cache size, for use with {@link #DefaultAllocator(boolean, int, int, int)}.
+   */
+  public static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+
+  /** The number of direct allocations sliced from each direct buffer slab. */
+  public static final int DIRECT_SLAB_ALLOCATION_COUNT = 16;
+
   private static final int AVAILABLE_EXTRA_CAPACITY = 100;
 
   private final boolean trimOnReset;
   private final int individualAllocationSize;
   @Nullable private final byte[] initialAllocationBlock;
+  @Nullable private final SharedAllocatorPool pool;
+  private final int threadCacheSize;
+  @Nullable private final ThreadLocal<ThreadCache> threadCaches;
+  private final List<ThreadCache> registeredThreadCaches;
+  private final boolean useDirectBuffers;
+  private final AtomicInteger allocatedCount;
+
+  private volatile int grantedBufferSize;
 
+  private @C.Priority int priority;
   private int targetBufferSize;
-  private int allocatedCount;
+  private int heldCount;
   private int availableCount;
   private @NullableType Allocation[] availableAllocations;
+  @Nullable private ByteBuffer directSlab;
+  private int directSlabAllocationIndex;
 
   /**
    * Constructs an instance without creating any {@link Allocation}s up front.
@@ -64,10 +109,69 @@ public final class DefaultAllocator implements Allocator {
    */
   public DefaultAllocator(
       boolean trimOnReset, int individualAllocationSize, int initialAllocationCount) {
+    this(trimOnReset, individualAllocationSize, initialAllocationCount, /* threadCacheSize= */ 0);
+  }
+
+  /**
+   * Constructs an instance with some {@link Allocation}s created up front, and a thread cache.
+   *
+   * <p>Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances. If set to false, trimming can
+   *     be forced by calling {@link #setTargetBufferSize(int)} manually when required.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front.
+   * @param threadCacheSize The maximum number of available allocations cached by each thread, or 0
+   *     to disable thread caching.
+   */
+  public DefaultAllocator(
+      boolean trimOnReset,
+      int individualAllocationSize,
+      int initialAllocationCount,
+      int threadCacheSize) {
+    this(
+        trimOnReset,
+        individualAllocationSize,
+        initialAllocationCount,
+        threadCacheSize,
+        /* useDirectBuffers= */ false);
+  }
+
+  /**
+   * Constructs an instance with a thread cache, whose allocations may be backed by direct buffers.
+   *
+   * <p>Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances. If set to false, trimming can
+   *     be forced by calling {@link #setTargetBufferSize(int)} manually when required.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front. Must be 0 if
+   *     {@code useDirectBuffers} is true.
+   * @param threadCacheSize The maximum number of available allocations cached by each thread, or 0
+   *     to disable thread caching.
+   * @param useDirectBuffers Whether allocations are backed by {@link Allocation#directBuffer direct
+   *     buffers} rather than byte arrays.
+   */
+  public DefaultAllocator(
+      boolean trimOnReset,
+      int individualAllocationSize,
+      int initialAllocationCount,
+      int threadCacheSize,
+      boolean useDirectBuffers) {
     Assertions.checkArgument(individualAllocationSize > 0);
     Assertions.checkArgument(initialAllocationCount >= 0);
+    Assertions.checkArgument(threadCacheSize >= 0);
+    Assertions.checkArgument(!useDirectBuffers || initialAllocationCount == 0);
     this.trimOnReset = trimOnReset;
     this.individualAllocationSize = individualAllocationSize;
+    this.threadCacheSize = threadCacheSize;
+    this.useDirectBuffers = useDirectBuffers;
+    registeredThreadCaches = new ArrayList<>();
+    threadCaches = threadCacheSize > 0 ? createThreadCaches() : null;
+    allocatedCount = new AtomicInteger();
+    this.heldCount = initialAllocationCount;
     this.availableCount = initialAllocationCount;
     this.availableAllocations = new Allocation[initialAllocationCount + AVAILABLE_EXTRA_CAPACITY];
     if (initialAllocationCount > 0) {
@@ -79,64 +183,250 @@ public final class DefaultAllocator implements Allocator {
     } else {
       initialAllocationBlock = null;
     }
+    pool = null;
+    grantedBufferSize = Integer.MAX_VALUE;
+  }
+
+  /* package */ DefaultAllocator(SharedAllocatorPool pool, @C.Priority int priority) {
+    this.pool = pool;
+    this.priority = priority;
+    trimOnReset = true;
+    individualAllocationSize = pool.getIndividualAllocationLength();
+    threadCacheSize = 0;
+    threadCaches = null;
+    registeredThreadCaches = new ArrayList<>();
+    useDirectBuffers = false;
+    allocatedCount = new AtomicInteger();
+    initialAllocationBlock = null;
+    availableAllocations = new Allocation[AVAILABLE_EXTRA_CAPACITY];
+    grantedBufferSize = Integer.MAX_VALUE;
   }
 
-  public synchronized void reset() {
+  public void reset() {
     if (trimOnReset) {
       setTargetBufferSize(0);
     }
   }
 
-  public synchronized void setTargetBufferSize(int targetBufferSize) {
-    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
-    this.targetBufferSize = targetBufferSize;
+  public void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced;
+    synchronized (this) {
+      targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+      this.targetBufferSize = targetBufferSize;
+      if (pool != null) {
+        pool.updateRequest(this, priority, targetBufferSize);
+      }
+    }
     if (targetBufferSizeReduced) {
+      // Trim without holding the lock, as trimming acquires the locks of the thread caches first.
       trim();
     }
   }
 
+  /**
+   * Sets the {@link C.Priority} with which the allocator requests a share of the budget of its
+   * {@link SharedAllocatorPool}. Has no effect if the allocator doesn't use a pool.
+   *
+   * @param priority The {@link C.Priority}.
+   */
+  public synchronized void setPriority(@C.Priority int priority) {
+    this.priority = priority;
+    if (pool != null && targetBufferSize > 0) {
+      pool.updateRequest(this, priority, targetBufferSize);
+    }
+  }
+
+  /**
+   * Returns the number of bytes that the allocator has been granted from the budget of its {@link
+   * SharedAllocatorPool}, or {@link Integer#MAX_VALUE} if the allocator doesn't use a pool or
+   * doesn't currently request a share of its budget.
+   */
+  public int getGrantedBufferSize() {
+    return grantedBufferSize;
+  }
+
+  /* package */ void setGrantedBufferSize(int grantedBufferSize) {
+    this.grantedBufferSize = grantedBufferSize;
+  }
+
   @Override
-  public synchronized Allocation allocate() {
-    allocatedCount++;
+  public Allocation allocate() {
+    if (threadCaches == null) {
+      return allocateFromAvailable();
+    }
+    ThreadCache threadCache = threadCaches.get();
     Allocation allocation;
-    if (availableCount > 0) {
-      allocation = Assertions.checkNotNull(availableAllocations[--availableCount]);
-      availableAllocations[availableCount] = null;
-    } else {
-      allocation = new Allocation(new byte[individualAllocationSize], 0);
-      if (allocatedCount > availableAllocations.length) {
-        // Make availableAllocations be large enough to contain all allocations made by this
-        // allocator so that release() does not need to grow the availableAllocations array. See
-        // [Internal ref: b/209801945].
-        availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+    synchronized (threadCache) {
+      if (threadCache.size == 0) {
+        refillThreadCache(threadCache);
       }
+      allocation = threadCache.remove();
     }
+    allocatedCount.incrementAndGet();
     return allocation;
   }
 
   @Override
-  public synchronized void release(Allocation allocation) {
+  public void release(Allocation allocation) {
+    if (threadCaches == null) {
+      releaseToAvailable(allocation);
+      return;
+    }
+    ThreadCache threadCache = threadCaches.get();
+    synchronized (threadCache) {
+      if (threadCache.size == threadCacheSize) {
+        flushThreadCache(threadCache, getThreadCacheBatchSize());
+      }
+      threadCache.add(allocation);
+    }
+    allocatedCount.decrementAndGet();
+    notifyAllocationsReleased();
+  }
+
+  @Override
+  public void release(@Nullable AllocationNode allocationNode) {
+    if (threadCaches != null) {
+      ThreadCache threadCache = threadCaches.get();
+      int releasedCount = 0;
+      synchronized (threadCache) {
+        while (allocationNode != null && threadCache.size < threadCacheSize) {
+          threadCache.add(allocationNode.getAllocation());
+          releasedCount++;
+          allocationNode = allocationNode.next();
+        }
+      }
+      allocatedCount.addAndGet(-releasedCount);
+    }
+    if (allocationNode != null) {
+      releaseToAvailable(allocationNode);
+    } else {
+      notifyAllocationsReleased();
+    }
+  }
+
+  @Override
+  public void trim() {
+    if (threadCaches != null) {
+      // Return the allocations cached by all threads, including ones that no longer use the
+      // allocator, so that they can be discarded.
+      for (ThreadCache threadCache : getRegisteredThreadCaches()) {
+        synchronized (threadCache) {
+          if (threadCache.size > 0) {
+            flushThreadCache(threadCache, threadCache.size);
+          }
+        }
+      }
+      unregisterThreadCachesOfTerminatedThreads();
+    }
+    trimAvailable();
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  private synchronized Allocation allocateFromAvailable() {
+    allocatedCount.incrementAndGet();
+    if (availableCount > 0) {
+      Allocation allocation = Assertions.checkNotNull(availableAllocations[--availableCount]);
+      availableAllocations[availableCount] = null;
+      return allocation;
+    }
+    return createAllocation();
+  }
+
+  private synchronized void releaseToAvailable(Allocation allocation) {
     availableAllocations[availableCount++] = allocation;
-    allocatedCount--;
+    allocatedCount.decrementAndGet();
     // Wake up threads waiting for the allocated size to drop.
     notifyAll();
   }
 
-  @Override
-  public synchronized void release(@Nullable AllocationNode allocationNode) {
-    while (allocationNode != null) {
-      availableAllocations[availableCount++] = allocationNode.getAllocation();
-      allocatedCount--;
-      allocationNode = allocationNode.next();
+  private synchronized void releaseToAvailable(AllocationNode allocationNode) {
+    int releasedCount = 0;
+    @Nullable AllocationNode node = allocationNode;
+    while (node != null) {
+      availableAllocations[availableCount++] = node.getAllocation();
+      releasedCount++;
+      node = node.next();
     }
+    allocatedCount.addAndGet(-releasedCount);
     // Wake up threads waiting for the allocated size to drop.
     notifyAll();
   }
 
-  @Override
-  public synchronized void trim() {
-    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
-    int targetAvailableCount = max(0, targetAllocationCount - allocatedCount);
+  private synchronized void notifyAllocationsReleased() {
+    // Wake up threads waiting for the allocated size to drop.
+    notifyAll();
+  }
+
+  private synchronized void registerThreadCache(ThreadCache threadCache) {
+    registeredThreadCaches.add(threadCache);
+  }
+
+  private synchronized ThreadCache[] getRegisteredThreadCaches() {
+    return registeredThreadCaches.toArray(new ThreadCache[0]);
+  }
+
+  private synchronized void unregisterThreadCachesOfTerminatedThreads() {
+    for (int i = registeredThreadCaches.size() - 1; i >= 0; i--) {
+      ThreadCache threadCache = registeredThreadCaches.get(i);
+      // A terminated thread can't add allocations to its cache, which trim() has just emptied.
+      if (!threadCache.thread.isAlive()) {
+        registeredThreadCaches.remove(i);
+      }
+    }
+  }
+
+  private synchronized void refillThreadCache(ThreadCache threadCache) {
+    int count = min(availableCount, getThreadCacheBatchSize());
+    if (count == 0) {
+      threadCache.add(createAllocation());
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      threadCache.add(Assertions.checkNotNull(availableAllocations[--availableCount]));
+      availableAllocations[availableCount] = null;
+    }
+  }
+
+  private synchronized void flushThreadCache(ThreadCache threadCache, int count) {
+    for (int i = 0; i < count; i++) {
+      availableAllocations[availableCount++] = threadCache.remove();
+    }
+    // Wake up threads waiting for the allocated size to drop.
+    notifyAll();
+  }
+
+  private synchronized Allocation createAllocation() {
+    heldCount++;
+    Allocation allocation;
+    if (pool != null) {
+      allocation = pool.obtain();
+    } else if (useDirectBuffers) {
+      allocation = createDirectAllocation();
+    } else {
+      allocation = new Allocation(new byte[individualAllocationSize], 0);
+    }
+    if (heldCount > availableAllocations.length) {
+      // Make availableAllocations be large enough to contain all allocations made by this
+      // allocator so that release() does not need to grow the availableAllocations array. See
+      // [Internal ref: b/209801945].
+      availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+    }
+    return allocation;
+  }
+
+  private synchronized void trimAvailable() {
+    int targetAllocationCount =
+        Util.ceilDivide(min(targetBufferSize, grantedBufferSize), individualAllocationSize);
+    int targetAvailableCount = max(0, targetAllocationCount - allocatedCount.get());
     if (targetAvailableCount >= availableCount) {
       // We're already at or below the target.
       return;
@@ -170,18 +460,72 @@ public final class DefaultAllocator implements Allocator {
       }
     }
 
-    // Discard allocations beyond the target.
+    // Discard allocations beyond the target, returning them to the pool if there is one.
+    if (pool != null) {
+      pool.recycle(availableAllocations, targetAvailableCount, availableCount);
+    }
     Arrays.fill(availableAllocations, targetAvailableCount, availableCount, null);
+    heldCount -= availableCount - targetAvailableCount;
     availableCount = targetAvailableCount;
   }
 
-  @Override
-  public synchronized int getTotalBytesAllocated() {
-    return allocatedCount * individualAllocationSize;
+  private synchronized Allocation createDirectAllocation() {
+    ByteBuffer directSlab = this.directSlab;
+    if (directSlab == null || directSlabAllocationIndex == DIRECT_SLAB_ALLOCATION_COUNT) {
+      directSlab =
+          ByteBuffer.allocateDirect(DIRECT_SLAB_ALLOCATION_COUNT * individualAllocationSize);
+      this.directSlab = directSlab;
+      directSlabAllocationIndex = 0;
+    }
+    int position = directSlabAllocationIndex * individualAllocationSize;
+    directSlab.clear();
+    directSlab.position(position);
+    directSlab.limit(position + individualAllocationSize);
+    directSlabAllocationIndex++;
+    return new Allocation(directSlab.slice());
   }
 
-  @Override
-  public int getIndividualAllocationLength() {
-    return individualAllocationSize;
+  private int getThreadCacheBatchSize() {
+    return max(1, threadCacheSize / 2);
+  }
+
+  private ThreadLocal<ThreadCache> createThreadCaches() {
+    return new ThreadLocal<ThreadCache>() {
+      @Override
+      protected ThreadCache initialValue() {
+        ThreadCache threadCache = new ThreadCache(Thread.currentThread(), threadCacheSize);
+        registerThreadCache(threadCache);
+        return threadCache;
+      }
+    };
+  }
+
+  /**
+   * The available allocations cached by a thread. Accessed by its thread, and by {@link #trim()},
+   * while holding the lock of the cache. The lock of the cache must be acquired before the lock of
+   * the allocator.
+   */
+  private static final class ThreadCache {
+
+    public final Thread thread;
+
+    private final @NullableType Allocation[] allocations;
+
+    public int size;
+
+    public ThreadCache(Thread thread, int capacity) {
+      this.thread = thread;
+      allocations = new Allocation[capacity];
+    }
+
+    public void add(Allocation allocation) {
+      allocations[size++] = allocation;
+    }
+
+    public Allocation remove() {
+      Allocation allocation = Assertions.checkNotNull(allocations[--size]);
+      allocations[size] = null;
+      return allocation;
+    }
   }
 }
@@ -29,6 +29,9 @@ import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.TransferListener;
 import androidx.media3.exoplayer.upstream.BandwidthMeter.EventListener.EventDispatcher;
+import androidx.media3.exoplayer.upstream.experimental.BandwidthEstimator;
+import androidx.media3.exoplayer.upstream.experimental.BandwidthStatistic;
+import androidx.media3.exoplayer.upstream.experimental.QuantileSketchBandwidthStatistic;
 import com.google.common.base.Ascii;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -39,10 +42,10 @@ import java.util.Map;
 /**
  * Estimates bandwidth by listening to data transfers.
  *
- * <p>The bandwidth estimate is calculated using a {@link SlidingPercentile} and is updated each
- * time a transfer ends. The initial estimate is based on the current operator's network country
- * code or the locale of the user, as well as the network connection type. This can be configured in
- * the {@link Builder}.
+ * <p>The bandwidth estimate is calculated using a {@link SlidingPercentile} by default, or a {@link
+ * BandwidthStatistic} set in the {@link Builder}, and is updated each time a transfer ends. The
+ * initial estimate is based on the current operator's network country code or the locale of the
+ * user, as well as the network connection type. This can be configured in the {@link Builder}.
  */
 @UnstableApi
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener {
@@ -125,6 +128,8 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
     private Map<Integer, Long> initialBitrateEstimates;
     private int slidingWindowMaxWeight;
+    @Nullable private BandwidthStatistic bandwidthStatistic;
+    @Nullable private NetworkQualityEstimator networkQualityEstimator;
     private Clock clock;
     private boolean resetOnNetworkTypeChange;
 
@@ -154,6 +159,44 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return this;
     }
 
+    /**
+     * Sets the {@link BandwidthStatistic} that calculates the bandwidth estimate from transfer
+     * samples, such as a {@link QuantileSketchBandwidthStatistic}. The statistic must not be shared
+     * with other instances.
+     *
+     * <p>The default is {@code null}, in which case a sliding window median with the {@linkplain
+     * #setSlidingWindowMaxWeight maximum weight} is used.
+     *
+     * @param bandwidthStatistic The {@link BandwidthStatistic}, or {@code null}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setBandwidthStatistic(@Nullable BandwidthStatistic bandwidthStatistic) {
+      this.bandwidthStatistic = bandwidthStatistic;
+      return this;
+    }
+
+    /**
+     * Sets a {@link NetworkQualityEstimator} that's shared with other bandwidth meters, such as
+     * {@link NetworkQualityEstimator#getSingletonInstance}.
+     *
+     * <p>Transfer events are forwarded to the estimator. Until the bandwidth meter has an estimate
+     * from its own transfers, the estimator's bitrate estimate for the current network type is used
+     * instead of the initial bitrate estimate, if available. The estimator also provides the
+     * {@linkplain #getTimeToFirstByteEstimateUs() time to first byte estimate}.
+     *
+     * <p>The default is {@code null}.
+     *
+     * @param networkQualityEstimator The {@link NetworkQualityEstimator}, or {@code null}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setNetworkQualityEstimator(
+        @Nullable NetworkQualityEstimator networkQualityEstimator) {
+      this.networkQualityEstimator = networkQualityEstimator;
+      return this;
+    }
+
     /**
      * Sets the initial bitrate estimate in bits per second that should be assumed when a bandwidth
      * estimate is unavailable.
@@ -233,7 +276,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return new DefaultBandwidthMeter(
           context,
           initialBitrateEstimates,
-          slidingWindowMaxWeight,
+          bandwidthStatistic != null
+              ? bandwidthStatistic
+              : new SlidingPercentileStatistic(slidingWindowMaxWeight),
+          networkQualityEstimator,
           clock,
           resetOnNetworkTypeChange);
     }
@@ -288,9 +334,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   private final EventDispatcher eventDispatcher;
   private final Clock clock;
   private final boolean resetOnNetworkTypeChange;
+  @Nullable private final NetworkQualityEstimator networkQualityEstimator;
 
   @GuardedBy("this") // Used in TransferListener methods that are called on a background thread.
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthStatistic bandwidthStatistic;
 
   @GuardedBy("this") // Used in TransferListener methods that are called on a background thread.
   private int streamCount;
@@ -313,6 +360,9 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @GuardedBy("this") // Used in TransferListener methods that are called on a background thread.
   private long lastReportedBitrateEstimate;
 
+  @GuardedBy("this") // Used in TransferListener methods that are called on a background thread.
+  private boolean hasBitrateEstimateFromTransfers;
+
   private @C.NetworkType int networkType;
   private boolean networkTypeOverrideSet;
   private @C.NetworkType int networkTypeOverride;
@@ -320,12 +370,14 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   private DefaultBandwidthMeter(
       @Nullable Context context,
       Map<Integer, Long> initialBitrateEstimates,
-      int maxWeight,
+      BandwidthStatistic bandwidthStatistic,
+      @Nullable NetworkQualityEstimator networkQualityEstimator,
       Clock clock,
       boolean resetOnNetworkTypeChange) {
     this.initialBitrateEstimates = ImmutableMap.copyOf(initialBitrateEstimates);
     this.eventDispatcher = new EventDispatcher();
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.bandwidthStatistic = bandwidthStatistic;
+    this.networkQualityEstimator = networkQualityEstimator;
     this.clock = clock;
     this.resetOnNetworkTypeChange = resetOnNetworkTypeChange;
     if (context != null) {
@@ -355,9 +407,23 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   @Override
   public synchronized long getBitrateEstimate() {
+    if (networkQualityEstimator != null && !hasBitrateEstimateFromTransfers) {
+      long sharedBitrateEstimate =
+          networkQualityEstimator.getBitrateEstimate(networkType, /* host= */ null);
+      if (sharedBitrateEstimate != NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE) {
+        return sharedBitrateEstimate;
+      }
+    }
     return bitrateEstimate;
   }
 
+  @Override
+  public synchronized long getTimeToFirstByteEstimateUs() {
+    return networkQualityEstimator != null
+        ? networkQualityEstimator.getTimeToFirstByteEstimateUs(networkType, /* host= */ null)
+        : C.TIME_UNSET;
+  }
+
   @Override
   public TransferListener getTransferListener() {
     return this;
@@ -377,12 +443,17 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   @Override
   public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
-    // Do nothing.
+    if (networkQualityEstimator != null) {
+      networkQualityEstimator.onTransferInitializing(source, dataSpec, isNetwork);
+    }
   }
 
   @Override
   public synchronized void onTransferStart(
       DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (networkQualityEstimator != null) {
+      networkQualityEstimator.onTransferStart(source, dataSpec, isNetwork);
+    }
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
       return;
     }
@@ -395,6 +466,9 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @Override
   public synchronized void onBytesTransferred(
       DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+    if (networkQualityEstimator != null) {
+      networkQualityEstimator.onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+    }
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
       return;
     }
@@ -403,6 +477,9 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   @Override
   public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (networkQualityEstimator != null) {
+      networkQualityEstimator.onTransferEnd(source, dataSpec, isNetwork);
+    }
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
       return;
     }
@@ -412,11 +489,15 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     totalElapsedTimeMs += sampleElapsedTimeMs;
     totalBytesTransferred += sampleBytesTransferred;
     if (sampleElapsedTimeMs > 0) {
-      float bitsPerSecond = (sampleBytesTransferred * 8000f) / sampleElapsedTimeMs;
-      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+      bandwidthStatistic.addSample(
+          sampleBytesTransferred, /* durationUs= */ sampleElapsedTimeMs * 1000L);
       if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
           || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
-        bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
+        long estimate = bandwidthStatistic.getBandwidthEstimate();
+        if (estimate != BandwidthEstimator.ESTIMATE_NOT_AVAILABLE) {
+          bitrateEstimate = estimate;
+          hasBitrateEstimateFromTransfers = true;
+        }
       }
       maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
       sampleStartTimeMs = nowMs;
@@ -448,6 +529,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
     // Reset the bitrate estimate and report it, along with any bytes transferred.
     this.bitrateEstimate = getInitialBitrateEstimateForNetworkType(networkType);
+    hasBitrateEstimateFromTransfers = false;
     long nowMs = clock.elapsedRealtime();
     int sampleElapsedTimeMs = streamCount > 0 ? (int) (nowMs - sampleStartTimeMs) : 0;
     maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
@@ -457,7 +539,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     sampleBytesTransferred = 0;
     totalBytesTransferred = 0;
     totalElapsedTimeMs = 0;
-    slidingPercentile.reset();
+    bandwidthStatistic.reset();
   }
 
   @GuardedBy("this")
@@ -899,4 +981,32 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
         return new int[] {2, 2, 2, 2, 2, 2};
     }
   }
+
+  /** A {@link BandwidthStatistic} that returns the median of a {@link SlidingPercentile}. */
+  private static final class SlidingPercentileStatistic implements BandwidthStatistic {
+
+    private final SlidingPercentile slidingPercentile;
+
+    public SlidingPercentileStatistic(int maxWeight) {
+      slidingPercentile = new SlidingPercentile(maxWeight);
+    }
+
+    @Override
+    public void addSample(long bytes, long durationUs) {
+      // Durations are measured in whole milliseconds, so calculate the bitrate in milliseconds.
+      float bitsPerSecond = (bytes * 8000f) / (durationUs / 1000);
+      slidingPercentile.addSample((int) Math.sqrt(bytes), bitsPerSecond);
+    }
+
+    @Override
+    public long getBandwidthEstimate() {
+      float median = slidingPercentile.getPercentile(0.5f);
+      return Float.isNaN(median) ? BandwidthEstimator.ESTIMATE_NOT_AVAILABLE : (long) median;
+    }
+
+    @Override
+    public void reset() {
+      slidingPercentile.reset();
+    }
+  }
 }
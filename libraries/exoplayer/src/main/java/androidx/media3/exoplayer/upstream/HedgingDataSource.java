@@ -0,0 +1,643 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.max;
+
+import android.net.Uri;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.BaseDataSource;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.ResolvingDataSource;
+import androidx.media3.datasource.TransferListener;
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DataSource} that reduces the tail latency of requests by making a second, hedged request
+ * when the first one takes longer than usual to open.
+ *
+ * <p>Each request is opened with an upstream {@link DataSource} on an {@link Executor}. If it
+ * hasn't opened after the time to first byte estimated by a {@link TimeToFirstByteEstimator}, the
+ * same request, or one {@link Factory#setHedgeResolver resolved} to an alternate URI, is opened
+ * with a second upstream {@link DataSource}. The data is read from whichever opens first. The other
+ * is cancelled by interrupting the thread opening it, and its data source is closed as soon as its
+ * open returns, without reading any data. Upstream data sources whose {@link DataSource#open} isn't
+ * interruptible, such as {@link androidx.media3.datasource.DefaultHttpDataSource}, keep a thread of
+ * the executor until their open completes.
+ *
+ * <p>Only {@link DataSpec#HTTP_METHOD_GET GET} requests are hedged, and no request is hedged while
+ * the estimator doesn't have an estimate.
+ *
+ * <p>The estimator is updated with the time taken to open the first request of each pair, or with
+ * the time until it was cancelled if the hedged request opened first, so that the threshold isn't
+ * lowered by hedging. It must not be
+ * updated elsewhere, for example by an {@link
+ * androidx.media3.exoplayer.upstream.experimental.ExperimentalBandwidthMeter}.
+ *
+ * <p>{@link TransferListener TransferListeners} are notified of the transfers of this data source,
+ * and not of the requests of the upstream data sources.
+ */
+@UnstableApi
+public final class HedgingDataSource extends BaseDataSource {
+
+  /** Statistics describing the hedged requests of the data sources created by a {@link Factory}. */
+  public static final class Stats {
+
+    /** The number of requests that have been opened. */
+    public final long requestCount;
+
+    /** The number of requests for which a hedged request was made. */
+    public final long hedgedRequestCount;
+
+    /** The number of requests for which the hedged request opened first. */
+    public final long hedgeWinCount;
+
+    /**
+     * A lower bound of the mean time saved by hedging, in microseconds, or {@link C#TIME_UNSET} if
+     * there are no requests for which the hedged request opened while the first request was still
+     * opening.
+     *
+     * <p>The first request is cancelled rather than waited for, so the time saved for each such
+     * request is taken to be the time from making the hedged request to it opening.
+     */
+    public final long meanTimeSavedUs;
+
+    /** The sum of the times that {@link #meanTimeSavedUs} is the mean of, in microseconds. */
+    public final long totalTimeSavedUs;
+
+    /* package */ Stats(
+        long requestCount,
+        long hedgedRequestCount,
+        long hedgeWinCount,
+        long meanTimeSavedUs,
+        long totalTimeSavedUs) {
+      this.requestCount = requestCount;
+      this.hedgedRequestCount = hedgedRequestCount;
+      this.hedgeWinCount = hedgeWinCount;
+      this.meanTimeSavedUs = meanTimeSavedUs;
+      this.totalTimeSavedUs = totalTimeSavedUs;
+    }
+  }
+
+  /** {@link DataSource.Factory} for {@link HedgingDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final DataSource.Factory upstreamFactory;
+    private final TimeToFirstByteEstimator timeToFirstByteEstimator;
+    private final StatsCollector statsCollector;
+
+    @Nullable private ResolvingDataSource.Resolver hedgeResolver;
+    @Nullable private Executor executor;
+    @Nullable private TransferListener transferListener;
+    private long minHedgeDelayMs;
+
+    /**
+     * Creates an instance.
+     *
+     * @param upstreamFactory The {@link DataSource.Factory} that creates the upstream data sources
+     *     used to make requests.
+     * @param timeToFirstByteEstimator The {@link TimeToFirstByteEstimator} whose estimate is the
+     *     time after which a hedged request is made.
+     */
+    public Factory(
+        DataSource.Factory upstreamFactory, TimeToFirstByteEstimator timeToFirstByteEstimator) {
+      this.upstreamFactory = upstreamFactory;
+      this.timeToFirstByteEstimator = timeToFirstByteEstimator;
+      statsCollector = new StatsCollector();
+      minHedgeDelayMs = DEFAULT_MIN_HEDGE_DELAY_MS;
+    }
+
+    /**
+     * Sets the {@link ResolvingDataSource.Resolver} that resolves the {@link DataSpec} of hedged
+     * requests, for example to make them to an alternate CDN.
+     *
+     * <p>The default is {@code null}, which causes hedged requests to be the same as the first
+     * request.
+     *
+     * @param hedgeResolver The {@link ResolvingDataSource.Resolver}, or {@code null} to make
+     *     hedged requests the same as the first request.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setHedgeResolver(@Nullable ResolvingDataSource.Resolver hedgeResolver) {
+      this.hedgeResolver = hedgeResolver;
+      return this;
+    }
+
+    /**
+     * Sets the minimum time after which a hedged request is made, in milliseconds.
+     *
+     * <p>The default is {@link #DEFAULT_MIN_HEDGE_DELAY_MS}.
+     *
+     * @param minHedgeDelayMs The minimum time after which a hedged request is made, in
+     *     milliseconds.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setMinHedgeDelayMs(long minHedgeDelayMs) {
+      checkArgument(minHedgeDelayMs >= 0);
+      this.minHedgeDelayMs = minHedgeDelayMs;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Executor} on which requests are opened.
+     *
+     * <p>The default is an executor with up to {@link #DEFAULT_MAX_EXECUTOR_THREAD_COUNT} threads,
+     * shared by the data sources created by this factory. Requests are queued while all of its
+     * threads are in use.
+     *
+     * @param executor The {@link Executor}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Sets the {@link TransferListener} that will be used.
+     *
+     * <p>The default is {@code null}.
+     *
+     * <p>See {@link DataSource#addTransferListener(TransferListener)}.
+     *
+     * @param transferListener The listener that will be used.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setTransferListener(@Nullable TransferListener transferListener) {
+      this.transferListener = transferListener;
+      return this;
+    }
+
+    /** Returns {@link Stats} describing the requests of the data sources created so far. */
+    public Stats getStats() {
+      return statsCollector.getStats();
+    }
+
+    @Override
+    public HedgingDataSource createDataSource() {
+      if (executor == null) {
+        executor = createDefaultExecutor();
+      }
+      HedgingDataSource dataSource =
+          new HedgingDataSource(
+              upstreamFactory,
+              timeToFirstByteEstimator,
+              hedgeResolver,
+              executor,
+              minHedgeDelayMs,
+              statsCollector);
+      if (transferListener != null) {
+        dataSource.addTransferListener(transferListener);
+      }
+      return dataSource;
+    }
+  }
+
+  /** The default minimum time after which a hedged request is made, in milliseconds. */
+  public static final long DEFAULT_MIN_HEDGE_DELAY_MS = 50;
+
+  /** The maximum number of threads of the default executor on which requests are opened. */
+  public static final int DEFAULT_MAX_EXECUTOR_THREAD_COUNT = 8;
+
+  private final DataSource.Factory upstreamFactory;
+  private final TimeToFirstByteEstimator timeToFirstByteEstimator;
+  @Nullable private final ResolvingDataSource.Resolver hedgeResolver;
+  private final Executor executor;
+  private final long minHedgeDelayUs;
+  private final StatsCollector statsCollector;
+
+  @Nullable private DataSource openedDataSource;
+  private boolean transferStarted;
+
+  private HedgingDataSource(
+      DataSource.Factory upstreamFactory,
+      TimeToFirstByteEstimator timeToFirstByteEstimator,
+      @Nullable ResolvingDataSource.Resolver hedgeResolver,
+      Executor executor,
+      long minHedgeDelayMs,
+      StatsCollector statsCollector) {
+    super(/* isNetwork= */ true);
+    this.upstreamFactory = upstreamFactory;
+    this.timeToFirstByteEstimator = timeToFirstByteEstimator;
+    this.hedgeResolver = hedgeResolver;
+    this.executor = executor;
+    this.minHedgeDelayUs = Util.msToUs(minHedgeDelayMs);
+    this.statsCollector = statsCollector;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    transferInitializing(dataSpec);
+    statsCollector.onRequest();
+    long hedgeDelayUs = getHedgeDelayUs(dataSpec);
+    synchronized (timeToFirstByteEstimator) {
+      timeToFirstByteEstimator.onTransferInitializing(dataSpec);
+    }
+    long length;
+    if (hedgeDelayUs == C.TIME_UNSET) {
+      DataSource dataSource = upstreamFactory.createDataSource();
+      openedDataSource = dataSource;
+      length = dataSource.open(dataSpec);
+      onFirstRequestOpened(dataSpec);
+    } else {
+      OpenTask winningTask = openHedged(dataSpec, hedgeDelayUs);
+      openedDataSource = winningTask.dataSource;
+      length = winningTask.length;
+    }
+    transferStarted = true;
+    transferStarted(dataSpec);
+    return length;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    int bytesRead = checkNotNull(openedDataSource).read(buffer, offset, length);
+    if (bytesRead > 0) {
+      bytesTransferred(bytesRead);
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return openedDataSource != null ? openedDataSource.getUri() : null;
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return openedDataSource != null ? openedDataSource.getResponseHeaders() : ImmutableMap.of();
+  }
+
+  @Override
+  public void close() throws IOException {
+    @Nullable DataSource dataSource = openedDataSource;
+    openedDataSource = null;
+    try {
+      if (dataSource != null) {
+        dataSource.close();
+      }
+    } finally {
+      if (transferStarted) {
+        transferStarted = false;
+        transferEnded();
+      }
+    }
+  }
+
+  private long getHedgeDelayUs(DataSpec dataSpec) {
+    if (dataSpec.httpMethod != DataSpec.HTTP_METHOD_GET) {
+      return C.TIME_UNSET;
+    }
+    long timeToFirstByteEstimateUs;
+    synchronized (timeToFirstByteEstimator) {
+      timeToFirstByteEstimateUs = timeToFirstByteEstimator.getTimeToFirstByteEstimateUs();
+    }
+    return timeToFirstByteEstimateUs == C.TIME_UNSET
+        ? C.TIME_UNSET
+        : max(timeToFirstByteEstimateUs, minHedgeDelayUs);
+  }
+
+  private void onFirstRequestOpened(DataSpec dataSpec) {
+    synchronized (timeToFirstByteEstimator) {
+      timeToFirstByteEstimator.onTransferStart(dataSpec);
+    }
+  }
+
+  /**
+   * Opens a request, making a hedged request if it takes longer than {@code hedgeDelayUs}, and
+   * returns the {@link OpenTask} of the request that opened first.
+   */
+  private OpenTask openHedged(DataSpec dataSpec, long hedgeDelayUs) throws IOException {
+    PendingOpen pendingOpen = new PendingOpen(dataSpec);
+    long startTimeNs = System.nanoTime();
+    OpenTask firstTask =
+        new OpenTask(
+            pendingOpen,
+            upstreamFactory.createDataSource(),
+            /* resolver= */ null,
+            /* isFirstRequest= */ true);
+    executor.execute(firstTask);
+    @Nullable OpenTask hedgeTask = null;
+    try {
+      synchronized (pendingOpen) {
+        long hedgeTimeNs = startTimeNs + hedgeDelayUs * 1000;
+        long remainingNs;
+        while (!firstTask.isFinished && (remainingNs = hedgeTimeNs - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.timedWait(pendingOpen, remainingNs);
+        }
+        if (firstTask.hasSucceeded()) {
+          return firstTask;
+        }
+      }
+      if (firstTask.isFinished()) {
+        DataSourceUtil.closeQuietly(firstTask.dataSource);
+        return firstTask.getResult();
+      }
+
+      statsCollector.onHedgedRequest();
+      long hedgeStartTimeNs = System.nanoTime();
+      hedgeTask =
+          new OpenTask(
+              pendingOpen,
+              upstreamFactory.createDataSource(),
+              hedgeResolver,
+              /* isFirstRequest= */ false);
+      executor.execute(hedgeTask);
+
+      OpenTask winningTask;
+      OpenTask losingTask;
+      boolean hasFailed;
+      long winningTaskEndTimeNs;
+      boolean isLosingTaskFinished;
+      synchronized (pendingOpen) {
+        while (!firstTask.hasSucceeded()
+            && !hedgeTask.hasSucceeded()
+            && !(firstTask.isFinished && hedgeTask.isFinished)) {
+          pendingOpen.wait();
+        }
+        hasFailed = !firstTask.hasSucceeded() && !hedgeTask.hasSucceeded();
+        if (hasFailed) {
+          winningTask = firstTask;
+          losingTask = hedgeTask;
+        } else if (firstTask.hasSucceeded()
+            && (!hedgeTask.hasSucceeded() || firstTask.endTimeNs <= hedgeTask.endTimeNs)) {
+          winningTask = firstTask;
+          losingTask = hedgeTask;
+        } else {
+          winningTask = hedgeTask;
+          losingTask = firstTask;
+        }
+        winningTaskEndTimeNs = winningTask.endTimeNs;
+        isLosingTaskFinished = losingTask.isFinished;
+        if (!isLosingTaskFinished) {
+          losingTask.abandon();
+        }
+      }
+      if (isLosingTaskFinished) {
+        DataSourceUtil.closeQuietly(losingTask.dataSource);
+      }
+      if (hasFailed) {
+        DataSourceUtil.closeQuietly(firstTask.dataSource);
+        return firstTask.getResult();
+      }
+      if (winningTask == hedgeTask) {
+        long timeSavedUs = C.TIME_UNSET;
+        if (!isLosingTaskFinished) {
+          // The first request was cancelled, so the time until then is a lower bound of its time to
+          // first byte.
+          onFirstRequestOpened(dataSpec);
+          timeSavedUs = (winningTaskEndTimeNs - hedgeStartTimeNs) / 1000;
+        }
+        statsCollector.onHedgeWin(timeSavedUs);
+      }
+      return winningTask;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abandonTask(firstTask);
+      if (hedgeTask != null) {
+        abandonTask(hedgeTask);
+      }
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static void abandonTask(OpenTask task) {
+    boolean isFinished;
+    synchronized (task.pendingOpen) {
+      isFinished = task.isFinished;
+      if (!isFinished) {
+        task.abandon();
+      }
+    }
+    if (isFinished) {
+      DataSourceUtil.closeQuietly(task.dataSource);
+    }
+  }
+
+  private static ExecutorService createDefaultExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ DEFAULT_MAX_EXECUTOR_THREAD_COUNT,
+            /* maximumPoolSize= */ DEFAULT_MAX_EXECUTOR_THREAD_COUNT,
+            /* keepAliveTime= */ 60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable ->
+                new Thread(
+                    runnable, "ExoPlayer:HedgingDataSource-" + threadCount.incrementAndGet()));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** The state shared by the requests made to open a {@link DataSpec}. */
+  private static final class PendingOpen {
+
+    public final DataSpec dataSpec;
+
+    public PendingOpen(DataSpec dataSpec) {
+      this.dataSpec = dataSpec;
+    }
+  }
+
+  /** Opens a request on the executor. */
+  private final class OpenTask implements Runnable {
+
+    public final PendingOpen pendingOpen;
+    public final DataSource dataSource;
+    @Nullable private final ResolvingDataSource.Resolver resolver;
+    private final boolean isFirstRequest;
+
+    @GuardedBy("pendingOpen")
+    public boolean isFinished;
+
+    @GuardedBy("pendingOpen")
+    public long endTimeNs;
+
+    // Written before isFinished is set.
+    public long length;
+
+    @GuardedBy("pendingOpen")
+    @Nullable
+    private Exception exception;
+
+    @GuardedBy("pendingOpen")
+    private boolean isAbandoned;
+
+    @GuardedBy("pendingOpen")
+    @Nullable
+    private Thread thread;
+
+    public OpenTask(
+        PendingOpen pendingOpen,
+        DataSource dataSource,
+        @Nullable ResolvingDataSource.Resolver resolver,
+        boolean isFirstRequest) {
+      this.pendingOpen = pendingOpen;
+      this.dataSource = dataSource;
+      this.resolver = resolver;
+      this.isFirstRequest = isFirstRequest;
+    }
+
+    @Override
+    public void run() {
+      boolean isAbandonedBeforeStart;
+      synchronized (pendingOpen) {
+        isAbandonedBeforeStart = isAbandoned;
+        if (!isAbandoned) {
+          thread = Thread.currentThread();
+        }
+      }
+      long length = C.LENGTH_UNSET;
+      @Nullable Exception exception = null;
+      try {
+        if (isAbandonedBeforeStart) {
+          throw new InterruptedIOException();
+        }
+        DataSpec dataSpec =
+            resolver != null
+                ? resolver.resolveDataSpec(pendingOpen.dataSpec)
+                : pendingOpen.dataSpec;
+        length = dataSource.open(dataSpec);
+      } catch (IOException | RuntimeException e) {
+        exception = e;
+      }
+      boolean isAbandoned;
+      synchronized (pendingOpen) {
+        thread = null;
+        this.length = length;
+        this.exception = exception;
+        endTimeNs = System.nanoTime();
+        isFinished = true;
+        isAbandoned = this.isAbandoned;
+        pendingOpen.notifyAll();
+      }
+      // Clear the interrupted status set if the task was abandoned, so that it doesn't affect the
+      // next task run on this thread.
+      Thread.interrupted();
+      if (isAbandoned) {
+        DataSourceUtil.closeQuietly(dataSource);
+      } else if (isFirstRequest && exception == null) {
+        onFirstRequestOpened(pendingOpen.dataSpec);
+      }
+    }
+
+    @GuardedBy("pendingOpen")
+    public boolean hasSucceeded() {
+      return isFinished && exception == null;
+    }
+
+    public boolean isFinished() {
+      synchronized (pendingOpen) {
+        return isFinished;
+      }
+    }
+
+    /** Returns this task if it succeeded, or throws its exception. */
+    public OpenTask getResult() throws IOException {
+      @Nullable Exception exception;
+      synchronized (pendingOpen) {
+        exception = this.exception;
+      }
+      if (exception instanceof IOException) {
+        throw (IOException) exception;
+      } else if (exception != null) {
+        throw (RuntimeException) exception;
+      }
+      return this;
+    }
+
+    /**
+     * Cancels the task by interrupting the thread opening its data source, if it has started, and
+     * marks it as abandoned, so that it closes its data source when it finishes.
+     */
+    @GuardedBy("pendingOpen")
+    public void abandon() {
+      isAbandoned = true;
+      @Nullable Thread thread = this.thread;
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  private static final class StatsCollector {
+
+    @GuardedBy("this")
+    private long requestCount;
+
+    @GuardedBy("this")
+    private long hedgedRequestCount;
+
+    @GuardedBy("this")
+    private long hedgeWinCount;
+
+    @GuardedBy("this")
+    private long timeSavedCount;
+
+    @GuardedBy("this")
+    private long totalTimeSavedUs;
+
+    public synchronized void onRequest() {
+      requestCount++;
+    }
+
+    public synchronized void onHedgedRequest() {
+      hedgedRequestCount++;
+    }
+
+    public synchronized void onHedgeWin(long timeSavedUs) {
+      hedgeWinCount++;
+      if (timeSavedUs != C.TIME_UNSET) {
+        timeSavedCount++;
+        totalTimeSavedUs += timeSavedUs;
+      }
+    }
+
+    public synchronized Stats getStats() {
+      return new Stats(
+          requestCount,
+          hedgedRequestCount,
+          hedgeWinCount,
+          timeSavedCount == 0 ? C.TIME_UNSET : totalTimeSavedUs / timeSavedCount,
+          totalTimeSavedUs);
+    }
+  }
+}
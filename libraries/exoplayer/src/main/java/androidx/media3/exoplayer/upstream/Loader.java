@@ -162,6 +162,8 @@ public final class Loader implements LoaderErrorThrower {
 
   private static final String THREAD_NAME_PREFIX = "ExoPlayer:Loader:";
 
+  @Nullable private static volatile LoaderThreadPool defaultThreadPool;
+
   /** Types of action that can be taken in response to a load error. */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
@@ -226,14 +228,15 @@ public final class Loader implements LoaderErrorThrower {
   /**
    * Constructs an instance.
    *
+   * <p>The loader has a dedicated thread, unless a {@linkplain
+   * #setDefaultThreadPool(LoaderThreadPool) default thread pool} is set, in which case it uses the
+   * threads of the pool.
+   *
    * @param threadNameSuffix A name suffix for the loader's thread. This should be the name of the
    *     component using the loader.
    */
   public Loader(String threadNameSuffix) {
-    this(
-        /* downloadExecutor= */ ReleasableExecutor.from(
-            Util.newSingleThreadExecutor(THREAD_NAME_PREFIX + threadNameSuffix),
-            ExecutorService::shutdown));
+    this(/* downloadExecutor= */ createDefaultDownloadExecutor(threadNameSuffix));
   }
 
   /**
@@ -247,6 +250,19 @@ public final class Loader implements LoaderErrorThrower {
     this.downloadExecutor = downloadExecutor;
   }
 
+  /**
+   * Sets a {@link LoaderThreadPool} to be used by the loaders that are subsequently constructed
+   * with {@link #Loader(String)}, rather than each of them creating a dedicated thread. This
+   * applies to the whole process, so should normally be called once, before any player is
+   * created.
+   *
+   * @param threadPool The {@link LoaderThreadPool}, or {@code null} for loaders to create a
+   *     dedicated thread.
+   */
+  public static void setDefaultThreadPool(@Nullable LoaderThreadPool threadPool) {
+    defaultThreadPool = threadPool;
+  }
+
   /**
    * Creates a {@link LoadErrorAction} for retrying with the given parameters.
    *
@@ -348,6 +364,16 @@ public final class Loader implements LoaderErrorThrower {
     }
   }
 
+  private static ReleasableExecutor createDefaultDownloadExecutor(String threadNameSuffix) {
+    @Nullable LoaderThreadPool defaultThreadPool = Loader.defaultThreadPool;
+    if (defaultThreadPool != null) {
+      return defaultThreadPool.createExecutor();
+    }
+    return ReleasableExecutor.from(
+        Util.newSingleThreadExecutor(THREAD_NAME_PREFIX + threadNameSuffix),
+        ExecutorService::shutdown);
+  }
+
   // Internal classes.
 
   @SuppressLint("HandlerLeak")
@@ -444,18 +470,22 @@ public final class Loader implements LoaderErrorThrower {
           shouldLoad = !canceled;
           executorThread = Thread.currentThread();
         }
-        if (shouldLoad) {
-          TraceUtil.beginSection("load:" + loadable.getClass().getSimpleName());
-          try {
-            loadable.load();
-          } finally {
-            TraceUtil.endSection();
+        try {
+          if (shouldLoad) {
+            TraceUtil.beginSection("load:" + loadable.getClass().getSimpleName());
+            try {
+              loadable.load();
+            } finally {
+              TraceUtil.endSection();
+            }
+          }
+        } finally {
+          synchronized (this) {
+            executorThread = null;
+            // Clear the interrupted flag if set, to avoid it leaking into a subsequent task. This
+            // is also necessary if the load failed, as the thread may be reused by another task.
+            Thread.interrupted();
           }
-        }
-        synchronized (this) {
-          executorThread = null;
-          // Clear the interrupted flag if set, to avoid it leaking into a subsequent task.
-          Thread.interrupted();
         }
         if (!released) {
           sendEmptyMessage(MSG_FINISH);
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkState;
+import static java.lang.Math.max;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.util.ReleasableExecutor;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of threads shared by multiple {@link Loader} instances, as an alternative to each loader
+ * having a dedicated thread that is idle whenever the loader isn't loading.
+ *
+ * <p>Loaders use the pool through the executors returned by {@link #createExecutor()}, either by
+ * passing one to {@link Loader#Loader(ReleasableExecutor)}, or for all loaders created with {@link
+ * Loader#Loader(String)} by calling {@link Loader#setDefaultThreadPool(LoaderThreadPool)}. The
+ * tasks of each executor run one at a time and in order, as they do on a dedicated thread, so
+ * cancellation, release and error handling of each loader are unchanged.
+ *
+ * <p>Threads are created on demand, and exit after being idle for {@link
+ * #THREAD_KEEP_ALIVE_TIME_MS}. If a maximum thread count is set, tasks wait for a thread once it's
+ * reached. Note that some {@link Loader.Loadable} implementations block their thread for long
+ * periods, for example while the buffer of a progressive stream is full, so the maximum should be
+ * larger than the number of such loads that may run at the same time.
+ *
+ * <p>Where the runtime supports them, {@link #createWithVirtualThreads()} creates a pool that runs
+ * each task on a new virtual thread instead.
+ *
+ * <p>This class is thread-safe.
+ */
+@UnstableApi
+public final class LoaderThreadPool {
+
+  /** Statistics describing the use of a {@link LoaderThreadPool}. */
+  public static final class Stats {
+
+    /** The number of threads that are currently running tasks or waiting for tasks. */
+    public final int threadCount;
+
+    /** The maximum of {@link #threadCount} since the pool was created. */
+    public final int peakThreadCount;
+
+    /** The number of executors that have been created and not yet released. */
+    public final int activeExecutorCount;
+
+    /** The number of tasks that have started running. */
+    public final long startedTaskCount;
+
+    /**
+     * The mean time between a task being submitted to an executor and it starting to run, in
+     * microseconds, or {@link C#TIME_UNSET} if no task has started running.
+     */
+    public final long meanSchedulingLatencyUs;
+
+    /**
+     * The maximum time between a task being submitted to an executor and it starting to run, in
+     * microseconds, or {@link C#TIME_UNSET} if no task has started running.
+     */
+    public final long maxSchedulingLatencyUs;
+
+    /* package */ Stats(
+        int threadCount,
+        int peakThreadCount,
+        int activeExecutorCount,
+        long startedTaskCount,
+        long meanSchedulingLatencyUs,
+        long maxSchedulingLatencyUs) {
+      this.threadCount = threadCount;
+      this.peakThreadCount = peakThreadCount;
+      this.activeExecutorCount = activeExecutorCount;
+      this.startedTaskCount = startedTaskCount;
+      this.meanSchedulingLatencyUs = meanSchedulingLatencyUs;
+      this.maxSchedulingLatencyUs = maxSchedulingLatencyUs;
+    }
+  }
+
+  /** The time after which an idle thread of the pool exits, in milliseconds. */
+  public static final long THREAD_KEEP_ALIVE_TIME_MS = 10_000;
+
+  private static final String THREAD_NAME_PREFIX = "ExoPlayer:Loader:Pool-";
+
+  private final ExecutorService executorService;
+  @Nullable private final ThreadPoolExecutor threadPoolExecutor;
+
+  @GuardedBy("this")
+  private int activeExecutorCount;
+
+  @GuardedBy("this")
+  private int runningTaskCount;
+
+  @GuardedBy("this")
+  private int peakThreadCount;
+
+  @GuardedBy("this")
+  private long startedTaskCount;
+
+  @GuardedBy("this")
+  private long totalSchedulingLatencyNs;
+
+  @GuardedBy("this")
+  private long maxSchedulingLatencyNs;
+
+  /** Creates an instance without a maximum thread count. */
+  public LoaderThreadPool() {
+    this(/* maxThreadCount= */ Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxThreadCount The maximum number of threads, or {@link Integer#MAX_VALUE} for no
+   *     maximum.
+   */
+  public LoaderThreadPool(int maxThreadCount) {
+    checkArgument(maxThreadCount > 0);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor threadPoolExecutor;
+    if (maxThreadCount == Integer.MAX_VALUE) {
+      threadPoolExecutor =
+          new ThreadPoolExecutor(
+              /* corePoolSize= */ 0,
+              maxThreadCount,
+              THREAD_KEEP_ALIVE_TIME_MS,
+              TimeUnit.MILLISECONDS,
+              new SynchronousQueue<>());
+    } else {
+      // Core threads are created before tasks are queued, and exit when idle like other threads.
+      threadPoolExecutor =
+          new ThreadPoolExecutor(
+              /* corePoolSize= */ maxThreadCount,
+              maxThreadCount,
+              THREAD_KEEP_ALIVE_TIME_MS,
+              TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<>());
+      threadPoolExecutor.allowCoreThreadTimeOut(true);
+    }
+    threadPoolExecutor.setThreadFactory(
+        runnable -> new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet()));
+    this.threadPoolExecutor = threadPoolExecutor;
+    executorService = threadPoolExecutor;
+  }
+
+  private LoaderThreadPool(ExecutorService virtualThreadExecutorService) {
+    threadPoolExecutor = null;
+    executorService = virtualThreadExecutorService;
+  }
+
+  /** Returns whether the runtime supports {@link #createWithVirtualThreads() virtual threads}. */
+  public static boolean isVirtualThreadSupported() {
+    return getNewVirtualThreadPerTaskExecutorMethod() != null;
+  }
+
+  /**
+   * Creates an instance that runs each task on a new virtual thread.
+   *
+   * @throws IllegalStateException If the runtime doesn't {@link #isVirtualThreadSupported() support
+   *     virtual threads}.
+   */
+  public static LoaderThreadPool createWithVirtualThreads() {
+    @Nullable Method newVirtualThreadPerTaskExecutor = getNewVirtualThreadPerTaskExecutorMethod();
+    checkState(newVirtualThreadPerTaskExecutor != null, "Virtual threads are not supported");
+    try {
+      return new LoaderThreadPool(
+          (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(/* obj= */ null));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Creates a {@link ReleasableExecutor} for a {@link Loader}, which runs its tasks on the pool one
+   * at a time, in the order in which they're submitted.
+   */
+  public ReleasableExecutor createExecutor() {
+    synchronized (this) {
+      activeExecutorCount++;
+    }
+    return new LoaderExecutor();
+  }
+
+  /** Returns {@link Stats} describing the use of the pool. */
+  public synchronized Stats getStats() {
+    return new Stats(
+        getThreadCount(),
+        peakThreadCount,
+        activeExecutorCount,
+        startedTaskCount,
+        startedTaskCount == 0 ? C.TIME_UNSET : totalSchedulingLatencyNs / startedTaskCount / 1000,
+        startedTaskCount == 0 ? C.TIME_UNSET : maxSchedulingLatencyNs / 1000);
+  }
+
+  @GuardedBy("this")
+  private int getThreadCount() {
+    // Each virtual thread runs a single task.
+    return threadPoolExecutor != null ? threadPoolExecutor.getPoolSize() : runningTaskCount;
+  }
+
+  private synchronized void onTaskStarted(long schedulingLatencyNs) {
+    runningTaskCount++;
+    startedTaskCount++;
+    totalSchedulingLatencyNs += schedulingLatencyNs;
+    maxSchedulingLatencyNs = max(maxSchedulingLatencyNs, schedulingLatencyNs);
+    peakThreadCount = max(peakThreadCount, getThreadCount());
+  }
+
+  private synchronized void onTaskEnded() {
+    runningTaskCount--;
+  }
+
+  private synchronized void onExecutorReleased() {
+    activeExecutorCount--;
+  }
+
+  @Nullable
+  private static Method getNewVirtualThreadPerTaskExecutorMethod() {
+    try {
+      return Class.forName("java.util.concurrent.Executors")
+          .getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /** An executor that runs its tasks on the pool one at a time. */
+  private final class LoaderExecutor implements ReleasableExecutor, Runnable {
+
+    @GuardedBy("this")
+    private final ArrayDeque<PendingTask> pendingTasks;
+
+    @GuardedBy("this")
+    private boolean isScheduled;
+
+    @GuardedBy("this")
+    private boolean released;
+
+    public LoaderExecutor() {
+      pendingTasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      synchronized (this) {
+        pendingTasks.add(new PendingTask(command, System.nanoTime()));
+        if (isScheduled) {
+          return;
+        }
+        isScheduled = true;
+      }
+      executorService.execute(this);
+    }
+
+    @Override
+    public void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      onExecutorReleased();
+    }
+
+    @Override
+    public void run() {
+      PendingTask task;
+      synchronized (this) {
+        task = pendingTasks.remove();
+      }
+      onTaskStarted(System.nanoTime() - task.submitTimeNs);
+      try {
+        task.runnable.run();
+      } finally {
+        onTaskEnded();
+        boolean hasPendingTasks;
+        synchronized (this) {
+          hasPendingTasks = !pendingTasks.isEmpty();
+          isScheduled = hasPendingTasks;
+        }
+        if (hasPendingTasks) {
+          // Run each task separately, so that the tasks of other executors can run in between.
+          executorService.execute(this);
+        }
+      }
+    }
+  }
+
+  private static final class PendingTask {
+
+    public final Runnable runnable;
+    public final long submitTimeNs;
+
+    public PendingTask(Runnable runnable, long submitTimeNs) {
+      this.runnable = runnable;
+      this.submitTimeNs = submitTimeNs;
+    }
+  }
+}
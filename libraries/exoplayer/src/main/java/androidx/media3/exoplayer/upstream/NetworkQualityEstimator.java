@@ -0,0 +1,590 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+
+import android.content.Context;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.util.AtomicFile;
+import androidx.media3.common.util.Clock;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.NetworkTypeObserver;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Estimates the throughput and time to first byte of the network, by listening to data transfers
+ * of all players in a process.
+ *
+ * <p>Estimates are aggregated per network type, and per host for each network type. A compact
+ * snapshot of the estimates is persisted, so that a player created right after the app starts can
+ * use the estimates of previous app sessions for its initial track selection.
+ *
+ * <p>Like {@link DefaultBandwidthMeter}, bitrate samples are taken over the intervals in which
+ * transfers are active, so that concurrent transfers are sampled as a whole, and transfers with
+ * {@link DataSpec#FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED} are ignored.
+ *
+ * <p>Instances should be shared using {@link #getSingletonInstance}, and set on bandwidth meters
+ * using {@link DefaultBandwidthMeter.Builder#setNetworkQualityEstimator}, which forward their
+ * transfer events. Instances can also be added as a {@link TransferListener} to data sources
+ * directly.
+ *
+ * <p>The snapshot contains the host names of the network transfers. Apps can remove it by calling
+ * {@link #clear()}.
+ *
+ * <p>This class is thread-safe.
+ */
+@UnstableApi
+public final class NetworkQualityEstimator implements TransferListener {
+
+  /** Returned when an estimate isn't available. */
+  public static final long ESTIMATE_NOT_AVAILABLE = Long.MIN_VALUE;
+
+  /** The default weight of the previous estimate when adding a sample. */
+  public static final double DEFAULT_SMOOTHING_FACTOR = 0.8;
+
+  /** The name of the snapshot file in {@link Context#getNoBackupFilesDir()}. */
+  public static final String SNAPSHOT_FILE_NAME = "exoplayer_network_quality";
+
+  private static final String TAG = "NetworkQualityEst";
+
+  private static final int VERSION = 1;
+
+  /** The maximum number of hosts for which estimates are kept, for all network types. */
+  private static final int MAX_HOST_ESTIMATES = 32;
+
+  /** The minimum number of bytes transferred in a sample for its bitrate to be estimated. */
+  private static final int MIN_BITRATE_SAMPLE_BYTES = 64 * 1024;
+
+  /** The minimum interval between snapshot writes, in milliseconds. */
+  private static final long MIN_SNAPSHOT_WRITE_INTERVAL_MS = 30_000;
+
+  /** The maximum age of a persisted estimate for it to be loaded, in milliseconds. */
+  private static final long MAX_SNAPSHOT_ESTIMATE_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+  @Nullable private static NetworkQualityEstimator singletonInstance;
+
+  /**
+   * Returns a singleton instance, whose snapshot is stored as {@link #SNAPSHOT_FILE_NAME} in
+   * {@link Context#getNoBackupFilesDir()}. The snapshot is loaded on a background thread, so apps
+   * can call this method early to have the estimates available when the first player is created.
+   *
+   * @param context A {@link Context}.
+   * @return The singleton instance.
+   */
+  public static synchronized NetworkQualityEstimator getSingletonInstance(Context context) {
+    if (singletonInstance == null) {
+      singletonInstance =
+          new NetworkQualityEstimator(
+              context, new File(context.getNoBackupFilesDir(), SNAPSHOT_FILE_NAME));
+    }
+    return singletonInstance;
+  }
+
+  private final NetworkTypeObserver networkTypeObserver;
+  @Nullable private final AtomicFile snapshotFile;
+  private final Executor executor;
+  private final Clock clock;
+  private final double smoothingFactor;
+
+  @GuardedBy("this")
+  private final Map<Integer, Estimate> networkTypeEstimates;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Estimate> hostEstimates;
+
+  @GuardedBy("this")
+  private final IdentityHashMap<DataSource, Transfer> transfers;
+
+  @GuardedBy("this")
+  private final Map<Integer, Sample> networkTypeSamples;
+
+  @GuardedBy("this")
+  private final Map<String, Sample> hostSamples;
+
+  @GuardedBy("this")
+  private long lastSnapshotWriteTimeMs;
+
+  @GuardedBy("this")
+  private boolean snapshotWritePending;
+
+  /**
+   * Creates an instance. Prefer {@link #getSingletonInstance} to share estimates between players.
+   *
+   * @param context A {@link Context}.
+   * @param snapshotFile The file in which the snapshot of the estimates is stored, or {@code null}
+   *     if estimates shouldn't be persisted.
+   */
+  public NetworkQualityEstimator(Context context, @Nullable File snapshotFile) {
+    this(
+        NetworkTypeObserver.getInstance(context),
+        snapshotFile,
+        Util.newSingleThreadExecutor("ExoPlayer:NetworkQualityEstimator"),
+        Clock.DEFAULT,
+        DEFAULT_SMOOTHING_FACTOR);
+  }
+
+  @VisibleForTesting
+  /* package */ NetworkQualityEstimator(
+      NetworkTypeObserver networkTypeObserver,
+      @Nullable File snapshotFile,
+      Executor executor,
+      Clock clock,
+      double smoothingFactor) {
+    this.networkTypeObserver = networkTypeObserver;
+    this.snapshotFile = snapshotFile != null ? new AtomicFile(snapshotFile) : null;
+    this.executor = executor;
+    this.clock = clock;
+    this.smoothingFactor = smoothingFactor;
+    networkTypeEstimates = new HashMap<>();
+    hostEstimates = new LinkedHashMap<>(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f, true);
+    transfers = new IdentityHashMap<>();
+    networkTypeSamples = new HashMap<>();
+    hostSamples = new HashMap<>();
+    lastSnapshotWriteTimeMs = C.TIME_UNSET;
+    if (this.snapshotFile != null) {
+      executor.execute(this::loadSnapshot);
+    }
+  }
+
+  /**
+   * Returns the bitrate estimate for the current network type, in bits per second, or {@link
+   * #ESTIMATE_NOT_AVAILABLE}.
+   */
+  public long getBitrateEstimate() {
+    return getBitrateEstimate(networkTypeObserver.getNetworkType(), /* host= */ null);
+  }
+
+  /**
+   * Returns the bitrate estimate for a network type, in bits per second, or {@link
+   * #ESTIMATE_NOT_AVAILABLE}.
+   *
+   * @param networkType The {@link C.NetworkType}.
+   * @param host The host of the transfers, or {@code null} for the estimate of all hosts. If
+   *     there's no estimate for the host, the estimate of all hosts is returned.
+   */
+  public synchronized long getBitrateEstimate(
+      @C.NetworkType int networkType, @Nullable String host) {
+    @Nullable Estimate hostEstimate = getHostEstimate(networkType, host);
+    if (hostEstimate != null && hostEstimate.bitrateEstimate != ESTIMATE_NOT_AVAILABLE) {
+      return hostEstimate.bitrateEstimate;
+    }
+    @Nullable Estimate networkTypeEstimate = networkTypeEstimates.get(networkType);
+    return networkTypeEstimate != null
+        ? networkTypeEstimate.bitrateEstimate
+        : ESTIMATE_NOT_AVAILABLE;
+  }
+
+  /**
+   * Returns the time to first byte estimate for the current network type, in microseconds, or
+   * {@link C#TIME_UNSET}.
+   */
+  public long getTimeToFirstByteEstimateUs() {
+    return getTimeToFirstByteEstimateUs(networkTypeObserver.getNetworkType(), /* host= */ null);
+  }
+
+  /**
+   * Returns the time to first byte estimate for a network type, in microseconds, or {@link
+   * C#TIME_UNSET}.
+   *
+   * @param networkType The {@link C.NetworkType}.
+   * @param host The host of the transfers, or {@code null} for the estimate of all hosts. If
+   *     there's no estimate for the host, the estimate of all hosts is returned.
+   */
+  public synchronized long getTimeToFirstByteEstimateUs(
+      @C.NetworkType int networkType, @Nullable String host) {
+    @Nullable Estimate hostEstimate = getHostEstimate(networkType, host);
+    if (hostEstimate != null && hostEstimate.timeToFirstByteEstimateUs != C.TIME_UNSET) {
+      return hostEstimate.timeToFirstByteEstimateUs;
+    }
+    @Nullable Estimate networkTypeEstimate = networkTypeEstimates.get(networkType);
+    return networkTypeEstimate != null
+        ? networkTypeEstimate.timeToFirstByteEstimateUs
+        : C.TIME_UNSET;
+  }
+
+  /** Removes all estimates, including the persisted snapshot. */
+  public void clear() {
+    synchronized (this) {
+      networkTypeEstimates.clear();
+      hostEstimates.clear();
+    }
+    if (snapshotFile != null) {
+      executor.execute(snapshotFile::delete);
+    }
+  }
+
+  @Override
+  public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      return;
+    }
+    Transfer transfer =
+        new Transfer(
+            networkTypeObserver.getNetworkType(),
+            dataSpec.uri.getHost(),
+            /* initializationTimeMs= */ clock.elapsedRealtime());
+    synchronized (this) {
+      transfers.put(source, transfer);
+    }
+  }
+
+  @Override
+  public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      return;
+    }
+    long nowMs = clock.elapsedRealtime();
+    synchronized (this) {
+      @Nullable Transfer transfer = transfers.get(source);
+      if (transfer == null) {
+        transfer =
+            new Transfer(
+                networkTypeObserver.getNetworkType(),
+                dataSpec.uri.getHost(),
+                /* initializationTimeMs= */ C.TIME_UNSET);
+        transfers.put(source, transfer);
+      } else if (transfer.initializationTimeMs != C.TIME_UNSET) {
+        long timeToFirstByteUs = Util.msToUs(nowMs - transfer.initializationTimeMs);
+        long nowWallClockMs = clock.currentTimeMillis();
+        getOrCreateNetworkTypeEstimate(transfer.networkType)
+            .addTimeToFirstByteSample(timeToFirstByteUs, smoothingFactor, nowWallClockMs);
+        @Nullable Estimate hostEstimate = getOrCreateHostEstimate(transfer);
+        if (hostEstimate != null) {
+          hostEstimate.addTimeToFirstByteSample(timeToFirstByteUs, smoothingFactor, nowWallClockMs);
+        }
+      }
+      transfer.isStarted = true;
+      startSample(networkTypeSamples, transfer.networkType, nowMs);
+      if (transfer.host != null) {
+        startSample(hostSamples, getHostKey(transfer.networkType, transfer.host), nowMs);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void onBytesTransferred(
+      DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+    @Nullable Transfer transfer = transfers.get(source);
+    if (transfer == null || !transfer.isStarted) {
+      return;
+    }
+    checkNotNull(networkTypeSamples.get(transfer.networkType)).bytesTransferred += bytesTransferred;
+    if (transfer.host != null) {
+      String hostKey = getHostKey(transfer.networkType, transfer.host);
+      checkNotNull(hostSamples.get(hostKey)).bytesTransferred += bytesTransferred;
+    }
+  }
+
+  @Override
+  public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    long nowMs = clock.elapsedRealtime();
+    synchronized (this) {
+      @Nullable Transfer transfer = transfers.remove(source);
+      if (transfer == null || !transfer.isStarted) {
+        return;
+      }
+      long nowWallClockMs = clock.currentTimeMillis();
+      long bitrate = endSample(networkTypeSamples, transfer.networkType, nowMs);
+      if (bitrate != ESTIMATE_NOT_AVAILABLE) {
+        getOrCreateNetworkTypeEstimate(transfer.networkType)
+            .addBitrateSample(bitrate, smoothingFactor, nowWallClockMs);
+      }
+      if (transfer.host != null) {
+        bitrate = endSample(hostSamples, getHostKey(transfer.networkType, transfer.host), nowMs);
+        if (bitrate != ESTIMATE_NOT_AVAILABLE) {
+          checkNotNull(getOrCreateHostEstimate(transfer))
+              .addBitrateSample(bitrate, smoothingFactor, nowWallClockMs);
+        }
+      }
+      maybeScheduleSnapshotWrite(nowMs);
+    }
+  }
+
+  @GuardedBy("this")
+  private <K> void startSample(Map<K, Sample> samples, K key, long nowMs) {
+    @Nullable Sample sample = samples.get(key);
+    if (sample == null) {
+      sample = new Sample(/* startTimeMs= */ nowMs);
+      samples.put(key, sample);
+    }
+    sample.streamCount++;
+  }
+
+  /**
+   * Ends a transfer of the sample with {@code key}, and returns the bitrate of the sample in bits
+   * per second, or {@link #ESTIMATE_NOT_AVAILABLE} if too few bytes were transferred, in which case
+   * they're carried forward into the next sample.
+   */
+  @GuardedBy("this")
+  private <K> long endSample(Map<K, Sample> samples, K key, long nowMs) {
+    Sample sample = checkNotNull(samples.get(key));
+    long bitrate = ESTIMATE_NOT_AVAILABLE;
+    long elapsedMs = nowMs - sample.startTimeMs;
+    if (sample.bytesTransferred >= MIN_BITRATE_SAMPLE_BYTES && elapsedMs > 0) {
+      bitrate = sample.bytesTransferred * 8000 / elapsedMs;
+      sample.startTimeMs = nowMs;
+      sample.bytesTransferred = 0;
+    }
+    sample.streamCount--;
+    if (sample.streamCount == 0) {
+      // Bytes that are carried forward are discarded, as the next sample starts after a period
+      // without transfers.
+      samples.remove(key);
+    }
+    return bitrate;
+  }
+
+  @GuardedBy("this")
+  private Estimate getOrCreateNetworkTypeEstimate(@C.NetworkType int networkType) {
+    @Nullable Estimate estimate = networkTypeEstimates.get(networkType);
+    if (estimate == null) {
+      estimate = new Estimate(networkType, /* host= */ null);
+      networkTypeEstimates.put(networkType, estimate);
+    }
+    return estimate;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Estimate getHostEstimate(@C.NetworkType int networkType, @Nullable String host) {
+    return host != null ? hostEstimates.get(getHostKey(networkType, host)) : null;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Estimate getOrCreateHostEstimate(Transfer transfer) {
+    if (transfer.host == null) {
+      return null;
+    }
+    String key = getHostKey(transfer.networkType, transfer.host);
+    @Nullable Estimate estimate = hostEstimates.get(key);
+    if (estimate == null) {
+      estimate = new Estimate(transfer.networkType, transfer.host);
+      putHostEstimate(key, estimate);
+    }
+    return estimate;
+  }
+
+  @GuardedBy("this")
+  private void putHostEstimate(String key, Estimate estimate) {
+    hostEstimates.put(key, estimate);
+    if (hostEstimates.size() > MAX_HOST_ESTIMATES) {
+      // Remove the least recently used estimate.
+      hostEstimates.remove(hostEstimates.keySet().iterator().next());
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeScheduleSnapshotWrite(long nowMs) {
+    if (snapshotFile == null
+        || snapshotWritePending
+        || (lastSnapshotWriteTimeMs != C.TIME_UNSET
+            && nowMs - lastSnapshotWriteTimeMs < MIN_SNAPSHOT_WRITE_INTERVAL_MS)) {
+      return;
+    }
+    snapshotWritePending = true;
+    lastSnapshotWriteTimeMs = nowMs;
+    executor.execute(this::writeSnapshot);
+  }
+
+  private void loadSnapshot() {
+    AtomicFile snapshotFile = Util.castNonNull(this.snapshotFile);
+    if (!snapshotFile.exists()) {
+      return;
+    }
+    List<Estimate> estimates = new ArrayList<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(snapshotFile.openRead()))) {
+      int version = input.readInt();
+      if (version != VERSION) {
+        return;
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        int networkType = input.readInt();
+        @Nullable String host = input.readBoolean() ? input.readUTF() : null;
+        Estimate estimate = new Estimate(networkType, host);
+        estimate.bitrateEstimate = input.readLong();
+        estimate.timeToFirstByteEstimateUs = input.readLong();
+        estimate.updateTimeMs = input.readLong();
+        estimates.add(estimate);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load snapshot", e);
+      return;
+    }
+    long nowWallClockMs = clock.currentTimeMillis();
+    synchronized (this) {
+      for (int i = 0; i < estimates.size(); i++) {
+        Estimate estimate = estimates.get(i);
+        if (nowWallClockMs - estimate.updateTimeMs > MAX_SNAPSHOT_ESTIMATE_AGE_MS) {
+          continue;
+        }
+        // Estimates from transfers that ended before the snapshot was loaded are more recent.
+        if (estimate.host == null) {
+          if (!networkTypeEstimates.containsKey(estimate.networkType)) {
+            networkTypeEstimates.put(estimate.networkType, estimate);
+          }
+        } else {
+          String key = getHostKey(estimate.networkType, estimate.host);
+          if (!hostEstimates.containsKey(key)) {
+            putHostEstimate(key, estimate);
+          }
+        }
+      }
+    }
+  }
+
+  private void writeSnapshot() {
+    List<Estimate> estimates = new ArrayList<>();
+    synchronized (this) {
+      snapshotWritePending = false;
+      for (Estimate estimate : networkTypeEstimates.values()) {
+        estimates.add(estimate.copy());
+      }
+      for (Estimate estimate : hostEstimates.values()) {
+        estimates.add(estimate.copy());
+      }
+    }
+    AtomicFile snapshotFile = Util.castNonNull(this.snapshotFile);
+    @Nullable DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(snapshotFile.startWrite()));
+      output.writeInt(VERSION);
+      output.writeInt(estimates.size());
+      for (int i = 0; i < estimates.size(); i++) {
+        Estimate estimate = estimates.get(i);
+        output.writeInt(estimate.networkType);
+        output.writeBoolean(estimate.host != null);
+        if (estimate.host != null) {
+          output.writeUTF(estimate.host);
+        }
+        output.writeLong(estimate.bitrateEstimate);
+        output.writeLong(estimate.timeToFirstByteEstimateUs);
+        output.writeLong(estimate.updateTimeMs);
+      }
+      snapshotFile.endWrite(output);
+      output = null;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write snapshot", e);
+    } finally {
+      Util.closeQuietly(output);
+    }
+  }
+
+  private static String getHostKey(@C.NetworkType int networkType, String host) {
+    return networkType + ":" + host;
+  }
+
+  private static boolean isTransferAtFullNetworkSpeed(DataSpec dataSpec, boolean isNetwork) {
+    return isNetwork && !dataSpec.isFlagSet(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED);
+  }
+
+  private static final class Estimate {
+
+    public final @C.NetworkType int networkType;
+    @Nullable public final String host;
+
+    public long bitrateEstimate;
+    public long timeToFirstByteEstimateUs;
+
+    /** The wall clock time at which the estimate was last updated, in milliseconds. */
+    public long updateTimeMs;
+
+    public Estimate(@C.NetworkType int networkType, @Nullable String host) {
+      this.networkType = networkType;
+      this.host = host;
+      bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
+      timeToFirstByteEstimateUs = C.TIME_UNSET;
+    }
+
+    public void addBitrateSample(long bitrate, double smoothingFactor, long nowWallClockMs) {
+      bitrateEstimate =
+          bitrateEstimate == ESTIMATE_NOT_AVAILABLE
+              ? bitrate
+              : (long) (smoothingFactor * bitrateEstimate + (1 - smoothingFactor) * bitrate);
+      updateTimeMs = nowWallClockMs;
+    }
+
+    public void addTimeToFirstByteSample(
+        long timeToFirstByteUs, double smoothingFactor, long nowWallClockMs) {
+      timeToFirstByteEstimateUs =
+          timeToFirstByteEstimateUs == C.TIME_UNSET
+              ? timeToFirstByteUs
+              : (long)
+                  (smoothingFactor * timeToFirstByteEstimateUs
+                      + (1 - smoothingFactor) * timeToFirstByteUs);
+      updateTimeMs = nowWallClockMs;
+    }
+
+    public Estimate copy() {
+      Estimate copy = new Estimate(networkType, host);
+      copy.bitrateEstimate = bitrateEstimate;
+      copy.timeToFirstByteEstimateUs = timeToFirstByteEstimateUs;
+      copy.updateTimeMs = updateTimeMs;
+      return copy;
+    }
+  }
+
+  private static final class Transfer {
+
+    public final @C.NetworkType int networkType;
+    @Nullable public final String host;
+    public final long initializationTimeMs;
+
+    public boolean isStarted;
+
+    public Transfer(
+        @C.NetworkType int networkType, @Nullable String host, long initializationTimeMs) {
+      this.networkType = networkType;
+      this.host = host;
+      this.initializationTimeMs = initializationTimeMs;
+    }
+  }
+
+  /** The bytes transferred by the active transfers of an estimate since the start of a sample. */
+  private static final class Sample {
+
+    public long startTimeMs;
+    public long bytesTransferred;
+    public int streamCount;
+
+    public Sample(long startTimeMs) {
+      this.startTimeMs = startTimeMs;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.GuardedBy;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A pool of {@link Allocation Allocations} with a memory budget that's shared by multiple {@link
+ * DefaultAllocator} instances, for example those of the players on a screen with several players,
+ * or of a player and the preloading of the next item.
+ *
+ * <p>Allocators that use the pool are created with {@link #createAllocator(int)}. Each allocator
+ * requests a share of the budget with {@link DefaultAllocator#setTargetBufferSize(int)}, and is
+ * granted up to its request in order of {@link C.Priority priority}. If the budget can't satisfy
+ * all of the requests of allocators with the same priority, the remainder is shared between them
+ * in proportion to their requests. A {@link androidx.media3.exoplayer.DefaultLoadControl} that
+ * uses an allocator stops loading when the allocator reaches its {@link
+ * DefaultAllocator#getGrantedBufferSize() granted size}, so that the total memory used for media
+ * buffers stays within the budget regardless of the number of players.
+ *
+ * <p>Allocations that an allocator trims, for example when its player stops, are returned to the
+ * pool and reused by other allocators as long as the budget allows, rather than being released to
+ * the garbage collector.
+ *
+ * <p>This class is thread-safe, and allocators that use the same pool can be used on different
+ * threads.
+ */
+@UnstableApi
+public final class SharedAllocatorPool {
+
+  /** Statistics describing the state and use of a {@link SharedAllocatorPool}. */
+  public static final class Stats {
+
+    /** The memory budget of the pool, in bytes. */
+    public final int budgetBytes;
+
+    /** The number of allocators that currently request a share of the budget. */
+    public final int activeAllocatorCount;
+
+    /**
+     * The number of bytes held by allocators, including both allocations that are in use and
+     * allocations that are available for reuse by the allocator that holds them.
+     */
+    public final long heldBytes;
+
+    /** The number of bytes of allocations held by the pool for reuse by any allocator. */
+    public final long pooledBytes;
+
+    /** The maximum of {@link #heldBytes} plus {@link #pooledBytes} since the pool was created. */
+    public final long peakBytes;
+
+    /** The number of allocations that have been created by the pool. */
+    public final long createdAllocationCount;
+
+    /** The number of times an allocation has been reused from the pool by an allocator. */
+    public final long reusedAllocationCount;
+
+    /** The number of allocations that have been released to the garbage collector. */
+    public final long discardedAllocationCount;
+
+    /* package */ Stats(
+        int budgetBytes,
+        int activeAllocatorCount,
+        long heldBytes,
+        long pooledBytes,
+        long peakBytes,
+        long createdAllocationCount,
+        long reusedAllocationCount,
+        long discardedAllocationCount) {
+      this.budgetBytes = budgetBytes;
+      this.activeAllocatorCount = activeAllocatorCount;
+      this.heldBytes = heldBytes;
+      this.pooledBytes = pooledBytes;
+      this.peakBytes = peakBytes;
+      this.createdAllocationCount = createdAllocationCount;
+      this.reusedAllocationCount = reusedAllocationCount;
+      this.discardedAllocationCount = discardedAllocationCount;
+    }
+  }
+
+  private final int individualAllocationSize;
+  private final int budgetBytes;
+
+  @GuardedBy("this")
+  private final HashMap<DefaultAllocator, AllocatorRequest> requests;
+
+  @GuardedBy("this")
+  private final ArrayList<Allocation> pooledAllocations;
+
+  @GuardedBy("this")
+  private int heldAllocationCount;
+
+  @GuardedBy("this")
+  private int peakAllocationCount;
+
+  @GuardedBy("this")
+  private long createdAllocationCount;
+
+  @GuardedBy("this")
+  private long reusedAllocationCount;
+
+  @GuardedBy("this")
+  private long discardedAllocationCount;
+
+  /**
+   * Creates an instance whose allocations have a length of {@link C#DEFAULT_BUFFER_SEGMENT_SIZE}.
+   *
+   * @param budgetBytes The memory budget shared by all allocators that use the pool, in bytes.
+   */
+  public SharedAllocatorPool(int budgetBytes) {
+    this(C.DEFAULT_BUFFER_SEGMENT_SIZE, budgetBytes);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param budgetBytes The memory budget shared by all allocators that use the pool, in bytes.
+   */
+  public SharedAllocatorPool(int individualAllocationSize, int budgetBytes) {
+    checkArgument(individualAllocationSize > 0);
+    checkArgument(budgetBytes >= individualAllocationSize);
+    this.individualAllocationSize = individualAllocationSize;
+    this.budgetBytes = budgetBytes;
+    requests = new HashMap<>();
+    pooledAllocations = new ArrayList<>();
+  }
+
+  /**
+   * Creates a {@link DefaultAllocator} that uses this pool.
+   *
+   * @param priority The {@link C.Priority} of the allocator.
+   * @return The allocator.
+   */
+  public DefaultAllocator createAllocator(@C.Priority int priority) {
+    return new DefaultAllocator(this, priority);
+  }
+
+  /** Returns the length of each individual {@link Allocation}. */
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  /** Returns the memory budget of the pool, in bytes. */
+  public int getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /** Returns {@link Stats} describing the current state of the pool. */
+  public synchronized Stats getStats() {
+    return new Stats(
+        budgetBytes,
+        requests.size(),
+        (long) heldAllocationCount * individualAllocationSize,
+        (long) pooledAllocations.size() * individualAllocationSize,
+        (long) peakAllocationCount * individualAllocationSize,
+        createdAllocationCount,
+        reusedAllocationCount,
+        discardedAllocationCount);
+  }
+
+  /** Releases all of the allocations held by the pool for reuse to the garbage collector. */
+  public synchronized void trim() {
+    discardedAllocationCount += pooledAllocations.size();
+    pooledAllocations.clear();
+  }
+
+  /** Returns an allocation for an allocator, reusing a pooled allocation if one is available. */
+  /* package */ synchronized Allocation obtain() {
+    heldAllocationCount++;
+    Allocation allocation;
+    if (!pooledAllocations.isEmpty()) {
+      allocation = pooledAllocations.remove(pooledAllocations.size() - 1);
+      reusedAllocationCount++;
+    } else {
+      allocation = new Allocation(new byte[individualAllocationSize], 0);
+      createdAllocationCount++;
+    }
+    peakAllocationCount = max(peakAllocationCount, heldAllocationCount + pooledAllocations.size());
+    return allocation;
+  }
+
+  /**
+   * Returns allocations that are no longer held by an allocator to the pool. Allocations that
+   * don't fit within the budget are released to the garbage collector.
+   */
+  /* package */ synchronized void recycle(Allocation[] allocations, int fromIndex, int toIndex) {
+    int count = toIndex - fromIndex;
+    heldAllocationCount -= count;
+    int budgetAllocationCount = budgetBytes / individualAllocationSize;
+    int pooledCount =
+        max(0, min(count, budgetAllocationCount - heldAllocationCount - pooledAllocations.size()));
+    for (int i = fromIndex; i < fromIndex + pooledCount; i++) {
+      pooledAllocations.add(allocations[i]);
+    }
+    discardedAllocationCount += count - pooledCount;
+  }
+
+  /**
+   * Updates the share of the budget requested by an allocator, and recomputes the sizes granted to
+   * all of the allocators that use the pool.
+   *
+   * @param allocator The allocator.
+   * @param priority The {@link C.Priority} of the allocator.
+   * @param requestedBytes The number of bytes requested by the allocator, or 0 if the allocator no
+   *     longer requests a share of the budget.
+   */
+  /* package */ synchronized void updateRequest(
+      DefaultAllocator allocator, @C.Priority int priority, int requestedBytes) {
+    if (requestedBytes > 0) {
+      requests.put(allocator, new AllocatorRequest(allocator, priority, requestedBytes));
+    } else if (requests.remove(allocator) != null) {
+      allocator.setGrantedBufferSize(Integer.MAX_VALUE);
+    } else {
+      return;
+    }
+    updateGrantedBufferSizes();
+  }
+
+  @GuardedBy("this")
+  private void updateGrantedBufferSizes() {
+    List<AllocatorRequest> sortedRequests = new ArrayList<>(requests.values());
+    // Sort by decreasing priority.
+    Collections.sort(sortedRequests, (r1, r2) -> Integer.compare(r2.priority, r1.priority));
+    long remainingBytes = budgetBytes;
+    int groupStartIndex = 0;
+    while (groupStartIndex < sortedRequests.size()) {
+      int priority = sortedRequests.get(groupStartIndex).priority;
+      int groupEndIndex = groupStartIndex;
+      long groupRequestedBytes = 0;
+      while (groupEndIndex < sortedRequests.size()
+          && sortedRequests.get(groupEndIndex).priority == priority) {
+        groupRequestedBytes += sortedRequests.get(groupEndIndex).requestedBytes;
+        groupEndIndex++;
+      }
+      long groupGrantedBytes = 0;
+      for (int i = groupStartIndex; i < groupEndIndex; i++) {
+        AllocatorRequest request = sortedRequests.get(i);
+        long grantedBytes =
+            groupRequestedBytes <= remainingBytes
+                ? request.requestedBytes
+                : request.requestedBytes * remainingBytes / groupRequestedBytes;
+        request.allocator.setGrantedBufferSize((int) grantedBytes);
+        groupGrantedBytes += grantedBytes;
+      }
+      remainingBytes -= groupGrantedBytes;
+      groupStartIndex = groupEndIndex;
+    }
+  }
+
+  private static final class AllocatorRequest {
+
+    public final DefaultAllocator allocator;
+    public final @C.Priority int priority;
+    public final int requestedBytes;
+
+    public AllocatorRequest(
+        DefaultAllocator allocator, @C.Priority int priority, int requestedBytes) {
+      this.allocator = allocator;
+      this.priority = priority;
+      this.requestedBytes = requestedBytes;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream.experimental;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.exoplayer.upstream.experimental.BandwidthEstimator.ESTIMATE_NOT_AVAILABLE;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Clock;
+import androidx.media3.common.util.UnstableApi;
+import java.util.Arrays;
+
+/**
+ * A {@link BandwidthStatistic} that calculates estimates based on a weighted percentile of a
+ * quantile sketch, in which the weight of samples decays exponentially with their age.
+ *
+ * <p>Sample bitrates are counted in a fixed number of buckets whose boundaries grow geometrically,
+ * so the estimate is within a relative accuracy of the exact weighted percentile of the samples.
+ * Memory usage is constant, and adding a sample and calculating an estimate don't allocate or sort.
+ *
+ * <p>As with {@link SlidingPercentileBandwidthStatistic}, samples are weighted by the square root of
+ * the number of bytes transferred. Their weight is also halved for each half-life that passed since
+ * they were added.
+ */
+@UnstableApi
+public class QuantileSketchBandwidthStatistic implements BandwidthStatistic {
+
+  /** The default percentile to return. */
+  public static final double DEFAULT_PERCENTILE = 0.5;
+
+  /** The default half-life of the weight of samples, in milliseconds. */
+  public static final long DEFAULT_HALF_LIFE_MS = 10_000;
+
+  /** The default relative accuracy of estimates. */
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  /** The minimum bitrate that can be estimated, in bits per second. Lower bitrates are clamped. */
+  public static final long MIN_BITRATE = 1_000;
+
+  /** The maximum bitrate that can be estimated, in bits per second. Higher bitrates are clamped. */
+  public static final long MAX_BITRATE = 1_000_000_000_000L;
+
+  /**
+   * The number of half-lives after which weights are scaled back, to keep the weights of new
+   * samples from overflowing.
+   */
+  private static final int MAX_HALF_LIVES_BEFORE_RESCALE = 256;
+
+  /**
+   * The weight below which a bucket is dropped after rescaling. Weights are rescaled so that new
+   * samples have a weight of at least 1, relative to which lower weights are negligible.
+   */
+  private static final double MIN_BUCKET_WEIGHT = 1e-12;
+
+  private final double percentile;
+  private final long halfLifeMs;
+  private final Clock clock;
+  private final double gamma;
+  private final double logGamma;
+  private final int indexOffset;
+  private final double[] bucketWeights;
+
+  private double weightSum;
+  private int minBucket;
+  private int maxBucket;
+  private long referenceTimeMs;
+  private long bitrateEstimate;
+  private boolean bitrateEstimateStale;
+
+  /**
+   * Creates an instance returning the {@link #DEFAULT_PERCENTILE}, with a half-life of {@link
+   * #DEFAULT_HALF_LIFE_MS} and a relative accuracy of {@link #DEFAULT_RELATIVE_ACCURACY}.
+   */
+  public QuantileSketchBandwidthStatistic() {
+    this(DEFAULT_PERCENTILE, DEFAULT_HALF_LIFE_MS, DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param percentile The percentile to return. Must be in the range of [0-1].
+   * @param halfLifeMs The half-life of the weight of samples, in milliseconds, or {@link
+   *     C#TIME_UNSET} if the weight of samples shouldn't decay.
+   * @param relativeAccuracy The relative accuracy of estimates. Must be in the range of (0-1).
+   *     Memory usage is inversely proportional to it.
+   */
+  public QuantileSketchBandwidthStatistic(
+      double percentile, long halfLifeMs, double relativeAccuracy) {
+    this(percentile, halfLifeMs, relativeAccuracy, Clock.DEFAULT);
+  }
+
+  @VisibleForTesting
+  /* package */ QuantileSketchBandwidthStatistic(
+      double percentile, long halfLifeMs, double relativeAccuracy, Clock clock) {
+    checkArgument(percentile >= 0 && percentile <= 1);
+    checkArgument(halfLifeMs == C.TIME_UNSET || halfLifeMs > 0);
+    checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1);
+    this.percentile = percentile;
+    this.halfLifeMs = halfLifeMs;
+    this.clock = clock;
+    gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    logGamma = Math.log(gamma);
+    indexOffset = (int) Math.ceil(Math.log(MIN_BITRATE) / logGamma);
+    int bucketCount = (int) Math.ceil(Math.log(MAX_BITRATE) / logGamma) - indexOffset + 1;
+    bucketWeights = new double[bucketCount];
+    minBucket = bucketCount;
+    maxBucket = -1;
+    bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
+  }
+
+  @Override
+  public void addSample(long bytes, long durationUs) {
+    double bitrate = (double) bytes * 8_000_000 / durationUs;
+    double weight = Math.sqrt((double) bytes) * getWeightScale();
+    int bucket = getBucket(bitrate);
+    bucketWeights[bucket] += weight;
+    weightSum += weight;
+    minBucket = min(minBucket, bucket);
+    maxBucket = max(maxBucket, bucket);
+    bitrateEstimateStale = true;
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    if (bitrateEstimateStale) {
+      bitrateEstimate = calculateBitrateEstimate();
+      bitrateEstimateStale = false;
+    }
+    return bitrateEstimate;
+  }
+
+  @Override
+  public void reset() {
+    if (maxBucket >= minBucket) {
+      Arrays.fill(bucketWeights, minBucket, maxBucket + 1, 0);
+    }
+    weightSum = 0;
+    minBucket = bucketWeights.length;
+    maxBucket = -1;
+    bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
+    bitrateEstimateStale = false;
+  }
+
+  /**
+   * Returns the factor by which the weight of a new sample is scaled. Instead of decaying the
+   * weights of all previous samples, new samples get exponentially growing weights relative to a
+   * reference time, which is moved forward when the weights become large.
+   */
+  private double getWeightScale() {
+    if (halfLifeMs == C.TIME_UNSET) {
+      return 1;
+    }
+    long nowMs = clock.elapsedRealtime();
+    if (weightSum == 0) {
+      referenceTimeMs = nowMs;
+    }
+    double halfLives = (double) (nowMs - referenceTimeMs) / halfLifeMs;
+    if (halfLives > MAX_HALF_LIVES_BEFORE_RESCALE) {
+      rescaleWeights(Math.pow(2, -halfLives));
+      referenceTimeMs = nowMs;
+      halfLives = 0;
+    }
+    return Math.pow(2, halfLives);
+  }
+
+  private void rescaleWeights(double factor) {
+    double newWeightSum = 0;
+    for (int i = minBucket; i <= maxBucket; i++) {
+      bucketWeights[i] *= factor;
+      newWeightSum += bucketWeights[i];
+    }
+    // Drop buckets whose weight has become negligible, so that they stop widening the range of
+    // buckets to iterate over.
+    while (minBucket <= maxBucket && bucketWeights[minBucket] < MIN_BUCKET_WEIGHT) {
+      newWeightSum -= bucketWeights[minBucket];
+      bucketWeights[minBucket++] = 0;
+    }
+    while (maxBucket >= minBucket && bucketWeights[maxBucket] < MIN_BUCKET_WEIGHT) {
+      newWeightSum -= bucketWeights[maxBucket];
+      bucketWeights[maxBucket--] = 0;
+    }
+    if (minBucket > maxBucket) {
+      minBucket = bucketWeights.length;
+      maxBucket = -1;
+      newWeightSum = 0;
+    }
+    weightSum = newWeightSum;
+  }
+
+  private int getBucket(double bitrate) {
+    if (bitrate <= MIN_BITRATE) {
+      return 0;
+    }
+    int index = (int) Math.ceil(Math.log(bitrate) / logGamma) - indexOffset;
+    return min(index, bucketWeights.length - 1);
+  }
+
+  private long calculateBitrateEstimate() {
+    if (weightSum == 0) {
+      return ESTIMATE_NOT_AVAILABLE;
+    }
+    double targetWeightSum = weightSum * percentile;
+    double partialWeightSum = 0;
+    int bucket = minBucket;
+    for (; bucket < maxBucket; bucket++) {
+      partialWeightSum += bucketWeights[bucket];
+      if (partialWeightSum >= targetWeightSum && bucketWeights[bucket] > 0) {
+        break;
+      }
+    }
+    // Bucket i holds bitrates in (gamma^(i-1), gamma^i], for which the value with the lowest
+    // maximum relative error is 2 * gamma^i / (gamma + 1).
+    return (long) (2 * Math.pow(gamma, bucket + indexOffset) / (gamma + 1));
+  }
+}
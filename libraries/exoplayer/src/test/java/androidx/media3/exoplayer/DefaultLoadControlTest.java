@@ -32,6 +32,7 @@ import androidx.media3.exoplayer.source.TrackGroupArray;
 import androidx.media3.exoplayer.trackselection.ExoTrackSelection;
 import androidx.media3.exoplayer.trackselection.FixedTrackSelection;
 import androidx.media3.exoplayer.upstream.DefaultAllocator;
+import androidx.media3.exoplayer.upstream.SharedAllocatorPool;
 import androidx.media3.test.utils.FakeTimeline;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import org.junit.Before;
@@ -467,6 +468,92 @@ public class DefaultLoadControlTest {
         .isFalse();
   }
 
+  @Test
+  public void shouldContinueLoading_withSharedAllocatorPool_untilGrantedBufferSizeReached() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(/* budgetBytes= */ 3 * TARGET_BUFFER_BYTES / 2);
+    DefaultAllocator playbackAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    playbackAllocator.setTargetBufferSize(TARGET_BUFFER_BYTES);
+    allocator = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    build();
+    LoadControl.Parameters parameters =
+        new LoadControl.Parameters(
+            playerId,
+            timeline,
+            mediaPeriodId,
+            /* playbackPositionUs= */ 0L,
+            /* bufferedDurationUs= */ 1_000_000L,
+            SPEED,
+            /* playWhenReady= */ false,
+            /* rebuffering= */ false,
+            /* targetLiveOffsetUs= */ C.TIME_UNSET);
+
+    // The lower priority allocator is granted the half of its target that's left in the budget.
+    assertThat(allocator.getGrantedBufferSize()).isEqualTo(TARGET_BUFFER_BYTES / 2);
+    assertThat(loadControl.shouldContinueLoading(parameters)).isTrue();
+    allocator.allocate();
+    assertThat(loadControl.shouldContinueLoading(parameters)).isFalse();
+
+    // The higher priority allocator stops requesting a share of the budget.
+    playbackAllocator.reset();
+
+    assertThat(allocator.getGrantedBufferSize()).isEqualTo(TARGET_BUFFER_BYTES);
+    assertThat(loadControl.shouldContinueLoading(parameters)).isTrue();
+  }
+
+  @Test
+  public void shouldStartPlayback_withGrantedShareSmallerThanTarget_returnsTrueWhenShareReached() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(/* budgetBytes= */ 3 * TARGET_BUFFER_BYTES / 2);
+    DefaultAllocator playbackAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    playbackAllocator.setTargetBufferSize(TARGET_BUFFER_BYTES);
+    allocator = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    build();
+    // Less than bufferForPlaybackMs is buffered when the granted share is reached.
+    LoadControl.Parameters parameters =
+        new LoadControl.Parameters(
+            playerId,
+            timeline,
+            mediaPeriodId,
+            /* playbackPositionUs= */ 0L,
+            /* bufferedDurationUs= */ 1_000_000L,
+            SPEED,
+            /* playWhenReady= */ true,
+            /* rebuffering= */ false,
+            /* targetLiveOffsetUs= */ C.TIME_UNSET);
+    assertThat(loadControl.shouldStartPlayback(parameters)).isFalse();
+
+    allocator.allocate();
+
+    assertThat(allocator.getTotalBytesAllocated()).isLessThan(TARGET_BUFFER_BYTES);
+    assertThat(loadControl.shouldContinueLoading(parameters)).isFalse();
+    assertThat(loadControl.shouldStartPlayback(parameters)).isTrue();
+  }
+
+  @Test
+  public void shouldContinueLoading_withGrantedShareReachedBelowMinBufferFloor_returnsTrue() {
+    SharedAllocatorPool pool = new SharedAllocatorPool(/* budgetBytes= */ TARGET_BUFFER_BYTES);
+    DefaultAllocator playbackAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    playbackAllocator.setTargetBufferSize(TARGET_BUFFER_BYTES);
+    allocator = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    build();
+
+    assertThat(allocator.getGrantedBufferSize()).isEqualTo(0);
+    assertThat(
+            loadControl.shouldContinueLoading(
+                new LoadControl.Parameters(
+                    playerId,
+                    timeline,
+                    mediaPeriodId,
+                    /* playbackPositionUs= */ 0L,
+                    /* bufferedDurationUs= */ 0L,
+                    SPEED,
+                    /* playWhenReady= */ true,
+                    /* rebuffering= */ false,
+                    /* targetLiveOffsetUs= */ C.TIME_UNSET)))
+        .isTrue();
+  }
+
   @Test
   public void shouldContinueLoadingWithMinBufferReached_inFastPlayback() {
     builder.setBufferDurationsMs(
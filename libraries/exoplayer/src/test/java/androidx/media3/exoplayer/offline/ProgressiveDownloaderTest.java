@@ -37,6 +37,8 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
@@ -173,6 +175,40 @@ public class ProgressiveDownloaderTest {
     assertThat(progressListener.bytesDownloaded).isEqualTo(2_000_000);
   }
 
+  @Test
+  public void download_withParallelRequests_downloadsAllData() throws Exception {
+    Uri uri = Uri.parse("test:///test.mp4");
+    byte[] data = TestUtil.buildTestData(20_000_000);
+    // FakeDataSource instances sharing a FakeDataSet can't be used concurrently, so give each
+    // instance its own.
+    DataSource.Factory upstreamDataSource =
+        () -> new FakeDataSource(new FakeDataSet().setData(uri, data));
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ExecutorService executorService = Executors.newFixedThreadPool(/* nThreads= */ 4);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            MediaItem.fromUri(uri),
+            cacheDataSourceFactory,
+            executorService,
+            /* maxParallelRequests= */ 4);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    try {
+      downloader.download(progressListener);
+    } finally {
+      executorService.shutdown();
+    }
+
+    assertThat(progressListener.bytesDownloaded).isEqualTo(20_000_000);
+    assertThat(
+            downloadCache.getCachedBytes(
+                uri.toString(), /* position= */ 0, /* length= */ C.LENGTH_UNSET))
+        .isEqualTo(20_000_000);
+  }
+
   private static final class TestProgressListener implements Downloader.ProgressListener {
 
     public long bytesDownloaded;
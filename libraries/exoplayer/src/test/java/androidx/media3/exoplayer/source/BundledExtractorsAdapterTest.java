@@ -0,0 +1,416 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.ByteArrayDataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.extractor.Extractor;
+import androidx.media3.extractor.ExtractorInput;
+import androidx.media3.extractor.ExtractorOutput;
+import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekIndex;
+import androidx.media3.extractor.SeekIndexConsumer;
+import androidx.media3.extractor.SeekPoint;
+import androidx.media3.extractor.TrackOutput;
+import androidx.media3.extractor.amr.AmrExtractor;
+import androidx.media3.extractor.flv.FlvExtractor;
+import androidx.media3.extractor.mp3.Mp3Extractor;
+import androidx.media3.extractor.wav.WavExtractor;
+import androidx.media3.test.utils.FakeExtractorOutput;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BundledExtractorsAdapter}. */
+@RunWith(AndroidJUnit4.class)
+public final class BundledExtractorsAdapterTest {
+
+  private static final Uri URI = Uri.parse("https://host.test/media.bin");
+  private static final byte[] AMR_DATA = Util.getUtf8Bytes("#!AMR\n0123456789");
+  private static final byte[] UNKNOWN_DATA = Util.getUtf8Bytes("0123456789abcdef");
+
+  @Test
+  public void init_inputWithSignature_sniffsWithExtractorForSignatureFirst() throws Exception {
+    SniffCountingExtractor flvExtractor = new SniffCountingExtractor(new FlvExtractor());
+    SniffCountingExtractor wavExtractor = new SniffCountingExtractor(new WavExtractor());
+    SniffCountingExtractor amrExtractor = new SniffCountingExtractor(new AmrExtractor());
+    SniffCountingExtractor mp3Extractor = new SniffCountingExtractor(new Mp3Extractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {flvExtractor, wavExtractor, amrExtractor, mp3Extractor});
+
+    init(adapter, URI, AMR_DATA);
+
+    assertThat(flvExtractor.sniffCount).isEqualTo(0);
+    assertThat(wavExtractor.sniffCount).isEqualTo(0);
+    assertThat(amrExtractor.sniffCount).isEqualTo(1);
+    assertThat(amrExtractor.initialized).isTrue();
+    assertThat(mp3Extractor.sniffCount).isEqualTo(0);
+  }
+
+  @Test
+  public void init_inputWithoutSignature_sniffsInOrder() throws Exception {
+    SniffCountingExtractor rejectingExtractor =
+        new SniffCountingExtractor(new RejectingExtractor());
+    SniffCountingExtractor acceptingExtractor =
+        new SniffCountingExtractor(new AcceptingExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {rejectingExtractor, acceptingExtractor},
+            new ExtractorSelectionCache());
+
+    init(adapter, URI, UNKNOWN_DATA);
+
+    assertThat(rejectingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.initialized).isTrue();
+  }
+
+  @Test
+  public void init_withCachedSelection_sniffsWithCachedExtractorFirst() throws Exception {
+    ExtractorSelectionCache extractorSelectionCache = new ExtractorSelectionCache();
+    init(createAdapter(extractorSelectionCache), URI, UNKNOWN_DATA);
+    SniffCountingExtractor rejectingExtractor =
+        new SniffCountingExtractor(new RejectingExtractor());
+    SniffCountingExtractor acceptingExtractor =
+        new SniffCountingExtractor(new AcceptingExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {rejectingExtractor, acceptingExtractor},
+            extractorSelectionCache);
+
+    init(adapter, Uri.parse("https://host.test/other/media.BIN?query"), UNKNOWN_DATA);
+
+    assertThat(rejectingExtractor.sniffCount).isEqualTo(0);
+    assertThat(acceptingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.initialized).isTrue();
+  }
+
+  @Test
+  public void init_withCachedSelectionForOtherHost_sniffsInOrder() throws Exception {
+    ExtractorSelectionCache extractorSelectionCache = new ExtractorSelectionCache();
+    init(createAdapter(extractorSelectionCache), URI, UNKNOWN_DATA);
+    SniffCountingExtractor rejectingExtractor =
+        new SniffCountingExtractor(new RejectingExtractor());
+    SniffCountingExtractor acceptingExtractor =
+        new SniffCountingExtractor(new AcceptingExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {rejectingExtractor, acceptingExtractor},
+            extractorSelectionCache);
+
+    init(adapter, Uri.parse("https://other.test/media.bin"), UNKNOWN_DATA);
+
+    assertThat(rejectingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.sniffCount).isEqualTo(1);
+  }
+
+  @Test
+  public void init_withCachedSelectionAndInputWithSignature_sniffsWithExtractorForSignatureFirst()
+      throws Exception {
+    ExtractorSelectionCache extractorSelectionCache = new ExtractorSelectionCache();
+    extractorSelectionCache.put(URI, Mp3Extractor.class);
+    SniffCountingExtractor mp3Extractor = new SniffCountingExtractor(new Mp3Extractor());
+    SniffCountingExtractor amrExtractor = new SniffCountingExtractor(new AmrExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {mp3Extractor, amrExtractor}, extractorSelectionCache);
+
+    init(adapter, URI, AMR_DATA);
+
+    assertThat(mp3Extractor.sniffCount).isEqualTo(0);
+    assertThat(amrExtractor.sniffCount).isEqualTo(1);
+    assertThat(amrExtractor.initialized).isTrue();
+    assertThat(extractorSelectionCache.get(URI)).isEqualTo(AmrExtractor.class);
+  }
+
+  @Test
+  public void init_withUriWithoutExtension_doesNotCacheSelection() throws Exception {
+    ExtractorSelectionCache extractorSelectionCache = new ExtractorSelectionCache();
+    Uri uriWithoutExtension = Uri.parse("https://host.test/media");
+    init(createAdapter(extractorSelectionCache), uriWithoutExtension, UNKNOWN_DATA);
+    SniffCountingExtractor rejectingExtractor =
+        new SniffCountingExtractor(new RejectingExtractor());
+    SniffCountingExtractor acceptingExtractor =
+        new SniffCountingExtractor(new AcceptingExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {rejectingExtractor, acceptingExtractor},
+            extractorSelectionCache);
+
+    init(adapter, Uri.parse("https://host.test/other"), UNKNOWN_DATA);
+
+    assertThat(extractorSelectionCache.get(uriWithoutExtension)).isNull();
+    assertThat(rejectingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.sniffCount).isEqualTo(1);
+  }
+
+  @Test
+  public void init_withCachedExtractorThatFailsSniffing_sniffsWithOtherExtractors()
+      throws Exception {
+    ExtractorSelectionCache extractorSelectionCache = new ExtractorSelectionCache();
+    extractorSelectionCache.put(URI, RejectingExtractor.class);
+    SniffCountingExtractor rejectingExtractor =
+        new SniffCountingExtractor(new RejectingExtractor());
+    SniffCountingExtractor acceptingExtractor =
+        new SniffCountingExtractor(new AcceptingExtractor());
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {acceptingExtractor, rejectingExtractor},
+            extractorSelectionCache);
+
+    init(adapter, URI, UNKNOWN_DATA);
+
+    assertThat(rejectingExtractor.sniffCount).isEqualTo(1);
+    assertThat(acceptingExtractor.initialized).isTrue();
+    assertThat(extractorSelectionCache.get(URI)).isEqualTo(AcceptingExtractor.class);
+  }
+
+  @Test
+  public void extractorSelectionCache_full_evictsLeastRecentlyUsedEntry() {
+    ExtractorSelectionCache extractorSelectionCache =
+        new ExtractorSelectionCache(/* maxEntries= */ 2);
+    Uri uri1 = Uri.parse("https://host1.test/media.bin");
+    Uri uri2 = Uri.parse("https://host2.test/media.bin");
+    Uri uri3 = Uri.parse("https://host3.test/media.bin");
+
+    extractorSelectionCache.put(uri1, AcceptingExtractor.class);
+    extractorSelectionCache.put(uri2, AcceptingExtractor.class);
+    extractorSelectionCache.get(uri1);
+    extractorSelectionCache.put(uri3, AcceptingExtractor.class);
+
+    assertThat(extractorSelectionCache.get(uri1)).isEqualTo(AcceptingExtractor.class);
+    assertThat(extractorSelectionCache.get(uri2)).isNull();
+    assertThat(extractorSelectionCache.get(uri3)).isEqualTo(AcceptingExtractor.class);
+  }
+
+  @Test
+  public void read_withSeekIndexConsumer_storesSeekIndexUsedByNextAdapter() throws Exception {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+    KeyFrameExtractor extractor = new KeyFrameExtractor();
+    BundledExtractorsAdapter adapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {extractor},
+            /* extractorSelectionCache= */ null,
+            seekIndexStore);
+    init(adapter, URI, UNKNOWN_DATA);
+    PositionHolder positionHolder = new PositionHolder();
+    while (adapter.read(positionHolder) == Extractor.RESULT_CONTINUE) {}
+    KeyFrameExtractor nextExtractor = new KeyFrameExtractor();
+    BundledExtractorsAdapter nextAdapter =
+        new BundledExtractorsAdapter(
+            () -> new Extractor[] {nextExtractor},
+            /* extractorSelectionCache= */ null,
+            seekIndexStore);
+
+    init(nextAdapter, URI, UNKNOWN_DATA);
+
+    @Nullable SeekIndex seekIndex = seekIndexStore.get(URI);
+    assertThat(seekIndex).isNotNull();
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(4);
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 7_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 6_000_000, /* position= */ 4));
+    assertThat(extractor.seekIndex).isNull();
+    assertThat(nextExtractor.seekIndex).isSameInstanceAs(seekIndex);
+  }
+
+  private static BundledExtractorsAdapter createAdapter(
+      ExtractorSelectionCache extractorSelectionCache) {
+    return new BundledExtractorsAdapter(
+        () -> new Extractor[] {new RejectingExtractor(), new AcceptingExtractor()},
+        extractorSelectionCache);
+  }
+
+  private static void init(BundledExtractorsAdapter adapter, Uri uri, byte[] data)
+      throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(data);
+    dataSource.open(new DataSpec(uri));
+    adapter.init(
+        dataSource,
+        uri,
+        /* responseHeaders= */ ImmutableMap.of(),
+        /* position= */ 0,
+        /* length= */ C.LENGTH_UNSET,
+        new FakeExtractorOutput());
+  }
+
+  private static final class SniffCountingExtractor implements Extractor {
+
+    private final Extractor extractor;
+
+    public int sniffCount;
+    public boolean initialized;
+
+    public SniffCountingExtractor(Extractor extractor) {
+      this.extractor = extractor;
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) throws IOException {
+      sniffCount++;
+      return extractor.sniff(input);
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+      initialized = true;
+      extractor.init(output);
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
+      return extractor.read(input, seekPosition);
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {
+      extractor.seek(position, timeUs);
+    }
+
+    @Override
+    public void release() {
+      extractor.release();
+    }
+
+    @Override
+    public Extractor getUnderlyingImplementation() {
+      return extractor;
+    }
+  }
+
+  private static class AcceptingExtractor implements Extractor {
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      return true;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {}
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) {
+      return RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {}
+
+    @Override
+    public void release() {}
+  }
+
+  private static final class RejectingExtractor extends AcceptingExtractor {
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      return false;
+    }
+  }
+
+  /**
+   * Extractor outputting each 4 bytes of the input as a key frame, with a key frame every 3
+   * seconds.
+   */
+  private static final class KeyFrameExtractor implements Extractor, SeekIndexConsumer {
+
+    private static final int SAMPLE_SIZE = 4;
+
+    @Nullable public SeekIndex seekIndex;
+
+    private @MonotonicNonNull TrackOutput trackOutput;
+    private int sampleCount;
+
+    @Override
+    public void setSeekIndex(SeekIndex seekIndex) {
+      this.seekIndex = seekIndex;
+    }
+
+    @Override
+    public int getMaxBufferedInputBytes() {
+      return 0;
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      return true;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+      trackOutput = output.track(/* id= */ 0, C.TRACK_TYPE_VIDEO);
+      trackOutput.format(new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build());
+      output.endTracks();
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
+      TrackOutput trackOutput = checkNotNull(this.trackOutput);
+      if (trackOutput.sampleData(input, SAMPLE_SIZE, /* allowEndOfInput= */ true)
+          == C.RESULT_END_OF_INPUT) {
+        return RESULT_END_OF_INPUT;
+      }
+      sampleCount++;
+      trackOutput.sampleMetadata(
+          /* timeUs= */ sampleCount * 3_000_000L,
+          C.BUFFER_FLAG_KEY_FRAME,
+          SAMPLE_SIZE,
+          /* offset= */ 0,
+          /* cryptoData= */ null);
+      return RESULT_CONTINUE;
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {}
+
+    @Override
+    public void release() {}
+  }
+
+  private static final class InMemorySeekIndexStore implements SeekIndexStore {
+
+    private final Map<Uri, SeekIndex> seekIndices;
+
+    public InMemorySeekIndexStore() {
+      seekIndices = new HashMap<>();
+    }
+
+    @Override
+    @Nullable
+    public SeekIndex get(Uri uri) {
+      return seekIndices.get(uri);
+    }
+
+    @Override
+    public void put(Uri uri, SeekIndex seekIndex) {
+      seekIndices.put(uri, seekIndex);
+    }
+  }
+}
@@ -25,6 +25,8 @@ import static androidx.media3.exoplayer.source.SampleStream.FLAG_PEEK;
 import static com.google.common.truth.Truth.assertThat;
 import static java.lang.Long.MAX_VALUE;
 import static java.lang.Long.MIN_VALUE;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.Arrays.copyOfRange;
 import static org.junit.Assert.assertArrayEquals;
 import static org.mockito.Mockito.when;
@@ -32,6 +34,7 @@ import static org.mockito.Mockito.when;
 import android.os.Looper;
 import androidx.annotation.Nullable;
 import androidx.media3.common.C;
+import androidx.media3.common.DataReader;
 import androidx.media3.common.DrmInitData;
 import androidx.media3.common.Format;
 import androidx.media3.common.MimeTypes;
@@ -53,6 +56,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.primitives.Bytes;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Assert;
@@ -420,6 +424,60 @@ public final class SampleQueueTest {
     assertAllocationCount(0);
   }
 
+  @Test
+  public void readMultiSamples_withDirectBufferAllocations() {
+    useDirectBufferAllocations();
+
+    writeTestData();
+
+    assertAllocationCount(10);
+    assertReadTestData();
+    sampleQueue.discardToRead();
+    assertAllocationCount(0);
+  }
+
+  @Test
+  public void readMultiSamples_withDirectBufferAllocationsWrittenFromDataReader()
+      throws IOException {
+    useDirectBufferAllocations();
+    ParsableByteArray source = new ParsableByteArray(DATA);
+    DataReader dataReader =
+        (buffer, offset, length) -> {
+          int bytesRead = min(length, source.bytesLeft());
+          source.readBytes(buffer, offset, bytesRead);
+          return bytesRead;
+        };
+
+    while (source.bytesLeft() > 0) {
+      sampleQueue.sampleData(dataReader, source.bytesLeft(), /* allowEndOfInput= */ false);
+    }
+    writeTestData(
+        /* data= */ new byte[0],
+        SAMPLE_SIZES,
+        SAMPLE_OFFSETS,
+        SAMPLE_TIMESTAMPS,
+        SAMPLE_FORMATS,
+        SAMPLE_FLAGS);
+
+    assertAllocationCount(10);
+    assertReadTestData();
+  }
+
+  @Test
+  public void readEncryptedSections_withDirectBufferAllocations() {
+    when(mockDrmSession.getState()).thenReturn(DrmSession.STATE_OPENED_WITH_KEYS);
+    useDirectBufferAllocations();
+    writeTestDataWithEncryptedSections();
+
+    int result =
+        sampleQueue.read(
+            formatHolder, inputBuffer, /* readFlags= */ 0, /* loadingFinished= */ false);
+
+    assertThat(result).isEqualTo(RESULT_FORMAT_READ);
+    assertReadEncryptedSample(/* sampleIndex= */ 0);
+    assertReadEncryptedSample(/* sampleIndex= */ 1);
+  }
+
   @Test
   public void readMultiWithSeek() {
     writeTestData();
@@ -919,6 +977,75 @@ public final class SampleQueueTest {
     assertNoSamplesToRead(FORMAT_SYNC_SAMPLE_ONLY_2);
   }
 
+  @Test
+  public void getSkipCount_withReorderedTimestamps_matchesLinearSearch() {
+    int sampleCount = 2 * SampleQueue.SAMPLE_CAPACITY_INCREMENT + 3;
+    long[] timestampsUs = buildReorderedTimestampsUs(sampleCount);
+    int[] sampleFlags = buildSampleFlags(sampleCount, /* keyframeInterval= */ 7);
+    writeAndDiscardPlaceholderSamples(CLOSE_TO_CAPACITY_SIZE);
+    writeFormat(FORMAT_1);
+    writeEmptySamples(timestampsUs, sampleFlags);
+
+    for (int readIndex : new int[] {0, 1, sampleCount / 2, sampleCount - 1}) {
+      sampleQueue.seekTo(CLOSE_TO_CAPACITY_SIZE + readIndex);
+      for (long timeUs = -1; timeUs <= sampleCount + 1; timeUs++) {
+        int expectedSkipCount =
+            max(
+                0,
+                findSampleBeforeLinear(
+                    timestampsUs, sampleFlags, readIndex, timeUs, /* keyframe= */ true));
+        assertThat(sampleQueue.getSkipCount(timeUs, /* allowEndOfQueue= */ false))
+            .isEqualTo(expectedSkipCount);
+      }
+    }
+  }
+
+  @Test
+  public void discardTo_withReorderedTimestamps_matchesLinearSearch() {
+    int sampleCount = 2 * SampleQueue.SAMPLE_CAPACITY_INCREMENT + 3;
+    long[] timestampsUs = buildReorderedTimestampsUs(sampleCount);
+    int[] sampleFlags = buildSampleFlags(sampleCount, /* keyframeInterval= */ 7);
+    writeAndDiscardPlaceholderSamples(CLOSE_TO_CAPACITY_SIZE);
+    writeFormat(FORMAT_1);
+    writeEmptySamples(timestampsUs, sampleFlags);
+
+    int expectedFirstIndex = 0;
+    for (long timeUs = -1; timeUs <= sampleCount + 1; timeUs += 3) {
+      boolean toKeyframe = timeUs % 2 == 0;
+      int discardCount =
+          findSampleBeforeLinear(
+              timestampsUs, sampleFlags, expectedFirstIndex, timeUs, toKeyframe);
+      expectedFirstIndex += max(0, discardCount);
+
+      sampleQueue.discardTo(timeUs, toKeyframe, /* stopAtReadPosition= */ false);
+
+      assertThat(sampleQueue.getFirstIndex())
+          .isEqualTo(CLOSE_TO_CAPACITY_SIZE + expectedFirstIndex);
+    }
+  }
+
+  @Test
+  public void seekTo_allSamplesAreSyncSamplesWithReorderedTimestamps_matchesLinearSearch() {
+    int sampleCount = 2 * SampleQueue.SAMPLE_CAPACITY_INCREMENT + 3;
+    long[] timestampsUs = buildReorderedTimestampsUs(sampleCount);
+    int[] sampleFlags = buildSampleFlags(sampleCount, /* keyframeInterval= */ 1);
+    writeAndDiscardPlaceholderSamples(CLOSE_TO_CAPACITY_SIZE);
+    writeEmptySamples(timestampsUs, sampleFlags);
+
+    for (long timeUs = timestampsUs[0]; timeUs <= sampleCount + 1; timeUs++) {
+      int expectedReadIndex = sampleCount;
+      for (int i = 0; i < sampleCount; i++) {
+        if (timestampsUs[i] >= timeUs) {
+          expectedReadIndex = i;
+          break;
+        }
+      }
+
+      assertThat(sampleQueue.seekTo(timeUs, /* allowTimeBeyondBuffer= */ true)).isTrue();
+      assertThat(sampleQueue.getReadIndex()).isEqualTo(CLOSE_TO_CAPACITY_SIZE + expectedReadIndex);
+    }
+  }
+
   @Test
   public void setStartTimeUs_allSamplesAreSyncSamples_discardsOnWriteSide() {
     sampleQueue.setStartTimeUs(LAST_SAMPLE_TIMESTAMP);
@@ -1495,6 +1622,22 @@ public final class SampleQueueTest {
 
   // Internal methods.
 
+  /**
+   * Replaces {@code sampleQueue} with one whose allocations are backed by direct buffers, and
+   * {@code inputBuffer} with one whose data is a direct buffer.
+   */
+  private void useDirectBufferAllocations() {
+    allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ false,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* threadCacheSize= */ 0,
+            /* useDirectBuffers= */ true);
+    sampleQueue = new SampleQueue(allocator, mockDrmSessionManager, eventDispatcher);
+    inputBuffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+  }
+
   /** Writes standard test data to {@code sampleQueue}. */
   private void writeTestData() {
     writeTestData(
@@ -1572,6 +1715,52 @@ public final class SampleQueueTest {
     sampleQueue.discardToEnd();
   }
 
+  /** Writes empty samples with the specified timestamps and flags to {@code sampleQueue}. */
+  private void writeEmptySamples(long[] timestampsUs, int[] sampleFlags) {
+    for (int i = 0; i < timestampsUs.length; i++) {
+      writeSample(Util.EMPTY_BYTE_ARRAY, timestampsUs[i], sampleFlags[i]);
+    }
+  }
+
+  /**
+   * Returns increasing timestamps that are locally reordered, as for video with B-frames, and
+   * that include duplicates.
+   */
+  private static long[] buildReorderedTimestampsUs(int sampleCount) {
+    Random random = new Random(/* seed= */ 0);
+    long[] timestampsUs = new long[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      timestampsUs[i] = max(0, i + random.nextInt(7) - 3);
+    }
+    return timestampsUs;
+  }
+
+  private static int[] buildSampleFlags(int sampleCount, int keyframeInterval) {
+    int[] sampleFlags = new int[sampleCount];
+    for (int i = 0; i < sampleCount; i += keyframeInterval) {
+      sampleFlags[i] = C.BUFFER_FLAG_KEY_FRAME;
+    }
+    return sampleFlags;
+  }
+
+  /**
+   * Returns the offset from {@code startIndex} of the sample that a linear search from {@code
+   * startIndex} finds as the last (key frame) sample before or at {@code timeUs}, or -1.
+   */
+  private static int findSampleBeforeLinear(
+      long[] timestampsUs, int[] sampleFlags, int startIndex, long timeUs, boolean keyframe) {
+    int offset = -1;
+    for (int i = startIndex; i < timestampsUs.length && timestampsUs[i] <= timeUs; i++) {
+      if (!keyframe || (sampleFlags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        offset = i - startIndex;
+        if (timestampsUs[i] == timeUs) {
+          break;
+        }
+      }
+    }
+    return offset;
+  }
+
   /** Asserts correct reading of the sync-sample-only test data from {@code sampleQueue}. */
   private void assertReadSyncSampleOnlyTestData() {
     assertReadSyncSampleOnlyTestData(
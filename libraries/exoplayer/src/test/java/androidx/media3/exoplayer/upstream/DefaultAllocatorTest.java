@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link DefaultAllocator}. */
+@RunWith(AndroidJUnit4.class)
+public final class DefaultAllocatorTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+  private static final long TIMEOUT_MS = 10_000;
+
+  @Test
+  public void allocateAndRelease_withThreadCache_updatesTotalBytesAllocated() {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(10 * ALLOCATION_SIZE);
+    for (int i = 0; i < 6; i++) {
+      allocator.release(allocations.get(i));
+    }
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(4 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void allocate_withThreadCache_reusesReleasedAllocations() {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+
+    List<Allocation> reallocations = allocate(allocator, /* count= */ 10);
+
+    assertThat(identitySet(reallocations)).containsExactlyElementsIn(identitySet(allocations));
+  }
+
+  @Test
+  public void releaseAllocationNode_withThreadCache_releasesWholeChain() {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+
+    allocator.release(new TestAllocationNode(allocations, /* index= */ 0));
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+    assertThat(identitySet(allocate(allocator, /* count= */ 10)))
+        .containsExactlyElementsIn(identitySet(allocations));
+  }
+
+  @Test
+  public void allocate_withThreadCacheAndAllocationsReleasedByOtherThread_reusesAllocations()
+      throws Exception {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    allocator.setTargetBufferSize(10 * ALLOCATION_SIZE);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+
+    runOnOtherThread(
+        () -> {
+          for (Allocation allocation : allocations) {
+            allocator.release(allocation);
+          }
+          // Flush the allocations cached by the releasing thread.
+          allocator.trim();
+        });
+    List<Allocation> reallocations = allocate(allocator, /* count= */ 10);
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(10 * ALLOCATION_SIZE);
+    assertThat(identitySet(reallocations)).containsExactlyElementsIn(identitySet(allocations));
+  }
+
+  @Test
+  public void reset_withThreadCache_discardsAllocationsCachedByCallingThread() {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    allocator.setTargetBufferSize(10 * ALLOCATION_SIZE);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+
+    allocator.reset();
+
+    Set<Allocation> reallocations = identitySet(allocate(allocator, /* count= */ 10));
+    for (Allocation allocation : allocations) {
+      assertThat(reallocations).doesNotContain(allocation);
+    }
+  }
+
+  @Test
+  public void reset_withThreadCache_discardsAllocationsCachedByOtherThreads() throws Exception {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    allocator.setTargetBufferSize(10 * ALLOCATION_SIZE);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 10);
+    runOnOtherThread(
+        () -> {
+          for (Allocation allocation : allocations) {
+            allocator.release(allocation);
+          }
+        });
+
+    allocator.reset();
+
+    Set<Allocation> reallocations = identitySet(allocate(allocator, /* count= */ 10));
+    for (Allocation allocation : allocations) {
+      assertThat(reallocations).doesNotContain(allocation);
+    }
+  }
+
+  @Test
+  public void release_withThreadCache_wakesUpThreadsWaitingOnAllocator() throws Exception {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    Allocation allocation = allocator.allocate();
+    CountDownLatch waitingLatch = new CountDownLatch(1);
+    Thread waitingThread =
+        new Thread(
+            () -> {
+              synchronized (allocator) {
+                waitingLatch.countDown();
+                while (allocator.getTotalBytesAllocated() > 0) {
+                  try {
+                    allocator.wait();
+                  } catch (InterruptedException e) {
+                    return;
+                  }
+                }
+              }
+            });
+    waitingThread.start();
+    waitingLatch.await();
+
+    // Acquiring the lock ensures that the waiting thread has started waiting.
+    synchronized (allocator) {
+      assertThat(waitingThread.isAlive()).isTrue();
+    }
+    allocator.release(allocation);
+    waitingThread.join(TIMEOUT_MS);
+
+    assertThat(waitingThread.isAlive()).isFalse();
+  }
+
+  @Test
+  public void allocateAndRelease_withThreadCacheOnManyThreads_keepsCountConsistent()
+      throws Exception {
+    DefaultAllocator allocator = createAllocatorWithThreadCache(/* threadCacheSize= */ 4);
+    int threadCount = 4;
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  startLatch.await();
+                  for (int j = 0; j < 1000; j++) {
+                    List<Allocation> allocations = allocate(allocator, /* count= */ 1 + j % 7);
+                    for (Allocation allocation : allocations) {
+                      allocator.release(allocation);
+                    }
+                  }
+                } catch (Throwable e) {
+                  error.set(e);
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(error.get()).isNull();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+  }
+
+  @Test
+  public void allocate_withDirectBuffers_returnsSeparateDirectBuffers() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ true,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* threadCacheSize= */ 4,
+            /* useDirectBuffers= */ true);
+    int count = DefaultAllocator.DIRECT_SLAB_ALLOCATION_COUNT + 1;
+
+    List<Allocation> allocations = allocate(allocator, count);
+    for (int i = 0; i < count; i++) {
+      ByteBuffer directBuffer = allocations.get(i).directBuffer;
+      assertThat(directBuffer.isDirect()).isTrue();
+      assertThat(directBuffer.capacity()).isEqualTo(ALLOCATION_SIZE);
+      directBuffer.put(/* index= */ ALLOCATION_SIZE - 1, (byte) i);
+    }
+
+    for (int i = 0; i < count; i++) {
+      assertThat(allocations.get(i).directBuffer.get(ALLOCATION_SIZE - 1)).isEqualTo((byte) i);
+    }
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+    assertThat(identitySet(allocate(allocator, count)))
+        .containsExactlyElementsIn(identitySet(allocations));
+  }
+
+  private static DefaultAllocator createAllocatorWithThreadCache(int threadCacheSize) {
+    return new DefaultAllocator(
+        /* trimOnReset= */ true, ALLOCATION_SIZE, /* initialAllocationCount= */ 0, threadCacheSize);
+  }
+
+  private static List<Allocation> allocate(DefaultAllocator allocator, int count) {
+    List<Allocation> allocations = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      allocations.add(allocator.allocate());
+    }
+    return allocations;
+  }
+
+  private static Set<Allocation> identitySet(List<Allocation> allocations) {
+    Set<Allocation> set = Collections.newSetFromMap(new IdentityHashMap<>());
+    set.addAll(allocations);
+    return set;
+  }
+
+  private static void runOnOtherThread(Runnable runnable) throws InterruptedException {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    thread.join();
+  }
+
+  private static final class TestAllocationNode implements Allocator.AllocationNode {
+
+    private final List<Allocation> allocations;
+    private final int index;
+
+    public TestAllocationNode(List<Allocation> allocations, int index) {
+      this.allocations = allocations;
+      this.index = index;
+    }
+
+    @Override
+    public Allocation getAllocation() {
+      return allocations.get(index);
+    }
+
+    @Nullable
+    @Override
+    public Allocator.AllocationNode next() {
+      return index + 1 < allocations.size() ? new TestAllocationNode(allocations, index + 1) : null;
+    }
+  }
+}
@@ -32,6 +32,7 @@ import androidx.media3.common.util.NetworkTypeObserver;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.exoplayer.upstream.experimental.QuantileSketchBandwidthStatistic;
 import androidx.media3.test.utils.FakeClock;
 import androidx.media3.test.utils.FakeDataSource;
 import androidx.test.core.app.ApplicationProvider;
@@ -728,6 +729,28 @@ public final class DefaultBandwidthMeterTest {
     assertThat(bitrateEstimateUpdated).isTrue();
   }
 
+  @Test
+  public void getBitrateEstimate_withBandwidthStatistic_usesStatisticEstimate() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .setBandwidthStatistic(new QuantileSketchBandwidthStatistic())
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(Uri.parse("https://test.com"));
+
+    for (int i = 0; i < 5; i++) {
+      bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+      clock.advanceTime(1000);
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 1_000_000);
+      bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+    }
+
+    assertThat((double) bandwidthMeter.getBitrateEstimate()).isWithin(80_000).of(8_000_000);
+  }
+
   private void setActiveNetworkInfo(NetworkInfo networkInfo) {
     setActiveNetworkInfo(networkInfo, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE);
   }
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.ConditionVariable;
+import androidx.media3.datasource.ByteArrayDataSource;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link HedgingDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class HedgingDataSourceTest {
+
+  private static final Uri URI = Uri.parse("https://test.test/segment.ts");
+  private static final Uri ALTERNATE_URI = Uri.parse("https://alternate.test/segment.ts");
+  private static final long TIMEOUT_MS = 10_000;
+
+  @Test
+  public void open_withFastRequest_doesNotHedge() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    upstreamFactory.addDataSource(/* data= */ new byte[] {1, 2, 3}, /* blockOpen= */ false);
+    FakeTimeToFirstByteEstimator estimator = new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0);
+    HedgingDataSource.Factory factory =
+        createFactory(upstreamFactory, estimator, /* delayMs= */ 5000);
+
+    byte[] data = readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(data).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(upstreamFactory.dataSources).hasSize(1);
+    assertThat(upstreamFactory.dataSources.get(0).isClosed()).isTrue();
+    HedgingDataSource.Stats stats = factory.getStats();
+    assertThat(stats.requestCount).isEqualTo(1);
+    assertThat(stats.hedgedRequestCount).isEqualTo(0);
+    assertThat(estimator.transferStartCount).isEqualTo(1);
+  }
+
+  @Test
+  public void open_withSlowRequest_readsFromHedgedRequestAndCancelsSlowRequest() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    FakeDataSource slowDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    upstreamFactory.addDataSource(/* data= */ new byte[] {2}, /* blockOpen= */ false);
+    FakeTimeToFirstByteEstimator estimator = new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0);
+    HedgingDataSource.Factory factory =
+        createFactory(upstreamFactory, estimator, /* delayMs= */ 10);
+
+    byte[] data = readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(data).isEqualTo(new byte[] {2});
+    // The slow request is cancelled without waiting for its open to complete.
+    assertThat(slowDataSource.closed.block(TIMEOUT_MS)).isTrue();
+    assertThat(upstreamFactory.dataSources.get(1).isClosed()).isTrue();
+    HedgingDataSource.Stats stats = factory.getStats();
+    assertThat(stats.requestCount).isEqualTo(1);
+    assertThat(stats.hedgedRequestCount).isEqualTo(1);
+    assertThat(stats.hedgeWinCount).isEqualTo(1);
+    assertThat(stats.meanTimeSavedUs).isAtLeast(0);
+    assertThat(stats.totalTimeSavedUs).isEqualTo(stats.meanTimeSavedUs);
+    // The estimator is updated with the time until the slow request was cancelled.
+    assertThat(estimator.transferStartCount).isEqualTo(1);
+  }
+
+  @Test
+  public void open_withSlowRequestOpeningFirst_readsFromFirstRequest() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    FakeDataSource firstDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    FakeDataSource hedgedDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {2}, /* blockOpen= */ true);
+    upstreamFactory.onDataSourceCreated = () -> firstDataSource.unblockOpen();
+    HedgingDataSource.Factory factory =
+        createFactory(
+            upstreamFactory,
+            new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+            /* delayMs= */ 10);
+
+    byte[] data = readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(data).isEqualTo(new byte[] {1});
+    // The hedged request is cancelled without waiting for its open to complete.
+    assertThat(hedgedDataSource.closed.block(TIMEOUT_MS)).isTrue();
+    HedgingDataSource.Stats stats = factory.getStats();
+    assertThat(stats.hedgedRequestCount).isEqualTo(1);
+    assertThat(stats.hedgeWinCount).isEqualTo(0);
+    assertThat(stats.meanTimeSavedUs).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void open_withHedgeResolver_makesHedgedRequestToResolvedUri() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    FakeDataSource slowDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    FakeDataSource hedgedDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {2}, /* blockOpen= */ false);
+    HedgingDataSource.Factory factory =
+        createFactory(
+                upstreamFactory,
+                new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+                /* delayMs= */ 10)
+            .setHedgeResolver(dataSpec -> dataSpec.withUri(ALTERNATE_URI));
+    HedgingDataSource dataSource = factory.createDataSource();
+
+    dataSource.open(new DataSpec(URI));
+    Uri uri = dataSource.getUri();
+    dataSource.close();
+
+    assertThat(uri).isEqualTo(ALTERNATE_URI);
+    assertThat(slowDataSource.closed.block(TIMEOUT_MS)).isTrue();
+    assertThat(slowDataSource.openedUri).isEqualTo(URI);
+    assertThat(hedgedDataSource.openedUri).isEqualTo(ALTERNATE_URI);
+  }
+
+  @Test
+  public void open_withoutEstimate_doesNotHedge() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ false);
+    HedgingDataSource.Factory factory =
+        createFactory(
+            upstreamFactory,
+            new FakeTimeToFirstByteEstimator(/* estimateUs= */ C.TIME_UNSET),
+            /* delayMs= */ 0);
+
+    readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(upstreamFactory.dataSources).hasSize(1);
+    assertThat(upstreamFactory.dataSources.get(0).openThread).isEqualTo(Thread.currentThread());
+    assertThat(factory.getStats().hedgedRequestCount).isEqualTo(0);
+  }
+
+  @Test
+  public void open_postRequest_doesNotHedge() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ false);
+    HedgingDataSource.Factory factory =
+        createFactory(
+            upstreamFactory,
+            new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+            /* delayMs= */ 0);
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri(URI)
+            .setHttpMethod(DataSpec.HTTP_METHOD_POST)
+            .setHttpBody(new byte[] {0})
+            .build();
+
+    readToEnd(factory.createDataSource(), dataSpec);
+
+    assertThat(upstreamFactory.dataSources).hasSize(1);
+    assertThat(factory.getStats().hedgedRequestCount).isEqualTo(0);
+  }
+
+  @Test
+  public void open_withFirstRequestFailingAfterHedge_readsFromHedgedRequest() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    FakeDataSource failingDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    failingDataSource.openException = new IOException();
+    FakeDataSource hedgedDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {2}, /* blockOpen= */ true);
+    upstreamFactory.onDataSourceCreated =
+        () -> {
+          failingDataSource.unblockOpen();
+          hedgedDataSource.unblockOpen();
+        };
+    HedgingDataSource.Factory factory =
+        createFactory(
+            upstreamFactory,
+            new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+            /* delayMs= */ 10);
+
+    byte[] data = readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(data).isEqualTo(new byte[] {2});
+    assertThat(failingDataSource.closed.block(TIMEOUT_MS)).isTrue();
+    assertThat(factory.getStats().hedgeWinCount).isEqualTo(1);
+  }
+
+  @Test
+  public void open_withBothRequestsFailing_throwsExceptionOfFirstRequest() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    FakeDataSource firstDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    IOException firstException = new IOException();
+    firstDataSource.openException = firstException;
+    FakeDataSource hedgedDataSource =
+        upstreamFactory.addDataSource(/* data= */ new byte[] {2}, /* blockOpen= */ false);
+    hedgedDataSource.openException = new IOException();
+    upstreamFactory.onDataSourceCreated = () -> firstDataSource.unblockOpen();
+    HedgingDataSource dataSource =
+        createFactory(
+                upstreamFactory,
+                new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+                /* delayMs= */ 10)
+            .createDataSource();
+
+    IOException exception =
+        assertThrows(IOException.class, () -> dataSource.open(new DataSpec(URI)));
+
+    assertThat(exception).isSameInstanceAs(firstException);
+    assertThat(firstDataSource.closed.block(TIMEOUT_MS)).isTrue();
+    assertThat(hedgedDataSource.closed.block(TIMEOUT_MS)).isTrue();
+  }
+
+  @Test
+  public void transferListener_isNotifiedOfSingleTransfer() throws Exception {
+    FakeUpstreamFactory upstreamFactory = new FakeUpstreamFactory();
+    upstreamFactory.addDataSource(/* data= */ new byte[] {1}, /* blockOpen= */ true);
+    upstreamFactory.addDataSource(/* data= */ new byte[] {2, 3}, /* blockOpen= */ false);
+    CountingTransferListener transferListener = new CountingTransferListener();
+    HedgingDataSource.Factory factory =
+        createFactory(
+                upstreamFactory,
+                new FakeTimeToFirstByteEstimator(/* estimateUs= */ 0),
+                /* delayMs= */ 10)
+            .setTransferListener(transferListener);
+
+    readToEnd(factory.createDataSource(), new DataSpec(URI));
+
+    assertThat(transferListener.transferStartCount).isEqualTo(1);
+    assertThat(transferListener.transferEndCount).isEqualTo(1);
+    assertThat(transferListener.bytesTransferred).isEqualTo(2);
+  }
+
+  private static HedgingDataSource.Factory createFactory(
+      FakeUpstreamFactory upstreamFactory,
+      TimeToFirstByteEstimator timeToFirstByteEstimator,
+      long delayMs) {
+    return new HedgingDataSource.Factory(upstreamFactory, timeToFirstByteEstimator)
+        .setMinHedgeDelayMs(delayMs);
+  }
+
+  private static byte[] readToEnd(DataSource dataSource, DataSpec dataSpec) throws IOException {
+    try {
+      dataSource.open(dataSpec);
+      return DataSourceUtil.readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static final class FakeUpstreamFactory implements DataSource.Factory {
+
+    public final List<FakeDataSource> dataSources;
+    @Nullable public volatile Runnable onDataSourceCreated;
+
+    private final List<FakeDataSource> pendingDataSources;
+
+    public FakeUpstreamFactory() {
+      dataSources = Collections.synchronizedList(new ArrayList<>());
+      pendingDataSources = new ArrayList<>();
+    }
+
+    public FakeDataSource addDataSource(byte[] data, boolean blockOpen) {
+      FakeDataSource dataSource = new FakeDataSource(data, blockOpen);
+      pendingDataSources.add(dataSource);
+      return dataSource;
+    }
+
+    @Override
+    public synchronized DataSource createDataSource() {
+      FakeDataSource dataSource = pendingDataSources.remove(0);
+      dataSources.add(dataSource);
+      @Nullable Runnable onDataSourceCreated = this.onDataSourceCreated;
+      if (dataSources.size() == 2 && onDataSourceCreated != null) {
+        onDataSourceCreated.run();
+      }
+      return dataSource;
+    }
+  }
+
+  private static final class FakeDataSource implements DataSource {
+
+    public final ConditionVariable closed;
+    @Nullable public volatile IOException openException;
+    @Nullable public volatile Uri openedUri;
+    @Nullable public volatile Thread openThread;
+
+    private final ByteArrayDataSource byteArrayDataSource;
+    private final ConditionVariable openUnblocked;
+
+    public FakeDataSource(byte[] data, boolean blockOpen) {
+      byteArrayDataSource = new ByteArrayDataSource(data);
+      closed = new ConditionVariable();
+      openUnblocked = new ConditionVariable();
+      if (!blockOpen) {
+        openUnblocked.open();
+      }
+    }
+
+    public void unblockOpen() {
+      openUnblocked.open();
+    }
+
+    public boolean isClosed() {
+      return closed.isOpen();
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      openThread = Thread.currentThread();
+      openedUri = dataSpec.uri;
+      try {
+        openUnblocked.block();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      @Nullable IOException openException = this.openException;
+      if (openException != null) {
+        throw openException;
+      }
+      return byteArrayDataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return byteArrayDataSource.read(buffer, offset, length);
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+      return openedUri;
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public void close() throws IOException {
+      byteArrayDataSource.close();
+      closed.open();
+    }
+  }
+
+  private static final class FakeTimeToFirstByteEstimator implements TimeToFirstByteEstimator {
+
+    private final long estimateUs;
+
+    public int transferStartCount;
+
+    public FakeTimeToFirstByteEstimator(long estimateUs) {
+      this.estimateUs = estimateUs;
+    }
+
+    @Override
+    public long getTimeToFirstByteEstimateUs() {
+      return estimateUs;
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void onTransferInitializing(DataSpec dataSpec) {}
+
+    @Override
+    public void onTransferStart(DataSpec dataSpec) {
+      transferStartCount++;
+    }
+  }
+
+  private static final class CountingTransferListener implements TransferListener {
+
+    public int transferStartCount;
+    public int transferEndCount;
+    public long bytesTransferred;
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {}
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      transferStartCount++;
+    }
+
+    @Override
+    public void onBytesTransferred(
+        DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+      this.bytesTransferred += bytesTransferred;
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      transferEndCount++;
+    }
+  }
+}
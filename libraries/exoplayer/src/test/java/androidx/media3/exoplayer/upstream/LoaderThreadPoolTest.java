@@ -0,0 +1,281 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static androidx.media3.test.utils.robolectric.RobolectricUtil.runMainLooperUntil;
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.util.ConditionVariable;
+import androidx.media3.exoplayer.util.ReleasableExecutor;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link LoaderThreadPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class LoaderThreadPoolTest {
+
+  private static final long TIMEOUT_MS = 10_000;
+
+  @After
+  public void tearDown() {
+    Loader.setDefaultThreadPool(null);
+  }
+
+  @Test
+  public void createExecutor_runsTasksInOrderOneAtATime() throws Exception {
+    LoaderThreadPool threadPool = new LoaderThreadPool(/* maxThreadCount= */ 4);
+    ReleasableExecutor executor = threadPool.createExecutor();
+    List<Integer> taskIndices = Collections.synchronizedList(new ArrayList<>());
+    AtomicBoolean isRunning = new AtomicBoolean();
+    AtomicBoolean overlapped = new AtomicBoolean();
+    CountDownLatch finishedLatch = new CountDownLatch(100);
+
+    for (int i = 0; i < 100; i++) {
+      int taskIndex = i;
+      executor.execute(
+          () -> {
+            if (isRunning.getAndSet(true)) {
+              overlapped.set(true);
+            }
+            taskIndices.add(taskIndex);
+            isRunning.set(false);
+            finishedLatch.countDown();
+          });
+    }
+
+    assertThat(finishedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(overlapped.get()).isFalse();
+    for (int i = 0; i < 100; i++) {
+      assertThat(taskIndices.get(i)).isEqualTo(i);
+    }
+    assertThat(threadPool.getStats().startedTaskCount).isEqualTo(100);
+  }
+
+  @Test
+  public void createExecutor_withMaxThreadCount_limitsConcurrentTasks() throws Exception {
+    LoaderThreadPool threadPool = new LoaderThreadPool(/* maxThreadCount= */ 2);
+    CountDownLatch startedLatch = new CountDownLatch(2);
+    CountDownLatch finishedLatch = new CountDownLatch(3);
+    ConditionVariable blockTasks = new ConditionVariable();
+
+    for (int i = 0; i < 3; i++) {
+      threadPool
+          .createExecutor()
+          .execute(
+              () -> {
+                startedLatch.countDown();
+                blockTasks.blockUninterruptible();
+                finishedLatch.countDown();
+              });
+    }
+
+    assertThat(startedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    LoaderThreadPool.Stats stats = threadPool.getStats();
+    assertThat(stats.startedTaskCount).isEqualTo(2);
+    assertThat(stats.threadCount).isEqualTo(2);
+    blockTasks.open();
+    assertThat(finishedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    stats = threadPool.getStats();
+    assertThat(stats.startedTaskCount).isEqualTo(3);
+    assertThat(stats.peakThreadCount).isEqualTo(2);
+    assertThat(stats.activeExecutorCount).isEqualTo(3);
+    assertThat(stats.maxSchedulingLatencyUs).isAtLeast(stats.meanSchedulingLatencyUs);
+  }
+
+  @Test
+  public void release_decrementsActiveExecutorCountOnce() {
+    LoaderThreadPool threadPool = new LoaderThreadPool();
+    ReleasableExecutor executor1 = threadPool.createExecutor();
+    threadPool.createExecutor();
+
+    executor1.release();
+    executor1.release();
+
+    assertThat(threadPool.getStats().activeExecutorCount).isEqualTo(1);
+  }
+
+  @Test
+  public void loader_withDefaultThreadPool_loadsAndReleasesOnPoolThread() throws Exception {
+    LoaderThreadPool threadPool = new LoaderThreadPool();
+    Loader.setDefaultThreadPool(threadPool);
+    Loader loader = new Loader("test");
+    FakeLoadable loadable = new FakeLoadable(/* blockUntilCanceled= */ false);
+    FakeCallback callback = new FakeCallback();
+
+    loader.startLoading(loadable, callback, /* defaultMinRetryCount= */ 0);
+    runMainLooperUntil(() -> callback.completedCount == 1);
+    ConditionVariable released = new ConditionVariable();
+    AtomicReference<String> releaseThreadName = new AtomicReference<>();
+    loader.release(
+        () -> {
+          releaseThreadName.set(Thread.currentThread().getName());
+          released.open();
+        });
+
+    assertThat(loadable.loadThreadName).startsWith("ExoPlayer:Loader:Pool-");
+    assertThat(released.block(TIMEOUT_MS)).isTrue();
+    assertThat(releaseThreadName.get()).startsWith("ExoPlayer:Loader:Pool-");
+    assertThat(threadPool.getStats().activeExecutorCount).isEqualTo(0);
+  }
+
+  @Test
+  public void loader_withDefaultThreadPool_cancelsLoadAndLoadsAgain() throws Exception {
+    Loader.setDefaultThreadPool(new LoaderThreadPool(/* maxThreadCount= */ 1));
+    Loader loader = new Loader("test");
+    FakeLoadable blockingLoadable = new FakeLoadable(/* blockUntilCanceled= */ true);
+    FakeCallback callback = new FakeCallback();
+
+    loader.startLoading(blockingLoadable, callback, /* defaultMinRetryCount= */ 0);
+    assertThat(blockingLoadable.loadStarted.block(TIMEOUT_MS)).isTrue();
+    loader.cancelLoading();
+    runMainLooperUntil(() -> callback.canceledCount == 1);
+    loader.startLoading(
+        new FakeLoadable(/* blockUntilCanceled= */ false),
+        callback,
+        /* defaultMinRetryCount= */ 0);
+    runMainLooperUntil(() -> callback.completedCount == 1);
+
+    assertThat(loader.isLoading()).isFalse();
+    loader.release();
+  }
+
+  @Test
+  public void loader_withDefaultThreadPool_cancelAfterFailedLoad_doesNotInterruptOtherTask()
+      throws Exception {
+    LoaderThreadPool threadPool = new LoaderThreadPool(/* maxThreadCount= */ 1);
+    Loader.setDefaultThreadPool(threadPool);
+    Loader loader = new Loader("test");
+    FakeCallback callback = new FakeCallback();
+    callback.loadErrorAction =
+        Loader.createRetryAction(/* resetErrorCount= */ false, /* retryDelayMillis= */ 0);
+    FakeLoadable failingLoadable =
+        new FakeLoadable(/* blockUntilCanceled= */ false, /* throwOnLoad= */ true);
+
+    loader.startLoading(failingLoadable, callback, /* defaultMinRetryCount= */ 0);
+    assertThat(failingLoadable.loadStarted.block(TIMEOUT_MS)).isTrue();
+    // Queue a task of another executor behind the failing load, so that it runs on the same thread
+    // and the retry of the load is queued behind it.
+    ConditionVariable otherTaskStarted = new ConditionVariable();
+    ConditionVariable otherTaskCanFinish = new ConditionVariable();
+    AtomicBoolean otherTaskInterrupted = new AtomicBoolean();
+    CountDownLatch otherTaskFinished = new CountDownLatch(1);
+    threadPool
+        .createExecutor()
+        .execute(
+            () -> {
+              otherTaskStarted.open();
+              try {
+                otherTaskCanFinish.block(TIMEOUT_MS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              otherTaskInterrupted.set(Thread.currentThread().isInterrupted());
+              otherTaskFinished.countDown();
+            });
+    assertThat(otherTaskStarted.block(TIMEOUT_MS)).isTrue();
+    runMainLooperUntil(() -> callback.loadErrorCount == 1);
+    loader.cancelLoading();
+    otherTaskCanFinish.open();
+
+    assertThat(otherTaskFinished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(otherTaskInterrupted.get()).isFalse();
+    runMainLooperUntil(() -> callback.canceledCount == 1);
+    loader.release();
+  }
+
+  private static final class FakeLoadable implements Loader.Loadable {
+
+    public final ConditionVariable loadStarted;
+    public volatile String loadThreadName;
+
+    private final boolean blockUntilCanceled;
+    private final boolean throwOnLoad;
+    private final ConditionVariable canceled;
+
+    public FakeLoadable(boolean blockUntilCanceled) {
+      this(blockUntilCanceled, /* throwOnLoad= */ false);
+    }
+
+    public FakeLoadable(boolean blockUntilCanceled, boolean throwOnLoad) {
+      this.blockUntilCanceled = blockUntilCanceled;
+      this.throwOnLoad = throwOnLoad;
+      loadStarted = new ConditionVariable();
+      canceled = new ConditionVariable();
+    }
+
+    @Override
+    public void cancelLoad() {
+      canceled.open();
+    }
+
+    @Override
+    public void load() throws IOException {
+      loadThreadName = Thread.currentThread().getName();
+      loadStarted.open();
+      if (blockUntilCanceled) {
+        canceled.blockUninterruptible();
+      }
+      if (throwOnLoad) {
+        throw new IOException("Load failed");
+      }
+    }
+  }
+
+  private static final class FakeCallback implements Loader.Callback<FakeLoadable> {
+
+    public Loader.LoadErrorAction loadErrorAction;
+    public int completedCount;
+    public int canceledCount;
+    public int loadErrorCount;
+
+    public FakeCallback() {
+      loadErrorAction = Loader.DONT_RETRY_FATAL;
+    }
+
+    @Override
+    public void onLoadCompleted(
+        FakeLoadable loadable, long elapsedRealtimeMs, long loadDurationMs) {
+      completedCount++;
+    }
+
+    @Override
+    public void onLoadCanceled(
+        FakeLoadable loadable, long elapsedRealtimeMs, long loadDurationMs, boolean released) {
+      canceledCount++;
+    }
+
+    @Override
+    public Loader.LoadErrorAction onLoadError(
+        FakeLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs,
+        IOException error,
+        int errorCount) {
+      loadErrorCount++;
+      return loadErrorAction;
+    }
+  }
+}
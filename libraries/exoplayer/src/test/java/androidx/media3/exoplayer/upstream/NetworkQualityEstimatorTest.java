@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.NetworkTypeObserver;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import androidx.media3.test.utils.FakeClock;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link NetworkQualityEstimator}. */
+@RunWith(AndroidJUnit4.class)
+public final class NetworkQualityEstimatorTest {
+
+  private static final Uri HOST_1_URI = Uri.parse("https://host1.test/video.mp4");
+  private static final Uri HOST_2_URI = Uri.parse("https://host2.test/video.mp4");
+  private static final int SAMPLE_BYTES = 1_000_000;
+
+  private NetworkTypeObserver networkTypeObserver;
+  private @C.NetworkType int networkType;
+  private FakeClock clock;
+  private File snapshotFile;
+
+  @Before
+  public void setUp() throws Exception {
+    networkTypeObserver =
+        NetworkTypeObserver.getInstance(ApplicationProvider.getApplicationContext());
+    networkType = networkTypeObserver.getNetworkType();
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+    snapshotFile =
+        Util.createTempFile(ApplicationProvider.getApplicationContext(), "NetworkQualityTest");
+    snapshotFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    snapshotFile.delete();
+  }
+
+  @Test
+  public void getEstimates_withoutTransfers_returnsNoEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+
+    assertThat(estimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void getEstimates_afterTransfer_returnsEstimatesForNetworkTypeAndHost() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+
+    simulateTransfer(
+        estimator, HOST_1_URI, /* timeToFirstByteMs= */ 100, SAMPLE_BYTES, /* durationMs= */ 1000);
+
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(8_000_000);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(100_000);
+    assertThat(estimator.getBitrateEstimate(networkType, "host1.test")).isEqualTo(8_000_000);
+    assertThat(estimator.getTimeToFirstByteEstimateUs(networkType, "host1.test"))
+        .isEqualTo(100_000);
+  }
+
+  @Test
+  public void getEstimates_forHostWithoutTransfers_returnsEstimatesForNetworkType() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+    simulateTransfer(
+        estimator, HOST_1_URI, /* timeToFirstByteMs= */ 100, SAMPLE_BYTES, /* durationMs= */ 1000);
+    simulateTransfer(
+        estimator, HOST_2_URI, /* timeToFirstByteMs= */ 200, SAMPLE_BYTES, /* durationMs= */ 2000);
+
+    assertThat(estimator.getBitrateEstimate(networkType, "host2.test")).isEqualTo(4_000_000);
+    assertThat(estimator.getTimeToFirstByteEstimateUs(networkType, "host2.test"))
+        .isEqualTo(200_000);
+    // The estimate for all hosts combines both transfers.
+    assertThat(estimator.getBitrateEstimate(networkType, "other.test")).isEqualTo(7_200_000);
+    assertThat(estimator.getTimeToFirstByteEstimateUs(networkType, "other.test"))
+        .isEqualTo(120_000);
+  }
+
+  @Test
+  public void getBitrateEstimate_afterSmallTransfer_returnsNoEstimate() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+
+    simulateTransfer(
+        estimator,
+        HOST_1_URI,
+        /* timeToFirstByteMs= */ 100,
+        /* bytes= */ 1_000,
+        /* durationMs= */ 10);
+
+    assertThat(estimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(100_000);
+  }
+
+  @Test
+  public void getEstimates_afterNonNetworkTransfer_returnsNoEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(HOST_1_URI);
+
+    estimator.onTransferInitializing(dataSource, dataSpec, /* isNetwork= */ false);
+    clock.advanceTime(100);
+    estimator.onTransferStart(dataSource, dataSpec, /* isNetwork= */ false);
+    estimator.onBytesTransferred(dataSource, dataSpec, /* isNetwork= */ false, SAMPLE_BYTES);
+    clock.advanceTime(1000);
+    estimator.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ false);
+
+    assertThat(estimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void getBitrateEstimate_afterConcurrentTransfers_samplesWhileTransfersAreActive() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+    DataSource dataSource1 = new FakeDataSource();
+    DataSource dataSource2 = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(HOST_1_URI);
+
+    estimator.onTransferStart(dataSource1, dataSpec, /* isNetwork= */ true);
+    estimator.onTransferStart(dataSource2, dataSpec, /* isNetwork= */ true);
+    estimator.onBytesTransferred(dataSource1, dataSpec, /* isNetwork= */ true, SAMPLE_BYTES);
+    estimator.onBytesTransferred(dataSource2, dataSpec, /* isNetwork= */ true, SAMPLE_BYTES);
+    clock.advanceTime(1000);
+    estimator.onTransferEnd(dataSource1, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(1000);
+    estimator.onTransferEnd(dataSource2, dataSpec, /* isNetwork= */ true);
+
+    // Both transfers are sampled together over the interval in which they were active.
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(16_000_000);
+    assertThat(estimator.getBitrateEstimate(networkType, "host1.test")).isEqualTo(16_000_000);
+  }
+
+  @Test
+  public void getEstimates_afterTransferNotAtFullNetworkSpeed_returnsNoEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri(HOST_1_URI)
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    estimator.onTransferInitializing(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(100);
+    estimator.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    estimator.onBytesTransferred(dataSource, dataSpec, /* isNetwork= */ true, SAMPLE_BYTES);
+    clock.advanceTime(1000);
+    estimator.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    assertThat(estimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void newInstance_withSnapshot_returnsPersistedEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(snapshotFile);
+    simulateTransfer(
+        estimator, HOST_1_URI, /* timeToFirstByteMs= */ 100, SAMPLE_BYTES, /* durationMs= */ 1000);
+
+    NetworkQualityEstimator newEstimator = createEstimator(snapshotFile);
+
+    assertThat(snapshotFile.exists()).isTrue();
+    assertThat(newEstimator.getBitrateEstimate()).isEqualTo(8_000_000);
+    assertThat(newEstimator.getTimeToFirstByteEstimateUs()).isEqualTo(100_000);
+    assertThat(newEstimator.getBitrateEstimate(networkType, "host1.test")).isEqualTo(8_000_000);
+  }
+
+  @Test
+  public void newInstance_withExpiredSnapshot_returnsNoEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(snapshotFile);
+    simulateTransfer(
+        estimator, HOST_1_URI, /* timeToFirstByteMs= */ 100, SAMPLE_BYTES, /* durationMs= */ 1000);
+    clock.advanceTime(/* timeDiffMs= */ 8 * 24 * 60 * 60 * 1000L);
+
+    NetworkQualityEstimator newEstimator = createEstimator(snapshotFile);
+
+    assertThat(newEstimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+  }
+
+  @Test
+  public void clear_removesEstimatesAndSnapshot() {
+    NetworkQualityEstimator estimator = createEstimator(snapshotFile);
+    simulateTransfer(
+        estimator, HOST_1_URI, /* timeToFirstByteMs= */ 100, SAMPLE_BYTES, /* durationMs= */ 1000);
+
+    estimator.clear();
+
+    assertThat(estimator.getBitrateEstimate())
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(estimator.getBitrateEstimate(networkType, "host1.test"))
+        .isEqualTo(NetworkQualityEstimator.ESTIMATE_NOT_AVAILABLE);
+    assertThat(snapshotFile.exists()).isFalse();
+  }
+
+  @Test
+  public void defaultBandwidthMeter_withoutTransfers_returnsSharedEstimates() {
+    NetworkQualityEstimator estimator = createEstimator(/* snapshotFile= */ null);
+    DefaultBandwidthMeter bandwidthMeter1 =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setNetworkQualityEstimator(estimator)
+            .build();
+    simulateTransfer(
+        bandwidthMeter1,
+        HOST_1_URI,
+        /* timeToFirstByteMs= */ 100,
+        SAMPLE_BYTES,
+        /* durationMs= */ 1000);
+
+    DefaultBandwidthMeter bandwidthMeter2 =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setNetworkQualityEstimator(estimator)
+            .build();
+
+    assertThat(bandwidthMeter2.getBitrateEstimate()).isEqualTo(8_000_000);
+    assertThat(bandwidthMeter2.getTimeToFirstByteEstimateUs()).isEqualTo(100_000);
+  }
+
+  private NetworkQualityEstimator createEstimator(@Nullable File snapshotFile) {
+    return new NetworkQualityEstimator(
+        networkTypeObserver,
+        snapshotFile,
+        /* executor= */ Runnable::run,
+        clock,
+        NetworkQualityEstimator.DEFAULT_SMOOTHING_FACTOR);
+  }
+
+  private void simulateTransfer(
+      TransferListener transferListener,
+      Uri uri,
+      long timeToFirstByteMs,
+      int bytes,
+      long durationMs) {
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(uri);
+    transferListener.onTransferInitializing(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(timeToFirstByteMs);
+    transferListener.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    transferListener.onBytesTransferred(dataSource, dataSpec, /* isNetwork= */ true, bytes);
+    clock.advanceTime(durationMs);
+    transferListener.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+  }
+}
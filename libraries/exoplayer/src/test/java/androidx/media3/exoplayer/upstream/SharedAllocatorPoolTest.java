@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SharedAllocatorPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class SharedAllocatorPoolTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+
+  @Test
+  public void setTargetBufferSize_grantsBudgetInPriorityOrder() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 10 * ALLOCATION_SIZE);
+    DefaultAllocator playbackAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    DefaultAllocator preloadAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    DefaultAllocator downloadAllocator = pool.createAllocator(C.PRIORITY_DOWNLOAD);
+
+    preloadAllocator.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    downloadAllocator.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    playbackAllocator.setTargetBufferSize(8 * ALLOCATION_SIZE);
+
+    assertThat(playbackAllocator.getGrantedBufferSize()).isEqualTo(8 * ALLOCATION_SIZE);
+    assertThat(preloadAllocator.getGrantedBufferSize()).isEqualTo(2 * ALLOCATION_SIZE);
+    assertThat(downloadAllocator.getGrantedBufferSize()).isEqualTo(0);
+    assertThat(pool.getStats().activeAllocatorCount).isEqualTo(3);
+  }
+
+  @Test
+  public void setTargetBufferSize_withEqualPriorities_sharesRemainderProportionally() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 12 * ALLOCATION_SIZE);
+    DefaultAllocator allocator1 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    DefaultAllocator allocator2 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+
+    allocator1.setTargetBufferSize(16 * ALLOCATION_SIZE);
+    allocator2.setTargetBufferSize(8 * ALLOCATION_SIZE);
+
+    assertThat(allocator1.getGrantedBufferSize()).isEqualTo(8 * ALLOCATION_SIZE);
+    assertThat(allocator2.getGrantedBufferSize()).isEqualTo(4 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void setPriority_updatesGrantedBufferSizes() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 8 * ALLOCATION_SIZE);
+    DefaultAllocator allocator1 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    DefaultAllocator allocator2 = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    allocator1.setTargetBufferSize(8 * ALLOCATION_SIZE);
+    allocator2.setTargetBufferSize(8 * ALLOCATION_SIZE);
+
+    allocator1.setPriority(C.PRIORITY_DOWNLOAD);
+
+    assertThat(allocator1.getGrantedBufferSize()).isEqualTo(0);
+    assertThat(allocator2.getGrantedBufferSize()).isEqualTo(8 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void reset_stopsRequestingBudgetAndReturnsAllocationsToPool() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 8 * ALLOCATION_SIZE);
+    DefaultAllocator allocator1 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    DefaultAllocator allocator2 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    allocator1.setTargetBufferSize(8 * ALLOCATION_SIZE);
+    Allocation[] allocations = new Allocation[4];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator1.allocate();
+    }
+    allocator1.release(allocations[0]);
+    allocator1.release(allocations[1]);
+
+    allocator1.reset();
+
+    SharedAllocatorPool.Stats stats = pool.getStats();
+    assertThat(stats.activeAllocatorCount).isEqualTo(0);
+    assertThat(stats.heldBytes).isEqualTo(2 * ALLOCATION_SIZE);
+    assertThat(stats.pooledBytes).isEqualTo(2 * ALLOCATION_SIZE);
+    assertThat(allocator1.getGrantedBufferSize()).isEqualTo(Integer.MAX_VALUE);
+
+    // Another allocator reuses the pooled allocations before creating new ones.
+    allocator2.setTargetBufferSize(8 * ALLOCATION_SIZE);
+    Allocation reusedAllocation = allocator2.allocate();
+    allocator2.allocate();
+    allocator2.allocate();
+
+    assertThat(reusedAllocation == allocations[0] || reusedAllocation == allocations[1]).isTrue();
+    stats = pool.getStats();
+    assertThat(stats.heldBytes).isEqualTo(5 * ALLOCATION_SIZE);
+    assertThat(stats.pooledBytes).isEqualTo(0);
+    assertThat(stats.createdAllocationCount).isEqualTo(5);
+    assertThat(stats.reusedAllocationCount).isEqualTo(2);
+    assertThat(stats.peakBytes).isEqualTo(5 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void trim_withPoolAtBudget_discardsAllocations() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 4 * ALLOCATION_SIZE);
+    DefaultAllocator allocator1 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    DefaultAllocator allocator2 = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    allocator1.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    allocator2.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    Allocation[] allocations = new Allocation[4];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator1.allocate();
+    }
+    allocator2.allocate();
+    allocator2.allocate();
+    allocator1.release(allocations[0]);
+    allocator1.release(allocations[1]);
+    allocator1.release(allocations[2]);
+
+    // allocator1 still holds one allocation, and allocator2 holds two, so only one of the three
+    // trimmed allocations fits within the budget.
+    allocator1.setTargetBufferSize(ALLOCATION_SIZE);
+
+    SharedAllocatorPool.Stats stats = pool.getStats();
+    assertThat(stats.heldBytes).isEqualTo(3 * ALLOCATION_SIZE);
+    assertThat(stats.pooledBytes).isEqualTo(ALLOCATION_SIZE);
+    assertThat(stats.discardedAllocationCount).isEqualTo(2);
+
+    pool.trim();
+
+    assertThat(pool.getStats().pooledBytes).isEqualTo(0);
+    assertThat(pool.getStats().discardedAllocationCount).isEqualTo(3);
+  }
+
+  @Test
+  public void trim_withReducedGrantedBufferSize_trimsToGrantedBufferSize() {
+    SharedAllocatorPool pool =
+        new SharedAllocatorPool(ALLOCATION_SIZE, /* budgetBytes= */ 4 * ALLOCATION_SIZE);
+    DefaultAllocator preloadAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK_PRELOAD);
+    preloadAllocator.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    Allocation[] allocations = new Allocation[4];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = preloadAllocator.allocate();
+    }
+    for (Allocation allocation : allocations) {
+      preloadAllocator.release(allocation);
+    }
+
+    DefaultAllocator playbackAllocator = pool.createAllocator(C.PRIORITY_PLAYBACK);
+    playbackAllocator.setTargetBufferSize(3 * ALLOCATION_SIZE);
+    preloadAllocator.trim();
+
+    assertThat(preloadAllocator.getGrantedBufferSize()).isEqualTo(ALLOCATION_SIZE);
+    assertThat(pool.getStats().heldBytes).isEqualTo(ALLOCATION_SIZE);
+    assertThat(pool.getStats().pooledBytes).isEqualTo(3 * ALLOCATION_SIZE);
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.upstream.experimental;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.media3.test.utils.FakeClock;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link QuantileSketchBandwidthStatistic}. */
+@RunWith(AndroidJUnit4.class)
+public class QuantileSketchBandwidthStatisticTest {
+
+  private static final double RELATIVE_ACCURACY =
+      QuantileSketchBandwidthStatistic.DEFAULT_RELATIVE_ACCURACY;
+
+  @Test
+  public void getBandwidthEstimate_afterConstruction_returnsNoEstimate() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthEstimator.ESTIMATE_NOT_AVAILABLE);
+  }
+
+  @Test
+  public void getBandwidthEstimate_oneSample_returnsEstimateWithinRelativeAccuracy() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+
+    statistic.addSample(/* bytes= */ 10, /* durationUs= */ 10);
+
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(8_000_000 * RELATIVE_ACCURACY)
+        .of(8_000_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_multipleSamples_returnsWeightedMedian() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+
+    // Transfer bytes are chosen so that their weights (square root) are 20, 10 and 8.
+    statistic.addSample(/* bytes= */ 400, /* durationUs= */ 10);
+    statistic.addSample(/* bytes= */ 100, /* durationUs= */ 10);
+    statistic.addSample(/* bytes= */ 64, /* durationUs= */ 10);
+
+    // The sample with a bitrate of 320 Mbps holds more than half of the weight.
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(320_000_000 * RELATIVE_ACCURACY)
+        .of(320_000_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_withPercentile_returnsWeightedPercentile() {
+    QuantileSketchBandwidthStatistic statistic =
+        new QuantileSketchBandwidthStatistic(
+            /* percentile= */ 0.05, C.TIME_UNSET, RELATIVE_ACCURACY);
+
+    // The samples have the same weight, so the lowest bitrate holds the lowest 10% of the weight.
+    for (int i = 1; i <= 10; i++) {
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 1_000_000 / i);
+    }
+
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(8_000 * RELATIVE_ACCURACY)
+        .of(8_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_throughputTrace_isWithinRelativeAccuracyOfExactPercentile() {
+    double[] percentiles = new double[] {0.1, 0.5, 0.9};
+    for (double percentile : percentiles) {
+      QuantileSketchBandwidthStatistic statistic =
+          new QuantileSketchBandwidthStatistic(percentile, C.TIME_UNSET, RELATIVE_ACCURACY);
+      long[][] trace = createThroughputTrace(/* sampleCount= */ 5_000);
+      for (long[] sample : trace) {
+        statistic.addSample(/* bytes= */ sample[0], /* durationUs= */ sample[1]);
+      }
+
+      double exactPercentile = getExactWeightedPercentile(trace, percentile);
+      assertThat((double) statistic.getBandwidthEstimate())
+          .isWithin(exactPercentile * RELATIVE_ACCURACY)
+          .of(exactPercentile);
+    }
+  }
+
+  @Test
+  public void getBandwidthEstimate_withOldSamples_decaysTheirWeight() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    QuantileSketchBandwidthStatistic statistic =
+        new QuantileSketchBandwidthStatistic(
+            QuantileSketchBandwidthStatistic.DEFAULT_PERCENTILE,
+            /* halfLifeMs= */ 1_000,
+            RELATIVE_ACCURACY,
+            clock);
+
+    for (int i = 0; i < 3; i++) {
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 8_000);
+    }
+    clock.advanceTime(2_000);
+    statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 1_000);
+
+    // The three old samples have a quarter of the weight of the new one.
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(8_000_000 * RELATIVE_ACCURACY)
+        .of(8_000_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_withoutHalfLife_doesNotDecayWeight() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    QuantileSketchBandwidthStatistic statistic =
+        new QuantileSketchBandwidthStatistic(
+            QuantileSketchBandwidthStatistic.DEFAULT_PERCENTILE,
+            C.TIME_UNSET,
+            RELATIVE_ACCURACY,
+            clock);
+
+    for (int i = 0; i < 3; i++) {
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 8_000);
+    }
+    clock.advanceTime(2_000);
+    statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 1_000);
+
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(1_000_000 * RELATIVE_ACCURACY)
+        .of(1_000_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_afterManyHalfLives_returnsEstimateOfRecentSamples() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    QuantileSketchBandwidthStatistic statistic =
+        new QuantileSketchBandwidthStatistic(
+            QuantileSketchBandwidthStatistic.DEFAULT_PERCENTILE,
+            /* halfLifeMs= */ 10,
+            RELATIVE_ACCURACY,
+            clock);
+
+    statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 8_000);
+    // Advance by more than the number of half-lives after which weights are rescaled, repeatedly.
+    for (int i = 0; i < 10; i++) {
+      clock.advanceTime(10_000);
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 1_000);
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 2_000);
+      statistic.addSample(/* bytes= */ 1_000, /* durationUs= */ 4_000);
+    }
+
+    // The most recent samples have the same weight, and the others have decayed away.
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(4_000_000 * RELATIVE_ACCURACY)
+        .of(4_000_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_withBitrateOutOfRange_returnsClampedEstimate() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+
+    statistic.addSample(/* bytes= */ 1_000_000_000, /* durationUs= */ 1);
+
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(QuantileSketchBandwidthStatistic.MAX_BITRATE * RELATIVE_ACCURACY)
+        .of(QuantileSketchBandwidthStatistic.MAX_BITRATE);
+  }
+
+  @Test
+  public void reset_withSamples_removesEstimate() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+    statistic.addSample(/* bytes= */ 10, /* durationUs= */ 10);
+
+    statistic.reset();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthEstimator.ESTIMATE_NOT_AVAILABLE);
+  }
+
+  @Test
+  public void addSample_afterReset_returnsEstimateOfNewSamples() {
+    QuantileSketchBandwidthStatistic statistic = new QuantileSketchBandwidthStatistic();
+    statistic.addSample(/* bytes= */ 10, /* durationUs= */ 10);
+    statistic.reset();
+
+    statistic.addSample(/* bytes= */ 10, /* durationUs= */ 20);
+
+    assertThat((double) statistic.getBandwidthEstimate())
+        .isWithin(4_000_000 * RELATIVE_ACCURACY)
+        .of(4_000_000);
+  }
+
+  /**
+   * Returns a trace of {bytes, durationUs} transfer samples, with log-normally distributed
+   * throughput around 5 Mbps and segment sizes of 100 kB to 2 MB.
+   */
+  private static long[][] createThroughputTrace(int sampleCount) {
+    Random random = new Random(/* seed= */ 0);
+    long[][] trace = new long[sampleCount][];
+    for (int i = 0; i < sampleCount; i++) {
+      long bytes = 100_000 + random.nextInt(1_900_000);
+      double bitrate = 5_000_000 * Math.exp(random.nextGaussian());
+      trace[i] = new long[] {bytes, (long) (bytes * 8_000_000 / bitrate)};
+    }
+    return trace;
+  }
+
+  /**
+   * Returns the lowest sample bitrate for which the weight of samples with the same or a lower
+   * bitrate is at least the percentile of the total weight.
+   */
+  private static double getExactWeightedPercentile(long[][] trace, double percentile) {
+    double[][] samples = new double[trace.length][];
+    double weightSum = 0;
+    for (int i = 0; i < trace.length; i++) {
+      double bitrate = (double) trace[i][0] * 8_000_000 / trace[i][1];
+      double weight = Math.sqrt((double) trace[i][0]);
+      samples[i] = new double[] {bitrate, weight};
+      weightSum += weight;
+    }
+    Arrays.sort(samples, (a, b) -> Double.compare(a[0], b[0]));
+    double partialWeightSum = 0;
+    for (double[] sample : samples) {
+      partialWeightSum += sample[1];
+      if (partialWeightSum >= weightSum * percentile) {
+        return sample[0];
+      }
+    }
+    return samples[samples.length - 1][0];
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.ts;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.TimestampAdjuster;
+import androidx.media3.extractor.text.SubtitleParser;
+import androidx.media3.test.utils.FakeExtractorOutput;
+import androidx.media3.test.utils.FakeTrackOutput;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the throughput of extracting transport streams with multiple audio and video tracks
+ * with a {@link TsExtractor} in {@link TsExtractor#MODE_MULTI_PMT}, with and without {@link
+ * TsExtractor#FLAG_ENABLE_PARALLEL_DEMUXING}.
+ *
+ * <p>Results are written to logcat with the tag {@code TsParallelDemuxPerfTest}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TsParallelDemuxingPerformanceTest {
+
+  private static final String TAG = "TsParallelDemuxPerfTest";
+  private static final String[] FILES =
+      new String[] {
+        "media/ts/bbb_2500ms.ts",
+        "media/ts/sample_h264_mpeg_audio.ts",
+        "media/ts/sample_h262_mpeg_audio.ts",
+        "media/ts/sample_h264_dts_audio.ts",
+        "media/ts/sample_eac3.ts",
+        "media/ts/sample_multi_program.ts"
+      };
+  private static final int ITERATIONS = 20;
+
+  @Test
+  public void extract_parallelVersusSerialDemuxing() throws Exception {
+    for (String file : FILES) {
+      byte[] data = TestUtil.getByteArray(ApplicationProvider.getApplicationContext(), file);
+
+      double serialMbps = measureExtractionMegabytesPerSecond(data, /* extractorFlags= */ 0);
+      double parallelMbps =
+          measureExtractionMegabytesPerSecond(data, TsExtractor.FLAG_ENABLE_PARALLEL_DEMUXING);
+
+      Log.i(
+          TAG,
+          file
+              + ": workers="
+              + ParallelDemuxer.getDefaultWorkerCount()
+              + ", serial="
+              + serialMbps
+              + " MB/s, parallel="
+              + parallelMbps
+              + " MB/s");
+      assertThat(parallelMbps).isGreaterThan(0);
+    }
+  }
+
+  private static double measureExtractionMegabytesPerSecond(
+      byte[] data, @TsExtractor.Flags int extractorFlags) throws Exception {
+    // Warm up, and check the extracted samples are the same for every measured iteration.
+    int expectedSampleCount = getSampleCount(extract(data, extractorFlags));
+    long elapsedNs = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long startTimeNs = System.nanoTime();
+      FakeExtractorOutput output = extract(data, extractorFlags);
+      elapsedNs += System.nanoTime() - startTimeNs;
+      assertThat(getSampleCount(output)).isEqualTo(expectedSampleCount);
+    }
+    return (double) data.length * ITERATIONS * 1000 / elapsedNs;
+  }
+
+  private static FakeExtractorOutput extract(byte[] data, @TsExtractor.Flags int extractorFlags)
+      throws Exception {
+    TsExtractor extractor =
+        new TsExtractor(
+            TsExtractor.MODE_MULTI_PMT,
+            extractorFlags | TsExtractor.FLAG_EMIT_RAW_SUBTITLE_DATA,
+            SubtitleParser.Factory.UNSUPPORTED,
+            new TimestampAdjuster(0),
+            new DefaultTsPayloadReaderFactory(/* defaultTsPayloadReaderFlags= */ 0),
+            TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES);
+    try {
+      return TestUtil.extractAllSamplesFromByteArray(extractor, data);
+    } finally {
+      extractor.release();
+    }
+  }
+
+  private static int getSampleCount(FakeExtractorOutput output) {
+    int sampleCount = 0;
+    for (int i = 0; i < output.trackOutputs.size(); i++) {
+      FakeTrackOutput trackOutput = output.trackOutputs.valueAt(i);
+      sampleCount += trackOutput.getSampleCount();
+    }
+    return sampleCount;
+  }
+}
@@ -99,6 +99,8 @@ public abstract class BinarySearchSeeker {
 
   private final int minimumSearchRange;
 
+  @Nullable private SeekIndex seekIndex;
+
   /**
    * Constructs an instance.
    *
@@ -147,6 +149,17 @@ public abstract class BinarySearchSeeker {
     return seekMap;
   }
 
+  /**
+   * Sets a {@link SeekIndex} for the stream. Seeking to a time {@link SeekIndex#covers(long)
+   * covered} by the index continues from the seek point in the index without searching the stream.
+   *
+   * @param seekIndex The {@link SeekIndex}, or null to always search the stream.
+   */
+  public final void setSeekIndex(@Nullable SeekIndex seekIndex) {
+    this.seekIndex = seekIndex;
+    seekMap.seekIndex = seekIndex;
+  }
+
   /**
    * Sets the target time in microseconds within the stream to seek to.
    *
@@ -223,6 +236,18 @@ public abstract class BinarySearchSeeker {
   }
 
   protected SeekOperationParams createSeekParamsForTargetTimeUs(long timeUs) {
+    if (seekIndex != null && seekIndex.covers(timeUs)) {
+      // Collapse the search range to the indexed position, so the seek finishes immediately.
+      long position = seekIndex.getSeekPoint(timeUs).position;
+      return new SeekOperationParams(
+          timeUs,
+          seekMap.timeUsToTargetTime(timeUs),
+          seekMap.floorTimePosition,
+          seekMap.ceilingTimePosition,
+          /* floorBytePosition= */ position,
+          /* ceilingBytePosition= */ position,
+          seekMap.approxBytesPerFrame);
+    }
     return new SeekOperationParams(
         timeUs,
         seekMap.timeUsToTargetTime(timeUs),
@@ -497,6 +522,8 @@ public abstract class BinarySearchSeeker {
     private final long ceilingBytePosition;
     private final long approxBytesPerFrame;
 
+    @Nullable private SeekIndex seekIndex;
+
     /** Constructs a new instance of this seek map. */
     public BinarySearchSeekMap(
         SeekTimestampConverter seekTimestampConverter,
@@ -522,6 +549,10 @@ public abstract class BinarySearchSeeker {
 
     @Override
     public SeekPoints getSeekPoints(long timeUs) {
+      @Nullable SeekIndex seekIndex = this.seekIndex;
+      if (seekIndex != null && seekIndex.covers(timeUs)) {
+        return new SeekPoints(seekIndex.getSeekPoint(timeUs));
+      }
       long nextSearchPosition =
           SeekOperationParams.calculateNextSearchBytePosition(
               /* targetTimePosition= */ seekTimestampConverter.timeUsToTargetTime(timeUs),
@@ -152,6 +152,7 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
   // TODO (b/261183220): Initialize tsSubtitleFormats in constructor once shrinking bug is fixed.
   @Nullable private ImmutableList<Format> tsSubtitleFormats;
   private int tsTimestampSearchBytes;
+  private boolean tsParallelDemuxingEnabled;
   private boolean textTrackTranscodingEnabled;
   private SubtitleParser.Factory subtitleParserFactory;
   private @JpegExtractor.Flags int jpegFlags;
@@ -360,6 +361,21 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets whether {@link TsExtractor} instances created by the factory consume the payloads of the
+   * elementary streams on multiple threads. The default value is {@code false}.
+   *
+   * @see TsExtractor#FLAG_ENABLE_PARALLEL_DEMUXING
+   * @param parallelDemuxingEnabled Whether parallel demuxing is enabled.
+   * @return The factory, for convenience.
+   */
+  @CanIgnoreReturnValue
+  public synchronized DefaultExtractorsFactory setTsExtractorParallelDemuxingEnabled(
+      boolean parallelDemuxingEnabled) {
+    tsParallelDemuxingEnabled = parallelDemuxingEnabled;
+    return this;
+  }
+
   /**
    * @deprecated This method (and all support for 'legacy' subtitle decoding during rendering) will
    *     be removed in a future release.
@@ -522,7 +538,8 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
         extractors.add(
             new TsExtractor(
                 tsMode,
-                (textTrackTranscodingEnabled ? 0 : TsExtractor.FLAG_EMIT_RAW_SUBTITLE_DATA),
+                (textTrackTranscodingEnabled ? 0 : TsExtractor.FLAG_EMIT_RAW_SUBTITLE_DATA)
+                    | (tsParallelDemuxingEnabled ? TsExtractor.FLAG_ENABLE_PARALLEL_DEMUXING : 0),
                 subtitleParserFactory,
                 new TimestampAdjuster(0),
                 new DefaultTsPayloadReaderFactory(tsFlags, tsSubtitleFormats),
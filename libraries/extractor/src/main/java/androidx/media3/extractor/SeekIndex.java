@@ -0,0 +1,317 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of seek points that were observed while extracting a stream, which can be persisted and
+ * used to seek within the stream when it's extracted again.
+ *
+ * <p>Each seek point maps the time of a key frame to a position in the stream from which extraction
+ * can start and that is at or before the key frame. The start of the stream is an implicit seek
+ * point. A time is {@link #covers(long) covered} by the index if the seek points around it are at
+ * most {@link #MAX_SEEK_POINT_INTERVAL_US} apart, in which case seeking to it requires no search.
+ */
+@UnstableApi
+public final class SeekIndex {
+
+  /** Builds {@link SeekIndex} instances. */
+  public static final class Builder {
+
+    private final TreeMap<Long, Long> positionsByTimeUs;
+    private long durationUs;
+
+    /** Creates an instance with no seek points and an unknown duration. */
+    public Builder() {
+      positionsByTimeUs = new TreeMap<>();
+      durationUs = C.TIME_UNSET;
+    }
+
+    /** Creates an instance with the seek points and duration of {@code seekIndex}. */
+    public Builder(SeekIndex seekIndex) {
+      this();
+      for (int i = 0; i < seekIndex.timesUs.length; i++) {
+        positionsByTimeUs.put(seekIndex.timesUs[i], seekIndex.positions[i]);
+      }
+      durationUs = seekIndex.durationUs;
+    }
+
+    /**
+     * Adds a seek point.
+     *
+     * <p>The seek point is ignored if it's less than {@link #MIN_SEEK_POINT_INTERVAL_US} from an
+     * existing seek point, or if its position is inconsistent with the positions of the existing
+     * seek points around it.
+     *
+     * @param timeUs The time of the key frame, in microseconds.
+     * @param position A position at or before the key frame from which extraction can start, in
+     *     bytes.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder addSeekPoint(long timeUs, long position) {
+      if (timeUs <= 0 || position < 0) {
+        return this;
+      }
+      @Nullable Map.Entry<Long, Long> floorEntry = positionsByTimeUs.floorEntry(timeUs);
+      long floorTimeUs = floorEntry != null ? floorEntry.getKey() : 0;
+      long floorPosition = floorEntry != null ? floorEntry.getValue() : 0;
+      if (timeUs - floorTimeUs < MIN_SEEK_POINT_INTERVAL_US || position < floorPosition) {
+        return this;
+      }
+      @Nullable Map.Entry<Long, Long> ceilingEntry = positionsByTimeUs.ceilingEntry(timeUs);
+      if (ceilingEntry != null
+          && (ceilingEntry.getKey() - timeUs < MIN_SEEK_POINT_INTERVAL_US
+              || ceilingEntry.getValue() < position)) {
+        return this;
+      }
+      positionsByTimeUs.put(timeUs, position);
+      return this;
+    }
+
+    /**
+     * Sets the duration of the stream.
+     *
+     * @param durationUs The duration of the stream, in microseconds, or {@link C#TIME_UNSET} if
+     *     it's unknown.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setDurationUs(long durationUs) {
+      this.durationUs = durationUs;
+      return this;
+    }
+
+    /** Builds the {@link SeekIndex}. */
+    public SeekIndex build() {
+      long[] timesUs = new long[positionsByTimeUs.size()];
+      long[] positions = new long[positionsByTimeUs.size()];
+      int index = 0;
+      for (Map.Entry<Long, Long> entry : positionsByTimeUs.entrySet()) {
+        timesUs[index] = entry.getKey();
+        positions[index] = entry.getValue();
+        index++;
+      }
+      return new SeekIndex(timesUs, positions, durationUs);
+    }
+  }
+
+  /**
+   * The maximum interval between adjacent seek points for the times between them to be {@link
+   * #covers(long) covered} by the index, in microseconds.
+   */
+  public static final long MAX_SEEK_POINT_INTERVAL_US = 5_000_000;
+
+  /**
+   * The minimum interval between adjacent seek points, in microseconds. Seek points closer to an
+   * existing seek point are not added, to keep the index compact.
+   */
+  public static final long MIN_SEEK_POINT_INTERVAL_US = 2_000_000;
+
+  private static final int VERSION = 1;
+
+  private final long[] timesUs;
+  private final long[] positions;
+  private final long durationUs;
+
+  private SeekIndex(long[] timesUs, long[] positions, long durationUs) {
+    this.timesUs = timesUs;
+    this.positions = positions;
+    this.durationUs = durationUs;
+  }
+
+  /** Returns the number of seek points, excluding the implicit seek point at the start. */
+  public int getSeekPointCount() {
+    return timesUs.length;
+  }
+
+  /**
+   * Returns the duration of the stream in microseconds, or {@link C#TIME_UNSET} if it's unknown.
+   */
+  public long getDurationUs() {
+    return durationUs;
+  }
+
+  /**
+   * Returns whether seeking to {@code timeUs} can use the {@link #getSeekPoint(long) seek point}
+   * from the index without searching the stream.
+   */
+  public boolean covers(long timeUs) {
+    if (timeUs < 0) {
+      return false;
+    }
+    int index =
+        Util.binarySearchFloor(timesUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    long floorTimeUs = index >= 0 ? timesUs[index] : 0;
+    if (index + 1 < timesUs.length) {
+      return timesUs[index + 1] - floorTimeUs <= MAX_SEEK_POINT_INTERVAL_US;
+    }
+    return durationUs != C.TIME_UNSET
+        && timeUs <= durationUs
+        && durationUs - floorTimeUs <= MAX_SEEK_POINT_INTERVAL_US;
+  }
+
+  /** Returns whether the index {@link #covers(long) covers} the whole duration of the stream. */
+  public boolean isComplete() {
+    if (durationUs == C.TIME_UNSET) {
+      return false;
+    }
+    long previousTimeUs = 0;
+    for (long timeUs : timesUs) {
+      if (timeUs - previousTimeUs > MAX_SEEK_POINT_INTERVAL_US) {
+        return false;
+      }
+      previousTimeUs = timeUs;
+    }
+    return durationUs - previousTimeUs <= MAX_SEEK_POINT_INTERVAL_US;
+  }
+
+  /**
+   * Returns the seek point at or before {@code timeUs}, or {@link SeekPoint#START} if there is
+   * none.
+   */
+  public SeekPoint getSeekPoint(long timeUs) {
+    int index =
+        Util.binarySearchFloor(timesUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    return index >= 0 ? new SeekPoint(timesUs[index], positions[index]) : SeekPoint.START;
+  }
+
+  /** Returns a {@link SeekMap} using the seek points of the index. */
+  public SeekMap toSeekMap() {
+    return new IndexSeekMap(positions, timesUs, durationUs);
+  }
+
+  /**
+   * Serializes the index into a compact byte array that can be parsed with {@link
+   * #fromByteArray(byte[])}.
+   */
+  public byte[] toByteArray() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(/* size= */ 8 + timesUs.length * 6);
+    output.write(VERSION);
+    writeVarLong(output, timesUs.length);
+    writeVarLong(output, durationUs == C.TIME_UNSET ? 0 : durationUs + 1);
+    long previousTimeUs = 0;
+    long previousPosition = 0;
+    for (int i = 0; i < timesUs.length; i++) {
+      writeVarLong(output, timesUs[i] - previousTimeUs);
+      writeVarLong(output, positions[i] - previousPosition);
+      previousTimeUs = timesUs[i];
+      previousPosition = positions[i];
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Parses an index serialized with {@link #toByteArray()}.
+   *
+   * @param data The serialized index.
+   * @return The index, or null if {@code data} isn't a valid serialized index.
+   */
+  @Nullable
+  public static SeekIndex fromByteArray(byte[] data) {
+    if (data.length == 0 || data[0] != VERSION) {
+      return null;
+    }
+    int[] offset = new int[] {1};
+    long count = readVarLong(data, offset);
+    long encodedDurationUs = readVarLong(data, offset);
+    // Each seek point takes at least two bytes.
+    if (count < 0 || count > (data.length - offset[0]) / 2 || encodedDurationUs < 0) {
+      return null;
+    }
+    long[] timesUs = new long[(int) count];
+    long[] positions = new long[(int) count];
+    long previousTimeUs = 0;
+    long previousPosition = 0;
+    for (int i = 0; i < count; i++) {
+      long timeDeltaUs = readVarLong(data, offset);
+      long positionDelta = readVarLong(data, offset);
+      if (timeDeltaUs <= 0 || positionDelta < 0) {
+        return null;
+      }
+      timesUs[i] = previousTimeUs + timeDeltaUs;
+      positions[i] = previousPosition + positionDelta;
+      previousTimeUs = timesUs[i];
+      previousPosition = positions[i];
+    }
+    if (offset[0] != data.length) {
+      return null;
+    }
+    return new SeekIndex(
+        timesUs, positions, encodedDurationUs == 0 ? C.TIME_UNSET : encodedDurationUs - 1);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    SeekIndex other = (SeekIndex) obj;
+    return durationUs == other.durationUs
+        && Arrays.equals(timesUs, other.timesUs)
+        && Arrays.equals(positions, other.positions);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Arrays.hashCode(timesUs);
+    result = 31 * result + Arrays.hashCode(positions);
+    result = 31 * result + (int) (durationUs ^ (durationUs >>> 32));
+    return result;
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream output, long value) {
+    checkArgument(value >= 0);
+    while (value >= 0x80) {
+      output.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  /**
+   * Reads an unsigned variable-length integer from {@code data} at {@code offset[0]}, and advances
+   * the offset. Returns -1 if the data is truncated or the value doesn't fit in a long.
+   */
+  private static long readVarLong(byte[] data, int[] offset) {
+    long value = 0;
+    for (int shift = 0; shift < 63; shift += 7) {
+      if (offset[0] >= data.length) {
+        return -1;
+      }
+      int b = data[offset[0]++] & 0xFF;
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor;
+
+import androidx.media3.common.util.UnstableApi;
+
+/**
+ * An {@link Extractor} that can use a {@link SeekIndex} recorded while previously extracting the
+ * same stream to avoid searching the stream when seeking.
+ *
+ * <p>Seek indices for consumers can be recorded with a {@link SeekIndexRecorder}.
+ */
+@UnstableApi
+public interface SeekIndexConsumer {
+
+  /**
+   * Sets the seek index of the stream. Must be called before the extractor is {@link
+   * Extractor#init(ExtractorOutput) initialized}.
+   *
+   * @param seekIndex The {@link SeekIndex}.
+   */
+  void setSeekIndex(SeekIndex seekIndex);
+
+  /**
+   * Returns the maximum number of bytes the extractor may have read from the input before the
+   * position at which a call to {@link Extractor#read(ExtractorInput, PositionHolder)} starts, but
+   * not yet output as sample data.
+   */
+  int getMaxBufferedInputBytes();
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.DataReader;
+import androidx.media3.common.Format;
+import androidx.media3.common.util.LongArray;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.common.util.UnstableApi;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An {@link ExtractorOutput} that records the positions of the key frames output by an {@link
+ * Extractor}, to build a {@link SeekIndex} for the stream.
+ *
+ * <p>The recorder must be notified of the input position at the start of each call to {@link
+ * Extractor#read(ExtractorInput, PositionHolder)}. The recorded position of a key frame is the
+ * position at the start of the read during which its first byte was output, less the number of
+ * bytes the extractor may have buffered, so that extraction from the recorded position outputs the
+ * key frame.
+ */
+@UnstableApi
+public final class SeekIndexRecorder implements ExtractorOutput {
+
+  private final ExtractorOutput output;
+  private final int maxBufferedInputBytes;
+  private final List<RecordingTrackOutput> trackOutputs;
+
+  private long readStartPosition;
+  private long durationUs;
+  private boolean hasNewSeekPoints;
+
+  /**
+   * Creates an instance.
+   *
+   * @param output The {@link ExtractorOutput} to which all output is forwarded.
+   * @param maxBufferedInputBytes The maximum number of bytes the extractor may have read from the
+   *     input before the start of a read, but not yet output as sample data.
+   */
+  public SeekIndexRecorder(ExtractorOutput output, int maxBufferedInputBytes) {
+    this.output = output;
+    this.maxBufferedInputBytes = maxBufferedInputBytes;
+    trackOutputs = new ArrayList<>();
+    readStartPosition = C.INDEX_UNSET;
+    durationUs = C.TIME_UNSET;
+  }
+
+  /**
+   * Must be called before each call to {@link Extractor#read(ExtractorInput, PositionHolder)}.
+   *
+   * @param inputPosition The {@link ExtractorInput#getPosition() position} of the input.
+   */
+  public void onReadStarting(long inputPosition) {
+    readStartPosition = inputPosition;
+  }
+
+  /** Returns whether key frames were recorded since the recorder was created. */
+  public boolean hasNewSeekPoints() {
+    return hasNewSeekPoints;
+  }
+
+  /**
+   * Returns a {@link SeekIndex} with the seek points of {@code seekIndex} and the recorded key
+   * frames.
+   *
+   * <p>The key frames of the first video track are used if there is one, and the key frames of the
+   * first track otherwise.
+   *
+   * @param seekIndex An existing {@link SeekIndex} for the stream, or null if there is none.
+   */
+  public SeekIndex getSeekIndex(@Nullable SeekIndex seekIndex) {
+    SeekIndex.Builder builder =
+        seekIndex != null ? new SeekIndex.Builder(seekIndex) : new SeekIndex.Builder();
+    if (durationUs != C.TIME_UNSET) {
+      builder.setDurationUs(durationUs);
+    }
+    @Nullable RecordingTrackOutput recordedTrackOutput = null;
+    for (int i = 0; i < trackOutputs.size(); i++) {
+      RecordingTrackOutput trackOutput = trackOutputs.get(i);
+      if (trackOutput.type == C.TRACK_TYPE_VIDEO) {
+        recordedTrackOutput = trackOutput;
+        break;
+      } else if (recordedTrackOutput == null) {
+        recordedTrackOutput = trackOutput;
+      }
+    }
+    if (recordedTrackOutput != null) {
+      for (int i = 0; i < recordedTrackOutput.keyFrameTimesUs.size(); i++) {
+        builder.addSeekPoint(
+            recordedTrackOutput.keyFrameTimesUs.get(i),
+            recordedTrackOutput.keyFramePositions.get(i));
+      }
+    }
+    return builder.build();
+  }
+
+  // ExtractorOutput implementation.
+
+  @Override
+  public TrackOutput track(int id, @C.TrackType int type) {
+    RecordingTrackOutput trackOutput = new RecordingTrackOutput(output.track(id, type), type);
+    trackOutputs.add(trackOutput);
+    return trackOutput;
+  }
+
+  @Override
+  public void endTracks() {
+    output.endTracks();
+  }
+
+  @Override
+  public void seekMap(SeekMap seekMap) {
+    durationUs = seekMap.getDurationUs();
+    output.seekMap(seekMap);
+  }
+
+  private final class RecordingTrackOutput implements TrackOutput {
+
+    private final TrackOutput trackOutput;
+    private final @C.TrackType int type;
+    private final LongArray keyFrameTimesUs;
+    private final LongArray keyFramePositions;
+
+    private long bytesWritten;
+    // The total bytes written before each chunk of sample data output during a distinct read, and
+    // the read start position of each chunk, for chunks that may contain the start of a sample.
+    private long[] chunkStartBytes;
+    private long[] chunkReadStartPositions;
+    private int chunkCount;
+
+    public RecordingTrackOutput(TrackOutput trackOutput, @C.TrackType int type) {
+      this.trackOutput = trackOutput;
+      this.type = type;
+      keyFrameTimesUs = new LongArray();
+      keyFramePositions = new LongArray();
+      chunkStartBytes = new long[16];
+      chunkReadStartPositions = new long[16];
+    }
+
+    @Override
+    public void format(Format format) {
+      trackOutput.format(format);
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      long bytesWrittenBefore = bytesWritten;
+      int bytesAppended =
+          trackOutput.sampleData(input, length, allowEndOfInput, sampleDataPart);
+      if (bytesAppended > 0) {
+        onSampleData(bytesWrittenBefore, bytesAppended);
+      }
+      return bytesAppended;
+    }
+
+    @Override
+    public void sampleData(
+        ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      long bytesWrittenBefore = bytesWritten;
+      trackOutput.sampleData(data, length, sampleDataPart);
+      onSampleData(bytesWrittenBefore, length);
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs,
+        @C.BufferFlags int flags,
+        int size,
+        int offset,
+        @Nullable CryptoData cryptoData) {
+      trackOutput.sampleMetadata(timeUs, flags, size, offset, cryptoData);
+      long sampleStartBytes = bytesWritten - offset - size;
+      int chunkIndex = chunkCount - 1;
+      while (chunkIndex >= 0 && chunkStartBytes[chunkIndex] > sampleStartBytes) {
+        chunkIndex--;
+      }
+      if (chunkIndex < 0) {
+        // The start of the sample was output before the recorder started tracking its position.
+        return;
+      }
+      if ((flags & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        long position = chunkReadStartPositions[chunkIndex];
+        if (position != C.INDEX_UNSET) {
+          recordKeyFrame(timeUs, Math.max(0, position - maxBufferedInputBytes));
+        }
+      }
+      // Later samples start after this sample, so earlier chunks are no longer needed.
+      chunkCount -= chunkIndex;
+      System.arraycopy(chunkStartBytes, chunkIndex, chunkStartBytes, 0, chunkCount);
+      System.arraycopy(chunkReadStartPositions, chunkIndex, chunkReadStartPositions, 0, chunkCount);
+    }
+
+    private void onSampleData(long bytesWrittenBefore, int length) {
+      bytesWritten += length;
+      if (chunkCount > 0 && chunkReadStartPositions[chunkCount - 1] == readStartPosition) {
+        return;
+      }
+      if (chunkCount == chunkStartBytes.length) {
+        chunkStartBytes = Arrays.copyOf(chunkStartBytes, chunkCount * 2);
+        chunkReadStartPositions = Arrays.copyOf(chunkReadStartPositions, chunkCount * 2);
+      }
+      chunkStartBytes[chunkCount] = bytesWrittenBefore;
+      chunkReadStartPositions[chunkCount] = readStartPosition;
+      chunkCount++;
+    }
+
+    private void recordKeyFrame(long timeUs, long position) {
+      int keyFrameCount = keyFrameTimesUs.size();
+      if (keyFrameCount > 0
+          && Math.abs(timeUs - keyFrameTimesUs.get(keyFrameCount - 1))
+              < SeekIndex.MIN_SEEK_POINT_INTERVAL_US) {
+        return;
+      }
+      keyFrameTimesUs.add(timeUs);
+      keyFramePositions.add(position);
+      hasNewSeekPoints = true;
+    }
+  }
+}
@@ -22,7 +22,6 @@ import static androidx.media3.common.C.AUXILIARY_TRACK_TYPE_UNDEFINED;
 import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.common.util.Assertions.checkState;
 import static androidx.media3.common.util.Assertions.checkStateNotNull;
-import static androidx.media3.common.util.Util.castNonNull;
 import static androidx.media3.container.MdtaMetadataEntry.EDITABLE_TRACKS_SAMPLES_LOCATION_IN_EDIT_DATA_MP4;
 import static androidx.media3.container.Mp4Util.EDITABLE_TRACK_TYPE_DEPTH_INVERSE;
 import static androidx.media3.container.Mp4Util.EDITABLE_TRACK_TYPE_DEPTH_LINEAR;
@@ -78,7 +77,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /** Extracts data from the MP4 container format. */
 @UnstableApi
@@ -109,7 +107,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         FLAG_MARK_FIRST_VIDEO_TRACK_WITH_MAIN_ROLE,
         FLAG_EMIT_RAW_SUBTITLE_DATA,
         FLAG_READ_WITHIN_GOP_SAMPLE_DEPENDENCIES,
-        FLAG_READ_EDITABLE_VIDEO_TRACKS
+        FLAG_READ_EDITABLE_VIDEO_TRACKS,
+        FLAG_READ_SAMPLE_TABLES_LAZILY
       })
   public @interface Flags {}
 
@@ -171,6 +170,18 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   public static final int FLAG_READ_EDITABLE_VIDEO_TRACKS = 1 << 6;
 
+  /**
+   * Flag to decode the sample tables of large tracks on demand, rather than parsing them into
+   * memory when the moov box is read.
+   *
+   * <p>This reduces the memory used to play unfragmented files with many samples, at the cost of
+   * decoding samples from the sample table boxes again when reading and seeking. It applies to
+   * tracks without edit lists whose sample sizes are in an stsz box. Samples of
+   * different tracks are read in the order of their offsets in the file, so files with poorly
+   * interleaved tracks may require more reloads of the input.
+   */
+  public static final int FLAG_READ_SAMPLE_TABLES_LAZILY = 1 << 7;
+
   /**
    * @deprecated Use {@link #newFactory(SubtitleParser.Factory)} instead.
    */
@@ -258,7 +269,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private ExtractorOutput extractorOutput;
   private Mp4Track[] tracks;
 
-  private long @MonotonicNonNull [][] accumulatedSampleSizes;
+  @Nullable private long[][] accumulatedSampleSizes;
   private int firstVideoTrackIndex;
   private long durationUs;
   private @FileType int fileType;
@@ -442,19 +453,19 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     int mainTrackIndex = trackId != C.INDEX_UNSET ? trackId : firstVideoTrackIndex;
     // If we have a video track, use it to establish one or two seek points.
     if (mainTrackIndex != C.INDEX_UNSET) {
-      TrackSampleTable sampleTable = tracks[mainTrackIndex].sampleTable;
+      SampleTable sampleTable = tracks[mainTrackIndex].sampleTable;
       int sampleIndex = getSynchronizationSampleIndex(sampleTable, timeUs);
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
-      if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
+      firstOffset = sampleTable.getOffset(sampleIndex);
+      if (sampleTimeUs < timeUs && sampleIndex < sampleTable.getSampleCount() - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -466,7 +477,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       // Take into account other tracks, but only if the caller has not specified a trackId.
       for (int i = 0; i < tracks.length; i++) {
         if (i != firstVideoTrackIndex) {
-          TrackSampleTable sampleTable = tracks[i].sampleTable;
+          SampleTable sampleTable = tracks[i].sampleTable;
           firstOffset = maybeAdjustSeekOffset(sampleTable, firstTimeUs, firstOffset);
           if (secondTimeUs != C.TIME_UNSET) {
             secondOffset = maybeAdjustSeekOffset(sampleTable, secondTimeUs, secondOffset);
@@ -494,7 +505,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     if (tracks.length <= trackId) {
       return new long[0];
     }
-    return tracks[trackId].sampleTable.timestampsUs;
+    return tracks[trackId].sampleTable.getTimestampsUs();
   }
 
   // Private methods.
@@ -687,15 +698,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
             BoxParser.parseMvhd(checkNotNull(moov.getLeafBoxOfType(Mp4Box.TYPE_mvhd)).data));
 
     boolean ignoreEditLists = (flags & FLAG_WORKAROUND_IGNORE_EDIT_LISTS) != 0;
-    List<TrackSampleTable> trackSampleTables =
-        parseTraks(
-            moov,
-            gaplessInfoHolder,
-            /* duration= */ C.TIME_UNSET,
-            /* drmInitData= */ null,
-            ignoreEditLists,
-            isQuickTime,
-            /* modifyTrackFunction= */ track -> track);
+    List<SampleTable> trackSampleTables =
+        parseSampleTables(moov, gaplessInfoHolder, ignoreEditLists, isQuickTime);
 
     if (readingEditableVideoTracks) {
       checkState(
@@ -709,13 +713,13 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     }
     int trackIndex = 0;
     for (int i = 0; i < trackSampleTables.size(); i++) {
-      TrackSampleTable trackSampleTable = trackSampleTables.get(i);
-      if (trackSampleTable.sampleCount == 0) {
+      SampleTable trackSampleTable = trackSampleTables.get(i);
+      if (trackSampleTable.getSampleCount() == 0) {
         continue;
       }
-      Track track = trackSampleTable.track;
+      Track track = trackSampleTable.getTrack();
       long trackDurationUs =
-          track.durationUs != C.TIME_UNSET ? track.durationUs : trackSampleTable.durationUs;
+          track.durationUs != C.TIME_UNSET ? track.durationUs : trackSampleTable.getDurationUs();
       durationUs = max(durationUs, trackDurationUs);
       Mp4Track mp4Track =
           new Mp4Track(track, trackSampleTable, extractorOutput.track(trackIndex++, track.type));
@@ -723,11 +727,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       int maxInputSize;
       if (MimeTypes.AUDIO_TRUEHD.equals(track.format.sampleMimeType)) {
         // TrueHD groups samples per chunks of TRUEHD_RECHUNK_SAMPLE_COUNT samples.
-        maxInputSize = trackSampleTable.maximumSize * Ac3Util.TRUEHD_RECHUNK_SAMPLE_COUNT;
+        maxInputSize = trackSampleTable.getMaximumSize() * Ac3Util.TRUEHD_RECHUNK_SAMPLE_COUNT;
       } else {
         // Each sample has up to three bytes of overhead for the start code that replaces its
         // length. Allow ten source samples per output sample, like the platform extractor.
-        maxInputSize = trackSampleTable.maximumSize + 3 * 10;
+        maxInputSize = trackSampleTable.getMaximumSize() + 3 * 10;
       }
 
       Format.Builder formatBuilder = track.format.buildUpon();
@@ -740,8 +744,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         }
         if (track.format.frameRate == Format.NO_VALUE
             && trackDurationUs > 0
-            && trackSampleTable.sampleCount > 0) {
-          float frameRate = trackSampleTable.sampleCount / (trackDurationUs / 1000000f);
+            && trackSampleTable.getSampleCount() > 0) {
+          float frameRate = trackSampleTable.getSampleCount() / (trackDurationUs / 1000000f);
           formatBuilder.setFrameRate(frameRate);
         }
         if (readingEditableVideoTracks) {
@@ -769,12 +773,78 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     this.firstVideoTrackIndex = firstVideoTrackIndex;
     this.durationUs = durationUs;
     this.tracks = tracks.toArray(new Mp4Track[0]);
-    accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    boolean hasStreamingSampleTables = false;
+    for (Mp4Track track : this.tracks) {
+      hasStreamingSampleTables |= track.sampleTable instanceof StreamingSampleTable;
+    }
+    // Accumulated sample sizes take memory proportional to the number of samples, which streaming
+    // sample tables avoid.
+    accumulatedSampleSizes =
+        hasStreamingSampleTables ? null : calculateAccumulatedSampleSizes(this.tracks);
 
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
   }
 
+  /**
+   * Parses the sample tables of the tracks in a moov box. If {@link
+   * #FLAG_READ_SAMPLE_TABLES_LAZILY} is set, sample tables are decoded on demand where possible.
+   */
+  private List<SampleTable> parseSampleTables(
+      ContainerBox moov,
+      GaplessInfoHolder gaplessInfoHolder,
+      boolean ignoreEditLists,
+      boolean isQuickTime)
+      throws ParserException {
+    List<SampleTable> sampleTables = new ArrayList<>();
+    if ((flags & FLAG_READ_SAMPLE_TABLES_LAZILY) == 0) {
+      List<TrackSampleTable> trackSampleTables =
+          parseTraks(
+              moov,
+              gaplessInfoHolder,
+              /* duration= */ C.TIME_UNSET,
+              /* drmInitData= */ null,
+              ignoreEditLists,
+              isQuickTime,
+              /* modifyTrackFunction= */ track -> track);
+      for (int i = 0; i < trackSampleTables.size(); i++) {
+        sampleTables.add(new ParsedSampleTable(trackSampleTables.get(i)));
+      }
+      return sampleTables;
+    }
+    Mp4Box.LeafBox mvhd = checkNotNull(moov.getLeafBoxOfType(Mp4Box.TYPE_mvhd));
+    for (int i = 0; i < moov.containerChildren.size(); i++) {
+      ContainerBox trak = moov.containerChildren.get(i);
+      if (trak.type != Mp4Box.TYPE_trak) {
+        continue;
+      }
+      @Nullable
+      Track track =
+          BoxParser.parseTrak(
+              trak,
+              mvhd,
+              /* duration= */ C.TIME_UNSET,
+              /* drmInitData= */ null,
+              ignoreEditLists,
+              isQuickTime);
+      if (track == null) {
+        continue;
+      }
+      ContainerBox stbl =
+          checkNotNull(
+              checkNotNull(
+                      checkNotNull(trak.getContainerBoxOfType(Mp4Box.TYPE_mdia))
+                          .getContainerBoxOfType(Mp4Box.TYPE_minf))
+                  .getContainerBoxOfType(Mp4Box.TYPE_stbl));
+      @Nullable SampleTable sampleTable = StreamingSampleTable.create(track, stbl);
+      if (sampleTable == null) {
+        sampleTable = new ParsedSampleTable(BoxParser.parseStbl(track, stbl, gaplessInfoHolder));
+      }
+      sampleTables.add(sampleTable);
+    }
+    return sampleTables;
+  }
+
   private boolean shouldSeekToEdvdAtom(@Nullable Metadata mdtaMetadata) {
     if (mdtaMetadata == null) {
       return false;
@@ -867,8 +937,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex] + sampleOffsetForEditableVideoTracks;
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position =
+        track.sampleTable.getOffset(sampleIndex) + sampleOffsetForEditableVideoTracks;
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     @Nullable TrueHdSampleRechunker trueHdSampleRechunker = track.trueHdSampleRechunker;
     long skipAmount = position - inputPosition + sampleBytesRead;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
@@ -954,15 +1025,15 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
     }
 
-    long timeUs = track.sampleTable.timestampsUs[sampleIndex];
-    @C.BufferFlags int sampleFlags = track.sampleTable.flags[sampleIndex];
+    long timeUs = track.sampleTable.getTimestampUs(sampleIndex);
+    @C.BufferFlags int sampleFlags = track.sampleTable.getFlags(sampleIndex);
     if (!isSampleDependedOn) {
       sampleFlags |= C.BUFFER_FLAG_NOT_DEPENDED_ON;
     }
     if (trueHdSampleRechunker != null) {
       trueHdSampleRechunker.sampleMetadata(
           trackOutput, timeUs, sampleFlags, sampleSize, /* offset= */ 0, /* cryptoData= */ null);
-      if (sampleIndex + 1 == track.sampleTable.sampleCount) {
+      if (sampleIndex + 1 == track.sampleTable.getSampleCount()) {
         trueHdSampleRechunker.outputPendingSampleMetadata(trackOutput, /* cryptoData= */ null);
       }
     } else {
@@ -1001,14 +1072,17 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     long minAccumulatedBytes = Long.MAX_VALUE;
     boolean minAccumulatedBytesRequiresReload = true;
     int minAccumulatedBytesTrackIndex = C.INDEX_UNSET;
+    @Nullable long[][] accumulatedSampleSizes = this.accumulatedSampleSizes;
     for (int trackIndex = 0; trackIndex < tracks.length; trackIndex++) {
       Mp4Track track = tracks[trackIndex];
       int sampleIndex = track.sampleIndex;
-      if (sampleIndex == track.sampleTable.sampleCount) {
+      if (sampleIndex == track.sampleTable.getSampleCount()) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getOffset(sampleIndex);
+      // Without accumulated sample sizes, samples are read in the order of their offsets.
+      long sampleAccumulatedBytes =
+          accumulatedSampleSizes != null ? accumulatedSampleSizes[trackIndex][sampleIndex] : 0;
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -1033,7 +1107,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
   /** Updates a track's sample index to point its latest sync sample before/at {@code timeUs}. */
   private void updateSampleIndex(Mp4Track track, long timeUs) {
-    TrackSampleTable sampleTable = track.sampleTable;
+    SampleTable sampleTable = track.sampleTable;
     int sampleIndex = sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
     if (sampleIndex == C.INDEX_UNSET) {
       // Handle the case where the requested time is before the first synchronization sample.
@@ -1088,8 +1162,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     long[] nextSampleTimesUs = new long[tracks.length];
     boolean[] tracksFinished = new boolean[tracks.length];
     for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
+      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.getSampleCount()];
+      nextSampleTimesUs[i] = tracks[i].sampleTable.getTimestampUs(0);
     }
     long accumulatedSampleSize = 0;
     int finishedTracks = 0;
@@ -1104,11 +1178,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
       int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
       accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
+      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.getSize(trackSampleIndex);
       nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
       if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
         nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
+            tracks[minTimeTrackIndex].sampleTable.getTimestampUs(trackSampleIndex);
       } else {
         tracksFinished[minTimeTrackIndex] = true;
         finishedTracks++;
@@ -1127,12 +1201,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * @return The adjusted offset.
    */
   private static long maybeAdjustSeekOffset(
-      TrackSampleTable sampleTable, long seekTimeUs, long offset) {
+      SampleTable sampleTable, long seekTimeUs, long offset) {
     int sampleIndex = getSynchronizationSampleIndex(sampleTable, seekTimeUs);
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return min(sampleOffset, offset);
   }
 
@@ -1147,7 +1221,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    *     the first synchronization sample if located after {@code timeUs}, or {@link C#INDEX_UNSET}
    *     if there are no synchronization samples in the table.
    */
-  private static int getSynchronizationSampleIndex(TrackSampleTable sampleTable, long timeUs) {
+  private static int getSynchronizationSampleIndex(SampleTable sampleTable, long timeUs) {
     int sampleIndex = sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
     if (sampleIndex == C.INDEX_UNSET) {
       // Handle the case where the requested time is before the first synchronization sample.
@@ -1224,16 +1298,81 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         || atom == Mp4Box.TYPE_edvd;
   }
 
+  /** A {@link SampleTable} backed by a {@link TrackSampleTable}. */
+  private static final class ParsedSampleTable implements SampleTable {
+
+    private final TrackSampleTable trackSampleTable;
+
+    public ParsedSampleTable(TrackSampleTable trackSampleTable) {
+      this.trackSampleTable = trackSampleTable;
+    }
+
+    @Override
+    public Track getTrack() {
+      return trackSampleTable.track;
+    }
+
+    @Override
+    public int getSampleCount() {
+      return trackSampleTable.sampleCount;
+    }
+
+    @Override
+    public long getOffset(int sampleIndex) {
+      return trackSampleTable.offsets[sampleIndex];
+    }
+
+    @Override
+    public int getSize(int sampleIndex) {
+      return trackSampleTable.sizes[sampleIndex];
+    }
+
+    @Override
+    public long getTimestampUs(int sampleIndex) {
+      return trackSampleTable.timestampsUs[sampleIndex];
+    }
+
+    @Override
+    public @C.BufferFlags int getFlags(int sampleIndex) {
+      return trackSampleTable.flags[sampleIndex];
+    }
+
+    @Override
+    public int getMaximumSize() {
+      return trackSampleTable.maximumSize;
+    }
+
+    @Override
+    public long getDurationUs() {
+      return trackSampleTable.durationUs;
+    }
+
+    @Override
+    public long[] getTimestampsUs() {
+      return trackSampleTable.timestampsUs;
+    }
+
+    @Override
+    public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+      return trackSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
+    }
+
+    @Override
+    public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+      return trackSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
+    }
+  }
+
   private static final class Mp4Track {
 
     public final Track track;
-    public final TrackSampleTable sampleTable;
+    public final SampleTable sampleTable;
     public final TrackOutput trackOutput;
     @Nullable public final TrueHdSampleRechunker trueHdSampleRechunker;
 
     public int sampleIndex;
 
-    public Mp4Track(Track track, TrackSampleTable sampleTable, TrackOutput trackOutput) {
+    public Mp4Track(Track track, SampleTable sampleTable, TrackOutput trackOutput) {
       this.track = track;
       this.sampleTable = sampleTable;
       this.trackOutput = trackOutput;
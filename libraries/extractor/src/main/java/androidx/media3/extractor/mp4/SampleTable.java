@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import androidx.media3.common.C;
+
+/**
+ * Provides random access to the samples of a track in an unfragmented MP4 file.
+ *
+ * <p>Implementations may decode the sample table boxes of the track on demand, so the per-sample
+ * accessors should be preferred over {@link #getTimestampsUs()} where possible.
+ */
+/* package */ interface SampleTable {
+
+  /** Returns the track corresponding to this sample table. */
+  Track getTrack();
+
+  /** Returns the number of samples. */
+  int getSampleCount();
+
+  /** Returns the offset of the sample at {@code sampleIndex}, in bytes. */
+  long getOffset(int sampleIndex);
+
+  /** Returns the size of the sample at {@code sampleIndex}, in bytes. */
+  int getSize(int sampleIndex);
+
+  /** Returns the timestamp of the sample at {@code sampleIndex}, in microseconds. */
+  long getTimestampUs(int sampleIndex);
+
+  /** Returns the flags of the sample at {@code sampleIndex}. */
+  @C.BufferFlags
+  int getFlags(int sampleIndex);
+
+  /** Returns the maximum sample size, in bytes. */
+  int getMaximumSize();
+
+  /** Returns the duration of the sample table, in microseconds. */
+  long getDurationUs();
+
+  /** Returns the timestamps of all samples, in microseconds. */
+  long[] getTimestampsUs();
+
+  /**
+   * Returns the sample index of the closest synchronization sample at or before the given
+   * timestamp, if one is available.
+   *
+   * @param timeUs Timestamp adjacent to which to find a synchronization sample.
+   * @return Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
+   */
+  int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs);
+
+  /**
+   * Returns the sample index of the closest synchronization sample at or after the given timestamp,
+   * if one is available.
+   *
+   * @param timeUs Timestamp adjacent to which to find a synchronization sample.
+   * @return Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
+   */
+  int getIndexOfLaterOrEqualSynchronizationSample(long timeUs);
+}
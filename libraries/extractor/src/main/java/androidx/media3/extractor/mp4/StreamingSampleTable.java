@@ -0,0 +1,563 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.ParserException;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.common.util.Util;
+import androidx.media3.container.Mp4Box;
+import androidx.media3.container.Mp4Box.LeafBox;
+import androidx.media3.extractor.ExtractorUtil;
+import java.util.Arrays;
+
+/**
+ * A {@link SampleTable} that decodes the sample table boxes of a track on demand, rather than
+ * holding the offset, size, timestamp and flags of every sample in memory.
+ *
+ * <p>The boxes are decoded once when the table is created, storing the state of the decoder at the
+ * start of each window of {@link #SAMPLES_PER_WINDOW} samples. Accessing a sample outside the most
+ * recently accessed window decodes its window from the stored state. Synchronization samples are
+ * found by searching the timestamps of the first sample of each window, and then the timestamps of
+ * a single window.
+ *
+ * <p>The table doesn't read from the input on demand. It retains the payloads of the sample table
+ * boxes, which the extractor has already read into memory as part of the moov box, so memory use
+ * is still proportional to the number of samples (typically 4 to 12 bytes per sample, rather than
+ * the roughly 30 bytes per sample of a {@link TrackSampleTable}). Creating the table also decodes
+ * every sample once.
+ *
+ * <p>Methods may be called from any thread.
+ */
+/* package */ final class StreamingSampleTable implements SampleTable {
+
+  private static final String TAG = "StreamingSampleTable";
+
+  /** The number of samples in each window. */
+  @VisibleForTesting /* package */ static final int SAMPLES_PER_WINDOW = 4096;
+
+  /** The position of the first sample size in an stsz box. */
+  private static final int STSZ_ENTRIES_POSITION = Mp4Box.FULL_HEADER_SIZE + 8;
+
+  /**
+   * Returns a sample table that decodes the samples of a track on demand, or null if the samples
+   * should be parsed into a {@link TrackSampleTable} instead.
+   *
+   * <p>Null is returned for tracks with edit lists, tracks whose sample sizes are in an stz2 box,
+   * fixed sample size raw audio tracks, and tracks with at most {@link #SAMPLES_PER_WINDOW}
+   * samples.
+   *
+   * <p>The payloads of the boxes are retained, and all of the samples are decoded once to store the
+   * decoder state at the start of each window.
+   *
+   * @param track Track to which the sample table corresponds.
+   * @param stblBox stbl (sample table) box to decode.
+   * @return The sample table, or null.
+   * @throws ParserException Thrown if the stbl box can't be parsed.
+   */
+  @Nullable
+  public static StreamingSampleTable create(Track track, Mp4Box.ContainerBox stblBox)
+      throws ParserException {
+    if (track.editListDurations != null) {
+      // Edit lists may require samples to be discarded or retimed.
+      return null;
+    }
+    @Nullable LeafBox stszBox = stblBox.getLeafBoxOfType(Mp4Box.TYPE_stsz);
+    if (stszBox == null) {
+      return null;
+    }
+    BoxParser.StszSampleSizeBox sampleSizeBox =
+        new BoxParser.StszSampleSizeBox(stszBox, track.format);
+    int sampleCount = sampleSizeBox.getSampleCount();
+    int fixedSampleSize = sampleSizeBox.getFixedSampleSize();
+    @Nullable String sampleMimeType = track.format.sampleMimeType;
+    if (sampleCount <= SAMPLES_PER_WINDOW
+        || (fixedSampleSize != C.LENGTH_UNSET
+            && (MimeTypes.AUDIO_RAW.equals(sampleMimeType)
+                || MimeTypes.AUDIO_MLAW.equals(sampleMimeType)
+                || MimeTypes.AUDIO_ALAW.equals(sampleMimeType)))) {
+      // Small tables are cheap to hold in memory, and raw audio samples may need rechunking.
+      return null;
+    }
+    return new StreamingSampleTable(track, stblBox, stszBox.data, sampleCount, fixedSampleSize);
+  }
+
+  private final Track track;
+  private final long timescale;
+  private final int fixedSampleSize;
+  private final ParsableByteArray stsz;
+  private final ParsableByteArray chunkOffsets;
+  private final boolean chunkOffsetsAreLongs;
+  private final int chunkCount;
+  private final ParsableByteArray stsc;
+  private final int samplesPerChunkChangeCount;
+  private final ParsableByteArray stts;
+  @Nullable private final ParsableByteArray ctts;
+  @Nullable private final ParsableByteArray stss;
+
+  private final int sampleCount;
+  private final int maximumSize;
+  private final long durationUs;
+
+  /** The decoder state at the start of each window. */
+  private final Decoder[] windowStartDecoders;
+
+  /** The timestamp of the first sample of each window, in microseconds. */
+  private final long[] windowStartTimestampsUs;
+
+  /** The index of the last synchronization sample before each window, or {@link C#INDEX_UNSET}. */
+  private final int[] precedingSyncSampleIndices;
+
+  /**
+   * The index of the first synchronization sample in or after each window, or {@link
+   * C#INDEX_UNSET}.
+   */
+  private final int[] followingSyncSampleIndices;
+
+  private final long[] windowOffsets;
+  private final int[] windowSizes;
+  private final long[] windowTimestampsUs;
+  private final int[] windowFlags;
+  private int windowIndex;
+  private int windowSampleCount;
+
+  private StreamingSampleTable(
+      Track track,
+      Mp4Box.ContainerBox stblBox,
+      ParsableByteArray stsz,
+      int sampleCount,
+      int fixedSampleSize)
+      throws ParserException {
+    if (track.type == C.TRACK_TYPE_VIDEO && track.mediaDurationUs > 0) {
+      float frameRate = sampleCount / (track.mediaDurationUs / 1000000f);
+      Format format = track.format.buildUpon().setFrameRate(frameRate).build();
+      track = track.copyWithFormat(format);
+    }
+    this.track = track;
+    this.timescale = track.timescale;
+    this.stsz = stsz;
+    this.fixedSampleSize = fixedSampleSize;
+
+    @Nullable LeafBox chunkOffsetsBox = stblBox.getLeafBoxOfType(Mp4Box.TYPE_stco);
+    chunkOffsetsAreLongs = chunkOffsetsBox == null;
+    if (chunkOffsetsBox == null) {
+      chunkOffsetsBox = checkNotNull(stblBox.getLeafBoxOfType(Mp4Box.TYPE_co64));
+    }
+    chunkOffsets = chunkOffsetsBox.data;
+    chunkOffsets.setPosition(Mp4Box.FULL_HEADER_SIZE);
+    chunkCount = chunkOffsets.readUnsignedIntToInt();
+    stsc = checkNotNull(stblBox.getLeafBoxOfType(Mp4Box.TYPE_stsc)).data;
+    stsc.setPosition(Mp4Box.FULL_HEADER_SIZE);
+    samplesPerChunkChangeCount = stsc.readUnsignedIntToInt();
+    ExtractorUtil.checkContainerInput(stsc.readInt() == 1, "first_chunk must be 1");
+    stts = checkNotNull(stblBox.getLeafBoxOfType(Mp4Box.TYPE_stts)).data;
+    @Nullable LeafBox cttsBox = stblBox.getLeafBoxOfType(Mp4Box.TYPE_ctts);
+    ctts = cttsBox != null ? cttsBox.data : null;
+    @Nullable LeafBox stssBox = stblBox.getLeafBoxOfType(Mp4Box.TYPE_stss);
+    @Nullable ParsableByteArray stss = stssBox != null ? stssBox.data : null;
+    if (stss != null) {
+      stss.setPosition(Mp4Box.FULL_HEADER_SIZE);
+      if (stss.readUnsignedIntToInt() == 0) {
+        // Ignore empty stss boxes, which causes all samples to be treated as sync samples.
+        stss = null;
+      }
+    }
+    this.stss = stss;
+
+    // Decode all samples once, storing the decoder state at the start of each window.
+    int windowCount = Util.ceilDivide(sampleCount, SAMPLES_PER_WINDOW);
+    Decoder[] windowStartDecoders = new Decoder[windowCount];
+    long[] windowStartTimestampsUs = new long[windowCount];
+    int[] precedingSyncSampleIndices = new int[windowCount];
+    int[] followingSyncSampleIndices = new int[windowCount];
+    Arrays.fill(followingSyncSampleIndices, C.INDEX_UNSET);
+    Decoder decoder = new Decoder();
+    int maximumSize = 0;
+    int lastSyncSampleIndex = C.INDEX_UNSET;
+    int firstWindowIndexWithoutFollowingSyncSample = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      int windowIndex = i / SAMPLES_PER_WINDOW;
+      boolean isWindowStart = i % SAMPLES_PER_WINDOW == 0;
+      if (isWindowStart) {
+        windowStartDecoders[windowIndex] = new Decoder(decoder);
+        precedingSyncSampleIndices[windowIndex] = lastSyncSampleIndex;
+      }
+      if (!decoder.decodeNextSample()) {
+        Log.w(TAG, "Unexpected end of chunk data");
+        sampleCount = i;
+        break;
+      }
+      if (isWindowStart) {
+        windowStartTimestampsUs[windowIndex] = scaleTimestamp(decoder.sampleTimestamp);
+      }
+      maximumSize = max(maximumSize, decoder.sampleSize);
+      if ((decoder.sampleFlags & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        lastSyncSampleIndex = i;
+        while (firstWindowIndexWithoutFollowingSyncSample <= windowIndex) {
+          followingSyncSampleIndices[firstWindowIndexWithoutFollowingSyncSample++] = i;
+        }
+      }
+    }
+    windowCount = Util.ceilDivide(sampleCount, SAMPLES_PER_WINDOW);
+    this.windowStartDecoders = Arrays.copyOf(windowStartDecoders, windowCount);
+    this.windowStartTimestampsUs = Arrays.copyOf(windowStartTimestampsUs, windowCount);
+    this.precedingSyncSampleIndices = Arrays.copyOf(precedingSyncSampleIndices, windowCount);
+    this.followingSyncSampleIndices = Arrays.copyOf(followingSyncSampleIndices, windowCount);
+    this.sampleCount = sampleCount;
+    this.maximumSize = maximumSize;
+    durationUs = scaleTimestamp(decoder.timestampTimeUnits + decoder.timestampOffset);
+
+    windowOffsets = new long[SAMPLES_PER_WINDOW];
+    windowSizes = new int[SAMPLES_PER_WINDOW];
+    windowTimestampsUs = new long[SAMPLES_PER_WINDOW];
+    windowFlags = new int[SAMPLES_PER_WINDOW];
+    windowIndex = C.INDEX_UNSET;
+  }
+
+  @Override
+  public Track getTrack() {
+    return track;
+  }
+
+  @Override
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  @Override
+  public synchronized long getOffset(int sampleIndex) {
+    return windowOffsets[decodeWindowForSample(sampleIndex)];
+  }
+
+  @Override
+  public synchronized int getSize(int sampleIndex) {
+    return windowSizes[decodeWindowForSample(sampleIndex)];
+  }
+
+  @Override
+  public synchronized long getTimestampUs(int sampleIndex) {
+    return windowTimestampsUs[decodeWindowForSample(sampleIndex)];
+  }
+
+  @Override
+  public synchronized @C.BufferFlags int getFlags(int sampleIndex) {
+    return windowFlags[decodeWindowForSample(sampleIndex)];
+  }
+
+  @Override
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  @Override
+  public long getDurationUs() {
+    return durationUs;
+  }
+
+  @Override
+  public synchronized long[] getTimestampsUs() {
+    long[] timestampsUs = new long[sampleCount];
+    for (int i = 0; i < windowStartDecoders.length; i++) {
+      decodeWindow(i);
+      System.arraycopy(
+          windowTimestampsUs, 0, timestampsUs, i * SAMPLES_PER_WINDOW, windowSampleCount);
+    }
+    return timestampsUs;
+  }
+
+  @Override
+  public synchronized int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    // As for TrackSampleTable, this relies on frames not being reordered past synchronization
+    // samples.
+    int windowIndex =
+        Util.binarySearchFloor(
+            windowStartTimestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    if (windowIndex < 0) {
+      return C.INDEX_UNSET;
+    }
+    decodeWindow(windowIndex);
+    int startIndex =
+        Util.binarySearchFloor(
+            windowTimestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    for (int i = startIndex; i >= 0; i--) {
+      if ((windowFlags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return windowIndex * SAMPLES_PER_WINDOW + i;
+      }
+    }
+    return precedingSyncSampleIndices[windowIndex];
+  }
+
+  @Override
+  public synchronized int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    int windowCount = windowStartDecoders.length;
+    if (windowCount == 0) {
+      return C.INDEX_UNSET;
+    }
+    // Find the last window starting at or before timeUs.
+    int windowIndex =
+        Util.binarySearchCeil(
+            windowStartTimestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    if (windowIndex == windowCount || windowStartTimestampsUs[windowIndex] != timeUs) {
+      windowIndex = max(0, windowIndex - 1);
+    }
+    decodeWindow(windowIndex);
+    int startIndex =
+        Util.binarySearchCeil(
+            windowTimestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    for (int i = startIndex; i < windowSampleCount; i++) {
+      if ((windowFlags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return windowIndex * SAMPLES_PER_WINDOW + i;
+      }
+    }
+    return windowIndex + 1 < windowCount
+        ? followingSyncSampleIndices[windowIndex + 1]
+        : C.INDEX_UNSET;
+  }
+
+  /**
+   * Decodes the window containing the sample at {@code sampleIndex}, if it's not already decoded,
+   * and returns the index of the sample in the window.
+   */
+  private int decodeWindowForSample(int sampleIndex) {
+    if (sampleIndex < 0 || sampleIndex >= sampleCount) {
+      throw new IndexOutOfBoundsException();
+    }
+    decodeWindow(sampleIndex / SAMPLES_PER_WINDOW);
+    return sampleIndex % SAMPLES_PER_WINDOW;
+  }
+
+  private void decodeWindow(int windowIndex) {
+    if (windowIndex == this.windowIndex) {
+      return;
+    }
+    Decoder decoder = new Decoder(windowStartDecoders[windowIndex]);
+    int firstSampleIndex = windowIndex * SAMPLES_PER_WINDOW;
+    windowSampleCount = min(SAMPLES_PER_WINDOW, sampleCount - firstSampleIndex);
+    for (int i = 0; i < windowSampleCount; i++) {
+      decoder.decodeNextSample();
+      windowOffsets[i] = decoder.sampleOffset;
+      windowSizes[i] = decoder.sampleSize;
+      windowTimestampsUs[i] = scaleTimestamp(decoder.sampleTimestamp);
+      windowFlags[i] = decoder.sampleFlags;
+    }
+    if (firstSampleIndex + windowSampleCount == sampleCount) {
+      windowFlags[windowSampleCount - 1] |= C.BUFFER_FLAG_LAST_SAMPLE;
+    }
+    // Keep the timestamps sorted beyond the end of a partial window, so that binary searches never
+    // return an index beyond its end unless there's no later sample in the window.
+    Arrays.fill(windowTimestampsUs, windowSampleCount, SAMPLES_PER_WINDOW, Long.MAX_VALUE);
+    this.windowIndex = windowIndex;
+  }
+
+  private long scaleTimestamp(long timestampTimeUnits) {
+    return Util.scaleLargeTimestamp(timestampTimeUnits, C.MICROS_PER_SECOND, timescale);
+  }
+
+  /**
+   * Decodes samples from the sample table boxes in order, in the same way as {@link
+   * BoxParser#parseStbl}.
+   */
+  private final class Decoder {
+
+    private int sampleIndex;
+
+    // Chunk state.
+    private int chunkIndex;
+    private int chunkOffsetsPosition;
+    private int stscPosition;
+    private int remainingSamplesPerChunkChanges;
+    private int nextSamplesPerChunkChangeIndex;
+    private int samplesPerChunk;
+    private int remainingSamplesInChunk;
+    private long offset;
+
+    // Timestamp state.
+    private int sttsPosition;
+    private int remainingTimestampDeltaChanges;
+    private int remainingSamplesAtTimestampDelta;
+    private int timestampDeltaInTimeUnits;
+    private long timestampTimeUnits;
+
+    // Timestamp offset state.
+    private int cttsPosition;
+    private int remainingTimestampOffsetChanges;
+    private int remainingSamplesAtTimestampOffset;
+    private int timestampOffset;
+
+    // Synchronization sample state.
+    private int stssPosition;
+    private int remainingSynchronizationSamples;
+    private int nextSynchronizationSampleIndex;
+
+    // The most recently decoded sample.
+    private long sampleOffset;
+    private int sampleSize;
+    private long sampleTimestamp;
+    private @C.BufferFlags int sampleFlags;
+
+    /** Creates a decoder positioned at the first sample. */
+    public Decoder() {
+      chunkIndex = C.INDEX_UNSET;
+      chunkOffsetsPosition = Mp4Box.FULL_HEADER_SIZE + 4;
+      // Skip the entry count and first_chunk of the first entry.
+      stscPosition = Mp4Box.FULL_HEADER_SIZE + 8;
+      remainingSamplesPerChunkChanges = samplesPerChunkChangeCount;
+
+      stts.setPosition(Mp4Box.FULL_HEADER_SIZE);
+      remainingTimestampDeltaChanges = stts.readUnsignedIntToInt() - 1;
+      remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+      timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
+      sttsPosition = stts.getPosition();
+
+      if (ctts != null) {
+        ctts.setPosition(Mp4Box.FULL_HEADER_SIZE);
+        remainingTimestampOffsetChanges = ctts.readUnsignedIntToInt();
+        cttsPosition = ctts.getPosition();
+      }
+
+      nextSynchronizationSampleIndex = C.INDEX_UNSET;
+      if (stss != null) {
+        stss.setPosition(Mp4Box.FULL_HEADER_SIZE);
+        remainingSynchronizationSamples = stss.readUnsignedIntToInt();
+        nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+        stssPosition = stss.getPosition();
+      }
+    }
+
+    /** Creates a copy of {@code other}. */
+    public Decoder(Decoder other) {
+      sampleIndex = other.sampleIndex;
+      chunkIndex = other.chunkIndex;
+      chunkOffsetsPosition = other.chunkOffsetsPosition;
+      stscPosition = other.stscPosition;
+      remainingSamplesPerChunkChanges = other.remainingSamplesPerChunkChanges;
+      nextSamplesPerChunkChangeIndex = other.nextSamplesPerChunkChangeIndex;
+      samplesPerChunk = other.samplesPerChunk;
+      remainingSamplesInChunk = other.remainingSamplesInChunk;
+      offset = other.offset;
+      sttsPosition = other.sttsPosition;
+      remainingTimestampDeltaChanges = other.remainingTimestampDeltaChanges;
+      remainingSamplesAtTimestampDelta = other.remainingSamplesAtTimestampDelta;
+      timestampDeltaInTimeUnits = other.timestampDeltaInTimeUnits;
+      timestampTimeUnits = other.timestampTimeUnits;
+      cttsPosition = other.cttsPosition;
+      remainingTimestampOffsetChanges = other.remainingTimestampOffsetChanges;
+      remainingSamplesAtTimestampOffset = other.remainingSamplesAtTimestampOffset;
+      timestampOffset = other.timestampOffset;
+      stssPosition = other.stssPosition;
+      remainingSynchronizationSamples = other.remainingSynchronizationSamples;
+      nextSynchronizationSampleIndex = other.nextSynchronizationSampleIndex;
+    }
+
+    /**
+     * Decodes the next sample.
+     *
+     * @return Whether the sample was decoded, or false if the chunk data ended unexpectedly.
+     */
+    public boolean decodeNextSample() {
+      // Advance to the next chunk if necessary.
+      while (remainingSamplesInChunk == 0) {
+        if (!moveToNextChunk()) {
+          return false;
+        }
+      }
+
+      // Add on the timestamp offset if ctts is present.
+      if (ctts != null) {
+        while (remainingSamplesAtTimestampOffset == 0 && remainingTimestampOffsetChanges > 0) {
+          ctts.setPosition(cttsPosition);
+          remainingSamplesAtTimestampOffset = ctts.readUnsignedIntToInt();
+          timestampOffset = ctts.readInt();
+          cttsPosition = ctts.getPosition();
+          remainingTimestampOffsetChanges--;
+        }
+        remainingSamplesAtTimestampOffset--;
+      }
+
+      sampleOffset = offset;
+      if (fixedSampleSize != C.LENGTH_UNSET) {
+        sampleSize = fixedSampleSize;
+      } else {
+        stsz.setPosition(STSZ_ENTRIES_POSITION + 4 * sampleIndex);
+        sampleSize = stsz.readUnsignedIntToInt();
+      }
+      sampleTimestamp = timestampTimeUnits + timestampOffset;
+
+      // All samples are synchronization samples if the stss is not present.
+      sampleFlags = stss == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      if (sampleIndex == nextSynchronizationSampleIndex) {
+        sampleFlags = C.BUFFER_FLAG_KEY_FRAME;
+        remainingSynchronizationSamples--;
+        if (remainingSynchronizationSamples > 0) {
+          ParsableByteArray stss = checkNotNull(StreamingSampleTable.this.stss);
+          stss.setPosition(stssPosition);
+          nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+          stssPosition = stss.getPosition();
+        }
+      }
+
+      // Add on the duration of this sample.
+      timestampTimeUnits += timestampDeltaInTimeUnits;
+      remainingSamplesAtTimestampDelta--;
+      if (remainingSamplesAtTimestampDelta == 0 && remainingTimestampDeltaChanges > 0) {
+        stts.setPosition(sttsPosition);
+        remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+        // Sample deltas are decoded as signed integers, as in BoxParser.parseStbl.
+        timestampDeltaInTimeUnits = stts.readInt();
+        sttsPosition = stts.getPosition();
+        remainingTimestampDeltaChanges--;
+      }
+
+      offset += sampleSize;
+      remainingSamplesInChunk--;
+      sampleIndex++;
+      return true;
+    }
+
+    private boolean moveToNextChunk() {
+      if (++chunkIndex == chunkCount) {
+        return false;
+      }
+      chunkOffsets.setPosition(chunkOffsetsPosition);
+      offset =
+          chunkOffsetsAreLongs
+              ? chunkOffsets.readUnsignedLongToLong()
+              : chunkOffsets.readUnsignedInt();
+      chunkOffsetsPosition = chunkOffsets.getPosition();
+      if (chunkIndex == nextSamplesPerChunkChangeIndex) {
+        stsc.setPosition(stscPosition);
+        samplesPerChunk = stsc.readUnsignedIntToInt();
+        stsc.skipBytes(4); // Skip sample_description_index
+        nextSamplesPerChunkChangeIndex =
+            --remainingSamplesPerChunkChanges > 0
+                ? (stsc.readUnsignedIntToInt() - 1)
+                : C.INDEX_UNSET;
+        stscPosition = stsc.getPosition();
+      }
+      remainingSamplesInChunk = samplesPerChunk;
+      return true;
+    }
+  }
+}
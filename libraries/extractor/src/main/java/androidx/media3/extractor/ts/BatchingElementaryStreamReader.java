@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.ts;
+
+import static java.lang.Math.max;
+
+import androidx.media3.common.ParserException;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.extractor.ExtractorOutput;
+import java.util.Arrays;
+
+/**
+ * An {@link ElementaryStreamReader} that records the calls to it in a batch, so that they can be
+ * passed to the wrapped reader later, possibly on another thread.
+ *
+ * <p>{@link #createTracks(ExtractorOutput, PesReader.TrackIdGenerator)} is passed to the wrapped
+ * reader immediately. All other calls are passed in order by {@link #consumeBatch()}. The batch
+ * must not be modified while it's being consumed.
+ */
+/* package */ final class BatchingElementaryStreamReader implements ElementaryStreamReader {
+
+  private static final int COMMAND_SEEK = 0;
+  private static final int COMMAND_PACKET_STARTED = 1;
+  private static final int COMMAND_CONSUME = 2;
+  private static final int COMMAND_PACKET_FINISHED = 3;
+
+  private static final int INITIAL_COMMAND_CAPACITY = 64;
+  private static final int INITIAL_DATA_CAPACITY = 16 * TsExtractor.TS_PACKET_SIZE;
+
+  private final ElementaryStreamReader reader;
+  private final int worker;
+  private final ParsableByteArray batchData;
+
+  // For each command, its type and arguments. For COMMAND_PACKET_STARTED the arguments are the
+  // packet time and flags, for COMMAND_CONSUME the offset and length of the data, and for
+  // COMMAND_PACKET_FINISHED whether it's the end of input.
+  private int[] commandTypes;
+  private long[] commandLongArguments;
+  private int[] commandIntArguments;
+  private int commandCount;
+  private byte[] pendingData;
+  private int pendingDataLength;
+
+  /**
+   * Creates an instance.
+   *
+   * @param reader The wrapped {@link ElementaryStreamReader}.
+   * @param worker The index of the worker that consumes the batches of the reader.
+   */
+  public BatchingElementaryStreamReader(ElementaryStreamReader reader, int worker) {
+    this.reader = reader;
+    this.worker = worker;
+    batchData = new ParsableByteArray();
+    commandTypes = new int[INITIAL_COMMAND_CAPACITY];
+    commandLongArguments = new long[INITIAL_COMMAND_CAPACITY];
+    commandIntArguments = new int[INITIAL_COMMAND_CAPACITY];
+    pendingData = new byte[INITIAL_DATA_CAPACITY];
+  }
+
+  /** Returns the wrapped {@link ElementaryStreamReader}. */
+  public ElementaryStreamReader getReader() {
+    return reader;
+  }
+
+  /** Returns the index of the worker that consumes the batches of the reader. */
+  public int getWorker() {
+    return worker;
+  }
+
+  /** Returns whether there are recorded calls that haven't been consumed. */
+  public boolean hasBatch() {
+    return commandCount > 0;
+  }
+
+  /**
+   * Passes the recorded calls to the wrapped reader, and clears the batch.
+   *
+   * @throws ParserException If the wrapped reader fails to parse the data. The rest of the batch is
+   *     discarded in this case.
+   */
+  public void consumeBatch() throws ParserException {
+    try {
+      for (int i = 0; i < commandCount; i++) {
+        switch (commandTypes[i]) {
+          case COMMAND_SEEK:
+            reader.seek();
+            break;
+          case COMMAND_PACKET_STARTED:
+            reader.packetStarted(commandLongArguments[i], commandIntArguments[i]);
+            break;
+          case COMMAND_CONSUME:
+            int offset = (int) commandLongArguments[i];
+            batchData.reset(pendingData, /* limit= */ offset + commandIntArguments[i]);
+            batchData.setPosition(offset);
+            reader.consume(batchData);
+            break;
+          case COMMAND_PACKET_FINISHED:
+            reader.packetFinished(/* isEndOfInput= */ commandIntArguments[i] != 0);
+            break;
+          default:
+            throw new IllegalStateException();
+        }
+      }
+    } finally {
+      commandCount = 0;
+      pendingDataLength = 0;
+    }
+  }
+
+  // ElementaryStreamReader implementation.
+
+  @Override
+  public void seek() {
+    addCommand(COMMAND_SEEK, /* longArgument= */ 0, /* intArgument= */ 0);
+  }
+
+  @Override
+  public void createTracks(
+      ExtractorOutput extractorOutput, PesReader.TrackIdGenerator idGenerator) {
+    reader.createTracks(extractorOutput, idGenerator);
+  }
+
+  @Override
+  public void packetStarted(long pesTimeUs, @TsPayloadReader.Flags int flags) {
+    addCommand(COMMAND_PACKET_STARTED, pesTimeUs, flags);
+  }
+
+  @Override
+  public void consume(ParsableByteArray data) {
+    int length = data.bytesLeft();
+    int requiredCapacity = pendingDataLength + length;
+    if (requiredCapacity > pendingData.length) {
+      pendingData = Arrays.copyOf(pendingData, max(pendingData.length * 2, requiredCapacity));
+    }
+    data.readBytes(pendingData, pendingDataLength, length);
+    addCommand(COMMAND_CONSUME, pendingDataLength, length);
+    pendingDataLength += length;
+  }
+
+  @Override
+  public void packetFinished(boolean isEndOfInput) {
+    addCommand(COMMAND_PACKET_FINISHED, /* longArgument= */ 0, isEndOfInput ? 1 : 0);
+  }
+
+  // Internals.
+
+  private void addCommand(int type, long longArgument, int intArgument) {
+    if (commandCount == commandTypes.length) {
+      int newCapacity = commandCount * 2;
+      commandTypes = Arrays.copyOf(commandTypes, newCapacity);
+      commandLongArguments = Arrays.copyOf(commandLongArguments, newCapacity);
+      commandIntArguments = Arrays.copyOf(commandIntArguments, newCapacity);
+    }
+    commandTypes[commandCount] = type;
+    commandLongArguments[commandCount] = longArgument;
+    commandIntArguments[commandCount] = intArgument;
+    commandCount++;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.ts;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.ParserException;
+import androidx.media3.common.util.NullableType;
+import androidx.media3.common.util.Util;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Consumes the payloads of elementary streams on multiple worker threads.
+ *
+ * <p>The {@link ElementaryStreamReader} of each {@link PesReader} passed to {@link
+ * #createPesReader(PesReader)} is wrapped in a {@link BatchingElementaryStreamReader}, so that PES
+ * headers, and so timestamp adjustment, are still parsed in stream order on the calling thread,
+ * while the payloads are recorded. {@link #consumeBatches()} passes the recorded payloads to the
+ * wrapped readers, the readers being distributed over the workers. As each {@link
+ * androidx.media3.extractor.TrackOutput} is written by a single reader, the order of the samples
+ * of each track is preserved.
+ *
+ * <p>The calling thread is one of the workers, and the other workers are only active during calls
+ * to {@link #consumeBatches()}.
+ */
+/* package */ final class ParallelDemuxer {
+
+  /** The maximum number of workers, including the calling thread. */
+  public static final int MAX_WORKER_COUNT = 4;
+
+  private static final String WORKER_THREAD_NAME = "ExoPlayer:TsDemuxerWorker";
+
+  private final int workerCount;
+  private final List<BatchingElementaryStreamReader> readers;
+  private final List<Future<?>> pendingFutures;
+
+  // Executors of the workers other than the calling thread, created when first needed.
+  private final @NullableType ExecutorService[] workerExecutors;
+
+  /**
+   * Creates an instance.
+   *
+   * @param workerCount The number of workers, including the calling thread.
+   */
+  public ParallelDemuxer(int workerCount) {
+    checkArgument(workerCount > 0);
+    this.workerCount = workerCount;
+    readers = new ArrayList<>();
+    pendingFutures = new ArrayList<>();
+    workerExecutors = new ExecutorService[workerCount - 1];
+  }
+
+  /** Returns the number of workers to use on this device, including the calling thread. */
+  public static int getDefaultWorkerCount() {
+    return min(Runtime.getRuntime().availableProcessors(), MAX_WORKER_COUNT);
+  }
+
+  /**
+   * Returns a {@link PesReader} that parses PES headers like {@code pesReader}, and whose payloads
+   * are consumed by {@link #consumeBatches()}.
+   */
+  public PesReader createPesReader(PesReader pesReader) {
+    BatchingElementaryStreamReader reader =
+        new BatchingElementaryStreamReader(
+            pesReader.getElementaryStreamReader(), /* worker= */ readers.size() % workerCount);
+    readers.add(reader);
+    return new PesReader(reader);
+  }
+
+  /**
+   * Passes all recorded payloads to the wrapped readers, and returns once they're consumed.
+   *
+   * @throws ParserException If a reader fails to parse its payload.
+   */
+  public void consumeBatches() throws ParserException {
+    for (int worker = 1; worker < workerCount; worker++) {
+      if (hasBatches(worker)) {
+        int finalWorker = worker;
+        pendingFutures.add(
+            getWorkerExecutor(worker)
+                .submit(
+                    () -> {
+                      consumeBatches(finalWorker);
+                      return null;
+                    }));
+      }
+    }
+    @Nullable Throwable error = null;
+    try {
+      consumeBatches(/* worker= */ 0);
+    } catch (ParserException | RuntimeException e) {
+      error = e;
+    }
+    // Wait for all workers even if one of them failed, so that no track output is written after
+    // this method returns.
+    for (int i = 0; i < pendingFutures.size(); i++) {
+      try {
+        Uninterruptibles.getUninterruptibly(pendingFutures.get(i));
+      } catch (ExecutionException e) {
+        if (error == null) {
+          error = e.getCause();
+        }
+      }
+    }
+    pendingFutures.clear();
+    if (error instanceof ParserException) {
+      throw (ParserException) error;
+    } else if (error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    } else if (error instanceof Error) {
+      throw (Error) error;
+    } else if (error != null) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /** Releases the worker threads. */
+  public void release() {
+    for (int i = 0; i < workerExecutors.length; i++) {
+      @Nullable ExecutorService workerExecutor = workerExecutors[i];
+      if (workerExecutor != null) {
+        workerExecutor.shutdown();
+        workerExecutors[i] = null;
+      }
+    }
+  }
+
+  // Internals.
+
+  private boolean hasBatches(int worker) {
+    for (int i = 0; i < readers.size(); i++) {
+      BatchingElementaryStreamReader reader = readers.get(i);
+      if (reader.getWorker() == worker && reader.hasBatch()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void consumeBatches(int worker) throws ParserException {
+    for (int i = 0; i < readers.size(); i++) {
+      BatchingElementaryStreamReader reader = readers.get(i);
+      if (reader.getWorker() == worker && reader.hasBatch()) {
+        reader.consumeBatch();
+      }
+    }
+  }
+
+  private ExecutorService getWorkerExecutor(int worker) {
+    @Nullable ExecutorService workerExecutor = workerExecutors[worker - 1];
+    if (workerExecutor == null) {
+      workerExecutor = Util.newSingleThreadExecutor(WORKER_THREAD_NAME);
+      workerExecutors[worker - 1] = workerExecutor;
+    }
+    return workerExecutor;
+  }
+}
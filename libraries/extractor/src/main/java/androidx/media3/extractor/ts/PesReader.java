@@ -171,9 +171,18 @@ public final class PesReader implements TsPayloadReader {
     // pes does not have a length field and body is being read, another exclusion
     // is due to H262 streams possibly having, in HLS mode, a pes across more than one segment
     // which would trigger committing an unfinished sample in the middle of the access unit
+    ElementaryStreamReader elementaryStreamReader =
+        reader instanceof BatchingElementaryStreamReader
+            ? ((BatchingElementaryStreamReader) reader).getReader()
+            : reader;
     return state == STATE_READING_BODY
         && payloadSize == C.LENGTH_UNSET
-        && !(isModeHls && reader instanceof H262Reader);
+        && !(isModeHls && elementaryStreamReader instanceof H262Reader);
+  }
+
+  /** Returns the {@link ElementaryStreamReader} to which the PES payloads are passed. */
+  /* package */ ElementaryStreamReader getElementaryStreamReader() {
+    return reader;
   }
 
   private void setState(int state) {
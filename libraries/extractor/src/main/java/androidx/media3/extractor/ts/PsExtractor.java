@@ -29,15 +29,23 @@ import androidx.media3.extractor.ExtractorInput;
 import androidx.media3.extractor.ExtractorOutput;
 import androidx.media3.extractor.ExtractorsFactory;
 import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekIndex;
+import androidx.media3.extractor.SeekIndexConsumer;
 import androidx.media3.extractor.SeekMap;
 import androidx.media3.extractor.ts.TsPayloadReader.TrackIdGenerator;
 import java.io.IOException;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 
-/** Extracts data from the MPEG-2 PS container format. */
+/**
+ * Extracts data from the MPEG-2 PS container format.
+ *
+ * <p>If a {@link SeekIndex} is {@link #setSeekIndex(SeekIndex) set}, seeks to times it covers don't
+ * search the stream, and if it covers the whole stream the duration isn't read from the end of the
+ * stream.
+ */
 @UnstableApi
-public final class PsExtractor implements Extractor {
+public final class PsExtractor implements Extractor, SeekIndexConsumer {
 
   /** Factory for {@link PsExtractor} instances. */
   public static final ExtractorsFactory FACTORY = () -> new Extractor[] {new PsExtractor()};
@@ -72,6 +80,7 @@ public final class PsExtractor implements Extractor {
 
   // Accessed only by the loading thread.
   @Nullable private PsBinarySearchSeeker psBinarySearchSeeker;
+  @Nullable private SeekIndex seekIndex;
   private @MonotonicNonNull ExtractorOutput output;
   private boolean hasOutputSeekMap;
 
@@ -154,7 +163,11 @@ public final class PsExtractor implements Extractor {
               && adjusterFirstSampleTimestampUs != timeUs;
     }
     if (resetTimestampAdjuster) {
-      timestampAdjuster.reset(timeUs);
+      // If the seek index covers the seek time, extraction continues from the key frame before it.
+      timestampAdjuster.reset(
+          seekIndex != null && seekIndex.covers(timeUs)
+              ? seekIndex.getSeekPoint(timeUs).timeUs
+              : timeUs);
     }
 
     if (psBinarySearchSeeker != null) {
@@ -175,7 +188,8 @@ public final class PsExtractor implements Extractor {
     Assertions.checkStateNotNull(output); // Asserts init has been called.
 
     long inputLength = input.getLength();
-    boolean canReadDuration = inputLength != C.LENGTH_UNSET;
+    boolean canReadDuration =
+        inputLength != C.LENGTH_UNSET && (seekIndex == null || !seekIndex.isComplete());
     if (canReadDuration && !durationReader.isDurationReadFinished()) {
       return durationReader.readDuration(input, seekPosition);
     }
@@ -289,18 +303,34 @@ public final class PsExtractor implements Extractor {
     return RESULT_CONTINUE;
   }
 
+  // SeekIndexConsumer implementation.
+
+  @Override
+  public void setSeekIndex(SeekIndex seekIndex) {
+    this.seekIndex = seekIndex;
+  }
+
+  @Override
+  public int getMaxBufferedInputBytes() {
+    // Each read outputs the sample data of the packet at the start of the read.
+    return 0;
+  }
+
   // Internals.
 
   @RequiresNonNull("output")
   private void maybeOutputSeekMap(long inputLength) {
     if (!hasOutputSeekMap) {
       hasOutputSeekMap = true;
-      if (durationReader.getDurationUs() != C.TIME_UNSET) {
+      if (seekIndex != null && seekIndex.isComplete()) {
+        output.seekMap(seekIndex.toSeekMap());
+      } else if (durationReader.getDurationUs() != C.TIME_UNSET) {
         psBinarySearchSeeker =
             new PsBinarySearchSeeker(
                 durationReader.getScrTimestampAdjuster(),
                 durationReader.getDurationUs(),
                 inputLength);
+        psBinarySearchSeeker.setSeekIndex(seekIndex);
         output.seekMap(psBinarySearchSeeker.getSeekMap());
       } else {
         output.seekMap(new SeekMap.Unseekable(durationReader.getDurationUs()));
@@ -39,6 +39,8 @@ import androidx.media3.extractor.ExtractorInput;
 import androidx.media3.extractor.ExtractorOutput;
 import androidx.media3.extractor.ExtractorsFactory;
 import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekIndex;
+import androidx.media3.extractor.SeekIndexConsumer;
 import androidx.media3.extractor.SeekMap;
 import androidx.media3.extractor.TrackOutput;
 import androidx.media3.extractor.text.SubtitleParser;
@@ -57,9 +59,15 @@ import java.util.Collections;
 import java.util.List;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
-/** Extracts data from the MPEG-2 TS container format. */
+/**
+ * Extracts data from the MPEG-2 TS container format.
+ *
+ * <p>If a {@link SeekIndex} is {@link #setSeekIndex(SeekIndex) set}, seeks to times it covers don't
+ * search the stream, and if it covers the whole stream the duration isn't read from the end of the
+ * stream.
+ */
 @UnstableApi
-public final class TsExtractor implements Extractor {
+public final class TsExtractor implements Extractor, SeekIndexConsumer {
 
   /**
    * Creates a factory for {@link TsExtractor} instances with the provided {@link
@@ -92,15 +100,15 @@ public final class TsExtractor implements Extractor {
   public static final int MODE_HLS = 2;
 
   /**
-   * Flags controlling the behavior of the extractor. Possible flag value is {@link
-   * #FLAG_EMIT_RAW_SUBTITLE_DATA}.
+   * Flags controlling the behavior of the extractor. Possible flag values are {@link
+   * #FLAG_EMIT_RAW_SUBTITLE_DATA} and {@link #FLAG_ENABLE_PARALLEL_DEMUXING}.
    */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
   @Target(TYPE_USE)
   @IntDef(
       flag = true,
-      value = {FLAG_EMIT_RAW_SUBTITLE_DATA})
+      value = {FLAG_EMIT_RAW_SUBTITLE_DATA, FLAG_ENABLE_PARALLEL_DEMUXING})
   public @interface Flags {}
 
   /**
@@ -109,6 +117,18 @@ public final class TsExtractor implements Extractor {
    */
   public static final int FLAG_EMIT_RAW_SUBTITLE_DATA = 1;
 
+  /**
+   * Flag to consume the payloads of the elementary streams on multiple threads, which can increase
+   * the throughput when extracting streams with many high bitrate tracks, such as multi-program
+   * broadcast streams.
+   *
+   * <p>PES headers are still parsed, and their timestamps adjusted, in stream order on the loading
+   * thread, and the samples of each track are output in order. Sample data may be output to the
+   * {@link TrackOutput}s from other threads, but only during calls to {@link #read(ExtractorInput,
+   * PositionHolder)}.
+   */
+  public static final int FLAG_ENABLE_PARALLEL_DEMUXING = 1 << 1;
+
   /**
    * @deprecated Use {@link #newFactory(SubtitleParser.Factory)} instead.
    */
@@ -157,6 +177,7 @@ public final class TsExtractor implements Extractor {
   private static final long HEVC_FORMAT_IDENTIFIER = 0x48455643;
 
   private static final int BUFFER_SIZE = TS_PACKET_SIZE * 50;
+  private static final int PARALLEL_DEMUXING_BUFFER_SIZE = TS_PACKET_SIZE * 1000;
   private static final int SNIFF_TS_PACKET_COUNT = 5;
 
   private final @Mode int mode;
@@ -171,9 +192,11 @@ public final class TsExtractor implements Extractor {
   private final SparseBooleanArray trackIds;
   private final SparseBooleanArray trackPids;
   private final TsDurationReader durationReader;
+  @Nullable private final ParallelDemuxer parallelDemuxer;
 
   // Accessed only by the loading thread.
   private @MonotonicNonNull TsBinarySearchSeeker tsBinarySearchSeeker;
+  @Nullable private SeekIndex seekIndex;
   private ExtractorOutput output;
   private int remainingPmts;
   private boolean tracksEnded;
@@ -337,7 +360,13 @@ public final class TsExtractor implements Extractor {
       timestampAdjusters = new ArrayList<>();
       timestampAdjusters.add(timestampAdjuster);
     }
-    tsPacketBuffer = new ParsableByteArray(new byte[BUFFER_SIZE], 0);
+    if ((extractorFlags & FLAG_ENABLE_PARALLEL_DEMUXING) != 0) {
+      parallelDemuxer = new ParallelDemuxer(ParallelDemuxer.getDefaultWorkerCount());
+      tsPacketBuffer = new ParsableByteArray(new byte[PARALLEL_DEMUXING_BUFFER_SIZE], 0);
+    } else {
+      parallelDemuxer = null;
+      tsPacketBuffer = new ParsableByteArray(new byte[BUFFER_SIZE], 0);
+    }
     trackIds = new SparseBooleanArray();
     trackPids = new SparseBooleanArray();
     tsPayloadReaders = new SparseArray<>();
@@ -402,7 +431,12 @@ public final class TsExtractor implements Extractor {
                 && adjusterFirstSampleTimestampUs != timeUs;
       }
       if (resetTimestampAdjuster) {
-        timestampAdjuster.reset(timeUs);
+        // If the seek index covers the seek time, extraction continues from the key frame before
+        // it.
+        timestampAdjuster.reset(
+            seekIndex != null && seekIndex.covers(timeUs)
+                ? seekIndex.getSeekPoint(timeUs).timeUs
+                : timeUs);
       }
     }
     if (timeUs != 0 && tsBinarySearchSeeker != null) {
@@ -418,7 +452,9 @@ public final class TsExtractor implements Extractor {
 
   @Override
   public void release() {
-    // Do nothing
+    if (parallelDemuxer != null) {
+      parallelDemuxer.release();
+    }
   }
 
   @Override
@@ -427,7 +463,10 @@ public final class TsExtractor implements Extractor {
     long inputLength = input.getLength();
     boolean isModeHls = mode == MODE_HLS;
     if (tracksEnded) {
-      boolean canReadDuration = inputLength != C.LENGTH_UNSET && !isModeHls;
+      boolean canReadDuration =
+          inputLength != C.LENGTH_UNSET
+              && !isModeHls
+              && (seekIndex == null || !seekIndex.isComplete());
       if (canReadDuration && !durationReader.isDurationReadFinished()) {
         return durationReader.readDuration(input, seekPosition, pcrPid);
       }
@@ -458,13 +497,54 @@ public final class TsExtractor implements Extractor {
           }
         }
       }
+      if (parallelDemuxer != null) {
+        parallelDemuxer.consumeBatches();
+      }
       return RESULT_END_OF_INPUT;
     }
 
+    if (parallelDemuxer == null) {
+      readPacket(inputLength);
+      return RESULT_CONTINUE;
+    }
+    // Read all packets in the buffer, and consume their payloads in parallel. Stop early if the
+    // tracks end, so that the state at the start of the next read is handled as in serial mode.
+    boolean wereTracksEnded = tracksEnded;
+    boolean readPacket;
+    do {
+      readPacket = readPacket(inputLength);
+    } while (readPacket && !pendingSeekToStart && tracksEnded == wereTracksEnded);
+    parallelDemuxer.consumeBatches();
+    return RESULT_CONTINUE;
+  }
+
+  // SeekIndexConsumer implementation.
+
+  @Override
+  public void setSeekIndex(SeekIndex seekIndex) {
+    Assertions.checkState(mode != MODE_HLS);
+    this.seekIndex = seekIndex;
+  }
+
+  @Override
+  public int getMaxBufferedInputBytes() {
+    return tsPacketBuffer.capacity();
+  }
+
+  // Internals.
+
+  /**
+   * Reads the first TS packet in the packet buffer.
+   *
+   * @param inputLength The length of the input, or {@link C#LENGTH_UNSET} if it's unknown.
+   * @return Whether a packet was read, or false if there is no complete packet in the buffer.
+   * @throws ParserException If an error occurs parsing the packet.
+   */
+  private boolean readPacket(long inputLength) throws ParserException {
     int endOfPacket = findEndOfFirstTsPacketInBuffer();
     int limit = tsPacketBuffer.limit();
     if (endOfPacket > limit) {
-      return RESULT_CONTINUE;
+      return false;
     }
 
     @TsPayloadReader.Flags int packetHeaderFlags = 0;
@@ -474,7 +554,7 @@ public final class TsExtractor implements Extractor {
     if ((tsPacketHeader & 0x800000) != 0) { // transport_error_indicator
       // There are uncorrectable errors in this packet.
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return true;
     }
     packetHeaderFlags |= (tsPacketHeader & 0x400000) != 0 ? FLAG_PAYLOAD_UNIT_START_INDICATOR : 0;
     // Ignoring transport_priority (tsPacketHeader & 0x200000)
@@ -486,7 +566,7 @@ public final class TsExtractor implements Extractor {
     TsPayloadReader payloadReader = payloadExists ? tsPayloadReaders.get(pid) : null;
     if (payloadReader == null) {
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return true;
     }
 
     // Discontinuity check.
@@ -497,7 +577,7 @@ public final class TsExtractor implements Extractor {
       if (previousCounter == continuityCounter) {
         // Duplicate packet found.
         tsPacketBuffer.setPosition(endOfPacket);
-        return RESULT_CONTINUE;
+        return true;
       } else if (continuityCounter != ((previousCounter + 1) & 0xF)) {
         // Discontinuity found.
         payloadReader.seek();
@@ -531,15 +611,15 @@ public final class TsExtractor implements Extractor {
     }
 
     tsPacketBuffer.setPosition(endOfPacket);
-    return RESULT_CONTINUE;
+    return true;
   }
 
-  // Internals.
-
   private void maybeOutputSeekMap(long inputLength) {
     if (!hasOutputSeekMap) {
       hasOutputSeekMap = true;
-      if (durationReader.getDurationUs() != C.TIME_UNSET) {
+      if (seekIndex != null && seekIndex.isComplete()) {
+        output.seekMap(seekIndex.toSeekMap());
+      } else if (durationReader.getDurationUs() != C.TIME_UNSET) {
         tsBinarySearchSeeker =
             new TsBinarySearchSeeker(
                 durationReader.getPcrTimestampAdjuster(),
@@ -547,6 +627,7 @@ public final class TsExtractor implements Extractor {
                 inputLength,
                 pcrPid,
                 timestampSearchBytes);
+        tsBinarySearchSeeker.setSeekIndex(seekIndex);
         output.seekMap(tsBinarySearchSeeker.getSeekMap());
       } else {
         output.seekMap(new SeekMap.Unseekable(durationReader.getDurationUs()));
@@ -556,18 +637,22 @@ public final class TsExtractor implements Extractor {
 
   private boolean fillBufferWithAtLeastOnePacket(ExtractorInput input) throws IOException {
     byte[] data = tsPacketBuffer.getData();
-    // Shift bytes to the start of the buffer if there isn't enough space left at the end.
-    if (BUFFER_SIZE - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
+    // Shift bytes to the start of the buffer if there isn't enough space left at the end. When
+    // demuxing in parallel, always do so, so that each read can fill a large part of the buffer.
+    if (data.length - tsPacketBuffer.getPosition() < TS_PACKET_SIZE
+        || (parallelDemuxer != null && tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE)) {
       int bytesLeft = tsPacketBuffer.bytesLeft();
       if (bytesLeft > 0) {
         System.arraycopy(data, tsPacketBuffer.getPosition(), data, 0, bytesLeft);
       }
       tsPacketBuffer.reset(data, bytesLeft);
     }
-    // Read more bytes until we have at least one packet.
+    // Read more bytes until we have at least one packet. When demuxing in parallel, the payloads
+    // of the packets returned by these reads are consumed as one batch. The buffer isn't filled any
+    // further, so as not to block on the input while there are packets to consume.
     while (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE) {
       int limit = tsPacketBuffer.limit();
-      int read = input.read(data, limit, BUFFER_SIZE - limit);
+      int read = input.read(data, limit, data.length - limit);
       if (read == C.RESULT_END_OF_INPUT) {
         return false;
       }
@@ -610,6 +695,16 @@ public final class TsExtractor implements Extractor {
         || !trackPids.get(packetPid, /* valueIfKeyNotFound= */ false); // It's a PSI packet
   }
 
+  /**
+   * Returns a reader whose payloads are consumed in parallel if parallel demuxing is enabled and
+   * {@code reader} is a {@link PesReader}, or {@code reader} otherwise.
+   */
+  private TsPayloadReader maybeDemuxInParallel(TsPayloadReader reader) {
+    return parallelDemuxer != null && reader instanceof PesReader
+        ? parallelDemuxer.createPesReader((PesReader) reader)
+        : reader;
+  }
+
   private void resetPayloadReaders() {
     trackIds.clear();
     tsPayloadReaders.clear();
@@ -766,6 +861,7 @@ public final class TsExtractor implements Extractor {
             new EsInfo(TS_STREAM_TYPE_ID3, null, AUDIO_TYPE_UNDEFINED, null, Util.EMPTY_BYTE_ARRAY);
         id3Reader = payloadReaderFactory.createPayloadReader(TS_STREAM_TYPE_ID3, id3EsInfo);
         if (id3Reader != null) {
+          id3Reader = maybeDemuxInParallel(id3Reader);
           id3Reader.init(
               timestampAdjuster,
               output,
@@ -815,6 +911,7 @@ public final class TsExtractor implements Extractor {
         @Nullable TsPayloadReader reader = trackIdToReaderScratch.valueAt(i);
         if (reader != null) {
           if (reader != id3Reader) {
+            reader = maybeDemuxInParallel(reader);
             reader.init(
                 timestampAdjuster,
                 output,
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.test.utils.FakeExtractorOutput;
+import androidx.media3.test.utils.FakeTrackOutput;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SeekIndexRecorder}. */
+@RunWith(AndroidJUnit4.class)
+public final class SeekIndexRecorderTest {
+
+  @Test
+  public void getSeekIndex_recordsReadStartPositionOfKeyFrames() {
+    FakeExtractorOutput extractorOutput = new FakeExtractorOutput();
+    SeekIndexRecorder seekIndexRecorder =
+        new SeekIndexRecorder(extractorOutput, /* maxBufferedInputBytes= */ 5);
+    TrackOutput trackOutput = createTrack(seekIndexRecorder, /* id= */ 0, C.TRACK_TYPE_VIDEO);
+
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 100);
+    trackOutput.sampleData(new ParsableByteArray(20), /* length= */ 20);
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 200);
+    trackOutput.sampleData(new ParsableByteArray(20), /* length= */ 20);
+    // A key frame starting in the data output in the first read.
+    trackOutput.sampleMetadata(
+        /* timeUs= */ 3_000_000, C.BUFFER_FLAG_KEY_FRAME, /* size= */ 30, /* offset= */ 10, null);
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 300);
+    trackOutput.sampleData(new ParsableByteArray(20), /* length= */ 20);
+    trackOutput.sampleMetadata(
+        /* timeUs= */ 4_000_000, /* flags= */ 0, /* size= */ 20, /* offset= */ 10, null);
+    // A key frame starting in the data output in the third read.
+    trackOutput.sampleMetadata(
+        /* timeUs= */ 6_000_000, C.BUFFER_FLAG_KEY_FRAME, /* size= */ 10, /* offset= */ 0, null);
+    SeekIndex seekIndex = seekIndexRecorder.getSeekIndex(/* seekIndex= */ null);
+
+    assertThat(seekIndexRecorder.hasNewSeekPoints()).isTrue();
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(2);
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 5_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 3_000_000, /* position= */ 95));
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 6_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 6_000_000, /* position= */ 295));
+    FakeTrackOutput fakeTrackOutput = extractorOutput.trackOutputs.get(0);
+    assertThat(fakeTrackOutput.getSampleCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void getSeekIndex_withVideoTrack_usesKeyFramesOfVideoTrack() {
+    SeekIndexRecorder seekIndexRecorder =
+        new SeekIndexRecorder(new FakeExtractorOutput(), /* maxBufferedInputBytes= */ 0);
+    TrackOutput audioTrackOutput = createTrack(seekIndexRecorder, /* id= */ 0, C.TRACK_TYPE_AUDIO);
+    TrackOutput videoTrackOutput = createTrack(seekIndexRecorder, /* id= */ 1, C.TRACK_TYPE_VIDEO);
+
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 100);
+    audioTrackOutput.sampleData(new ParsableByteArray(10), /* length= */ 10);
+    audioTrackOutput.sampleMetadata(
+        /* timeUs= */ 2_500_000, C.BUFFER_FLAG_KEY_FRAME, /* size= */ 10, /* offset= */ 0, null);
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 200);
+    videoTrackOutput.sampleData(new ParsableByteArray(10), /* length= */ 10);
+    videoTrackOutput.sampleMetadata(
+        /* timeUs= */ 3_000_000, C.BUFFER_FLAG_KEY_FRAME, /* size= */ 10, /* offset= */ 0, null);
+    SeekIndex seekIndex = seekIndexRecorder.getSeekIndex(/* seekIndex= */ null);
+
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(1);
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 3_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 3_000_000, /* position= */ 200));
+  }
+
+  @Test
+  public void getSeekIndex_withExistingIndex_mergesSeekPointsAndSetsDuration() {
+    SeekIndex existingSeekIndex =
+        new SeekIndex.Builder().addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 100).build();
+    SeekIndexRecorder seekIndexRecorder =
+        new SeekIndexRecorder(new FakeExtractorOutput(), /* maxBufferedInputBytes= */ 0);
+    TrackOutput trackOutput = createTrack(seekIndexRecorder, /* id= */ 0, C.TRACK_TYPE_VIDEO);
+    seekIndexRecorder.seekMap(new SeekMap.Unseekable(/* durationUs= */ 10_000_000));
+
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 600);
+    trackOutput.sampleData(new ParsableByteArray(10), /* length= */ 10);
+    trackOutput.sampleMetadata(
+        /* timeUs= */ 6_000_000, C.BUFFER_FLAG_KEY_FRAME, /* size= */ 10, /* offset= */ 0, null);
+    SeekIndex seekIndex = seekIndexRecorder.getSeekIndex(existingSeekIndex);
+
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(2);
+    assertThat(seekIndex.getDurationUs()).isEqualTo(10_000_000);
+    assertThat(seekIndex.isComplete()).isTrue();
+  }
+
+  @Test
+  public void hasNewSeekPoints_withoutKeyFrames_returnsFalse() {
+    SeekIndexRecorder seekIndexRecorder =
+        new SeekIndexRecorder(new FakeExtractorOutput(), /* maxBufferedInputBytes= */ 0);
+    TrackOutput trackOutput = createTrack(seekIndexRecorder, /* id= */ 0, C.TRACK_TYPE_VIDEO);
+
+    seekIndexRecorder.onReadStarting(/* inputPosition= */ 0);
+    trackOutput.sampleData(new ParsableByteArray(10), /* length= */ 10);
+    trackOutput.sampleMetadata(
+        /* timeUs= */ 6_000_000, /* flags= */ 0, /* size= */ 10, /* offset= */ 0, null);
+
+    assertThat(seekIndexRecorder.hasNewSeekPoints()).isFalse();
+  }
+
+  private static TrackOutput createTrack(
+      SeekIndexRecorder seekIndexRecorder, int id, @C.TrackType int type) {
+    TrackOutput trackOutput = seekIndexRecorder.track(id, type);
+    trackOutput.format(new Format.Builder().build());
+    return trackOutput;
+  }
+}
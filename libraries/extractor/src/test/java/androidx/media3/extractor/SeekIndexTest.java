@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SeekIndex}. */
+@RunWith(AndroidJUnit4.class)
+public final class SeekIndexTest {
+
+  @Test
+  public void builder_ignoresSeekPointsTooCloseToExistingSeekPoints() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000)
+            .addSeekPoint(/* timeUs= */ 4_000_000, /* position= */ 4_000)
+            .addSeekPoint(/* timeUs= */ 2_000_000, /* position= */ 2_000)
+            .addSeekPoint(/* timeUs= */ 6_000_000, /* position= */ 6_000)
+            .build();
+
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(2);
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 5_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000));
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 6_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 6_000_000, /* position= */ 6_000));
+  }
+
+  @Test
+  public void builder_ignoresSeekPointsWithInconsistentPositions() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000)
+            .addSeekPoint(/* timeUs= */ 9_000_000, /* position= */ 9_000)
+            .addSeekPoint(/* timeUs= */ 6_000_000, /* position= */ 10_000)
+            .addSeekPoint(/* timeUs= */ 12_000_000, /* position= */ 1_000)
+            .build();
+
+    assertThat(seekIndex.getSeekPointCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void getSeekPoint_beforeFirstSeekPoint_returnsStart() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000)
+            .build();
+
+    assertThat(seekIndex.getSeekPoint(/* timeUs= */ 2_999_999)).isEqualTo(SeekPoint.START);
+  }
+
+  @Test
+  public void covers_onlyTimesBetweenCloseSeekPoints() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 4_000_000, /* position= */ 4_000)
+            .addSeekPoint(/* timeUs= */ 8_000_000, /* position= */ 8_000)
+            .addSeekPoint(/* timeUs= */ 20_000_000, /* position= */ 20_000)
+            .setDurationUs(30_000_000)
+            .build();
+
+    assertThat(seekIndex.covers(/* timeUs= */ 0)).isTrue();
+    assertThat(seekIndex.covers(/* timeUs= */ 6_000_000)).isTrue();
+    assertThat(seekIndex.covers(/* timeUs= */ 10_000_000)).isFalse();
+    assertThat(seekIndex.covers(/* timeUs= */ 25_000_000)).isFalse();
+    assertThat(seekIndex.isComplete()).isFalse();
+  }
+
+  @Test
+  public void isComplete_withCloseSeekPointsUntilDuration_returnsTrue() {
+    SeekIndex.Builder builder = new SeekIndex.Builder().setDurationUs(21_000_000);
+    for (long timeUs = 4_000_000; timeUs <= 20_000_000; timeUs += 4_000_000) {
+      builder.addSeekPoint(timeUs, /* position= */ timeUs / 1_000);
+    }
+    SeekIndex seekIndex = builder.build();
+
+    assertThat(seekIndex.isComplete()).isTrue();
+    assertThat(seekIndex.covers(/* timeUs= */ 21_000_000)).isTrue();
+    assertThat(seekIndex.covers(/* timeUs= */ 21_000_001)).isFalse();
+  }
+
+  @Test
+  public void isComplete_withUnknownDuration_returnsFalse() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 4_000_000, /* position= */ 4_000)
+            .setDurationUs(C.TIME_UNSET)
+            .build();
+
+    assertThat(seekIndex.isComplete()).isFalse();
+    assertThat(seekIndex.covers(/* timeUs= */ 5_000_000)).isFalse();
+  }
+
+  @Test
+  public void fromByteArray_withSerializedIndex_returnsEqualIndex() {
+    SeekIndex.Builder builder = new SeekIndex.Builder().setDurationUs(7_200_000_001L);
+    for (long timeUs = 2_002_000; timeUs < 7_200_000_000L; timeUs += 2_002_000) {
+      builder.addSeekPoint(timeUs, /* position= */ timeUs * 3 + 188);
+    }
+    SeekIndex seekIndex = builder.build();
+
+    byte[] data = seekIndex.toByteArray();
+
+    assertThat(SeekIndex.fromByteArray(data)).isEqualTo(seekIndex);
+    // The deltas between seek points fit in a few bytes each.
+    assertThat(data.length).isLessThan(seekIndex.getSeekPointCount() * 8);
+  }
+
+  @Test
+  public void fromByteArray_withUnknownDuration_returnsEqualIndex() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder().addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 0).build();
+
+    assertThat(SeekIndex.fromByteArray(seekIndex.toByteArray())).isEqualTo(seekIndex);
+  }
+
+  @Test
+  public void fromByteArray_withInvalidData_returnsNull() {
+    byte[] data =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000)
+            .addSeekPoint(/* timeUs= */ 6_000_000, /* position= */ 6_000)
+            .setDurationUs(10_000_000)
+            .build()
+            .toByteArray();
+    byte[] truncatedData = new byte[data.length - 1];
+    System.arraycopy(data, 0, truncatedData, 0, truncatedData.length);
+    byte[] unknownVersionData = data.clone();
+    unknownVersionData[0] = 0x7F;
+
+    assertThat(SeekIndex.fromByteArray(truncatedData)).isNull();
+    assertThat(SeekIndex.fromByteArray(unknownVersionData)).isNull();
+    assertThat(SeekIndex.fromByteArray(new byte[0])).isNull();
+  }
+
+  @Test
+  public void toSeekMap_returnsSeekPointsOfIndex() {
+    SeekIndex seekIndex =
+        new SeekIndex.Builder()
+            .addSeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000)
+            .addSeekPoint(/* timeUs= */ 6_000_000, /* position= */ 6_000)
+            .setDurationUs(10_000_000)
+            .build();
+
+    SeekMap seekMap = seekIndex.toSeekMap();
+
+    assertThat(seekMap.getDurationUs()).isEqualTo(10_000_000);
+    assertThat(seekMap.getSeekPoints(/* timeUs= */ 4_000_000).first)
+        .isEqualTo(new SeekPoint(/* timeUs= */ 3_000_000, /* position= */ 3_000));
+    assertThat(seekMap.getSeekPoints(/* timeUs= */ 1_000_000).first).isEqualTo(SeekPoint.START);
+  }
+}
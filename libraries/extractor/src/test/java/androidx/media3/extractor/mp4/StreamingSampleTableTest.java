@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.container.Mp4Box;
+import androidx.media3.extractor.GaplessInfoHolder;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link StreamingSampleTable}. */
+@RunWith(AndroidJUnit4.class)
+public final class StreamingSampleTableTest {
+
+  private static final int SAMPLE_COUNT = StreamingSampleTable.SAMPLES_PER_WINDOW * 2 + 1000;
+  private static final int SYNC_SAMPLE_INTERVAL = 30;
+  private static final long TIMESCALE = 30_000;
+
+  @Test
+  public void create_matchesParsedTrackSampleTable() throws Exception {
+    Track track = createVideoTrack(/* editListDurations= */ null);
+    Mp4Box.ContainerBox stbl = createStbl(SAMPLE_COUNT, /* syncSamples= */ true);
+
+    StreamingSampleTable streamingSampleTable = StreamingSampleTable.create(track, stbl);
+    TrackSampleTable trackSampleTable =
+        BoxParser.parseStbl(track, createStbl(SAMPLE_COUNT, true), new GaplessInfoHolder());
+
+    assertThat(streamingSampleTable).isNotNull();
+    assertThat(streamingSampleTable.getSampleCount()).isEqualTo(trackSampleTable.sampleCount);
+    assertThat(streamingSampleTable.getMaximumSize()).isEqualTo(trackSampleTable.maximumSize);
+    assertThat(streamingSampleTable.getDurationUs()).isEqualTo(trackSampleTable.durationUs);
+    assertThat(streamingSampleTable.getTimestampsUs()).isEqualTo(trackSampleTable.timestampsUs);
+    // Access the samples in reverse, so that every access to a new window decodes it.
+    for (int i = SAMPLE_COUNT - 1; i >= 0; i--) {
+      assertThat(streamingSampleTable.getOffset(i)).isEqualTo(trackSampleTable.offsets[i]);
+      assertThat(streamingSampleTable.getSize(i)).isEqualTo(trackSampleTable.sizes[i]);
+      assertThat(streamingSampleTable.getTimestampUs(i))
+          .isEqualTo(trackSampleTable.timestampsUs[i]);
+      assertThat(streamingSampleTable.getFlags(i)).isEqualTo(trackSampleTable.flags[i]);
+    }
+  }
+
+  @Test
+  public void getSynchronizationSampleIndices_matchParsedTrackSampleTable() throws Exception {
+    Track track = createVideoTrack(/* editListDurations= */ null);
+    StreamingSampleTable streamingSampleTable =
+        StreamingSampleTable.create(track, createStbl(SAMPLE_COUNT, /* syncSamples= */ true));
+    TrackSampleTable trackSampleTable =
+        BoxParser.parseStbl(track, createStbl(SAMPLE_COUNT, true), new GaplessInfoHolder());
+    long durationUs = trackSampleTable.durationUs;
+
+    for (long timeUs = -1_000; timeUs < durationUs + 1_000_000; timeUs += 3_001) {
+      assertThat(streamingSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertThat(streamingSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+    for (int i = 0; i < SAMPLE_COUNT; i += 7) {
+      long timeUs = trackSampleTable.timestampsUs[i];
+      assertThat(streamingSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertThat(streamingSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+  }
+
+  @Test
+  public void create_withoutStss_marksAllSamplesAsSynchronizationSamples() throws Exception {
+    Track track = createVideoTrack(/* editListDurations= */ null);
+
+    StreamingSampleTable streamingSampleTable =
+        StreamingSampleTable.create(track, createStbl(SAMPLE_COUNT, /* syncSamples= */ false));
+
+    assertThat(streamingSampleTable).isNotNull();
+    assertThat(streamingSampleTable.getFlags(SAMPLE_COUNT / 2))
+        .isEqualTo(C.BUFFER_FLAG_KEY_FRAME);
+    assertThat(streamingSampleTable.getFlags(SAMPLE_COUNT - 1))
+        .isEqualTo(C.BUFFER_FLAG_KEY_FRAME | C.BUFFER_FLAG_LAST_SAMPLE);
+  }
+
+  @Test
+  public void create_withEditList_returnsNull() throws Exception {
+    Track track = createVideoTrack(/* editListDurations= */ new long[] {1_000});
+
+    assertThat(StreamingSampleTable.create(track, createStbl(SAMPLE_COUNT, true))).isNull();
+  }
+
+  @Test
+  public void create_withFewSamples_returnsNull() throws Exception {
+    Track track = createVideoTrack(/* editListDurations= */ null);
+    Mp4Box.ContainerBox stbl =
+        createStbl(StreamingSampleTable.SAMPLES_PER_WINDOW, /* syncSamples= */ true);
+
+    assertThat(StreamingSampleTable.create(track, stbl)).isNull();
+  }
+
+  private static Track createVideoTrack(@Nullable long[] editListDurations) {
+    return new Track(
+        /* id= */ 1,
+        C.TRACK_TYPE_VIDEO,
+        TIMESCALE,
+        /* movieTimescale= */ 1_000,
+        /* durationUs= */ C.TIME_UNSET,
+        /* mediaDurationUs= */ SAMPLE_COUNT * 1_000_000L / 30,
+        new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build(),
+        Track.TRANSFORMATION_NONE,
+        /* sampleDescriptionEncryptionBoxes= */ null,
+        /* nalUnitLengthFieldLength= */ 4,
+        editListDurations,
+        /* editListMediaTimes= */ editListDurations != null ? new long[] {0} : null);
+  }
+
+  /**
+   * Returns an stbl box for a video track with the given number of samples, with pseudo-random
+   * sample sizes, chunking, sample durations and composition time offsets.
+   */
+  private static Mp4Box.ContainerBox createStbl(int sampleCount, boolean syncSamples) {
+    Random random = new Random(/* seed= */ 0);
+
+    ByteBuffer stsz = createFullBox(Mp4Box.TYPE_stsz, 8 + 4 * sampleCount);
+    stsz.putInt(0).putInt(sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      stsz.putInt(i % SYNC_SAMPLE_INTERVAL == 0 ? 20_000 + random.nextInt(10_000) : 1 + i % 500);
+    }
+
+    // Chunks of 3 samples, followed by chunks of 7 samples, and a final partial chunk.
+    int firstChunksSampleCount = 3;
+    int firstChunkCount = 100;
+    int laterChunksSampleCount = 7;
+    int chunkCount =
+        firstChunkCount
+            + (sampleCount - firstChunkCount * firstChunksSampleCount + laterChunksSampleCount - 1)
+                / laterChunksSampleCount;
+    ByteBuffer stsc = createFullBox(Mp4Box.TYPE_stsc, 4 + 2 * 12);
+    stsc.putInt(2);
+    stsc.putInt(1).putInt(firstChunksSampleCount).putInt(1);
+    stsc.putInt(firstChunkCount + 1).putInt(laterChunksSampleCount).putInt(1);
+    ByteBuffer co64 = createFullBox(Mp4Box.TYPE_co64, 4 + 8 * chunkCount);
+    co64.putInt(chunkCount);
+    long chunkOffset = 1L << 32;
+    for (int i = 0; i < chunkCount; i++) {
+      co64.putLong(chunkOffset);
+      chunkOffset += 1_000_000 + random.nextInt(1_000);
+    }
+
+    // Sample durations change every 1000 samples.
+    int sttsEntryCount = (sampleCount + 999) / 1000;
+    ByteBuffer stts = createFullBox(Mp4Box.TYPE_stts, 4 + 8 * sttsEntryCount);
+    stts.putInt(sttsEntryCount);
+    for (int i = 0; i < sttsEntryCount; i++) {
+      stts.putInt(Math.min(1000, sampleCount - i * 1000)).putInt(i % 2 == 0 ? 1001 : 1000);
+    }
+
+    // Composition time offsets increase every 100 samples. The offsets keep the timestamps sorted,
+    // as searching unsorted timestamps for synchronization samples is only approximate.
+    int cttsEntryCount = (sampleCount + 99) / 100;
+    ByteBuffer ctts = createFullBox(Mp4Box.TYPE_ctts, 4 + 8 * cttsEntryCount);
+    ctts.putInt(cttsEntryCount);
+    for (int i = 0; i < cttsEntryCount; i++) {
+      ctts.putInt(Math.min(100, sampleCount - i * 100)).putInt(i * 10);
+    }
+
+    Mp4Box.ContainerBox stbl = new Mp4Box.ContainerBox(Mp4Box.TYPE_stbl, /* endPosition= */ 0);
+    stbl.add(createLeafBox(Mp4Box.TYPE_stsz, stsz));
+    stbl.add(createLeafBox(Mp4Box.TYPE_stsc, stsc));
+    stbl.add(createLeafBox(Mp4Box.TYPE_co64, co64));
+    stbl.add(createLeafBox(Mp4Box.TYPE_stts, stts));
+    stbl.add(createLeafBox(Mp4Box.TYPE_ctts, ctts));
+    if (syncSamples) {
+      int syncSampleCount = (sampleCount + SYNC_SAMPLE_INTERVAL - 1) / SYNC_SAMPLE_INTERVAL;
+      ByteBuffer stss = createFullBox(Mp4Box.TYPE_stss, 4 + 4 * syncSampleCount);
+      stss.putInt(syncSampleCount);
+      for (int i = 0; i < syncSampleCount; i++) {
+        stss.putInt(i * SYNC_SAMPLE_INTERVAL + 1);
+      }
+      stbl.add(createLeafBox(Mp4Box.TYPE_stss, stss));
+    }
+    return stbl;
+  }
+
+  private static ByteBuffer createFullBox(int type, int payloadSize) {
+    int size = Mp4Box.FULL_HEADER_SIZE + payloadSize;
+    return ByteBuffer.allocate(size).putInt(size).putInt(type).putInt(/* versionAndFlags= */ 0);
+  }
+
+  private static Mp4Box.LeafBox createLeafBox(int type, ByteBuffer data) {
+    return new Mp4Box.LeafBox(type, new ParsableByteArray(data.array()));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.ts;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.media3.common.ParserException;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.common.util.Util;
+import androidx.media3.extractor.ExtractorOutput;
+import androidx.media3.test.utils.FakeExtractorOutput;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link BatchingElementaryStreamReader}. */
+@RunWith(AndroidJUnit4.class)
+public final class BatchingElementaryStreamReaderTest {
+
+  @Test
+  public void consumeBatch_passesRecordedCallsInOrder() throws Exception {
+    RecordingElementaryStreamReader reader = new RecordingElementaryStreamReader();
+    BatchingElementaryStreamReader batchingReader =
+        new BatchingElementaryStreamReader(reader, /* worker= */ 0);
+
+    batchingReader.packetStarted(
+        /* pesTimeUs= */ 1_000, TsPayloadReader.FLAG_RANDOM_ACCESS_INDICATOR);
+    batchingReader.consume(new ParsableByteArray(TestUtil.createByteArray(1, 2, 3)));
+    batchingReader.consume(new ParsableByteArray(TestUtil.createByteArray(4, 5)));
+    batchingReader.packetFinished(/* isEndOfInput= */ false);
+    batchingReader.seek();
+    batchingReader.packetStarted(/* pesTimeUs= */ 2_000, /* flags= */ 0);
+    batchingReader.consume(new ParsableByteArray(TestUtil.createByteArray(6)));
+    batchingReader.packetFinished(/* isEndOfInput= */ true);
+
+    assertThat(batchingReader.hasBatch()).isTrue();
+    assertThat(reader.calls).isEmpty();
+
+    batchingReader.consumeBatch();
+
+    assertThat(batchingReader.hasBatch()).isFalse();
+    assertThat(reader.calls)
+        .containsExactly(
+            "packetStarted(1000, " + TsPayloadReader.FLAG_RANDOM_ACCESS_INDICATOR + ")",
+            "consume(010203)",
+            "consume(0405)",
+            "packetFinished(false)",
+            "seek",
+            "packetStarted(2000, 0)",
+            "consume(06)",
+            "packetFinished(true)")
+        .inOrder();
+  }
+
+  @Test
+  public void consume_consumesAllDataWithoutPassingItToReader() throws Exception {
+    RecordingElementaryStreamReader reader = new RecordingElementaryStreamReader();
+    BatchingElementaryStreamReader batchingReader =
+        new BatchingElementaryStreamReader(reader, /* worker= */ 0);
+    ParsableByteArray data = new ParsableByteArray(new byte[10_000]);
+
+    batchingReader.consume(data);
+
+    assertThat(data.bytesLeft()).isEqualTo(0);
+    assertThat(reader.calls).isEmpty();
+    batchingReader.consumeBatch();
+    assertThat(reader.calls).hasSize(1);
+  }
+
+  @Test
+  public void createTracks_isPassedImmediately() {
+    RecordingElementaryStreamReader reader = new RecordingElementaryStreamReader();
+    BatchingElementaryStreamReader batchingReader =
+        new BatchingElementaryStreamReader(reader, /* worker= */ 0);
+
+    batchingReader.createTracks(
+        new FakeExtractorOutput(),
+        new PesReader.TrackIdGenerator(/* firstTrackId= */ 0, /* trackIdIncrement= */ 1));
+
+    assertThat(reader.calls).containsExactly("createTracks");
+  }
+
+  @Test
+  public void consumeBatch_readerThrows_discardsRestOfBatch() throws Exception {
+    RecordingElementaryStreamReader reader = new RecordingElementaryStreamReader();
+    reader.failOnConsume = true;
+    BatchingElementaryStreamReader batchingReader =
+        new BatchingElementaryStreamReader(reader, /* worker= */ 0);
+    batchingReader.consume(new ParsableByteArray(TestUtil.createByteArray(1)));
+    batchingReader.packetFinished(/* isEndOfInput= */ false);
+
+    assertThrows(ParserException.class, batchingReader::consumeBatch);
+
+    assertThat(batchingReader.hasBatch()).isFalse();
+    assertThat(reader.calls).isEmpty();
+  }
+
+  private static final class RecordingElementaryStreamReader implements ElementaryStreamReader {
+
+    private final List<String> calls;
+    private boolean failOnConsume;
+
+    public RecordingElementaryStreamReader() {
+      calls = new ArrayList<>();
+    }
+
+    @Override
+    public void seek() {
+      calls.add("seek");
+    }
+
+    @Override
+    public void createTracks(
+        ExtractorOutput extractorOutput, PesReader.TrackIdGenerator idGenerator) {
+      calls.add("createTracks");
+    }
+
+    @Override
+    public void packetStarted(long pesTimeUs, @TsPayloadReader.Flags int flags) {
+      calls.add("packetStarted(" + pesTimeUs + ", " + flags + ")");
+    }
+
+    @Override
+    public void consume(ParsableByteArray data) throws ParserException {
+      if (failOnConsume) {
+        throw ParserException.createForMalformedContainer(/* message= */ null, /* cause= */ null);
+      }
+      byte[] bytes = new byte[data.bytesLeft()];
+      data.readBytes(bytes, /* offset= */ 0, bytes.length);
+      calls.add("consume(" + Util.toHexString(bytes) + ")");
+    }
+
+    @Override
+    public void packetFinished(boolean isEndOfInput) {
+      calls.add("packetFinished(" + isEndOfInput + ")");
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static androidx.media3.extractor.mp4.FragmentedMp4Extractor.FLAG_EMIT_RAW
 import static androidx.media3.extractor.ts.DefaultTsPayloadReaderFactory.FLAG_DETECT_ACCESS_UNITS;
 import static androidx.media3.extractor.ts.DefaultTsPayloadReaderFactory.FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS;
 import static androidx.media3.extractor.ts.TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES;
+import static androidx.media3.extractor.ts.TsExtractor.FLAG_ENABLE_PARALLEL_DEMUXING;
 import static androidx.media3.extractor.ts.TsExtractor.MODE_MULTI_PMT;
 import static androidx.media3.extractor.ts.TsExtractor.MODE_SINGLE_PMT;
 import static com.google.common.truth.Truth.assertThat;
@@ -37,6 +38,7 @@ import androidx.media3.extractor.text.DefaultSubtitleParserFactory;
 import androidx.media3.extractor.text.SubtitleParser;
 import androidx.media3.extractor.ts.TsPayloadReader.EsInfo;
 import androidx.media3.extractor.ts.TsPayloadReader.TrackIdGenerator;
+import androidx.media3.test.utils.Dumper;
 import androidx.media3.test.utils.ExtractorAsserts;
 import androidx.media3.test.utils.FakeExtractorInput;
 import androidx.media3.test.utils.FakeExtractorOutput;
@@ -79,6 +81,19 @@ public final class TsExtractorTest {
         simulationConfig);
   }
 
+  @Test
+  public void sampleWithH262AndMpegAudio_withParallelDemuxing() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        getExtractorFactory(
+            subtitlesParsedDuringExtraction,
+            MODE_SINGLE_PMT,
+            new TimestampAdjuster(0),
+            new DefaultTsPayloadReaderFactory(0),
+            FLAG_ENABLE_PARALLEL_DEMUXING),
+        "media/ts/sample_h262_mpeg_audio.ts",
+        simulationConfig);
+  }
+
   @Test
   public void sampleWithH263() throws Exception {
     ExtractorAsserts.assertBehavior(
@@ -111,6 +126,19 @@ public final class TsExtractorTest {
         simulationConfig);
   }
 
+  @Test
+  public void sampleWithH264AndMpegAudio_withParallelDemuxing() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        getExtractorFactory(
+            subtitlesParsedDuringExtraction,
+            MODE_SINGLE_PMT,
+            new TimestampAdjuster(0),
+            new DefaultTsPayloadReaderFactory(0),
+            FLAG_ENABLE_PARALLEL_DEMUXING),
+        "media/ts/sample_h264_mpeg_audio.ts",
+        simulationConfig);
+  }
+
   @Test
   public void sampleWithH264NoAccessUnitDelimiters() throws Exception {
     ExtractorAsserts.assertBehavior(
@@ -365,6 +393,20 @@ public final class TsExtractorTest {
         simulationConfig);
   }
 
+  @Test
+  public void sampleWithMultiplePrograms_withParallelDemuxing_outputsSameAsSerialDemuxing()
+      throws Exception {
+    byte[] data =
+        TestUtil.getByteArray(
+            ApplicationProvider.getApplicationContext(), "media/ts/sample_multi_program.ts");
+
+    FakeExtractorOutput serialOutput = extractAllSamples(data, /* additionalFlags= */ 0);
+    FakeExtractorOutput parallelOutput = extractAllSamples(data, FLAG_ENABLE_PARALLEL_DEMUXING);
+
+    assertThat(serialOutput.numberOfTracks).isEqualTo(5);
+    assertThat(dump(parallelOutput)).isEqualTo(dump(serialOutput));
+  }
+
   @Test
   public void customPesReader() throws Exception {
     CustomTsPayloadReaderFactory factory = new CustomTsPayloadReaderFactory(true, false);
@@ -441,6 +483,47 @@ public final class TsExtractorTest {
     assertThat(factory.sdtReader.consumedSdts).isEqualTo(2);
   }
 
+  private FakeExtractorOutput extractAllSamples(
+      byte[] data, @TsExtractor.Flags int additionalFlags) throws Exception {
+    Extractor extractor =
+        getExtractorFactory(
+                subtitlesParsedDuringExtraction,
+                MODE_MULTI_PMT,
+                new TimestampAdjuster(0),
+                new DefaultTsPayloadReaderFactory(0),
+                additionalFlags)
+            .create();
+    FakeExtractorInput input =
+        new FakeExtractorInput.Builder()
+            .setData(data)
+            .setSimulateIOErrors(simulationConfig.simulateIOErrors)
+            .setSimulateUnknownLength(simulationConfig.simulateUnknownLength)
+            .setSimulatePartialReads(simulationConfig.simulatePartialReads)
+            .build();
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    extractor.init(output);
+    PositionHolder seekPositionHolder = new PositionHolder();
+    int readResult = Extractor.RESULT_CONTINUE;
+    while (readResult != Extractor.RESULT_END_OF_INPUT) {
+      try {
+        readResult = extractor.read(input, seekPositionHolder);
+        if (readResult == Extractor.RESULT_SEEK) {
+          input.setPosition((int) seekPositionHolder.position);
+        }
+      } catch (FakeExtractorInput.SimulatedIOException e) {
+        // Continue from the current position.
+      }
+    }
+    extractor.release();
+    return output;
+  }
+
+  private static String dump(FakeExtractorOutput output) {
+    Dumper dumper = new Dumper();
+    output.dump(dumper);
+    return dumper.toString();
+  }
+
   private static ExtractorAsserts.ExtractorFactory getExtractorFactory(
       boolean subtitlesParsedDuringExtraction) {
     return getExtractorFactory(
@@ -455,14 +538,28 @@ public final class TsExtractorTest {
       @TsExtractor.Mode int mode,
       TimestampAdjuster timestampAdjuster,
       TsPayloadReader.Factory payloadReaderFactory) {
+    return getExtractorFactory(
+        subtitlesParsedDuringExtraction,
+        mode,
+        timestampAdjuster,
+        payloadReaderFactory,
+        /* additionalFlags= */ 0);
+  }
+
+  private static ExtractorAsserts.ExtractorFactory getExtractorFactory(
+      boolean subtitlesParsedDuringExtraction,
+      @TsExtractor.Mode int mode,
+      TimestampAdjuster timestampAdjuster,
+      TsPayloadReader.Factory payloadReaderFactory,
+      @TsExtractor.Flags int additionalFlags) {
     SubtitleParser.Factory subtitleParserFactory;
     @TsExtractor.Flags int flags;
     if (subtitlesParsedDuringExtraction) {
       subtitleParserFactory = new DefaultSubtitleParserFactory();
-      flags = 0;
+      flags = additionalFlags;
     } else {
       subtitleParserFactory = SubtitleParser.Factory.UNSUPPORTED;
-      flags = FLAG_EMIT_RAW_SUBTITLE_DATA;
+      flags = FLAG_EMIT_RAW_SUBTITLE_DATA | additionalFlags;
     }
     return () ->
         new TsExtractor(
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.test.utils;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheEvictor;
+import androidx.media3.datasource.cache.CacheSpan;
+import androidx.media3.datasource.cache.SimpleCache;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays cache access traces against a {@link SimpleCache}, to compare the hit ratios achieved by
+ * {@link CacheEvictor} implementations.
+ *
+ * <p>Each {@link Access} is a hit if all of the requested data is cached, in which case the cached
+ * spans are read (and touched). Otherwise the missing data is written to the cache, as it would be
+ * by a {@link androidx.media3.datasource.cache.CacheDataSource} reading through the cache. Cache
+ * files are allocated without writing their content, so traces with large accesses can be replayed
+ * quickly.
+ *
+ * <p>In text form, each line of a trace contains the cache key, position and length of an access,
+ * separated by commas or whitespace. Empty lines and lines starting with {@code #} are ignored.
+ */
+@UnstableApi
+public final class CacheTraceReplayer {
+
+  /** An access to a range of cached data. */
+  public static final class Access {
+
+    /** The cache key. */
+    public final String key;
+
+    /** The position of the data. */
+    public final long position;
+
+    /** The length of the data. */
+    public final long length;
+
+    public Access(String key, long position, long length) {
+      checkArgument(position >= 0 && length > 0);
+      this.key = key;
+      this.position = position;
+      this.length = length;
+    }
+  }
+
+  /** The result of replaying a trace. */
+  public static final class Result {
+
+    /** The number of accesses. */
+    public final int requestCount;
+
+    /** The number of accesses whose data was fully cached. */
+    public final int hitCount;
+
+    /** The total number of bytes accessed. */
+    public final long requestedBytes;
+
+    /** The number of accessed bytes that were cached. */
+    public final long hitBytes;
+
+    private Result(int requestCount, int hitCount, long requestedBytes, long hitBytes) {
+      this.requestCount = requestCount;
+      this.hitCount = hitCount;
+      this.requestedBytes = requestedBytes;
+      this.hitBytes = hitBytes;
+    }
+
+    /** Returns the fraction of accesses whose data was fully cached. */
+    public double getHitRatio() {
+      return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    /** Returns the fraction of accessed bytes that were cached. */
+    public double getByteHitRatio() {
+      return requestedBytes == 0 ? 0 : (double) hitBytes / requestedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "requests=%d, hitRatio=%.4f, byteHitRatio=%.4f",
+          requestCount,
+          getHitRatio(),
+          getByteHitRatio());
+    }
+  }
+
+  private CacheTraceReplayer() {}
+
+  /**
+   * Parses a trace in text form.
+   *
+   * @param reader A {@link Reader} from which to read the trace.
+   * @return The accesses in the trace.
+   * @throws IOException If an error occurs reading the trace, or if it's malformed.
+   */
+  public static ImmutableList<Access> parseTrace(Reader reader) throws IOException {
+    ImmutableList.Builder<Access> trace = ImmutableList.builder();
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    Splitter splitter = Splitter.onPattern("[,\\s]+").omitEmptyStrings().trimResults();
+    String line;
+    int lineNumber = 0;
+    while ((line = bufferedReader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      List<String> fields = splitter.splitToList(line);
+      if (fields.size() != 3) {
+        throw new IOException("Malformed trace line " + lineNumber + ": " + line);
+      }
+      try {
+        trace.add(
+            new Access(fields.get(0), Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2))));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed trace line " + lineNumber + ": " + line, e);
+      }
+    }
+    return trace.build();
+  }
+
+  /**
+   * Replays a trace against a new {@link SimpleCache} that uses the given evictor.
+   *
+   * @param trace The accesses to replay.
+   * @param evictor The {@link CacheEvictor} to use. Must not be used by another cache.
+   * @param cacheDir An empty directory for the cache. The cache is deleted after the trace has been
+   *     replayed.
+   * @param databaseProvider The {@link DatabaseProvider} for the cache index.
+   * @return The {@link Result}.
+   * @throws IOException If an error occurs accessing the cache.
+   */
+  public static Result replay(
+      List<Access> trace, CacheEvictor evictor, File cacheDir, DatabaseProvider databaseProvider)
+      throws IOException {
+    SimpleCache cache = new SimpleCache(cacheDir, evictor, databaseProvider);
+    try {
+      int hitCount = 0;
+      long requestedBytes = 0;
+      long hitBytes = 0;
+      for (int i = 0; i < trace.size(); i++) {
+        Access access = trace.get(i);
+        long cachedBytes = cache.getCachedBytes(access.key, access.position, access.length);
+        requestedBytes += access.length;
+        hitBytes += cachedBytes;
+        if (cachedBytes == access.length) {
+          hitCount++;
+        }
+        readThrough(cache, access);
+      }
+      return new Result(trace.size(), hitCount, requestedBytes, hitBytes);
+    } finally {
+      cache.release();
+      SimpleCache.delete(cacheDir, databaseProvider);
+    }
+  }
+
+  /** Reads the cached parts of an access, and writes the parts that aren't cached. */
+  private static void readThrough(Cache cache, Access access) throws IOException {
+    long position = access.position;
+    long endPosition = access.position + access.length;
+    while (position < endPosition) {
+      CacheSpan span =
+          checkNotNull(
+              cache.startReadWriteNonBlocking(access.key, position, endPosition - position));
+      if (span.isCached) {
+        position = span.position + span.length;
+        continue;
+      }
+      long length =
+          span.isOpenEnded() ? endPosition - position : min(span.length, endPosition - position);
+      try {
+        File file = cache.startFile(access.key, position, length);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+          randomAccessFile.setLength(length);
+        }
+        cache.commitFile(file, length);
+      } finally {
+        cache.releaseHoleSpan(span);
+      }
+      position += length;
+    }
+  }
+}